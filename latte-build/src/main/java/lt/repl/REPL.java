@@ -24,7 +24,9 @@
 
 package lt.repl;
 
+import lt.compiler.PackageIndex;
 import lt.compiler.SyntaxException;
+import lt.compiler.TypeMetadataCache;
 import lt.repl.scripting.Config;
 import lt.repl.scripting.EvalEntry;
 import lt.util.Utils;
@@ -38,6 +40,7 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 /**
  * repl
@@ -51,6 +54,11 @@ public class REPL {
         }
 
         public static void main(String[] args) throws Exception {
+                // persist the JRE package index and the type metadata
+                File latteHome = CompilerDaemon.DAEMON_FILE.getParentFile();
+                PackageIndex.setPersistentDirectory(latteHome);
+                TypeMetadataCache.setDirectory(new File(latteHome, "types"));
+
                 if (args != null && args.length != 0) {
                         runCommands(args);
                 } else {
@@ -210,6 +218,7 @@ public class REPL {
                                 "       -c <source-directory> [-r] [-o <output-directory>] [-cp <classpath[:...]>]\n" +
                                 "       ClassName [-cp <classpath[:...]>]\n" +
                                 "       -gb <project-directory>\n" +
+                                "       -daemon [port | stop]\n" +
                                 "       -repl\n" +
                                 "       -v | -version\n" +
                                 "       -e <statements>\n" +
@@ -221,6 +230,7 @@ public class REPL {
                                 "-cp      [option] The classpath. use ':' to separate the class-paths\n" +
                                 "-repl    Start the repl (or run the program with 0 arguments)\n" +
                                 "-gb      Generate build.lts and run.lts in the given directory\n" +
+                                "-daemon  Start the compiler daemon (or stop the running one). -c uses the daemon if it's running\n" +
                                 "-e       Evaluate the given statement and print the result\n" +
                                 "-version Show current version\n");
 
@@ -303,15 +313,19 @@ public class REPL {
                                 }
                         }
 
-                        Compiler compiler = new Compiler();
                         File outputDirFile = new File(outputDir);
                         if (!outputDirFile.exists()) //noinspection ResultOfMethodCallIgnored
                                 outputDirFile.mkdirs();
-                        compiler.config.result.outputDir = outputDirFile;
-                        compiler.config.classpath = classPaths;
 
                         try {
-                                compiler.compile(Utils.filesInDirectory(sourceDir, ".*\\.(lt|latte)", recursive));
+                                Map<String, File> sources = Utils.filesInDirectory(sourceDir, ".*\\.(lt|latte)", recursive);
+                                // use the compiler daemon if it's running
+                                if (!CompilerDaemon.compile(sources, classPaths, outputDirFile, true)) {
+                                        Compiler compiler = new Compiler();
+                                        compiler.config.result.outputDir = outputDirFile;
+                                        compiler.config.classpath = classPaths;
+                                        compiler.compile(sources);
+                                }
                         } catch (Exception e) {
                                 if (e instanceof SyntaxException) {
                                         System.err.println("[ERROR] " + e.getMessage());
@@ -320,6 +334,20 @@ public class REPL {
                                 }
                         }
 
+                } else if (command.equals("-daemon")) {// compiler daemon
+                        if (args.length > 2) {
+                                System.err.println("invalid command -daemon.");
+                                System.err.println("see --help");
+                                return;
+                        }
+                        if (args.length == 2 && args[1].equals("stop")) {
+                                if (!CompilerDaemon.stopRunning()) {
+                                        System.err.println("no compatible compiler daemon is running");
+                                }
+                                return;
+                        }
+                        CompilerDaemon.main(args.length == 2 ? new String[]{args[1]} : new String[0]);
+
                 } else if (command.equals("-gb")) {
                         final List<String> theFilesToBeGenerated = Arrays.asList("build.lts", "run.lts");
 
@@ -134,6 +134,55 @@ public abstract class AbstractScanner implements Scanner {
                 SPLIT.addAll(0, STRING);
         }
 
+        /**
+         * a trie built from {@link #SPLIT}, each node represents a prefix of tokens
+         */
+        private static final class SplitTrie {
+                private final SplitTrie[] children = new SplitTrie[128];
+                /**
+                 * the token ends at this node, or null if the prefix is not a token
+                 */
+                private String token;
+
+                SplitTrie(List<String> tokens) {
+                        for (String t : tokens) {
+                                SplitTrie node = this;
+                                for (int i = 0; i < t.length(); ++i) {
+                                        char c = t.charAt(i);
+                                        if (c >= 128) throw new LtBug("split tokens should be ascii characters");
+                                        if (node.children[c] == null) {
+                                                node.children[c] = new SplitTrie();
+                                        }
+                                        node = node.children[c];
+                                }
+                                node.token = t;
+                        }
+                }
+
+                private SplitTrie() {
+                }
+
+                /**
+                 * @param line  the line
+                 * @param index start index
+                 * @return the longest token starting at the index, or null if no token matches
+                 */
+                String longestMatch(String line, int index) {
+                        String result = null;
+                        SplitTrie node = this;
+                        for (int i = index; i < line.length(); ++i) {
+                                char c = line.charAt(i);
+                                if (c >= 128) break;
+                                node = node.children[c];
+                                if (node == null) break;
+                                if (node.token != null) result = node.token;
+                        }
+                        return result;
+                }
+        }
+
+        private SplitTrie splitTrie;
+
         protected final String fileName;
         protected final PushLineBackReader reader;
         protected final Properties properties;
@@ -172,6 +221,8 @@ public abstract class AbstractScanner implements Scanner {
                 ElementStartNode elementStartNode = new ElementStartNode(args, new Indent(0));
                 args.startNodeStack.push(elementStartNode);
                 args.currentLine = properties._LINE_BASE_;
+                // SPLIT may be modified by sub classes, so the trie is built when scanning starts
+                splitTrie = new SplitTrie(SPLIT);
                 scan(args);
                 finalCheck(elementStartNode);
                 return elementStartNode;
@@ -283,6 +334,31 @@ public abstract class AbstractScanner implements Scanner {
                 return null;
         }
 
+        /**
+         * find the most front token in {@link #SPLIT}
+         *
+         * @param line the line
+         * @param from the index to start searching from
+         * @return index of the token, or -1 if not found. use {@link #tokenAt(String, int)} to retrieve the token
+         */
+        protected final int indexOfToken(String line, int from) {
+                for (int i = from; i < line.length(); ++i) {
+                        if (splitTrie.longestMatch(line, i) != null) return i;
+                }
+                return -1;
+        }
+
+        /**
+         * get the token at the given index. if several tokens are at the same position, then choose the longest one
+         *
+         * @param line  the line
+         * @param index index of the token
+         * @return the token in {@link #SPLIT} or null if no token starts at the index
+         */
+        protected final String tokenAt(String line, int index) {
+                return splitTrie.longestMatch(line, index);
+        }
+
         /**
          * create an {@link ElementStartNode}
          *
@@ -304,9 +380,8 @@ public abstract class AbstractScanner implements Scanner {
          */
         protected final boolean checkStringEnd(String line, int index) {
                 int count = 0;
-                char[] arr = line.toCharArray();
                 for (int i = index; i > 0; --i) {
-                        char c = arr[i];
+                        char c = line.charAt(i);
                         if (c == '\\') ++count;
                         else break;
                 }
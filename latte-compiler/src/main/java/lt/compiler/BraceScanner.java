@@ -204,56 +204,52 @@ public class BraceScanner extends AbstractScanner {
          * <li>the most front and longest token is "}", and '}' is a value of {@link #PAIR} ::: <code>val/map/=/{/(LAYER-START/'name'/:/'cass')}</code></li>
          * </ol><br>
          * the result is <code>val/map/=/{/(LAYER-START/'name'/:/'cass')}</code><br>
-         * set a breakpoint in the method and focus on variable <tt>line</tt>, you will get exactly the same intermediate results
+         * the tokens are found with a trie built from {@link #SPLIT}, and the remaining text is tracked by an offset into the line
          *
          * @param line line to parse
          * @param args args context
          * @throws SyntaxException syntax exceptions, including {@link SyntaxException}, {@link UnexpectedTokenException}
          */
         private void scan(String line, Args args) throws SyntaxException {
-                if (line.isEmpty()) return;
-
-                // check multiple line comment
-                if (args.multipleLineComment) {
-                        if (line.contains(MultipleLineCommentEnd)) {
-                                int subCol = line.indexOf(MultipleLineCommentEnd) + MultipleLineCommentEnd.length();
-                                args.currentCol += subCol;
-                                line = line.substring(subCol);
-                                args.multipleLineComment = false;
-                        } else {
-                                return;
-                        }
-                }
-
-                // check SPLIT
-                // find the pattern at minimum location index and with longest words
-                int minIndex = line.length();
-                String token = null; // recorded token
-                for (String s : SPLIT) {
-                        if (line.contains(s)) {
-                                int index = line.indexOf(s);
-                                if (index != -1 && index < minIndex) {
-                                        minIndex = index;
-                                        token = s;
+                // the line is scanned from left to right, tokens are recorded as offsets into the line
+                int pos = 0;
+                while (pos < line.length()) {
+                        // check multiple line comment
+                        if (args.multipleLineComment) {
+                                int endIndex = line.indexOf(MultipleLineCommentEnd, pos);
+                                if (endIndex != -1) {
+                                        int subCol = endIndex + MultipleLineCommentEnd.length();
+                                        args.currentCol += subCol - pos;
+                                        pos = subCol;
+                                        args.multipleLineComment = false;
+                                        if (pos == line.length()) return;
+                                } else {
+                                        return;
                                 }
                         }
-                }
 
-                if (token == null) {
-                        if (!line.isEmpty()) {
+                        // check SPLIT
+                        // find the pattern at minimum location index and with longest words
+                        int minIndex = indexOfToken(line, pos);
+
+                        if (minIndex == -1) {
                                 // not found, simply append whole input to previous
-                                TokenType type = getTokenType(line, args.generateLineCol());
+                                String rest = line.substring(pos);
+                                TokenType type = getTokenType(rest, args.generateLineCol());
                                 if (type != null) {
                                         // unknown token, ignore this token
-                                        args.previous = new Element(args, line, type);
-                                        args.currentCol += line.length();
+                                        args.previous = new Element(args, rest, type);
+                                        args.currentCol += rest.length();
                                 }
+                                return;
                         }
-                } else {
-                        String copyOfLine = line;
-                        String str = line.substring(0, minIndex);
-                        if (!str.isEmpty()) {
+
+                        String token = tokenAt(line, minIndex); // recorded token
+                        // the scanning continues right after the token by default
+                        int next = minIndex + token.length();
+                        if (minIndex != pos) {
                                 // record text before the token
+                                String str = line.substring(pos, minIndex);
                                 TokenType type = getTokenType(str, args.generateLineCol());
                                 if (type != null) {
                                         args.previous = new Element(args, str, type);
@@ -276,16 +272,7 @@ public class BraceScanner extends AbstractScanner {
                                 int lastIndex = minIndex;
                                 while (true) {
                                         int index = line.indexOf(token, lastIndex + token.length());
-                                        if (token.equals("//")) {
-                                                while (line.length() > index + 2) {
-                                                        if (line.charAt(index + 2) == '/') {
-                                                                ++index;
-                                                        } else {
-                                                                break;
-                                                        }
-                                                }
-                                        }
-                                        if (line.length() <= 1 || index == -1) {
+                                        if (line.length() - pos <= 1 || index == -1) {
                                                 err.SyntaxException("end of string not found", args.generateLineCol());
                                                 // assume that the end is line end
                                                 err.debug("assume that the " + token + " end is line end");
@@ -293,14 +280,12 @@ public class BraceScanner extends AbstractScanner {
                                                 String generated = line.substring(minIndex) + token;
 
                                                 args.previous = new Element(args, generated, getTokenType(generated, args.generateLineCol()));
-                                                args.currentCol += (index - minIndex) - token.length(); // the length would be added in later steps
-                                                line = line.substring(index + 1);
+                                                args.currentCol += (index - (minIndex - pos)) - token.length(); // the length would be added in later steps
 
                                                 break;
                                         } else {
-                                                String c = String.valueOf(line.charAt(index - 1));
                                                 // check
-                                                boolean isStringEnd = !ESCAPE.equals(c) || checkStringEnd(line, index - 1);
+                                                boolean isStringEnd = !line.startsWith(ESCAPE, index - 1) || checkStringEnd(line, index - 1);
 
                                                 if (isStringEnd) {
                                                         // the string starts at minIndex and ends at index
@@ -308,7 +293,7 @@ public class BraceScanner extends AbstractScanner {
 
                                                         args.previous = new Element(args, s, getTokenType(s, args.generateLineCol()));
                                                         args.currentCol += (index - minIndex);
-                                                        line = line.substring(index + token.length());
+                                                        next = index + token.length();
                                                         break;
                                                 }
 
@@ -322,7 +307,9 @@ public class BraceScanner extends AbstractScanner {
                                 }
                         } else if (COMMENT.equals(token)) {
                                 // comment
-                                line = ""; // ignore all
+                                // ignore all
+                                args.currentCol += token.length();
+                                return;
                         } else if (PAIR.containsKey(token)) {
                                 // pair start
                                 args.previous = new Element(args, token, getTokenType(token, args.generateLineCol()));
@@ -368,12 +355,7 @@ public class BraceScanner extends AbstractScanner {
 
                         // column
                         args.currentCol += token.length();
-                        if (copyOfLine.equals(line)) {
-                                // line hasn't changed, do default modification
-                                line = line.substring(minIndex + token.length());
-                        }
-                        // recursively parse
-                        scan(line, args);
+                        pos = next;
                 }
         }
 
@@ -0,0 +1,295 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 KuiGang Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package lt.compiler;
+
+import lt.dependencies.asm.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * class metadata read from a class file.<br>
+ * the class file is parsed with {@link ClassReader}, so the class is neither loaded nor initialized.
+ * names are in the form of {@link Class#getName()}
+ */
+public class ClassFileInfo {
+        /**
+         * access flags of the class. for inner classes, the flags are retrieved from the InnerClasses attribute
+         */
+        public int access;
+        public String name;
+        /**
+         * super class name, or null if it's java.lang.Object or an interface without super class
+         */
+        public String superName;
+        public final List<String> interfaces = new ArrayList<String>();
+        public final List<AnnotationConstant> annotations = new ArrayList<AnnotationConstant>();
+        public final List<MemberInfo> fields = new ArrayList<MemberInfo>();
+        /**
+         * methods and constructors (named &lt;init&gt;), static initializer is not recorded
+         */
+        public final List<MemberInfo> methods = new ArrayList<MemberInfo>();
+
+        /**
+         * field or method
+         */
+        public static class MemberInfo {
+                public final int access;
+                public final String name;
+                public final String desc;
+                public final List<AnnotationConstant> annotations = new ArrayList<AnnotationConstant>();
+                /**
+                 * default value of annotation methods
+                 */
+                public Object defaultValue;
+
+                MemberInfo(int access, String name, String desc) {
+                        this.access = access;
+                        this.name = name;
+                        this.desc = desc;
+                }
+        }
+
+        /**
+         * an annotation retrieved from the class file
+         */
+        public static class AnnotationConstant {
+                public final String type;
+                /**
+                 * annotation values. only explicitly written values are recorded
+                 */
+                public final Map<String, Object> values = new LinkedHashMap<String, Object>();
+
+                AnnotationConstant(String type) {
+                        this.type = type;
+                }
+        }
+
+        /**
+         * an enum constant in annotation
+         */
+        public static class EnumConstant {
+                public final String type;
+                public final String name;
+
+                EnumConstant(String type, String name) {
+                        this.type = type;
+                        this.name = name;
+                }
+        }
+
+        /**
+         * a class constant in annotation
+         */
+        public static class ClassConstant {
+                public final String type;
+
+                ClassConstant(String type) {
+                        this.type = type;
+                }
+        }
+
+        /**
+         * a non-primitive array in annotation. the element type is retrieved from the annotation definition
+         */
+        public static class ArrayConstant {
+                public final String annotationType;
+                public final String element;
+                public final List<Object> values = new ArrayList<Object>();
+
+                ArrayConstant(String annotationType, String element) {
+                        this.annotationType = annotationType;
+                        this.element = element;
+                }
+        }
+
+        /**
+         * get class name from the asm type
+         *
+         * @param type asm type
+         * @return class name in the form of {@link Class#getName()}
+         */
+        public static String className(Type type) {
+                if (type.getSort() == Type.ARRAY) {
+                        return type.getDescriptor().replace('/', '.');
+                } else {
+                        return type.getClassName();
+                }
+        }
+
+        /**
+         * get class name of the class file
+         *
+         * @param bytes class file
+         * @return class name in the form of {@link Class#getName()}
+         */
+        public static String className(byte[] bytes) {
+                return new ClassReader(bytes).getClassName().replace('/', '.');
+        }
+
+        /**
+         * read the class file
+         *
+         * @param bytes class file
+         * @return metadata of the class
+         */
+        public static ClassFileInfo read(byte[] bytes) {
+                final ClassFileInfo info = new ClassFileInfo();
+                new ClassReader(bytes).accept(new ClassVisitor(Opcodes.ASM5) {
+                        @Override
+                        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+                                info.access = access;
+                                info.name = name.replace('/', '.');
+                                info.superName = superName == null ? null : superName.replace('/', '.');
+                                if (interfaces != null) {
+                                        for (String i : interfaces) {
+                                                info.interfaces.add(i.replace('/', '.'));
+                                        }
+                                }
+                        }
+
+                        @Override
+                        public void visitInnerClass(String name, String outerName, String innerName, int access) {
+                                if (name.replace('/', '.').equals(info.name)) {
+                                        info.access = access;
+                                }
+                        }
+
+                        @Override
+                        public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+                                return visible ? annotation(desc, info.annotations) : null;
+                        }
+
+                        @Override
+                        public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+                                final MemberInfo field = new MemberInfo(access, name, desc);
+                                info.fields.add(field);
+                                return new FieldVisitor(Opcodes.ASM5) {
+                                        @Override
+                                        public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+                                                return visible ? annotation(desc, field.annotations) : null;
+                                        }
+                                };
+                        }
+
+                        @Override
+                        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                                if (name.equals("<clinit>")) return null;
+                                final MemberInfo method = new MemberInfo(access, name, desc);
+                                info.methods.add(method);
+                                return new MethodVisitor(Opcodes.ASM5) {
+                                        @Override
+                                        public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+                                                return visible ? annotation(desc, method.annotations) : null;
+                                        }
+
+                                        @Override
+                                        public AnnotationVisitor visitAnnotationDefault() {
+                                                return new ValueVisitor(info.name, method.name) {
+                                                        @Override
+                                                        void value(String name, Object value) {
+                                                                method.defaultValue = value;
+                                                        }
+                                                };
+                                        }
+                                };
+                        }
+                }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+                // ACC_SUPER is not a modifier
+                info.access &= ~Opcodes.ACC_SUPER;
+                return info;
+        }
+
+        private static AnnotationVisitor annotation(String desc, List<AnnotationConstant> annotations) {
+                AnnotationConstant a = new AnnotationConstant(Type.getType(desc).getClassName());
+                annotations.add(a);
+                return new AnnotationValueVisitor(a);
+        }
+
+        /**
+         * records visited values
+         */
+        private static abstract class ValueVisitor extends AnnotationVisitor {
+                private final String annotationType;
+                private final String element;
+
+                ValueVisitor(String annotationType, String element) {
+                        super(Opcodes.ASM5);
+                        this.annotationType = annotationType;
+                        this.element = element;
+                }
+
+                abstract void value(String name, Object value);
+
+                @Override
+                public void visit(String name, Object value) {
+                        if (value instanceof Type) {
+                                value = new ClassConstant(className((Type) value));
+                        }
+                        value(name, value);
+                }
+
+                @Override
+                public void visitEnum(String name, String desc, String value) {
+                        value(name, new EnumConstant(Type.getType(desc).getClassName(), value));
+                }
+
+                @Override
+                public AnnotationVisitor visitAnnotation(String name, String desc) {
+                        AnnotationConstant a = new AnnotationConstant(Type.getType(desc).getClassName());
+                        value(name, a);
+                        return new AnnotationValueVisitor(a);
+                }
+
+                @Override
+                public AnnotationVisitor visitArray(String name) {
+                        final ArrayConstant array = new ArrayConstant(annotationType, name == null ? element : name);
+                        value(name, array);
+                        return new ValueVisitor(annotationType, array.element) {
+                                @Override
+                                void value(String name, Object value) {
+                                        array.values.add(value);
+                                }
+                        };
+                }
+        }
+
+        private static class AnnotationValueVisitor extends ValueVisitor {
+                private final AnnotationConstant annotation;
+
+                AnnotationValueVisitor(AnnotationConstant annotation) {
+                        super(annotation.type, null);
+                        this.annotation = annotation;
+                }
+
+                @Override
+                void value(String name, Object value) {
+                        annotation.values.put(name, value);
+                }
+        }
+}
@@ -39,7 +39,20 @@ import java.util.*;
 public class CodeGenerator {
         private final Set<STypeDef> types;
         private final Map<String, STypeDef> typeDefMap;
-        private static final int VERSION = Opcodes.V1_6;
+        /**
+         * common super classes resolved when computing frames, shared by all class writers
+         */
+        private final Map<String, String> commonSuperClassCache;
+        /**
+         * the java version of the generated byte code, 6 or 8
+         */
+        public int target = 6;
+        /**
+         * counts the call sites
+         */
+        public CompilerMetrics metrics = CompilerMetrics.DISABLED;
+        private int dynamicCallSites = 0;
+        private int staticCallSites = 0;
 
         /**
          * create the code generator with types to generate
@@ -48,8 +61,20 @@ public class CodeGenerator {
          * @param typeDefMap a map of type name to its representing object
          */
         public CodeGenerator(Set<STypeDef> types, Map<String, STypeDef> typeDefMap) {
+                this(types, typeDefMap, new HashMap<String, String>());
+        }
+
+        /**
+         * create the code generator with types to generate
+         *
+         * @param types                 types
+         * @param typeDefMap            a map of type name to its representing object
+         * @param commonSuperClassCache resolved common super classes, must be thread-safe if generators run in parallel
+         */
+        public CodeGenerator(Set<STypeDef> types, Map<String, STypeDef> typeDefMap, Map<String, String> commonSuperClassCache) {
                 this.types = types;
                 this.typeDefMap = typeDefMap;
+                this.commonSuperClassCache = commonSuperClassCache;
         }
 
         /**
@@ -162,7 +187,7 @@ public class CodeGenerator {
         public Map<String, byte[]> generate() {
                 Map<String, byte[]> result = new HashMap<String, byte[]>();
                 for (STypeDef type : types) {
-                        ClassWriter classWriter = new SClassWriter(ClassWriter.COMPUTE_FRAMES, typeDefMap);
+                        ClassWriter classWriter = new SClassWriter(ClassWriter.COMPUTE_FRAMES, typeDefMap, commonSuperClassCache);
 
                         List<SModifier> modifiers;                // modifier
                         List<Instruction> staticIns;              // <clinit>
@@ -209,7 +234,7 @@ public class CodeGenerator {
                                 interfaces[i] = typeToInternalName(superInterfaces.get(i));
                         }
 
-                        classWriter.visit(VERSION, acc(modifiers) | (type instanceof SClassDef ? 0 : Opcodes.ACC_INTERFACE),
+                        classWriter.visit(target >= 8 ? Opcodes.V1_8 : Opcodes.V1_6, acc(modifiers) | (type instanceof SClassDef ? 0 : Opcodes.ACC_INTERFACE),
                                 typeToInternalName(type), null, superClass == null ? "java/lang/Object" : typeToInternalName(superClass), interfaces);
 
                         // annotations
@@ -229,11 +254,13 @@ public class CodeGenerator {
 
                         result.put(type.fullName(), classWriter.toByteArray());
                 }
+                metrics.count("dynamicCallSites", dynamicCallSites);
+                metrics.count("staticCallSites", staticCallSites);
                 return result;
         }
 
         private void generateAnnotation(ClassWriter classWriter, SAnnoDef sAnnoDef) {
-                classWriter.visit(VERSION,
+                classWriter.visit(target >= 8 ? Opcodes.V1_8 : Opcodes.V1_6,
                         Opcodes.ACC_INTERFACE | Opcodes.ACC_ANNOTATION | Opcodes.ACC_ABSTRACT | Opcodes.ACC_PUBLIC,
                         typeToInternalName(sAnnoDef), null, "java/lang/Object",
                         new String[]{"java/lang/annotation/Annotation"});
@@ -260,6 +287,56 @@ public class CodeGenerator {
                 }
         }
 
+        /**
+         * build lambda with LambdaMetafactory<br>
+         * <br>
+         * <code>
+         * buildValueAccess ---- captured values<br>
+         * InvokeDynamic abstractMethodName (captured types)InterfaceType LambdaMetafactory.metafactory
+         * </code>
+         *
+         * @param methodVisitor method visitor
+         * @param info          method info
+         * @param lambdaFactory Ins.LambdaFactory
+         */
+        private void buildLambdaFactory(MethodVisitor methodVisitor, CodeInfo info, Ins.LambdaFactory lambdaFactory) {
+                SMethodDef implMethod = lambdaFactory.implMethod();
+                SMethodDef abstractMethod = lambdaFactory.abstractMethod();
+
+                List<STypeDef> capturedTypes = new ArrayList<STypeDef>();
+                for (int i = 0; i < lambdaFactory.capturedArgs().size(); ++i) {
+                        buildValueAccess(methodVisitor, info, lambdaFactory.capturedArgs().get(i), true);
+                        capturedTypes.add(implMethod.getParameters().get(i).type());
+                }
+
+                Label label = new Label();
+                methodVisitor.visitLabel(label);
+
+                Type samType = Type.getMethodType(methodDescWithParameters(abstractMethod.getReturnType(), abstractMethod.getParameters()));
+                methodVisitor.visitInvokeDynamicInsn(
+                        abstractMethod.name(),
+                        methodDesc(lambdaFactory.type(), capturedTypes),
+                        LAMBDA_METAFACTORY,
+                        samType,
+                        new Handle(Opcodes.H_INVOKESTATIC,
+                                typeToInternalName(implMethod.declaringType()),
+                                implMethod.name(),
+                                methodDescWithParameters(implMethod.getReturnType(), implMethod.getParameters()),
+                                false),
+                        samType);
+                info.pop(capturedTypes.size());
+                info.push(CodeInfo.Size._1);
+
+                VisitLineNumber(methodVisitor, lambdaFactory.line_col(), label);
+        }
+
+        private static final Handle LAMBDA_METAFACTORY = new Handle(Opcodes.H_INVOKESTATIC,
+                "java/lang/invoke/LambdaMetafactory", "metafactory",
+                "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;" +
+                        "Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)" +
+                        "Ljava/lang/invoke/CallSite;",
+                false);
+
         /**
          * build new<.br>
          * <br>
@@ -856,6 +933,8 @@ public class CodeGenerator {
                         buildInvoke(methodVisitor, info, (Ins.Invoke) value, requireValue);
                 } else if (value instanceof Ins.New) {
                         buildNew(methodVisitor, info, (Ins.New) value);
+                } else if (value instanceof Ins.LambdaFactory) {
+                        buildLambdaFactory(methodVisitor, info, (Ins.LambdaFactory) value);
                 } else if (value instanceof Ins.Cast) {
                         buildCast(methodVisitor, info, (Ins.Cast) value);
                 } else if (value instanceof Ins.TwoVarOp) {
@@ -1143,6 +1222,12 @@ public class CodeGenerator {
          * @see lt.compiler.semantic.Ins.InvokeInterface
          */
         private void buildInvoke(MethodVisitor methodVisitor, CodeInfo info, Ins.Invoke invoke, boolean requireValue) {
+                // dynamic calls are dispatched by lt.runtime.Dynamic at runtime
+                if (invoke.invokable().declaringType().fullName().equals(SemanticProcessor.DYNAMIC_CLASS_NAME)) {
+                        ++dynamicCallSites;
+                } else {
+                        ++staticCallSites;
+                }
                 Label label = new Label();
                 if (invoke instanceof Ins.InvokeSpecial) {
                         // push target object
@@ -1780,7 +1865,8 @@ public class CodeGenerator {
          * <ol>
          * <li>build instructions</li>
          * <li>
-         * add Return to the method ensures that the method would return normally<br>
+         * add Return to the method ensures that the method would return normally
+         * (unless the last instruction is a return or a throw)<br>
          * for short/byte/bool/char => IConst_0 and IReturn<br>
          * for long => L_Const_0 and LReturn<br>
          * for float => FConst_0 and FReturn<br>
@@ -1815,7 +1901,10 @@ public class CodeGenerator {
                         }
                 }
                 // guarantee the method can return
-                if (returnType.equals(VoidType.get())) {
+                Instruction last = instructions.isEmpty() ? null : instructions.get(instructions.size() - 1);
+                if (last instanceof Ins.TReturn || last instanceof Ins.AThrow) {
+                        // the end of the method cannot be reached
+                } else if (returnType.equals(VoidType.get())) {
                         methodVisitor.visitInsn(Opcodes.RETURN);
                 } else if (returnType instanceof PrimitiveTypeDef) {
                         if (returnType.equals(IntTypeDef.get())
@@ -1869,7 +1958,8 @@ public class CodeGenerator {
          * @param exceptionTable exception table
          */
         private void buildStatic(ClassWriter classWriter, List<Instruction> staticIns, List<ExceptionTable> exceptionTable, InvokableMeta meta) {
-                MethodVisitor methodVisitor = classWriter.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+                MethodVisitor methodVisitor = classWriter.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null,
+                        Optimizer.needsFrames(staticIns, exceptionTable));
                 buildInstructions(methodVisitor, new CodeInfo(0, null, meta), staticIns, exceptionTable, VoidType.get());
                 methodVisitor.visitEnd();
         }
@@ -1888,7 +1978,8 @@ public class CodeGenerator {
                                 methodDescWithParameters(
                                         VoidType.get(),
                                         cons.getParameters()),
-                                null, null);
+                                null, null,
+                                Optimizer.needsFrames(cons.statements(), cons.exceptionTables()));
 
                         // annotations
                         for (SAnno anno : cons.annos()) {
@@ -1942,7 +2033,8 @@ public class CodeGenerator {
                                 methodDescWithParameters(
                                         method.getReturnType(),
                                         method.getParameters()),
-                                null, null);
+                                null, null,
+                                Optimizer.needsFrames(method.statements(), method.exceptionTables()));
 
                         // annotations
                         for (SAnno anno : method.annos()) {
@@ -0,0 +1,312 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 KuiGang Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package lt.compiler;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.*;
+
+/**
+ * collects time, allocation and counts of compiling phases.<br>
+ * a phase is measured on the thread which runs it, so phases running on several threads
+ * add up their cpu time and allocation. nested phases (e.g. <tt>semantic.lambda</tt> in <tt>semantic.step4</tt>)
+ * are also included in the enclosing phase.
+ */
+public class CompilerMetrics {
+        private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        /**
+         * com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long), null if not supported
+         */
+        private static final Method getThreadAllocatedBytes;
+
+        static {
+                Method m = null;
+                try {
+                        Class<?> cls = Class.forName("com.sun.management.ThreadMXBean");
+                        if (cls.isInstance(threadMXBean)) {
+                                m = cls.getMethod("getThreadAllocatedBytes", long.class);
+                        }
+                } catch (Throwable ignore) {
+                        // allocation is not recorded
+                }
+                getThreadAllocatedBytes = m;
+        }
+
+        /**
+         * a collector which records nothing
+         */
+        public static final CompilerMetrics DISABLED = new CompilerMetrics(false);
+
+        /**
+         * time and allocation of a phase
+         */
+        public static class Record {
+                public long times;
+                public long wallNanos;
+                public long cpuNanos;
+                public long allocatedBytes;
+
+                private void add(long wallNanos, long cpuNanos, long allocatedBytes) {
+                        ++times;
+                        this.wallNanos += wallNanos;
+                        this.cpuNanos += cpuNanos;
+                        this.allocatedBytes += allocatedBytes;
+                }
+        }
+
+        /**
+         * a running measurement, call {@link #stop()} when the phase finishes
+         */
+        public class Timer {
+                private final String phase;
+                private final String file;
+                private final long wall;
+                private final long cpu;
+                private final long allocated;
+
+                private Timer(String phase, String file) {
+                        this.phase = phase;
+                        this.file = file;
+                        this.wall = enabled ? System.nanoTime() : 0;
+                        this.cpu = enabled ? cpuTime() : 0;
+                        this.allocated = enabled ? allocatedBytes() : 0;
+                }
+
+                public void stop() {
+                        if (!enabled) return;
+                        record(phase, file,
+                                System.nanoTime() - wall,
+                                cpuTime() - cpu,
+                                allocatedBytes() - allocated);
+                }
+        }
+
+        private final boolean enabled;
+        private final Timer noop;
+        private final Map<String, Record> phases = new LinkedHashMap<String, Record>();
+        private final Map<String, Map<String, Record>> files = new HashMap<String, Map<String, Record>>();
+        private final Map<String, Long> counts = new TreeMap<String, Long>();
+
+        public CompilerMetrics() {
+                this(true);
+        }
+
+        private CompilerMetrics(boolean enabled) {
+                this.enabled = enabled;
+                this.noop = enabled ? null : new Timer(null, null);
+        }
+
+        private static long cpuTime() {
+                return threadMXBean.isCurrentThreadCpuTimeSupported() ? threadMXBean.getCurrentThreadCpuTime() : 0;
+        }
+
+        private static long allocatedBytes() {
+                if (getThreadAllocatedBytes == null) return 0;
+                try {
+                        return (Long) getThreadAllocatedBytes.invoke(threadMXBean, Thread.currentThread().getId());
+                } catch (Exception e) {
+                        return 0;
+                }
+        }
+
+        /**
+         * start measuring a phase
+         *
+         * @param phase phase name
+         * @param file  (nullable) the file which the phase works on
+         * @return the timer
+         */
+        public Timer start(String phase, String file) {
+                if (!enabled) return noop;
+                return new Timer(phase, file);
+        }
+
+        private synchronized void record(String phase, String file, long wallNanos, long cpuNanos, long allocatedBytes) {
+                Record record = phases.get(phase);
+                if (record == null) {
+                        record = new Record();
+                        phases.put(phase, record);
+                }
+                record.add(wallNanos, cpuNanos, allocatedBytes);
+                if (file == null) return;
+
+                Map<String, Record> filePhases = files.get(file);
+                if (filePhases == null) {
+                        filePhases = new LinkedHashMap<String, Record>();
+                        files.put(file, filePhases);
+                }
+                record = filePhases.get(phase);
+                if (record == null) {
+                        record = new Record();
+                        filePhases.put(phase, record);
+                }
+                record.add(wallNanos, cpuNanos, allocatedBytes);
+        }
+
+        /**
+         * increase a counter
+         *
+         * @param name counter name
+         * @param n    the number to add
+         */
+        public synchronized void count(String name, long n) {
+                if (!enabled) return;
+                Long old = counts.get(name);
+                counts.put(name, old == null ? n : old + n);
+        }
+
+        /**
+         * @param phase phase name
+         * @return the record of the phase, or null if it's not recorded
+         */
+        public synchronized Record phase(String phase) {
+                return phases.get(phase);
+        }
+
+        /**
+         * @param file file name
+         * @return phase =&gt; record of the file
+         */
+        public synchronized Map<String, Record> file(String file) {
+                Map<String, Record> filePhases = files.get(file);
+                return filePhases == null ? Collections.<String, Record>emptyMap() : Collections.unmodifiableMap(filePhases);
+        }
+
+        /**
+         * @param name counter name
+         * @return value of the counter
+         */
+        public synchronized long count(String name) {
+                Long n = counts.get(name);
+                return n == null ? 0 : n;
+        }
+
+        private static long total(Map<String, Record> filePhases) {
+                long wall = 0;
+                for (Record r : filePhases.values()) {
+                        wall += r.wallNanos;
+                }
+                return wall;
+        }
+
+        /**
+         * build the json report.<br>
+         * <code>{"phases":{name:record}, "counts":{name:n}, "files":[{"file":name, "wallNanos":total, "phases":{name:record}}]}</code><br>
+         * files are sorted by their total wall time, the slowest first
+         *
+         * @return json string
+         */
+        public synchronized String toJson() {
+                StringBuilder sb = new StringBuilder();
+                sb.append("{\n  \"phases\": {");
+                boolean first = true;
+                for (Map.Entry<String, Record> entry : phases.entrySet()) {
+                        sb.append(first ? "\n    " : ",\n    ");
+                        first = false;
+                        appendString(sb, entry.getKey());
+                        sb.append(": ");
+                        appendRecord(sb, entry.getValue());
+                }
+                sb.append("\n  },\n  \"counts\": {");
+                first = true;
+                for (Map.Entry<String, Long> entry : counts.entrySet()) {
+                        sb.append(first ? "\n    " : ",\n    ");
+                        first = false;
+                        appendString(sb, entry.getKey());
+                        sb.append(": ").append(entry.getValue());
+                }
+                sb.append("\n  },\n  \"files\": [");
+
+                List<Map.Entry<String, Map<String, Record>>> fileList = new ArrayList<Map.Entry<String, Map<String, Record>>>(files.entrySet());
+                Collections.sort(fileList, new Comparator<Map.Entry<String, Map<String, Record>>>() {
+                        @Override
+                        public int compare(Map.Entry<String, Map<String, Record>> a, Map.Entry<String, Map<String, Record>> b) {
+                                long x = total(a.getValue());
+                                long y = total(b.getValue());
+                                return x < y ? 1 : (x == y ? a.getKey().compareTo(b.getKey()) : -1);
+                        }
+                });
+                first = true;
+                for (Map.Entry<String, Map<String, Record>> entry : fileList) {
+                        sb.append(first ? "\n    " : ",\n    ");
+                        first = false;
+                        sb.append("{\"file\": ");
+                        appendString(sb, entry.getKey());
+                        sb.append(", \"wallNanos\": ").append(total(entry.getValue())).append(", \"phases\": {");
+                        boolean firstPhase = true;
+                        for (Map.Entry<String, Record> phase : entry.getValue().entrySet()) {
+                                if (!firstPhase) sb.append(", ");
+                                firstPhase = false;
+                                appendString(sb, phase.getKey());
+                                sb.append(": ");
+                                appendRecord(sb, phase.getValue());
+                        }
+                        sb.append("}}");
+                }
+                sb.append("\n  ]\n}\n");
+                return sb.toString();
+        }
+
+        /**
+         * write the json report into the file
+         *
+         * @param file the report file
+         * @throws IOException exception
+         */
+        public void writeJson(File file) throws IOException {
+                Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+                try {
+                        writer.write(toJson());
+                } finally {
+                        writer.close();
+                }
+        }
+
+        private static void appendRecord(StringBuilder sb, Record record) {
+                sb.append("{\"times\": ").append(record.times)
+                        .append(", \"wallNanos\": ").append(record.wallNanos)
+                        .append(", \"cpuNanos\": ").append(record.cpuNanos)
+                        .append(", \"allocatedBytes\": ").append(record.allocatedBytes)
+                        .append("}");
+        }
+
+        private static void appendString(StringBuilder sb, String s) {
+                sb.append('"');
+                for (int i = 0; i < s.length(); ++i) {
+                        char c = s.charAt(i);
+                        if (c == '"' || c == '\\') {
+                                sb.append('\\').append(c);
+                        } else if (c < 0x20) {
+                                sb.append(String.format("\\u%04x", (int) c));
+                        } else {
+                                sb.append(c);
+                        }
+                }
+                sb.append('"');
+        }
+}
@@ -65,6 +65,22 @@ public class ErrorManager {
          */
         public final Map<String, Map<Integer, String>> lineRecord = new ConcurrentHashMap<String, Map<Integer, String>>();
 
+        /**
+         * provides lines of a source file for diagnostics
+         */
+        public interface LineSource {
+                /**
+                 * @param line line number
+                 * @return content of the line, or null if the line does not exist
+                 */
+                String line(int line);
+        }
+
+        /**
+         * files whose lines are retrieved from the source when required, instead of being recorded line by line
+         */
+        private final Map<String, LineSource> lineSources = new ConcurrentHashMap<String, LineSource>();
+
         public static class CompilingError {
                 public final String msg;
                 public final LineCol lineCol;
@@ -113,6 +129,7 @@ public class ErrorManager {
          * @param content the content of the line
          */
         public void putLineRecord(String file, int line, String content) {
+                if (lineSources.containsKey(file)) return;
                 Map<Integer, String> map;
                 if (lineRecord.containsKey(file)) {
                         map = lineRecord.get(file);
@@ -124,6 +141,56 @@ public class ErrorManager {
                 map.put(line, content);
         }
 
+        /**
+         * lines of the file will be retrieved from the source, and {@link #putLineRecord(String, int, String)} would be ignored
+         *
+         * @param file   file name
+         * @param source line source
+         */
+        public void putLineSource(String file, LineSource source) {
+                lineSources.put(file, source);
+                lineRecord.remove(file);
+        }
+
+        /**
+         * create a line source from the source text. lines are located when the first line is required
+         *
+         * @param text     source text
+         * @param lineBase the line base used when scanning the text
+         * @return line source
+         */
+        public static LineSource textLineSource(final String text, final int lineBase) {
+                return new LineSource() {
+                        private int[] lineStarts;
+
+                        @Override
+                        public synchronized String line(int line) {
+                                if (lineStarts == null) {
+                                        List<Integer> starts = new ArrayList<Integer>();
+                                        int i = 0;
+                                        while (i < text.length()) {
+                                                starts.add(i);
+                                                while (i < text.length() && text.charAt(i) != '\n' && text.charAt(i) != '\r') ++i;
+                                                if (i < text.length()) {
+                                                        if (text.charAt(i) == '\r' && i + 1 < text.length() && text.charAt(i + 1) == '\n') ++i;
+                                                        ++i;
+                                                }
+                                        }
+                                        lineStarts = new int[starts.size()];
+                                        for (int n = 0; n < lineStarts.length; ++n) {
+                                                lineStarts[n] = starts.get(n);
+                                        }
+                                }
+                                int index = line - lineBase - 1;
+                                if (index < 0 || index >= lineStarts.length) return null;
+                                int start = lineStarts[index];
+                                int end = start;
+                                while (end < text.length() && text.charAt(end) != '\n' && text.charAt(end) != '\r') ++end;
+                                return text.substring(start, end);
+                        }
+                };
+        }
+
         /**
          * build error info. The error info looks like :<br>
          * <pre>
@@ -138,8 +205,14 @@ public class ErrorManager {
          * @return the error info
          */
         public String buildErrInfo(String file, int line, int col) {
-                if (!lineRecord.containsKey(file)) return "";
-                String content = lineRecord.get(file).get(line);
+                String content;
+                LineSource source = lineSources.get(file);
+                if (source == null) {
+                        if (!lineRecord.containsKey(file)) return "";
+                        content = lineRecord.get(file).get(line);
+                } else {
+                        content = source.line(line);
+                }
                 if (content == null) return "";
                 StringBuilder sb = new StringBuilder("\n");
                 sb.append(content).append("\n");
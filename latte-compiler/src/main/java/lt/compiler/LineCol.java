@@ -25,6 +25,7 @@
 package lt.compiler;
 
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -36,7 +37,10 @@ public class LineCol implements Serializable {
         public final int line;
         public final int column;
         public int length;
-        public final Map<String, String> useDefine = new LinkedHashMap<String, String>();
+        /**
+         * define replacements used by the line. most lines use no replacement, so the map is created when required
+         */
+        private Map<String, String> useDefine;
 
         /**
          * construct an LineCol that represents (filename, line, column and whether uses define replacement) of a Token
@@ -51,6 +55,27 @@ public class LineCol implements Serializable {
                 this.column = column;
         }
 
+        /**
+         * @return define replacements used by the line, the map should not be modified
+         */
+        public Map<String, String> useDefine() {
+                if (useDefine == null) return Collections.emptyMap();
+                return useDefine;
+        }
+
+        /**
+         * record define replacements used by the line
+         *
+         * @param useDefine define replacements (key =&gt; replacement)
+         */
+        public void addUseDefine(Map<String, String> useDefine) {
+                if (useDefine.isEmpty()) return;
+                if (this.useDefine == null) {
+                        this.useDefine = new LinkedHashMap<String, String>();
+                }
+                this.useDefine.putAll(useDefine);
+        }
+
         /**
          * a synthetic line col object
          */
@@ -0,0 +1,834 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 KuiGang Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lt.compiler;
+
+import lt.compiler.semantic.*;
+import lt.compiler.semantic.builtin.*;
+
+import java.util.*;
+
+/**
+ * optimizes the instructions generated by {@link SemanticProcessor} before they are passed to {@link CodeGenerator}.<br>
+ * <ul>
+ * <li>arithmetic on constants is folded</li>
+ * <li>boxing followed by unboxing (<code>castToInt(Integer.valueOf(i))</code>) is removed</li>
+ * <li>check cast to the same type or to Object is removed</li>
+ * <li>constant values, local variables, <code>this</code> and <code>Unit</code> whose values are dropped are removed</li>
+ * <li>branches on constant conditions are resolved, and unreachable instructions are removed</li>
+ * <li>nops and jumps to the next instruction are removed, value packs with only one instruction are unwrapped</li>
+ * </ul>
+ * instructions which are jump targets or bounds of exception tables are never replaced or removed.
+ * a method is left unchanged if it contains an unknown kind of instruction.
+ */
+public class Optimizer {
+        private final Set<STypeDef> types;
+        /**
+         * instructions which are referenced by jumps or exception tables in the current method
+         */
+        private Set<Instruction> referenced;
+
+        /**
+         * create the optimizer
+         *
+         * @param types types to optimize
+         */
+        public Optimizer(Set<STypeDef> types) {
+                this.types = types;
+        }
+
+        /**
+         * optimize all methods, constructors and static blocks of the types
+         */
+        public void optimize() {
+                for (STypeDef type : types) {
+                        if (type instanceof SClassDef) {
+                                SClassDef cls = (SClassDef) type;
+                                optimize(cls.staticStatements(), cls.staticExceptionTable());
+                                for (SConstructorDef con : cls.constructors()) {
+                                        optimize(con.statements(), con.exceptionTables());
+                                }
+                                for (SMethodDef method : cls.methods()) {
+                                        optimize(method.statements(), method.exceptionTables());
+                                }
+                        } else if (type instanceof SInterfaceDef) {
+                                SInterfaceDef interf = (SInterfaceDef) type;
+                                optimize(interf.staticStatements(), interf.staticExceptionTable());
+                                for (SMethodDef method : interf.methods()) {
+                                        optimize(method.statements(), method.exceptionTables());
+                                }
+                        }
+                }
+        }
+
+        /**
+         * optimize instructions of one method
+         *
+         * @param instructions    instructions
+         * @param exceptionTables exception tables of the method
+         */
+        private void optimize(List<Instruction> instructions, List<ExceptionTable> exceptionTables) {
+                if (instructions.isEmpty()) return;
+                if (!collectReferenced(instructions, exceptionTables)) return;
+                optimizeStatements(instructions, true, true);
+                // removed jumps might leave nops and unreachable instructions, so the list is checked again
+                boolean changed = true;
+                while (changed) {
+                        collectReferenced(instructions, exceptionTables);
+                        changed = removeRedundantJumps(instructions, true);
+                }
+                referenced = null;
+        }
+
+        /**
+         * collect jump targets and exception table bounds
+         *
+         * @param instructions    instructions
+         * @param exceptionTables exception tables
+         * @return false if an unknown instruction is found
+         */
+        private boolean collectReferenced(List<Instruction> instructions, List<ExceptionTable> exceptionTables) {
+                referenced = Collections.newSetFromMap(new IdentityHashMap<Instruction, Boolean>());
+                for (ExceptionTable tbl : exceptionTables) {
+                        referenced.add(tbl.getFrom());
+                        referenced.add(tbl.getTo());
+                        referenced.add(tbl.getTarget());
+                }
+                Set<Instruction> collected = referenced;
+                for (Instruction ins : instructions) {
+                        if (!collectReferenced(ins, collected)) return false;
+                }
+                return true;
+        }
+
+        private boolean collectReferenced(Value v, Set<Instruction> collected) {
+                if (v instanceof InstructionHolder) {
+                        return collectReferenced(((InstructionHolder) v).ins, collected);
+                }
+                List<Value> children = children(v);
+                if (children == null) return false;
+                for (Value child : children) {
+                        if (child != null && !collectReferenced(child, collected)) return false;
+                }
+                return true;
+        }
+
+        private boolean collectReferenced(Instruction ins, Set<Instruction> collected) {
+                if (ins instanceof Value) {
+                        return collectReferenced((Value) ins, collected);
+                }
+                if (ins instanceof Ins.Goto) {
+                        collected.add(((Ins.Goto) ins).gotoIns());
+                } else if (ins instanceof Ins.IfEq) {
+                        collected.add(((Ins.IfEq) ins).gotoIns());
+                } else if (ins instanceof Ins.IfNe) {
+                        collected.add(((Ins.IfNe) ins).gotoIns());
+                } else if (ins instanceof Ins.IfNull) {
+                        collected.add(((Ins.IfNull) ins).gotoIns());
+                } else if (ins instanceof Ins.IfNonNull) {
+                        collected.add(((Ins.IfNonNull) ins).gotoIns());
+                } else if (ins instanceof Ins.IfACmpNe) {
+                        collected.add(((Ins.IfACmpNe) ins).gotoIns());
+                }
+                List<Value> children = children(ins);
+                if (children == null) return false;
+                for (Value child : children) {
+                        if (child != null && !collectReferenced(child, collected)) return false;
+                }
+                return true;
+        }
+
+        /**
+         * check whether the instructions need stack map frames. straight-line code doesn't need frames,
+         * so frames are only needed for jumps, logic operators and exception tables
+         *
+         * @param instructions    instructions of a method
+         * @param exceptionTables exception tables of the method
+         * @return true if the method contains jumps, exception tables or an unknown kind of instruction
+         */
+        public static boolean needsFrames(List<Instruction> instructions, List<ExceptionTable> exceptionTables) {
+                if (!exceptionTables.isEmpty()) return true;
+                Optimizer optimizer = new Optimizer(Collections.<STypeDef>emptySet());
+                for (Instruction ins : instructions) {
+                        if (optimizer.containsJump(ins)) return true;
+                }
+                return false;
+        }
+
+        private boolean containsJump(Object ins) {
+                if (ins instanceof InstructionHolder) {
+                        return containsJump(((InstructionHolder) ins).ins);
+                }
+                if (ins instanceof Ins.Goto || ins instanceof Ins.IfEq || ins instanceof Ins.IfNe
+                        || ins instanceof Ins.IfNull || ins instanceof Ins.IfNonNull || ins instanceof Ins.IfACmpNe
+                        || ins instanceof Ins.LogicAnd || ins instanceof Ins.LogicOr) return true;
+                List<Value> children = children(ins);
+                if (children == null) return true;
+                for (Value child : children) {
+                        if (child != null && containsJump(child)) return true;
+                }
+                return false;
+        }
+
+        /**
+         * values contained in the instruction
+         *
+         * @param ins instruction or value
+         * @return the values, or null if the instruction is unknown
+         */
+        private List<Value> children(Object ins) {
+                List<Value> list = new ArrayList<Value>();
+                if (ins instanceof ValuePack) {
+                        for (Instruction i : ((ValuePack) ins).instructions()) {
+                                if (i instanceof Value) {
+                                        list.add((Value) i);
+                                } else {
+                                        list.add(new InstructionHolder(i));
+                                }
+                        }
+                } else if (ins instanceof InstructionHolder) {
+                        return children(((InstructionHolder) ins).ins);
+                } else if (ins instanceof Ins.Invoke) {
+                        if (ins instanceof Ins.InvokeWithTarget) {
+                                list.add(((Ins.InvokeWithTarget) ins).target());
+                        }
+                        list.addAll(((Ins.Invoke) ins).arguments());
+                        if (ins instanceof Ins.InvokeWithCapture) {
+                                list.addAll(((Ins.InvokeWithCapture) ins).capturedArguments());
+                        }
+                } else if (ins instanceof Ins.New) {
+                        list.addAll(((Ins.New) ins).args());
+                } else if (ins instanceof Ins.LambdaFactory) {
+                        list.addAll(((Ins.LambdaFactory) ins).capturedArgs());
+                } else if (ins instanceof Ins.ANewArray) {
+                        list.addAll(((Ins.ANewArray) ins).initValues());
+                } else if (ins instanceof Ins.NewArray) {
+                        list.addAll(((Ins.NewArray) ins).initValues());
+                } else if (ins instanceof Ins.NewList) {
+                        list.addAll(((Ins.NewList) ins).initValues());
+                } else if (ins instanceof Ins.NewMap) {
+                        for (Map.Entry<Value, Value> entry : ((Ins.NewMap) ins).initValues().entrySet()) {
+                                list.add(entry.getKey());
+                                list.add(entry.getValue());
+                        }
+                } else if (ins instanceof Ins.ArrayLength) {
+                        list.add(((Ins.ArrayLength) ins).arrayValue());
+                } else if (ins instanceof Ins.AThrow) {
+                        list.add(((Ins.AThrow) ins).exception());
+                } else if (ins instanceof Ins.Cast) {
+                        list.add(((Ins.Cast) ins).value());
+                } else if (ins instanceof Ins.CheckCast) {
+                        list.add(((Ins.CheckCast) ins).theValueToCheck());
+                } else if (ins instanceof Ins.GetField) {
+                        list.add(((Ins.GetField) ins).object());
+                } else if (ins instanceof Ins.IfACmpNe) {
+                        list.add(((Ins.IfACmpNe) ins).value1());
+                        list.add(((Ins.IfACmpNe) ins).value2());
+                } else if (ins instanceof Ins.IfEq) {
+                        list.add(((Ins.IfEq) ins).condition());
+                } else if (ins instanceof Ins.IfNe) {
+                        list.add(((Ins.IfNe) ins).condition());
+                } else if (ins instanceof Ins.IfNonNull) {
+                        list.add(((Ins.IfNonNull) ins).object());
+                } else if (ins instanceof Ins.IfNull) {
+                        list.add(((Ins.IfNull) ins).object());
+                } else if (ins instanceof Ins.InstanceOf) {
+                        list.add(((Ins.InstanceOf) ins).object());
+                } else if (ins instanceof Ins.PointerGetCastHelper) {
+                        list.add(((Ins.PointerGetCastHelper) ins).before());
+                        list.add(((Ins.PointerGetCastHelper) ins).after());
+                } else if (ins instanceof Ins.LogicAnd) {
+                        list.add(((Ins.LogicAnd) ins).b1());
+                        list.add(((Ins.LogicAnd) ins).b2());
+                } else if (ins instanceof Ins.LogicOr) {
+                        list.add(((Ins.LogicOr) ins).v1());
+                        list.add(((Ins.LogicOr) ins).v2());
+                } else if (ins instanceof Ins.MonitorEnter) {
+                        list.add(((Ins.MonitorEnter) ins).valueToMonitor());
+                } else if (ins instanceof Ins.OneVarOp) {
+                        list.add(((Ins.OneVarOp) ins).value());
+                } else if (ins instanceof Ins.TwoVarOp) {
+                        list.add(((Ins.TwoVarOp) ins).a());
+                        list.add(((Ins.TwoVarOp) ins).b());
+                } else if (ins instanceof Ins.PutField) {
+                        list.add(((Ins.PutField) ins).obj());
+                        list.add(((Ins.PutField) ins).value());
+                } else if (ins instanceof Ins.PutStatic) {
+                        list.add(((Ins.PutStatic) ins).value());
+                } else if (ins instanceof Ins.TALoad) {
+                        list.add(((Ins.TALoad) ins).arr());
+                        list.add(((Ins.TALoad) ins).index());
+                } else if (ins instanceof Ins.TAStore) {
+                        list.add(((Ins.TAStore) ins).array());
+                        list.add(((Ins.TAStore) ins).index());
+                        list.add(((Ins.TAStore) ins).value());
+                } else if (ins instanceof Ins.TReturn) {
+                        list.add(((Ins.TReturn) ins).value());
+                } else if (ins instanceof Ins.TStore) {
+                        list.add(((Ins.TStore) ins).newValue());
+                } else if (ins instanceof ValueAnotherType) {
+                        list.add(((ValueAnotherType) ins).value());
+                } else if (ins instanceof SArrayValue) {
+                        list.addAll(Arrays.asList(((SArrayValue) ins).values()));
+                } else if (!(ins instanceof ConstantValue
+                        || ins instanceof PrimitiveValue
+                        || ins instanceof StringConstantValue
+                        || ins instanceof NullValue
+                        || ins instanceof EnumValue
+                        || ins instanceof DummyValue
+                        || ins instanceof MethodTypeValue
+                        || ins instanceof SAnno
+                        || ins instanceof Ins.This
+                        || ins instanceof Ins.TLoad
+                        || ins instanceof Ins.GetStatic
+                        || ins instanceof Ins.GetClass
+                        || ins instanceof Ins.Goto
+                        || ins instanceof Ins.Nop
+                        || ins instanceof Ins.Pop
+                        || ins instanceof Ins.ExStore
+                        || ins instanceof Ins.MonitorExit)) {
+                        // unknown
+                        return null;
+                }
+                return list;
+        }
+
+        /**
+         * wraps an instruction which is not a value, used when collecting instructions in a {@link ValuePack}
+         */
+        private static class InstructionHolder implements Value {
+                private static final long serialVersionUID = 1L;
+
+                private final Instruction ins;
+
+                private InstructionHolder(Instruction ins) {
+                        this.ins = ins;
+                }
+
+                @Override
+                public STypeDef type() {
+                        return null;
+                }
+        }
+
+        /**
+         * check whether the instruction (or any instruction inside it) is referenced
+         *
+         * @param ins instruction
+         * @return true if it's referenced
+         */
+        private boolean containsReferenced(Object ins) {
+                if (ins instanceof InstructionHolder) {
+                        ins = ((InstructionHolder) ins).ins;
+                }
+                if (referenced.contains(ins)) return true;
+                List<Value> children = children(ins);
+                if (children == null) return true;
+                for (Value v : children) {
+                        if (v != null && containsReferenced(v)) return true;
+                }
+                return false;
+        }
+
+        /**
+         * optimize a list of instructions
+         *
+         * @param instructions  the instructions
+         * @param dropValues    values of the instructions are dropped (method statements and auto-pop value packs)
+         * @param dropLastValue value of the last instruction is dropped
+         */
+        private void optimizeStatements(List<Instruction> instructions, boolean dropValues, boolean dropLastValue) {
+                for (int i = 0; i < instructions.size(); ++i) {
+                        Instruction ins = instructions.get(i);
+                        boolean isLast = i == instructions.size() - 1;
+                        if (ins instanceof Value) {
+                                Value v = optimizeValue((Value) ins);
+                                if (dropValues && (!isLast || dropLastValue) && isPure(v) && !containsReferenced(ins)) {
+                                        instructions.remove(i--);
+                                } else if (v != ins && v instanceof Instruction) {
+                                        instructions.set(i, (Instruction) v);
+                                }
+                                continue;
+                        }
+                        optimizeInstruction(ins);
+
+                        if (referenced.contains(ins)) continue;
+                        Value condition = null;
+                        boolean jumpIfTrue = false;
+                        Instruction target = null;
+                        if (ins instanceof Ins.IfEq) {
+                                condition = ((Ins.IfEq) ins).condition();
+                                target = ((Ins.IfEq) ins).gotoIns();
+                        } else if (ins instanceof Ins.IfNe) {
+                                condition = ((Ins.IfNe) ins).condition();
+                                target = ((Ins.IfNe) ins).gotoIns();
+                                jumpIfTrue = true;
+                        }
+                        if (condition instanceof BoolValue || condition instanceof IntValue) {
+                                boolean b = condition instanceof BoolValue
+                                        ? ((BoolValue) condition).getValue() != 0
+                                        : ((IntValue) condition).getValue() != 0;
+                                if (b == jumpIfTrue) {
+                                        instructions.set(i, new Ins.Goto(target));
+                                } else {
+                                        instructions.remove(i--);
+                                }
+                        }
+                }
+        }
+
+        /**
+         * optimize values inside the instruction (which is not a value)
+         *
+         * @param ins instruction
+         */
+        private void optimizeInstruction(Instruction ins) {
+                if (ins instanceof Ins.TStore) {
+                        Ins.TStore store = (Ins.TStore) ins;
+                        store.setNewValue(optimizeValue(store.newValue(), store.newValue().type()));
+                } else if (ins instanceof Ins.TReturn) {
+                        Ins.TReturn ret = (Ins.TReturn) ins;
+                        if (ret.value() != null) {
+                                ret.setReturnValue(optimizeValue(ret.value(), ret.value().type()));
+                        }
+                } else if (ins instanceof Ins.PutField) {
+                        Ins.PutField putField = (Ins.PutField) ins;
+                        putField.setValue(optimizeValue(putField.value(), putField.value().type()));
+                } else if (ins instanceof Ins.PutStatic) {
+                        Ins.PutStatic putStatic = (Ins.PutStatic) ins;
+                        putStatic.setValue(optimizeValue(putStatic.value(), putStatic.value().type()));
+                } else if (ins instanceof Ins.IfEq) {
+                        Ins.IfEq ifEq = (Ins.IfEq) ins;
+                        ifEq.setCondition(optimizeValue(ifEq.condition(), ifEq.condition().type()));
+                } else if (ins instanceof Ins.IfNe) {
+                        Ins.IfNe ifNe = (Ins.IfNe) ins;
+                        ifNe.setCondition(optimizeValue(ifNe.condition(), ifNe.condition().type()));
+                }
+        }
+
+        /**
+         * optimize the value, the result type is kept
+         *
+         * @param v            the value
+         * @param requiredType the type of the original value
+         * @return the optimized value or the original value
+         */
+        private Value optimizeValue(Value v, STypeDef requiredType) {
+                Value res = optimizeValue(v);
+                if (res == v || requiredType == null || res.type() == null) return v;
+                if (requiredType instanceof PrimitiveTypeDef || res.type() instanceof PrimitiveTypeDef) {
+                        // primitive types should be exactly the same
+                        if (!requiredType.equals(res.type())) return v;
+                }
+                return res;
+        }
+
+        /**
+         * optimize the value
+         *
+         * @param v the value
+         * @return the optimized value, or the original value if it cannot be optimized
+         */
+        private Value optimizeValue(Value v) {
+                if (v instanceof Instruction && referenced.contains(v)) {
+                        // labels are bound to the instruction
+                        optimizeChildren(v);
+                        return v;
+                }
+                optimizeChildren(v);
+
+                if (v instanceof Ins.TwoVarOp) {
+                        Ins.TwoVarOp op = (Ins.TwoVarOp) v;
+                        Value a = optimizeValue(op.a(), op.a().type());
+                        Value b = optimizeValue(op.b(), op.b().type());
+                        if (a != op.a() || b != op.b()) {
+                                op = new Ins.TwoVarOp(a, b, op.op(), op.type(), op.line_col());
+                        }
+                        Value folded = fold(op);
+                        return folded == null ? op : folded;
+                } else if (v instanceof Ins.OneVarOp) {
+                        Ins.OneVarOp op = (Ins.OneVarOp) v;
+                        Value value = optimizeValue(op.value(), op.value().type());
+                        if (value != op.value()) {
+                                op = new Ins.OneVarOp(value, op.op(), op.type(), op.line_col());
+                        }
+                        Value folded = fold(op);
+                        return folded == null ? op : folded;
+                } else if (v instanceof Ins.Cast) {
+                        Ins.Cast cast = (Ins.Cast) v;
+                        Value value = optimizeValue(cast.value(), cast.value().type());
+                        if (value != cast.value()) {
+                                cast = new Ins.Cast(cast.type(), value, cast.castMode(), cast.line_col());
+                        }
+                        Value folded = fold(cast);
+                        return folded == null ? cast : folded;
+                } else if (v instanceof Ins.CheckCast) {
+                        Ins.CheckCast checkCast = (Ins.CheckCast) v;
+                        Value value = optimizeValue(checkCast.theValueToCheck(), checkCast.theValueToCheck().type());
+                        if (value != checkCast.theValueToCheck()) {
+                                checkCast = new Ins.CheckCast(value, checkCast.type(), checkCast.line_col());
+                                v = checkCast;
+                        }
+                        // the static type of some values (e.g. ValueAnotherType) is not checked by the jvm,
+                        // so only casting to Object and casting the same value twice are removed
+                        STypeDef required = v.type();
+                        if (value.type() != null && !(value.type() instanceof PrimitiveTypeDef)
+                                && (required.fullName().equals("java.lang.Object")
+                                || (value instanceof Ins.CheckCast && required.equals(value.type())))) {
+                                return value;
+                        }
+                } else if (v instanceof Ins.InvokeStatic) {
+                        Value unboxed = unbox((Ins.InvokeStatic) v);
+                        if (unboxed != null) return unboxed;
+                } else if (v instanceof ValuePack) {
+                        List<Instruction> instructions = ((ValuePack) v).instructions();
+                        if (instructions.size() == 1 && instructions.get(0) instanceof Value) {
+                                Value only = (Value) instructions.get(0);
+                                if (only.type() != null && only.type().equals(v.type()) && !referenced.contains(only)) {
+                                        return only;
+                                }
+                        }
+                }
+                return v;
+        }
+
+        /**
+         * optimize the values inside the value
+         *
+         * @param v the value
+         */
+        private void optimizeChildren(Value v) {
+                if (v instanceof ValuePack) {
+                        ValuePack pack = (ValuePack) v;
+                        optimizeStatements(pack.instructions(), pack.autoPop(), false);
+                        if (pack.autoPop()) {
+                                removeRedundantJumps(pack.instructions(), false);
+                        }
+                } else if (v instanceof Ins.Invoke) {
+                        if (v instanceof Ins.InvokeWithTarget) {
+                                Ins.InvokeWithTarget invoke = (Ins.InvokeWithTarget) v;
+                                if (invoke.target() != null) {
+                                        invoke.setTarget(optimizeValue(invoke.target(), invoke.target().type()));
+                                }
+                        }
+                        optimizeList(((Ins.Invoke) v).arguments());
+                } else if (v instanceof Ins.New) {
+                        optimizeList(((Ins.New) v).args());
+                } else if (v instanceof Ins.NewList) {
+                        optimizeList(((Ins.NewList) v).initValues());
+                } else if (v instanceof Ins.ANewArray) {
+                        optimizeList(((Ins.ANewArray) v).initValues());
+                } else if (v instanceof Ins.NewArray) {
+                        optimizeList(((Ins.NewArray) v).initValues());
+                }
+        }
+
+        private void optimizeList(List<Value> values) {
+                for (int i = 0; i < values.size(); ++i) {
+                        Value v = values.get(i);
+                        if (v != null) {
+                                values.set(i, optimizeValue(v, v.type()));
+                        }
+                }
+        }
+
+        /**
+         * the value can be removed if it's not used
+         *
+         * @param v the value
+         * @return true if evaluating the value has no side effect
+         */
+        private boolean isPure(Value v) {
+                return v instanceof PrimitiveValue
+                        || v instanceof StringConstantValue
+                        || v instanceof NullValue
+                        || v instanceof Ins.This
+                        || v instanceof Ins.TLoad
+                        || (v instanceof Ins.GetStatic && ((Ins.GetStatic) v).field().declaringType().fullName().equals("lt.lang.Unit"))
+                        || isUnitGet(v)
+                        || (v instanceof ValueAnotherType && isPure(((ValueAnotherType) v).value()));
+        }
+
+        /**
+         * @param v the value
+         * @return true if the value is <code>lt.lang.Unit.get()</code>
+         */
+        private static boolean isUnitGet(Value v) {
+                if (!(v instanceof Ins.InvokeStatic)) return false;
+                SInvokable invokable = ((Ins.InvokeStatic) v).invokable();
+                return invokable instanceof SMethodDef
+                        && ((SMethodDef) invokable).name().equals("get")
+                        && invokable.getParameters().isEmpty()
+                        && invokable.declaringType().fullName().equals("lt.lang.Unit");
+        }
+
+        /**
+         * remove nops which are not jump targets, jumps to the next instruction and unreachable instructions
+         *
+         * @param instructions the instructions
+         * @param removeLast   the last instruction can be removed
+         * @return true if the list is changed
+         */
+        private boolean removeRedundantJumps(List<Instruction> instructions, boolean removeLast) {
+                boolean changed = false;
+                for (int i = 0; i < instructions.size(); ++i) {
+                        Instruction ins = instructions.get(i);
+                        boolean isLast = i == instructions.size() - 1;
+                        if (isLast && !removeLast) break;
+
+                        if (ins instanceof Ins.Nop && !referenced.contains(ins)) {
+                                instructions.remove(i--);
+                                changed = true;
+                                continue;
+                        }
+                        if (ins instanceof Ins.Goto && !referenced.contains(ins)
+                                && !isLast && instructions.get(i + 1) == ((Ins.Goto) ins).gotoIns()) {
+                                instructions.remove(i--);
+                                changed = true;
+                                continue;
+                        }
+                        if (ins instanceof Ins.Goto || ins instanceof Ins.TReturn || ins instanceof Ins.AThrow) {
+                                // instructions after the jump are not reachable until a jump target
+                                while (i + 1 < instructions.size()
+                                        && (removeLast || i + 1 < instructions.size() - 1)
+                                        && !containsReferenced(instructions.get(i + 1))) {
+                                        instructions.remove(i + 1);
+                                        changed = true;
+                                }
+                        }
+                }
+                return changed;
+        }
+
+        /**
+         * fold operations on constants
+         *
+         * @param op operation
+         * @return the result or null if it cannot be folded
+         */
+        private Value fold(Ins.TwoVarOp op) {
+                Value a = op.a();
+                Value b = op.b();
+                int code = op.op();
+                if (a instanceof IntValue && b instanceof IntValue) {
+                        int x = ((IntValue) a).getValue();
+                        int y = ((IntValue) b).getValue();
+                        switch (code) {
+                                case Ins.TwoVarOp.Iadd:
+                                        return new IntValue(x + y);
+                                case Ins.TwoVarOp.Isub:
+                                        return new IntValue(x - y);
+                                case Ins.TwoVarOp.Imul:
+                                        return new IntValue(x * y);
+                                case Ins.TwoVarOp.Idiv:
+                                        return y == 0 ? null : new IntValue(x / y);
+                                case Ins.TwoVarOp.Irem:
+                                        return y == 0 ? null : new IntValue(x % y);
+                                case Ins.TwoVarOp.Ishl:
+                                        return new IntValue(x << y);
+                                case Ins.TwoVarOp.Ishr:
+                                        return new IntValue(x >> y);
+                                case Ins.TwoVarOp.Iushr:
+                                        return new IntValue(x >>> y);
+                                case Ins.TwoVarOp.Iand:
+                                        return new IntValue(x & y);
+                                case Ins.TwoVarOp.Ior:
+                                        return new IntValue(x | y);
+                                case Ins.TwoVarOp.Ixor:
+                                        return new IntValue(x ^ y);
+                        }
+                } else if (a instanceof LongValue && b instanceof IntValue) {
+                        long x = ((LongValue) a).getValue();
+                        int y = ((IntValue) b).getValue();
+                        switch (code) {
+                                case Ins.TwoVarOp.Lshl:
+                                        return new LongValue(x << y);
+                                case Ins.TwoVarOp.Lshr:
+                                        return new LongValue(x >> y);
+                                case Ins.TwoVarOp.Lushr:
+                                        return new LongValue(x >>> y);
+                        }
+                } else if (a instanceof LongValue && b instanceof LongValue) {
+                        long x = ((LongValue) a).getValue();
+                        long y = ((LongValue) b).getValue();
+                        switch (code) {
+                                case Ins.TwoVarOp.Ladd:
+                                        return new LongValue(x + y);
+                                case Ins.TwoVarOp.Lsub:
+                                        return new LongValue(x - y);
+                                case Ins.TwoVarOp.Lmul:
+                                        return new LongValue(x * y);
+                                case Ins.TwoVarOp.Ldiv:
+                                        return y == 0 ? null : new LongValue(x / y);
+                                case Ins.TwoVarOp.Lrem:
+                                        return y == 0 ? null : new LongValue(x % y);
+                                case Ins.TwoVarOp.Land:
+                                        return new LongValue(x & y);
+                                case Ins.TwoVarOp.Lor:
+                                        return new LongValue(x | y);
+                                case Ins.TwoVarOp.Lxor:
+                                        return new LongValue(x ^ y);
+                                case Ins.TwoVarOp.Lcmp:
+                                        return new IntValue(x < y ? -1 : (x == y ? 0 : 1));
+                        }
+                } else if (a instanceof FloatValue && b instanceof FloatValue) {
+                        float x = ((FloatValue) a).getValue();
+                        float y = ((FloatValue) b).getValue();
+                        switch (code) {
+                                case Ins.TwoVarOp.Fadd:
+                                        return new FloatValue(x + y);
+                                case Ins.TwoVarOp.Fsub:
+                                        return new FloatValue(x - y);
+                                case Ins.TwoVarOp.Fmul:
+                                        return new FloatValue(x * y);
+                                case Ins.TwoVarOp.Fdiv:
+                                        return new FloatValue(x / y);
+                                case Ins.TwoVarOp.Frem:
+                                        return new FloatValue(x % y);
+                                case Ins.TwoVarOp.Fcmpg:
+                                        return new IntValue(x < y ? -1 : (x == y ? 0 : 1));
+                                case Ins.TwoVarOp.Fcmpl:
+                                        return new IntValue(x > y ? 1 : (x == y ? 0 : -1));
+                        }
+                } else if (a instanceof DoubleValue && b instanceof DoubleValue) {
+                        double x = ((DoubleValue) a).getValue();
+                        double y = ((DoubleValue) b).getValue();
+                        switch (code) {
+                                case Ins.TwoVarOp.Dadd:
+                                        return new DoubleValue(x + y);
+                                case Ins.TwoVarOp.Dsub:
+                                        return new DoubleValue(x - y);
+                                case Ins.TwoVarOp.Dmul:
+                                        return new DoubleValue(x * y);
+                                case Ins.TwoVarOp.Ddiv:
+                                        return new DoubleValue(x / y);
+                                case Ins.TwoVarOp.Drem:
+                                        return new DoubleValue(x % y);
+                                case Ins.TwoVarOp.Dcmpg:
+                                        return new IntValue(x < y ? -1 : (x == y ? 0 : 1));
+                                case Ins.TwoVarOp.Dcmpl:
+                                        return new IntValue(x > y ? 1 : (x == y ? 0 : -1));
+                        }
+                }
+                return null;
+        }
+
+        private Value fold(Ins.OneVarOp op) {
+                Value v = op.value();
+                switch (op.op()) {
+                        case Ins.OneVarOp.Ineg:
+                                return v instanceof IntValue ? new IntValue(-((IntValue) v).getValue()) : null;
+                        case Ins.OneVarOp.Lneg:
+                                return v instanceof LongValue ? new LongValue(-((LongValue) v).getValue()) : null;
+                        case Ins.OneVarOp.Fneg:
+                                return v instanceof FloatValue ? new FloatValue(-((FloatValue) v).getValue()) : null;
+                        case Ins.OneVarOp.Dneg:
+                                return v instanceof DoubleValue ? new DoubleValue(-((DoubleValue) v).getValue()) : null;
+                }
+                return null;
+        }
+
+        private Value fold(Ins.Cast cast) {
+                Value v = cast.value();
+                if (v instanceof IntValue) {
+                        int i = ((IntValue) v).getValue();
+                        switch (cast.castMode()) {
+                                case Ins.Cast.CAST_INT_TO_LONG:
+                                        return new LongValue(i);
+                                case Ins.Cast.CAST_INT_TO_FLOAT:
+                                        return new FloatValue(i);
+                                case Ins.Cast.CAST_INT_TO_DOUBLE:
+                                        return new DoubleValue(i);
+                        }
+                } else if (v instanceof LongValue) {
+                        long l = ((LongValue) v).getValue();
+                        switch (cast.castMode()) {
+                                case Ins.Cast.CAST_LONG_TO_INT:
+                                        return new IntValue((int) l);
+                                case Ins.Cast.CAST_LONG_TO_FLOAT:
+                                        return new FloatValue(l);
+                                case Ins.Cast.CAST_LONG_TO_DOUBLE:
+                                        return new DoubleValue(l);
+                        }
+                } else if (v instanceof FloatValue) {
+                        float f = ((FloatValue) v).getValue();
+                        switch (cast.castMode()) {
+                                case Ins.Cast.CAST_FLOAT_TO_INT:
+                                        return new IntValue((int) f);
+                                case Ins.Cast.CAST_FLOAT_TO_LONG:
+                                        return new LongValue((long) f);
+                                case Ins.Cast.CAST_FLOAT_TO_DOUBLE:
+                                        return new DoubleValue(f);
+                        }
+                } else if (v instanceof DoubleValue) {
+                        double d = ((DoubleValue) v).getValue();
+                        switch (cast.castMode()) {
+                                case Ins.Cast.CAST_DOUBLE_TO_INT:
+                                        return new IntValue((int) d);
+                                case Ins.Cast.CAST_DOUBLE_TO_LONG:
+                                        return new LongValue((long) d);
+                                case Ins.Cast.CAST_DOUBLE_TO_FLOAT:
+                                        return new FloatValue((float) d);
+                        }
+                }
+                return null;
+        }
+
+        /**
+         * <code>LtRuntime.castToInt(Integer.valueOf(i))</code> is simplified to <code>i</code>
+         *
+         * @param invoke the invocation
+         * @return the primitive value, or null if it's not unboxing a boxed primitive
+         */
+        private Value unbox(Ins.InvokeStatic invoke) {
+                if (invoke.arguments().size() != 1) return null;
+                SInvokable unboxMethod = invoke.invokable();
+                if (!(unboxMethod instanceof SMethodDef)
+                        || !unboxMethod.declaringType().fullName().equals("lt.runtime.LtRuntime")
+                        || !((SMethodDef) unboxMethod).name().startsWith("castTo")) return null;
+                Value arg = invoke.arguments().get(0);
+                if (!(arg instanceof Ins.InvokeStatic) || referenced.contains(arg)) return null;
+                Ins.InvokeStatic box = (Ins.InvokeStatic) arg;
+                if (box.arguments().size() != 1) return null;
+                SInvokable boxMethod = box.invokable();
+                if (!(boxMethod instanceof SMethodDef) || !((SMethodDef) boxMethod).name().equals("valueOf")) return null;
+                Value primitive = box.arguments().get(0);
+                STypeDef type = invoke.type();
+                if (!(type instanceof PrimitiveTypeDef) || !type.equals(primitive.type())) return null;
+                if (!boxMethod.declaringType().fullName().equals(boxedTypeName(type))) return null;
+                return primitive;
+        }
+
+        private static String boxedTypeName(STypeDef primitive) {
+                if (primitive instanceof IntTypeDef) return "java.lang.Integer";
+                if (primitive instanceof LongTypeDef) return "java.lang.Long";
+                if (primitive instanceof FloatTypeDef) return "java.lang.Float";
+                if (primitive instanceof DoubleTypeDef) return "java.lang.Double";
+                if (primitive instanceof ShortTypeDef) return "java.lang.Short";
+                if (primitive instanceof ByteTypeDef) return "java.lang.Byte";
+                if (primitive instanceof CharTypeDef) return "java.lang.Character";
+                if (primitive instanceof BoolTypeDef) return "java.lang.Boolean";
+                return null;
+        }
+}
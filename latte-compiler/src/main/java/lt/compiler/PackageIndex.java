@@ -0,0 +1,268 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 KuiGang Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package lt.compiler;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * a set of package names, built once for the JRE and each class-path jar, and shared between processors.<br>
+ * a package exists if any entry is inside the package or its sub packages.
+ */
+public class PackageIndex {
+        private static PackageIndex jre;
+        private static boolean jreSearched = false;
+        private static final Map<String, PackageIndex> jars = new HashMap<String, PackageIndex>();
+        /**
+         * the JRE index is persisted into the directory if it's not null
+         */
+        private static File persistentDirectory;
+
+        private final Set<String> packages;
+
+        private PackageIndex(Set<String> packages) {
+                this.packages = packages;
+        }
+
+        /**
+         * @param pkg package name, e.g. java.util
+         * @return true if the package exists
+         */
+        public boolean contains(String pkg) {
+                return packages.contains(pkg);
+        }
+
+        public int size() {
+                return packages.size();
+        }
+
+        /**
+         * set the directory to persist the JRE index
+         *
+         * @param dir directory, or null to disable persisting
+         */
+        public static synchronized void setPersistentDirectory(File dir) {
+                persistentDirectory = dir;
+        }
+
+        /**
+         * get the package index of the running JRE
+         *
+         * @return the index or null if the JRE classes are not found
+         */
+        public static synchronized PackageIndex jre() {
+                if (!jreSearched) {
+                        jreSearched = true;
+                        jre = buildJRE();
+                }
+                return jre;
+        }
+
+        /**
+         * get the package index of the jar. the index is rebuilt when the jar changes
+         *
+         * @param jar jar file
+         * @return the index or null if the file is not a valid jar
+         */
+        public static PackageIndex jar(File jar) {
+                String key = jar.getAbsolutePath() + "(" + jar.length() + "," + jar.lastModified() + ")";
+                synchronized (jars) {
+                        if (jars.containsKey(key)) return jars.get(key);
+                }
+                PackageIndex index;
+                try {
+                        Set<String> packages = new HashSet<String>();
+                        addZip(jar, packages);
+                        index = new PackageIndex(packages);
+                } catch (IOException e) {
+                        index = null;
+                }
+                synchronized (jars) {
+                        jars.put(key, index);
+                }
+                return index;
+        }
+
+        private static PackageIndex buildJRE() {
+                String homePath = System.getProperty("java.home");
+                if (homePath == null) return null;
+                File home = new File(homePath);
+
+                // the file may be in $JAVA_HOME/../Contents/Classes/classes.jar
+                // instead of $JAVA_HOME/lib/rt.jar
+                List<File> files = new ArrayList<File>();
+                File classesJar = new File(home.getParentFile(), "Classes" + File.separator + "classes.jar");
+                File rtJar = new File(home, "lib" + File.separator + "rt.jar");
+                // java 9 image
+                File modules = new File(home, "lib" + File.separator + "modules");
+                if (classesJar.isFile()) {
+                        files.add(classesJar);
+                } else if (rtJar.isFile()) {
+                        files.add(rtJar);
+                } else if (modules.isFile()) {
+                        files.add(modules);
+                } else {
+                        // java 9 mods
+                        File[] mods = new File(home, "jmods").listFiles(new FileFilter() {
+                                @Override
+                                public boolean accept(File file) {
+                                        return file.getName().endsWith(".jmod") && file.isFile();
+                                }
+                        });
+                        if (mods == null || mods.length == 0) return null;
+                        files.addAll(Arrays.asList(mods));
+                }
+
+                String key = homePath + "|" + System.getProperty("java.version");
+                for (File f : files) {
+                        key += "|" + f.getName() + "," + f.length() + "," + f.lastModified();
+                }
+                File persistentFile = persistentDirectory == null
+                        ? null
+                        : new File(persistentDirectory, "jre-" + Integer.toHexString(key.hashCode()) + ".index");
+
+                Set<String> packages = readPersistent(persistentFile, key);
+                if (packages != null) return new PackageIndex(packages);
+
+                packages = new HashSet<String>();
+                try {
+                        if (files.get(0) == modules) {
+                                if (!addJrt(packages)) return null;
+                        } else {
+                                for (File f : files) {
+                                        addZip(f, packages);
+                                }
+                        }
+                } catch (IOException e) {
+                        return null;
+                }
+                writePersistent(persistentFile, key, packages);
+                return new PackageIndex(packages);
+        }
+
+        private static Set<String> readPersistent(File file, String key) {
+                if (file == null || !file.isFile()) return null;
+                try {
+                        BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+                        try {
+                                if (!key.equals(br.readLine())) return null;
+                                Set<String> packages = new HashSet<String>();
+                                String line;
+                                while ((line = br.readLine()) != null) {
+                                        packages.add(line);
+                                }
+                                return packages;
+                        } finally {
+                                br.close();
+                        }
+                } catch (IOException e) {
+                        return null;
+                }
+        }
+
+        private static void writePersistent(File file, String key, Set<String> packages) {
+                if (file == null) return;
+                File dir = file.getParentFile();
+                if (!dir.isDirectory() && !dir.mkdirs()) return;
+                try {
+                        Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+                        try {
+                                w.write(key);
+                                w.write("\n");
+                                for (String pkg : packages) {
+                                        w.write(pkg);
+                                        w.write("\n");
+                                }
+                        } finally {
+                                w.close();
+                        }
+                } catch (IOException ignore) {
+                        // the index will be built again next time
+                }
+        }
+
+        private static void addZip(File file, Set<String> packages) throws IOException {
+                ZipFile zip = new ZipFile(file);
+                try {
+                        Enumeration<? extends ZipEntry> entries = zip.entries();
+                        while (entries.hasMoreElements()) {
+                                String name = entries.nextElement().getName();
+                                // jmod files put classes into classes/
+                                if (name.startsWith("classes/")) {
+                                        name = name.substring("classes/".length());
+                                }
+                                int index = name.lastIndexOf('/');
+                                if (index <= 0) continue;
+                                addPackage(name.substring(0, index).replace('/', '.'), packages);
+                        }
+                } finally {
+                        zip.close();
+                }
+        }
+
+        /**
+         * list /packages in the jrt file system. the nio classes are retrieved with reflection
+         *
+         * @param packages the package set to fill
+         * @return false if jrt file system is not available
+         */
+        private static boolean addJrt(Set<String> packages) {
+                try {
+                        Class<?> FileSystems = Class.forName("java.nio.file.FileSystems");
+                        Class<?> FileSystem = Class.forName("java.nio.file.FileSystem");
+                        Class<?> Files = Class.forName("java.nio.file.Files");
+                        Class<?> Path = Class.forName("java.nio.file.Path");
+
+                        Object fs = FileSystems.getMethod("getFileSystem", URI.class).invoke(null, URI.create("jrt:/"));
+                        Object dir = FileSystem.getMethod("getPath", String.class, String[].class).invoke(fs, "/packages", new String[0]);
+                        Method getFileName = Path.getMethod("getFileName");
+                        Closeable stream = (Closeable) Files.getMethod("newDirectoryStream", Path).invoke(null, dir);
+                        try {
+                                for (Object p : (Iterable<?>) stream) {
+                                        addPackage(getFileName.invoke(p).toString(), packages);
+                                }
+                        } finally {
+                                stream.close();
+                        }
+                        return true;
+                } catch (Exception e) {
+                        return false;
+                }
+        }
+
+        private static void addPackage(String pkg, Set<String> packages) {
+                // add the package and its parent packages
+                while (packages.add(pkg)) {
+                        int index = pkg.lastIndexOf('.');
+                        if (index == -1) break;
+                        pkg = pkg.substring(0, index);
+                }
+        }
+}
@@ -136,6 +136,16 @@ public class Parser {
                 }
         }
 
+        /**
+         * check whether the statements parsed so far affect parsing of following statements.<br>
+         * used variable names, modifiers and annotations are carried to the following statements
+         *
+         * @return true if following statements can be parsed by another parser
+         */
+        public boolean leavesNoState() {
+                return usedVarNames.isEmpty() && modifiers.isEmpty() && annos.isEmpty();
+        }
+
         private <E> Set<E> getAndClear(Set<E> set) {
                 Set<E> s = new HashSet<E>(set);
                 set.clear();
@@ -5,6 +5,7 @@ import lt.compiler.semantic.SInterfaceDef;
 import lt.compiler.semantic.STypeDef;
 import lt.dependencies.asm.ClassWriter;
 
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -13,14 +14,35 @@ import java.util.Map;
  */
 public class SClassWriter extends ClassWriter {
         private final Map<String, STypeDef> typeDefMap;
+        private final Map<String, String> commonSuperClassCache;
 
         public SClassWriter(int flags, Map<String, STypeDef> typeDefMap) {
+                this(flags, typeDefMap, new HashMap<String, String>());
+        }
+
+        /**
+         * @param flags                 ClassWriter flags
+         * @param typeDefMap            a map of type name to its representing object
+         * @param commonSuperClassCache resolved common super classes, may be shared between writers
+         */
+        public SClassWriter(int flags, Map<String, STypeDef> typeDefMap, Map<String, String> commonSuperClassCache) {
                 super(flags);
                 this.typeDefMap = typeDefMap;
+                this.commonSuperClassCache = commonSuperClassCache;
         }
 
         @Override
         protected String getCommonSuperClass(String type1, String type2) {
+                String key = type1.compareTo(type2) <= 0 ? type1 + ";" + type2 : type2 + ";" + type1;
+                String result = commonSuperClassCache.get(key);
+                if (result == null) {
+                        result = resolveCommonSuperClass(type1, type2);
+                        commonSuperClassCache.put(key, result);
+                }
+                return result;
+        }
+
+        private String resolveCommonSuperClass(String type1, String type2) {
                 // try to get class info from typeMap
                 STypeDef sc = typeDefMap.get(type1.replace('/', '.'));
                 STypeDef sd = typeDefMap.get(type2.replace('/', '.'));
@@ -49,10 +49,8 @@ import java.lang.annotation.Annotation;
 import java.lang.annotation.ElementType;
 import java.lang.reflect.*;
 import java.net.URL;
+import java.net.URLClassLoader;
 import java.util.*;
-import java.util.jar.JarFile;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 /**
  * semantic processor
@@ -82,6 +80,10 @@ public class SemanticProcessor {
          * one type should only exist once in a Processor
          */
         public Map<String, STypeDef> types = new HashMap<String, STypeDef>();
+        /**
+         * held while loading members of imported types, because loading adds to {@link #types}
+         */
+        private final Object memberLoadLock = new Object();
         /**
          * full name to {@link ClassDef} from {@link Parser}
          */
@@ -102,6 +104,15 @@ public class SemanticProcessor {
          * {@link SMethodDef} to it's containing statements
          */
         public Map<SMethodDef, List<Statement>> methodToStatements = new HashMap<SMethodDef, List<Statement>>();
+        /**
+         * the statements being parsed of methods (including inner methods and lambdas).
+         * it's used to check whether a local variable is assigned after being captured
+         */
+        private final Map<InvokableMeta, List<Statement>> metaToStatements = new HashMap<InvokableMeta, List<Statement>>();
+        /**
+         * local variables whose init values are being parsed
+         */
+        private final Set<LeftValue> definingLocalVariables = new HashSet<LeftValue>();
         /**
          * file name to Import info
          */
@@ -119,6 +130,14 @@ public class SemanticProcessor {
          * retrieve existing classes from this class loader
          */
         public final ClassLoader classLoader;
+        /**
+         * annotation =&gt; default values retrieved from its class file
+         */
+        private final Map<SAnnoDef, Map<String, Object>> annotationDefaultsFromClassFile = new HashMap<SAnnoDef, Map<String, Object>>();
+        /**
+         * class file info retrieved by {@link #typeExists(String)}
+         */
+        private final Map<String, ClassFileInfo> classFileInfoOfCheckedTypes = new HashMap<String, ClassFileInfo>();
         /**
          * error manager
          */
@@ -128,9 +147,34 @@ public class SemanticProcessor {
          */
         public boolean enableTypeAccess = true;
         /**
-         * source files
+         * release statements from {@link Parser} as soon as they are analysed, so that the memory is freed progressively
+         */
+        public boolean releaseStatements = false;
+        /**
+         * collects time of the steps
+         */
+        public CompilerMetrics metrics = CompilerMetrics.DISABLED;
+        /**
+         * the java version of the generated byte code. when it's at least 8, lambdas
+         * which implement interfaces are built with LambdaMetafactory instead of classes
+         */
+        public int target = 6;
+        /**
+         * nonnull/nonempty parameters and local variables are checked at runtime
          */
-        private static List<ZipFile> sourceClasses = new LinkedList<ZipFile>();
+        public static final int NONNULL_CHECK_ALL = 0;
+        /**
+         * only parameters of public methods and constructors in public types are checked at runtime
+         */
+        public static final int NONNULL_CHECK_PUBLIC = 1;
+        /**
+         * nonnull/nonempty is not checked at runtime
+         */
+        public static final int NONNULL_CHECK_NONE = 2;
+        /**
+         * one of {@link #NONNULL_CHECK_ALL}, {@link #NONNULL_CHECK_PUBLIC}, {@link #NONNULL_CHECK_NONE}
+         */
+        public int nonnullCheck = NONNULL_CHECK_ALL;
         private boolean alreadyWarnJar = false;
 
         /**
@@ -216,6 +260,7 @@ public class SemanticProcessor {
          * @throws SyntaxException compile error
          */
         public Set<STypeDef> parse() throws SyntaxException {
+                CompilerMetrics.Timer timer = metrics.start("semantic.step1", null);
                 Map<String, List<ClassDef>> fileNameToClassDef = new HashMap<String, List<ClassDef>>();
                 Map<String, List<InterfaceDef>> fileNameToInterfaceDef = new HashMap<String, List<InterfaceDef>>();
                 Map<String, List<FunDef>> fileNameToFunctions = new HashMap<String, List<FunDef>>();
@@ -493,15 +538,32 @@ public class SemanticProcessor {
                         }
                 }
 
+                timer.stop();
+                timer = metrics.start("semantic.step2", null);
                 step2(fileNameToClassDef, fileNameToInterfaceDef,
                         fileNameToFunctions, fileNameToPackageName,
                         fileNameToObjectDef, fileNameToAnnotationDef);
+                timer.stop();
+                timer = metrics.start("semantic.step3", null);
                 step3(fileNameToPackageName, fileNameToFunctions);
+                timer.stop();
+                if (releaseStatements) {
+                        // signatures are built, the remaining statements are retrieved from
+                        // originalClasses, originalInterfaces, originalObjects and methodToStatements
+                        mapOfStatements.clear();
+                        fileNameToClassDef.clear();
+                        fileNameToInterfaceDef.clear();
+                        fileNameToFunctions.clear();
+                        fileNameToObjectDef.clear();
+                        fileNameToAnnotationDef.clear();
+                }
                 // ensures that @ImplicitImports and @StaticImports are loaded
                 getTypeWithName("lt.runtime.ImplicitImports", LineCol.SYNTHETIC);
                 getTypeWithName("lt.runtime.StaticImports", LineCol.SYNTHETIC);
                 getTypeWithName("java.lang.annotation.Retention", LineCol.SYNTHETIC);
+                timer = metrics.start("semantic.step4", null);
                 step4();
+                timer.stop();
                 addImportImplicit();
                 addImportStatic();
                 addRetention();
@@ -732,155 +794,38 @@ public class SemanticProcessor {
 
         public static boolean packageExistsInClassPath(String pkg, ClassLoader classLoader) {
                 if (classLoader == null) return false;
-                String path = pkg.replace(".", "/");
-                URL url = classLoader.getResource(path);
-                return url != null || packageExistsInClassPath(pkg, classLoader.getParent());
-        }
-
-        public boolean packageExistInJRE(String pkg) {
-                if (alreadyWarnJar) return true;
-                if (sourceClasses.isEmpty()) {
-                        String homePath = System.getProperty("java.home");
-                        if (homePath == null) {
-                                err.warning("Cannot find java home via System.getProperty('java.home')");
-                                alreadyWarnJar = true;
-                                return true; // assume it's a valid import
-                        }
-                        File homePathFile = new File(homePath);
-                        File[] rtFileA = null;
-
-                        boolean found = false;
-
-                        // the file may be in $JAVA_HOME/../Contents/Classes/classes.jar
-                        // instead of $JAVA_HOME/lib/rt.jar
-
-                        // check for classes.jar
-                        File[] classesFileA = homePathFile.getParentFile().listFiles(new FileFilter() {
-                                @Override
-                                public boolean accept(File f) {
-                                        return f.getName().equals("Classes");
-                                }
-                        });
-                        if (classesFileA != null && classesFileA.length != 0) {
-                                File classesFile = classesFileA[0];
-                                rtFileA = classesFile.listFiles(
-                                        new FileFilter() {
-                                                @Override
-                                                public boolean accept(File f) {
-                                                        return f.getName().equals("classes.jar");
-                                                }
-                                        });
-                                found = true;
-                        }
-
-                        // not found
-                        // check rt.jar
-                        if (!found) {
-                                File[] libFileA = homePathFile.listFiles(
-                                        new FileFilter() {
-                                                @Override
-                                                public boolean accept(File f) {
-                                                        return f.getName().equals("lib");
-                                                }
-                                        });
-                                if (libFileA == null || libFileA.length == 0) {
-                                        err.warning(homePath + "/lib not exist");
-                                        alreadyWarnJar = true;
-                                        return true;
-                                }
-                                File libFile = libFileA[0];
-                                rtFileA = libFile.listFiles(
-                                        new FileFilter() {
-                                                @Override
-                                                public boolean accept(File f) {
-                                                        return f.getName().equals("rt.jar");
-                                                }
-                                        });
-                                if (rtFileA != null && rtFileA.length > 0 && rtFileA[0].exists()) {
-                                        found = true;
-                                }
-                        }
-
-                        if (found) {
-                                File rtFile = rtFileA[0];
-                                if (!rtFile.exists()) {
-                                        err.warning(homePath + "/lib/rt.jar not exist");
-                                        alreadyWarnJar = true;
-                                        return true;
-                                }
+                if (classLoader instanceof URLClassLoader) {
+                        // check the indexed jars and the directories
+                        for (URL url : ((URLClassLoader) classLoader).getURLs()) {
+                                if (!url.getProtocol().equals("file")) continue;
+                                File f;
                                 try {
-                                        sourceClasses.add(new JarFile(rtFile));
-                                } catch (IOException e) {
-                                        err.warning("Occurred exception " + e + " when opening rt.jar");
-                                        alreadyWarnJar = true;
-                                        return true;
+                                        f = new File(url.toURI());
+                                } catch (Exception e) {
+                                        continue;
                                 }
-                        } else {
-                                // check java 9 mods
-                                if (!findJava9(homePathFile)) {
-                                        err.warning(homePath + "/lib/rt.jar not exist");
-                                        alreadyWarnJar = true;
-                                        return true;
+                                if (f.isDirectory()) {
+                                        if (new File(f, pkg.replace(".", File.separator)).isDirectory()) return true;
+                                } else if (f.isFile()) {
+                                        PackageIndex index = PackageIndex.jar(f);
+                                        if (index != null && index.contains(pkg)) return true;
                                 }
                         }
                 }
-                return findPackage(pkg, sourceClasses);
-        }
-
-        private boolean findJava9(File home) {
-                return findJava9JMods(home);
-        }
-
-        private boolean findJava9JMods(File home) {
-                File[] jmodsDirA = home.listFiles(new FileFilter() {
-                        @Override
-                        public boolean accept(File file) {
-                                return file.getName().equals("jmods") && file.isDirectory();
-                        }
-                });
-                if (jmodsDirA == null || jmodsDirA.length == 0) {
-                        return false;
-                }
-                File jmodsDir = jmodsDirA[0];
-                File[] mods = jmodsDir.listFiles(new FileFilter() {
-                        @Override
-                        public boolean accept(File file) {
-                                return file.getName().endsWith(".jmod") && file.isFile();
-                        }
-                });
-                if (mods == null || mods.length == 0) {
-                        return false;
-                }
-                for (File f : mods) {
-                        try {
-                                sourceClasses.add(new ZipFile(f));
-                        } catch (IOException e) {
-                                return false;
-                        }
-                }
-                return true;
-        }
-
-        private static boolean findPackage(String pkg, List<ZipFile> files) {
-                for (ZipFile f : files) {
-                        if (findPackage(pkg, f.entries())) {
-                                return true;
-                        }
-                }
-                return false;
+                String path = pkg.replace(".", "/");
+                URL url = classLoader.getResource(path);
+                return url != null || packageExistsInClassPath(pkg, classLoader.getParent());
         }
 
-        private static boolean findPackage(String pkg, Enumeration<? extends ZipEntry> entries) {
-                while (entries.hasMoreElements()) {
-                        ZipEntry entry = entries.nextElement();
-                        if (entry.getName().startsWith(pkg.replace(".", "/"))) {
-                                return true;
-                        }
-                        if (entry.getName().startsWith("classes/" + pkg.replace(".", "/"))) {
-                                return true;
-                        }
+        public boolean packageExistInJRE(String pkg) {
+                if (alreadyWarnJar) return true;
+                PackageIndex index = PackageIndex.jre();
+                if (index == null) {
+                        err.warning("Cannot find JRE classes in java home " + System.getProperty("java.home"));
+                        alreadyWarnJar = true;
+                        return true; // assume it's a valid import
                 }
-                return false;
+                return index.contains(pkg);
         }
 
         /**
@@ -1553,6 +1498,7 @@ public class SemanticProcessor {
                 }
 
                 // data class
+                CompilerMetrics.Timer timer = metrics.start("semantic.dataClass", null);
                 for (STypeDef typeDef : typeDefSet) {
                         if (typeDef instanceof SClassDef) {
                                 SClassDef cls = (SClassDef) typeDef;
@@ -1561,6 +1507,7 @@ public class SemanticProcessor {
                                 }
                         }
                 }
+                timer.stop();
         }
 
         private void checkAndFillAnnotations() throws SyntaxException {
@@ -1592,13 +1539,23 @@ public class SemanticProcessor {
                                 boolean isCompiledAnnotation = true;
                                 SAnnoDef annoDef = (SAnnoDef) typeDef;
                                 Class<?> cls = null;
-                                try {
-                                        cls = loadClass(annoDef.fullName());
-                                } catch (ClassNotFoundException e) {
-                                        isCompiledAnnotation = false;
+                                if (!annotationDefaultsFromClassFile.containsKey(annoDef)) {
+                                        try {
+                                                cls = loadClass(annoDef.fullName());
+                                        } catch (ClassNotFoundException e) {
+                                                isCompiledAnnotation = false;
+                                        }
                                 }
                                 // parse field default values
-                                if (isCompiledAnnotation) {
+                                if (annotationDefaultsFromClassFile.containsKey(annoDef)) {
+                                        Map<String, Object> defaults = annotationDefaultsFromClassFile.get(annoDef);
+                                        for (SAnnoField f : annoDef.annoFields()) {
+                                                Object o = defaults.get(f.name());
+                                                if (null != o) {
+                                                        f.setDefaultValue(parseValueFromObject(o));
+                                                }
+                                        }
+                                } else if (isCompiledAnnotation) {
                                         for (SAnnoField f : annoDef.annoFields()) {
                                                 try {
                                                         Method annoM = cls.getDeclaredMethod(f.name());
@@ -1814,6 +1771,7 @@ public class SemanticProcessor {
                                         SMethodDef method = methods.get(i);
                                         parseAnnoValues(method.annos());
                                         parseMethod(method, methodToStatements.get(method), scope);
+                                        if (releaseStatements) methodToStatements.remove(method);
                                 }
 
                                 // if not function
@@ -1858,6 +1816,11 @@ public class SemanticProcessor {
                                                 }
                                         }
                                 }
+
+                                if (releaseStatements) {
+                                        originalClasses.remove(sClassDef.fullName());
+                                        originalObjects.remove(sClassDef.fullName());
+                                }
                         } else if (sTypeDef instanceof SInterfaceDef) {
                                 SInterfaceDef sInterfaceDef = (SInterfaceDef) sTypeDef;
                                 InterfaceDef astInterface = originalInterfaces.get(sInterfaceDef.fullName());
@@ -1873,6 +1836,7 @@ public class SemanticProcessor {
                                 for (int i = 0; i < methodSize; ++i) {
                                         SMethodDef method = methods.get(i);
                                         parseMethod(method, methodToStatements.get(method), scope);
+                                        if (releaseStatements) methodToStatements.remove(method);
                                 }
 
                                 // parse static
@@ -1900,6 +1864,10 @@ public class SemanticProcessor {
                                                         true);
                                         }
                                 }
+
+                                if (releaseStatements) {
+                                        originalInterfaces.remove(sInterfaceDef.fullName());
+                                }
                         } else if (!(sTypeDef instanceof SAnnoDef)) {
                                 throw new LtBug("wrong STypeDefType " + sTypeDef.getClass());
                         }
@@ -2090,65 +2058,63 @@ public class SemanticProcessor {
 
                 LineCol lineCol = new LineCol(cls.line_col().fileName, 0, 0);
 
+                // the field types are known, so the methods are built with instructions
+                // and specialized on primitive types
+                List<SFieldDef> instanceFields = new ArrayList<SFieldDef>();
+                for (SFieldDef f : cls.fields()) {
+                        if (!f.modifiers().contains(SModifier.STATIC)) instanceFields.add(f);
+                }
+
                 if (toStringOverride == null) {
                         // toString():String
-                        //     return "SimpleName("+
-                        //     "field="+field+
-                        //     ", field2="+field2+
-                        //     ...+
-                        //     ")"
+                        //     return StringBuilder(capacity)
+                        //         .append("SimpleName(")
+                        //         .append("field=").append(this.field)
+                        //         .append(", field2=").append(this.field2)
+                        //         ...
+                        //         .append(")").toString()
                         toStringOverride = new SMethodDef(lineCol);
                         toStringOverride.setName("toString");
                         toStringOverride.setDeclaringType(cls);
                         cls.methods().add(toStringOverride);
-                        toStringOverride.setReturnType(getTypeWithName("java.lang.String", lineCol));
+                        SClassDef stringType = (SClassDef) getTypeWithName("java.lang.String", lineCol);
+                        toStringOverride.setReturnType(stringType);
                         toStringOverride.modifiers().add(SModifier.PUBLIC);
 
-                        // SimpleName(
-                        Expression lastExp = new StringLiteral("\"" + simpleName + "(\"", lineCol);
-                        // fields
+                        // presize the builder: literals and about 8 chars for each value
+                        int capacity = simpleName.length() + 2;
+                        for (SFieldDef f : instanceFields) {
+                                capacity += f.name().length() + 3 + 8;
+                        }
+                        Value sb = newStringBuilder(capacity, lineCol);
+                        StringBuilder literal = new StringBuilder(simpleName).append("(");
                         boolean isFirst = true;
-                        for (SFieldDef f : cls.fields()) {
-                                if (f.modifiers().contains(SModifier.STATIC)) continue;
-                                String literal = "";
+                        for (SFieldDef f : instanceFields) {
                                 if (isFirst) {
                                         isFirst = false;
                                 } else {
-                                        literal = ", ";
+                                        literal.append(", ");
                                 }
-                                literal += (f.name() + "=");
+                                literal.append(f.name()).append("=");
+                                sb = invokeStringBuilderAppend(sb, dataClassStringConstant(literal.toString(), stringType), lineCol);
+                                literal.setLength(0);
 
-                                StringLiteral s = new StringLiteral("\"" + literal + "\"", lineCol);
-                                lastExp = new TwoVariableOperation(
-                                        "+", lastExp, s, lineCol
-                                );
-                                lastExp = new TwoVariableOperation(
-                                        "+", lastExp, new AST.Access(
-                                        new AST.Access(null, "this", lineCol),
-                                        f.name(), lineCol),
-                                        lineCol
-                                );
+                                Value field = new Ins.GetField(f, new Ins.This(cls), lineCol);
+                                sb = invokeStringBuilderAppend(sb, field, lineCol);
                         }
-                        // )
-                        StringLiteral s2 = new StringLiteral("\")\"", lineCol);
-                        lastExp = new TwoVariableOperation(
-                                "+", lastExp, s2, lineCol
-                        );
-
+                        literal.append(")");
+                        sb = invokeStringBuilderAppend(sb, dataClassStringConstant(literal.toString(), stringType), lineCol);
 
-                        Statement stmt = new AST.Return(lastExp, lineCol);
-
-                        parseStatement(stmt, toStringOverride.getReturnType(),
-                                new SemanticScope(scope, toStringOverride.meta()),
-                                toStringOverride.statements(), toStringOverride.exceptionTables(),
-                                null, null, false);
+                        toStringOverride.statements().add(new Ins.TReturn(
+                                invokeStringBuilderToString(sb, lineCol), lineCol));
                 }
 
                 if (hashCodeOverride == null) {
                         // hashCode():int
-                        //     return field1 as int +
-                        //     field2 as int +
+                        //     return LtRuntime.getHashCode(this.field1) +
+                        //     LtRuntime.getHashCode(this.field2) +
                         //     ...
+                        // int/short/byte/char values are used directly
                         hashCodeOverride = new SMethodDef(lineCol);
                         hashCodeOverride.setName("hashCode");
                         hashCodeOverride.setDeclaringType(cls);
@@ -2156,70 +2122,26 @@ public class SemanticProcessor {
                         hashCodeOverride.setReturnType(IntTypeDef.get());
                         hashCodeOverride.modifiers().add(SModifier.PUBLIC);
 
-                        Expression lastExp;
-                        if (cls.fields().isEmpty()) {
-                                lastExp = new NumberLiteral("0", lineCol);
-                        } else {
-                                Iterator<SFieldDef> it = cls.fields().iterator();
-                                // LtRuntime.getHashCode(this.field)
-                                lastExp = null;
-                                while (it.hasNext()) {
-                                        SFieldDef f = it.next();
-                                        if (f.modifiers().contains(SModifier.STATIC)) continue;
-
-                                        Expression exp = new AST.Invocation(
-                                                new AST.Access(
-                                                        new AST.Access(
-                                                                new AST.PackageRef("lt::runtime", lineCol),
-                                                                "LtRuntime",
-                                                                lineCol
-                                                        ),
-                                                        "getHashCode",
-                                                        lineCol
-                                                ),
-                                                Collections.<Expression>singletonList(
-                                                        new AST.Access(
-                                                                new AST.Access(
-                                                                        null, "this", lineCol
-                                                                ),
-                                                                f.name(),
-                                                                lineCol
-                                                        )
-                                                ),
-                                                false,
-                                                lineCol
-                                        );
-
-                                        if (lastExp == null) {
-                                                lastExp = exp;
-                                        } else {
-                                                lastExp =
-                                                        new TwoVariableOperation(
-                                                                "+",
-                                                                lastExp,
-                                                                exp, lineCol
-                                                        );
-                                        }
+                        Value hash = null;
+                        for (SFieldDef f : instanceFields) {
+                                Value fieldHash = dataClassFieldHashCode(new Ins.GetField(f, new Ins.This(cls), lineCol), cls, lineCol);
+                                if (hash == null) {
+                                        hash = fieldHash;
+                                } else {
+                                        hash = new Ins.TwoVarOp(hash, fieldHash, Ins.TwoVarOp.Iadd, IntTypeDef.get(), lineCol);
                                 }
                         }
-
-                        if (lastExp == null) {
-                                lastExp = new NumberLiteral("0", lineCol);
+                        if (hash == null) {
+                                hash = new IntValue(0);
                         }
-
-                        Statement stmt = new AST.Return(lastExp, lineCol);
-
-                        parseStatement(stmt, hashCodeOverride.getReturnType(),
-                                new SemanticScope(scope, hashCodeOverride.meta()),
-                                hashCodeOverride.statements(), hashCodeOverride.exceptionTables(),
-                                null, null, false);
+                        hashCodeOverride.statements().add(new Ins.TReturn(hash, lineCol));
                 }
 
                 if (equalsOverride == null) {
                         // equals(o):bool
                         //     return o is type CurrentType and
-                        //     o.field1 is this.field1 and
-                        //     o.field2 is this.field2
+                        //     LtRuntime.fieldEquals((o as CurrentType).field1, this.field1) and
+                        //     LtRuntime.fieldEquals((o as CurrentType).field2, this.field2)
                         //     ...
                         equalsOverride = new SMethodDef(lineCol);
                         equalsOverride.setName("equals");
@@ -2233,51 +2155,19 @@ public class SemanticProcessor {
                         o.setType(getTypeWithName("java.lang.Object", lineCol));
                         equalsOverride.modifiers().add(SModifier.PUBLIC);
 
-                        // o is type CurrentType
-                        Expression lastExp = new TwoVariableOperation(
-                                "is",
-                                new AST.Access(null, "o", lineCol),
-                                new AST.TypeOf(
-                                        new AST.Access(null, simpleName, lineCol),
-                                        lineCol
-                                ),
-                                lineCol
-                        );
-                        for (SFieldDef f : cls.fields()) {
-                                if (f.modifiers().contains(SModifier.STATIC)) continue;
-                                lastExp = new TwoVariableOperation(
-                                        "and",
-                                        lastExp,
-                                        // o.field is this.field
-                                        new TwoVariableOperation(
-                                                "is",
-                                                new AST.Access(
-                                                        new AST.Access(
-                                                                null, "o", lineCol
-                                                        ),
-                                                        f.name(),
-                                                        lineCol
-                                                ),
-                                                new AST.Access(
-                                                        new AST.Access(
-                                                                null, "this", lineCol
-                                                        ),
-                                                        f.name(),
-                                                        lineCol
-                                                ),
-                                                lineCol
-                                        ),
-                                        lineCol
-                                );
-                        }
-
-                        Statement stmt = new AST.Return(lastExp, lineCol);
                         SemanticScope equalsScope = new SemanticScope(scope, equalsOverride.meta());
                         equalsScope.putLeftValue("o", o);
-                        parseStatement(stmt, equalsOverride.getReturnType(),
-                                equalsScope,
-                                equalsOverride.statements(), equalsOverride.exceptionTables(),
-                                null, null, false);
+
+                        // o is type CurrentType
+                        Value result = new Ins.InstanceOf(new Ins.TLoad(o, equalsScope, lineCol),
+                                new Ins.GetClass(cls, (SClassDef) getTypeWithName("java.lang.Class", lineCol)), lineCol);
+                        for (SFieldDef f : instanceFields) {
+                                Value other = new Ins.GetField(f,
+                                        new Ins.CheckCast(new Ins.TLoad(o, equalsScope, lineCol), cls, lineCol), lineCol);
+                                Value self = new Ins.GetField(f, new Ins.This(cls), lineCol);
+                                result = new Ins.LogicAnd(result, dataClassFieldEquals(other, self, cls, lineCol), lineCol);
+                        }
+                        equalsOverride.statements().add(new Ins.TReturn(result, lineCol));
                 }
                 if (zeroParamCons == null) {
                         zeroParamCons = new SConstructorDef(lineCol);
@@ -2423,6 +2313,216 @@ public class SemanticProcessor {
                 }
         }
 
+        private StringConstantValue dataClassStringConstant(String str, SClassDef stringType) {
+                StringConstantValue v = new StringConstantValue(str);
+                v.setType(stringType);
+                return v;
+        }
+
+        /**
+         * find a static method in LtRuntime with the given parameter types
+         *
+         * @param name       method name
+         * @param paramTypes parameter types
+         * @return the method
+         * @throws SyntaxException exception
+         */
+        private SMethodDef getLtRuntimeMethod(String name, STypeDef... paramTypes) throws SyntaxException {
+                SClassDef c = (SClassDef) getTypeWithName("lt.runtime.LtRuntime", LineCol.SYNTHETIC);
+                assert c != null;
+                out:
+                for (SMethodDef m : c.methods()) {
+                        if (!m.name().equals(name) || m.getParameters().size() != paramTypes.length) continue;
+                        for (int i = 0; i < paramTypes.length; ++i) {
+                                if (!m.getParameters().get(i).type().equals(paramTypes[i])) continue out;
+                        }
+                        return m;
+                }
+                throw new LtBug("lt.runtime.LtRuntime." + name + Arrays.toString(paramTypes) + " not found");
+        }
+
+        /**
+         * the StringBuilder instantiations of the string concatenations, keyed by the <tt>toString()</tt> invocations
+         */
+        private final Map<Value, Ins.New> stringConcatBuilders = new IdentityHashMap<Value, Ins.New>();
+
+        /**
+         * concat a String with a value.<br>
+         * <code>str + v</code> is compiled to <code>StringBuilder(capacity).append(str).append(v).toString()</code>,
+         * and when <code>str</code> is itself such a concatenation, <code>v</code> is appended to the same builder.
+         * so <code>a + b + c</code> creates only one StringBuilder and no intermediate String.
+         *
+         * @param left    the String value
+         * @param right   the value to append
+         * @param lineCol line col
+         * @return the concatenated String
+         * @throws SyntaxException exception
+         */
+        private Value concatString(Value left, Value right, LineCol lineCol) throws SyntaxException {
+                SClassDef stringType = (SClassDef) getTypeWithName("java.lang.String", lineCol);
+                if (left instanceof StringConstantValue && right instanceof StringConstantValue) {
+                        StringConstantValue v = new StringConstantValue(
+                                ((StringConstantValue) left).getStr() + ((StringConstantValue) right).getStr());
+                        v.setType(stringType);
+                        return v;
+                }
+
+                Value sb;
+                Ins.New newSb = stringConcatBuilders.remove(left);
+                if (newSb == null) {
+                        newSb = newStringBuilder(estimateStringLength(left) + estimateStringLength(right), lineCol);
+                        sb = newSb;
+                        if (!(left instanceof StringConstantValue) || !((StringConstantValue) left).getStr().isEmpty()) {
+                                sb = invokeStringBuilderAppend(sb, left, lineCol);
+                        }
+                } else {
+                        // continue appending to the builder of `left`
+                        sb = ((Ins.InvokeVirtual) left).target();
+                        int capacity = ((IntValue) newSb.args().get(0)).getValue();
+                        newSb.args().set(0, new IntValue(capacity + estimateStringLength(right)));
+                }
+                if (!(right instanceof StringConstantValue) || !((StringConstantValue) right).getStr().isEmpty()) {
+                        sb = invokeStringBuilderAppend(sb, right, lineCol);
+                }
+
+                Ins.InvokeVirtual toString = invokeStringBuilderToString(sb, lineCol);
+                stringConcatBuilders.put(toString, newSb);
+                return toString;
+        }
+
+        /**
+         * @param v the value to be appended
+         * @return length of the string constant, or about 8 chars for other values
+         */
+        private static int estimateStringLength(Value v) {
+                if (v instanceof StringConstantValue) {
+                        return ((StringConstantValue) v).getStr().length();
+                }
+                return 8;
+        }
+
+        /**
+         * create a new StringBuilder with the given capacity
+         *
+         * @param capacity initial capacity
+         * @param lineCol  line col
+         * @return the instantiation
+         * @throws SyntaxException exception
+         */
+        private Ins.New newStringBuilder(int capacity, LineCol lineCol) throws SyntaxException {
+                SClassDef sbType = (SClassDef) getTypeWithName("java.lang.StringBuilder", lineCol);
+                for (SConstructorDef con : sbType.constructors()) {
+                        if (con.getParameters().size() == 1 && con.getParameters().get(0).type().equals(IntTypeDef.get())) {
+                                Ins.New newSb = new Ins.New(con, lineCol);
+                                newSb.args().add(new IntValue(capacity));
+                                return newSb;
+                        }
+                }
+                throw new LtBug("java.lang.StringBuilder(int) not found");
+        }
+
+        /**
+         * invoke StringBuilder.toString
+         *
+         * @param sb      the StringBuilder
+         * @param lineCol line col
+         * @return the invocation (returns the String)
+         * @throws SyntaxException exception
+         */
+        private Ins.InvokeVirtual invokeStringBuilderToString(Value sb, LineCol lineCol) throws SyntaxException {
+                SClassDef sbType = (SClassDef) getTypeWithName("java.lang.StringBuilder", lineCol);
+                for (SMethodDef m : sbType.methods()) {
+                        if (m.name().equals("toString") && m.getParameters().isEmpty()) {
+                                return new Ins.InvokeVirtual(sb, m, lineCol);
+                        }
+                }
+                throw new LtBug("java.lang.StringBuilder.toString() not found");
+        }
+
+        /**
+         * invoke StringBuilder.append with the overload of the value type.
+         * short and byte are appended as int, other reference types as Object
+         *
+         * @param sb      the StringBuilder
+         * @param v       value to append
+         * @param lineCol line col
+         * @return the invocation (returns the StringBuilder)
+         * @throws SyntaxException exception
+         */
+        private Value invokeStringBuilderAppend(Value sb, Value v, LineCol lineCol) throws SyntaxException {
+                SClassDef sbType = (SClassDef) getTypeWithName("java.lang.StringBuilder", lineCol);
+                STypeDef t = v.type();
+                if (t.equals(ShortTypeDef.get()) || t.equals(ByteTypeDef.get())) {
+                        v = new ValueAnotherType(IntTypeDef.get(), v, lineCol);
+                } else if (!(t instanceof PrimitiveTypeDef) && !t.equals(getTypeWithName("java.lang.String", lineCol))) {
+                        v = new Ins.CheckCast(v, getObject_Class(), lineCol);
+                }
+                for (SMethodDef m : sbType.methods()) {
+                        if (m.name().equals("append")
+                                && m.getParameters().size() == 1
+                                && m.getParameters().get(0).type().equals(v.type())
+                                && m.getReturnType().equals(sbType)) {
+                                Ins.InvokeVirtual invoke = new Ins.InvokeVirtual(sb, m, lineCol);
+                                invoke.arguments().add(v);
+                                return invoke;
+                        }
+                }
+                throw new LtBug("java.lang.StringBuilder.append(" + v.type() + ") not found");
+        }
+
+        /**
+         * hash code of a field of the data class
+         *
+         * @param v           the field value
+         * @param callerClass caller class
+         * @param lineCol     line col
+         * @return int value
+         * @throws SyntaxException exception
+         */
+        private Value dataClassFieldHashCode(Value v, STypeDef callerClass, LineCol lineCol) throws SyntaxException {
+                STypeDef t = v.type();
+                if (t.equals(IntTypeDef.get()) || t.equals(ShortTypeDef.get())
+                        || t.equals(ByteTypeDef.get()) || t.equals(CharTypeDef.get())) {
+                        return cast(IntTypeDef.get(), v, callerClass, lineCol);
+                }
+                Ins.InvokeStatic invoke;
+                if (t instanceof PrimitiveTypeDef) {
+                        invoke = new Ins.InvokeStatic(getLtRuntimeMethod("getHashCode", t), lineCol);
+                } else {
+                        invoke = new Ins.InvokeStatic(getLtRuntimeMethod("getHashCode", getObject_Class()), lineCol);
+                }
+                invoke.arguments().add(v);
+                return invoke;
+        }
+
+        /**
+         * compare fields of two data class objects
+         *
+         * @param a           field of the other object
+         * @param b           field of this object
+         * @param callerClass caller class
+         * @param lineCol     line col
+         * @return bool value
+         * @throws SyntaxException exception
+         */
+        private Value dataClassFieldEquals(Value a, Value b, STypeDef callerClass, LineCol lineCol) throws SyntaxException {
+                STypeDef t = a.type();
+                Ins.InvokeStatic invoke;
+                if (t.equals(IntTypeDef.get()) || t.equals(ShortTypeDef.get())
+                        || t.equals(ByteTypeDef.get()) || t.equals(CharTypeDef.get())) {
+                        invoke = new Ins.InvokeStatic(getLtRuntimeMethod("fieldEquals", IntTypeDef.get(), IntTypeDef.get()), lineCol);
+                        a = cast(IntTypeDef.get(), a, callerClass, lineCol);
+                        b = cast(IntTypeDef.get(), b, callerClass, lineCol);
+                } else if (t instanceof PrimitiveTypeDef) {
+                        invoke = new Ins.InvokeStatic(getLtRuntimeMethod("fieldEquals", t, t), lineCol);
+                } else {
+                        invoke = new Ins.InvokeStatic(getLtRuntimeMethod("fieldEquals", getObject_Class(), getObject_Class()), lineCol);
+                }
+                invoke.arguments().add(a);
+                invoke.arguments().add(b);
+                return invoke;
+        }
+
         /**
          * in step 4<br>
          * fills the method with instructions
@@ -2502,6 +2602,7 @@ public class SemanticProcessor {
                         if (statements.isEmpty()) {
                                 methodDef.statements().add(new Ins.Nop());
                         } else {
+                                metaToStatements.put(methodDef.meta(), statements);
                                 for (Statement stmt : statements) {
                                         parseStatement(
                                                 stmt,
@@ -2512,6 +2613,7 @@ public class SemanticProcessor {
                                                 null, null,
                                                 false);
                                 }
+                                metaToStatements.remove(methodDef.meta());
                         }
                 }
         }
@@ -2557,6 +2659,7 @@ public class SemanticProcessor {
          */
         public void paramValueAvaliable(List<SParameter> params, List<Instruction> instructions, SemanticScope scope, LineCol lineCol) throws SyntaxException {
                 for (SParameter param : params) {
+                        if (!nonnullCheckRequired(param.target())) continue;
                         if (param.isNotEmpty()) {
                                 Ins.Nop nop = new Ins.Nop();
                                 Ins.IfNe ifNe = new Ins.IfNe(
@@ -2600,6 +2703,27 @@ public class SemanticProcessor {
                 }
         }
 
+        /**
+         * check whether the nonnull/nonempty parameters of the invokable should be checked at runtime
+         *
+         * @param invokable the method or constructor, or null for local variables
+         * @return true if the checks should be generated
+         */
+        private boolean nonnullCheckRequired(SInvokable invokable) {
+                if (nonnullCheck == NONNULL_CHECK_ALL) return true;
+                if (nonnullCheck == NONNULL_CHECK_NONE || invokable == null) return false;
+                STypeDef declaringType = invokable.declaringType();
+                List<SModifier> typeModifiers;
+                if (declaringType instanceof SClassDef) {
+                        typeModifiers = ((SClassDef) declaringType).modifiers();
+                } else if (declaringType instanceof SInterfaceDef) {
+                        typeModifiers = ((SInterfaceDef) declaringType).modifiers();
+                } else {
+                        return false;
+                }
+                return typeModifiers.contains(SModifier.PUBLIC) && invokable.modifiers().contains(SModifier.PUBLIC);
+        }
+
         private void transformLastExpToReturn(List<Statement> statements) {
                 if (statements.isEmpty()) return;
                 int lastIndex = statements.size() - 1;
@@ -3076,8 +3200,9 @@ public class SemanticProcessor {
          * </code><br>
          * the inner method would be parsed into <code>inner$SomeGeneratedName$(i,j,x)</code><br>
          * when invoking, the captured local variables would be passed in as parameters<br>
-         * both final and not-final variables can be captured, <br>
-         * but the variable inside the inner method would NOT have effect on the outer one
+         * the variables that are assigned after being defined are passed as pointers,
+         * so the inner method and the outer one share the same variable,
+         * others are passed as values, see {@link #isCapturedByPointer(String, LeftValue, SemanticScope)}
          *
          * @param methodDef   method def object, defines the inner method
          * @param scope       current scope
@@ -3151,17 +3276,23 @@ public class SemanticProcessor {
 
                 // fill in local variable as parameters
                 // the params are added to front positions
-                LinkedHashMap<String, STypeDef> localVariables = scope.getLocalVariables();
+                LinkedHashMap<String, LeftValue> localVariables = scope.getRawLocalVariables();
                 List<VariableDef> param4Locals = new ArrayList<VariableDef>();
                 List<PointerType> realPointerTypes = new ArrayList<PointerType>();
-                for (Map.Entry<String, STypeDef> entry : localVariables.entrySet()) {
+                for (Map.Entry<String, LeftValue> entry : localVariables.entrySet()) {
                         String k = entry.getKey();
-                        STypeDef v = entry.getValue();
+                        STypeDef v = entry.getValue().type();
                         if (!CompileUtil.isValidName(k)) continue;
                         if (k.equals("$")) continue;
+                        Set<Modifier> modifiers = Collections.emptySet();
+                        if (v instanceof PointerType && !isCapturedByPointer(k, entry.getValue(), scope)) {
+                                // the variable is never assigned again, so only the value is captured
+                                v = ((PointerType) v).getPointingType();
+                                modifiers = Collections.singleton(new Modifier(Modifier.Available.VAL, LineCol.SYNTHETIC));
+                        }
 
                         // construct a synthetic VariableDef as param
-                        VariableDef variable = new VariableDef(k, Collections.<Modifier>emptySet(), Collections.<AST.Anno>emptySet(), LineCol.SYNTHETIC);
+                        VariableDef variable = new VariableDef(k, modifiers, Collections.<AST.Anno>emptySet(), LineCol.SYNTHETIC);
                         if (v instanceof SArrayTypeDef) {
                                 STypeDef x = ((SArrayTypeDef) v).type();
                                 AST.Access theType = new AST.Access(
@@ -3206,18 +3337,23 @@ public class SemanticProcessor {
                 );
                 newMethodDef.params.addAll(0, param4Locals);
                 if (lambdaParam) {
+                        // `$` is not wrapped into a pointer, so it's marked as used only when it's read
                         newMethodDef.params.add(
                                 new VariableDef("$",
-                                        Collections.<Modifier>emptySet(), Collections.<AST.Anno>emptySet(), LineCol.SYNTHETIC));
+                                        Collections.singleton(new Modifier(Modifier.Available.VAL, LineCol.SYNTHETIC)),
+                                        Collections.<AST.Anno>emptySet(), LineCol.SYNTHETIC));
                 }
 
                 // parse the method
                 parseMethod(newMethodDef, newMethodDef.params.size(), scope.type(), null, fileNameToImport.get(newMethodDef.line_col().fileName),
                         (scope.type() instanceof SClassDef) ? PARSING_CLASS : PARSING_INTERFACE, scope.getThis() == null);
                 SMethodDef m = methods.get(methods.size() - 1);
-                // set captured values
+                // set captured pointers
                 for (int x = 0; x < param4Locals.size(); ++x) {
-                        m.meta().pointerLocalVar.add(m.getParameters().get(x));
+                        SParameter p = m.getParameters().get(x);
+                        if (isPointerType(p.type())) {
+                                m.meta().pointerLocalVar.add(p);
+                        }
                 }
 
                 // change the modifier
@@ -3258,34 +3394,184 @@ public class SemanticProcessor {
         }
 
         /**
-         * parse synchronized<br>
-         * every monitor must have an exit<br>
-         * <code>
-         * sync(a,b,c)<br>
-         * &nbsp;&nbsp;&nbsp;&nbsp;...<br>
-         * ==&gt;<br>
-         * a<br>
-         * astoreX<br>
-         * monitor enter<br>
-         * b<br>
-         * astoreY<br>
-         * monitor enter<br>
-         * c<br>
-         * astoreZ<br>
-         * monitor enter<br>
-         * ...<br>
-         * astore<br>
-         * Z<br>
-         * monitor exit<br>
-         * Y<br>
-         * monitor exit<br>
-         * X<br>
-         * monitor exit<br>
-         * goto `nop`<br>
-         * [end normally]<br>
-         * --------------------<br>
-         * [end with exception]<br>
-         * Z<br>
+         * get the value to pass to the captured param of an inner method.<br>
+         * if the param is a pointer, the variable is marked as `captured` and the pointer is passed,
+         * otherwise the variable's value is passed
+         *
+         * @param v        the captured variable
+         * @param captured the captured param
+         * @param scope    current scope
+         * @return the value to pass
+         * @throws SyntaxException compile error
+         */
+        private Value capturedValue(Ins.TLoad v, SParameter captured, SemanticScope scope) throws SyntaxException {
+                if (isPointerType(captured.type())) {
+                        // mark the variable as `captured`
+                        scope.getMeta().pointerLocalVar.add(v.value());
+                        return v;
+                } else if (isPointerType(v.type())) {
+                        return invokePointerGet(v, LineCol.SYNTHETIC);
+                } else {
+                        return v;
+                }
+        }
+
+        /**
+         * check whether the captured local variable should be passed as a pointer.<br>
+         * the pointer is required when the variable is assigned after being captured
+         * (by the outer method or by any inner method/lambda),
+         * otherwise the value is passed and no pointer is allocated
+         *
+         * @param name  variable name
+         * @param v     the variable (with pointer type)
+         * @param scope current scope
+         * @return true if the variable should be captured by pointer
+         */
+        private boolean isCapturedByPointer(String name, LeftValue v, SemanticScope scope) {
+                // the param is already a pointer shared with the outer method
+                if (!(v instanceof LocalVariable)) return true;
+                // captured by its own init value, e.g. a lambda referring to the variable itself
+                if (definingLocalVariables.contains(v)) return true;
+                List<Statement> statements = metaToStatements.get(scope.getMeta());
+                if (statements == null) return true;
+                // the variable is defined once (or it's a parameter and not assigned at all)
+                int defined = ((LocalVariable) v).getWrappingParam() == null ? 1 : 0;
+                return countAssignments(name, statements) > defined;
+        }
+
+        /**
+         * count assignments (including definitions) to the local variable in the statements.
+         * inner methods and lambdas are counted as well.<br>
+         * the result is only used to compare with 0 and 1,
+         * so it returns at least 2 for statements that it cannot tell
+         *
+         * @param name       variable name
+         * @param statements statements
+         * @return assignment count
+         */
+        private int countAssignments(String name, List<? extends Statement> statements) {
+                int count = 0;
+                if (statements == null) return count;
+                for (Statement stmt : statements) {
+                        count += countAssignments(name, stmt);
+                        if (count > 1) break;
+                }
+                return count;
+        }
+
+        private int countAssignments(String name, Statement stmt) {
+                if (stmt == null
+                        || stmt instanceof AST.Null || stmt instanceof AST.PackageRef || stmt instanceof AST.TypeOf
+                        || stmt instanceof NumberLiteral || stmt instanceof StringLiteral || stmt instanceof BoolLiteral
+                        || stmt instanceof AST.Pass || stmt instanceof AST.Continue || stmt instanceof AST.Break
+                        || stmt instanceof AST.Anno || stmt instanceof AST.AnnoExpression
+                        || stmt instanceof AST.GeneratorSpec) {
+                        return 0;
+                } else if (stmt instanceof AST.Access) {
+                        return countAssignments(name, ((AST.Access) stmt).exp);
+                } else if (stmt instanceof VariableDef) {
+                        VariableDef v = (VariableDef) stmt;
+                        return (v.getName().equals(name) ? 1 : 0) + countAssignments(name, v.getInit());
+                } else if (stmt instanceof AST.Assignment) {
+                        AST.Assignment a = (AST.Assignment) stmt;
+                        int count = (a.assignTo.exp == null && a.assignTo.name.equals(name)) ? 1 : 0;
+                        return count + countAssignments(name, a.assignTo) + countAssignments(name, a.assignFrom);
+                } else if (stmt instanceof Operation) {
+                        Operation op = (Operation) stmt;
+                        int count = 0;
+                        if (op.operator().equals("++") || op.operator().equals("--")) {
+                                Expression e = op.expressions().get(0);
+                                if (e instanceof AST.Access && ((AST.Access) e).exp == null && ((AST.Access) e).name.equals(name)) {
+                                        count = 1;
+                                }
+                        }
+                        return count + countAssignments(name, op.expressions());
+                } else if (stmt instanceof AST.ArrayExp) {
+                        return countAssignments(name, ((AST.ArrayExp) stmt).list);
+                } else if (stmt instanceof AST.MapExp) {
+                        AST.MapExp map = (AST.MapExp) stmt;
+                        return countAssignments(name, new ArrayList<Expression>(map.map.keySet()))
+                                + countAssignments(name, new ArrayList<Expression>(map.map.values()));
+                } else if (stmt instanceof AST.AsType) {
+                        return countAssignments(name, ((AST.AsType) stmt).exp);
+                } else if (stmt instanceof AST.Index) {
+                        AST.Index index = (AST.Index) stmt;
+                        return countAssignments(name, index.exp) + countAssignments(name, index.args);
+                } else if (stmt instanceof AST.Invocation) {
+                        AST.Invocation invocation = (AST.Invocation) stmt;
+                        return countAssignments(name, invocation.exp) + countAssignments(name, invocation.args);
+                } else if (stmt instanceof AST.New) {
+                        return countAssignments(name, ((AST.New) stmt).invocation);
+                } else if (stmt instanceof AST.Require) {
+                        return countAssignments(name, ((AST.Require) stmt).required);
+                } else if (stmt instanceof AST.Return) {
+                        return countAssignments(name, ((AST.Return) stmt).exp);
+                } else if (stmt instanceof AST.Throw) {
+                        return countAssignments(name, ((AST.Throw) stmt).exp);
+                } else if (stmt instanceof AST.Procedure) {
+                        return countAssignments(name, ((AST.Procedure) stmt).statements);
+                } else if (stmt instanceof AST.Lambda) {
+                        return countAssignments(name, ((AST.Lambda) stmt).statements);
+                } else if (stmt instanceof MethodDef) {
+                        return countAssignments(name, ((MethodDef) stmt).body);
+                } else if (stmt instanceof AST.StaticScope) {
+                        return countAssignments(name, ((AST.StaticScope) stmt).statements);
+                } else if (stmt instanceof AST.Synchronized) {
+                        AST.Synchronized sync = (AST.Synchronized) stmt;
+                        return countAssignments(name, sync.toSync) + countAssignments(name, sync.statements);
+                } else if (stmt instanceof AST.While) {
+                        AST.While aWhile = (AST.While) stmt;
+                        return countAssignments(name, aWhile.condition) + countAssignments(name, aWhile.statements);
+                } else if (stmt instanceof AST.For) {
+                        AST.For aFor = (AST.For) stmt;
+                        return (aFor.name.equals(name) ? 1 : 0)
+                                + countAssignments(name, aFor.exp) + countAssignments(name, aFor.body);
+                } else if (stmt instanceof AST.Try) {
+                        AST.Try aTry = (AST.Try) stmt;
+                        return (name.equals(aTry.varName) ? 1 : 0) + countAssignments(name, aTry.statements)
+                                + countAssignments(name, aTry.catchStatements) + countAssignments(name, aTry.fin);
+                } else if (stmt instanceof AST.If) {
+                        int count = 0;
+                        for (AST.If.IfPair pair : ((AST.If) stmt).ifs) {
+                                count += countAssignments(name, pair.condition) + countAssignments(name, pair.body);
+                        }
+                        return count;
+                } else {
+                        // pattern matching and destructing define variables before assigning them
+                        // so they are considered as assigned more than once
+                        return 2;
+                }
+        }
+
+        /**
+         * parse synchronized<br>
+         * every monitor must have an exit<br>
+         * <code>
+         * sync(a,b,c)<br>
+         * &nbsp;&nbsp;&nbsp;&nbsp;...<br>
+         * ==&gt;<br>
+         * a<br>
+         * astoreX<br>
+         * monitor enter<br>
+         * b<br>
+         * astoreY<br>
+         * monitor enter<br>
+         * c<br>
+         * astoreZ<br>
+         * monitor enter<br>
+         * ...<br>
+         * astore<br>
+         * Z<br>
+         * monitor exit<br>
+         * Y<br>
+         * monitor exit<br>
+         * X<br>
+         * monitor exit<br>
+         * goto `nop`<br>
+         * [end normally]<br>
+         * --------------------<br>
+         * [end with exception]<br>
+         * Z<br>
          * monitor exit<br>
          * Y<br>
          * monitor exit<br>
@@ -4486,6 +4772,7 @@ public class SemanticProcessor {
                         Value v;
 
                         ValuePack pack = new ValuePack(true);
+                        LocalVariable definingVariable = null;
                         if (isLocalVar) {
                                 boolean canChange = true;
                                 for (Modifier m : variableDef.getModifiers()) {
@@ -4506,6 +4793,7 @@ public class SemanticProcessor {
 
                                 LocalVariable localVariable = new LocalVariable(type, canChange);
                                 scope.putLeftValue(variableDef.getName(), localVariable);
+                                definingVariable = localVariable;
 
                                 Ins.TStore storePtr = new Ins.TStore(localVariable,
                                         constructPointer(nonnull, nonempty), scope, LineCol.SYNTHETIC, err);
@@ -4534,10 +4822,12 @@ public class SemanticProcessor {
                                         v = NullValue.get();
                                 }
                         } else {
+                                if (definingVariable != null) definingLocalVariables.add(definingVariable);
                                 v = parseValueFromExpression(
                                         variableDef.getInit(),
                                         rawType,
                                         scope);
+                                definingLocalVariables.remove(definingVariable);
                         }
 
                         if (null != field) {
@@ -4612,6 +4902,11 @@ public class SemanticProcessor {
         }
 
         public Ins.New constructPointer(boolean nonnull, boolean nonempty) throws SyntaxException {
+                // writes to pointers are only checked when all checks are enabled
+                if (!nonnullCheckRequired(null)) {
+                        nonnull = false;
+                        nonempty = false;
+                }
                 Ins.New aNew = new Ins.New(getPointer_con(), LineCol.SYNTHETIC);
                 aNew.args().add(new BoolValue(nonnull));
                 aNew.args().add(new BoolValue(nonempty));
@@ -4705,6 +5000,75 @@ public class SemanticProcessor {
                 return LtRuntime_destruct;
         }
 
+        private SMethodDef LtRuntime_destructResult;
+
+        public SMethodDef getLtRuntime_destructResult() throws SyntaxException {
+                if (LtRuntime_destructResult == null) {
+                        SClassDef c = (SClassDef) getTypeWithName("lt.runtime.LtRuntime", LineCol.SYNTHETIC);
+                        assert c != null;
+                        for (SMethodDef m : c.methods()) {
+                                if (m.name().equals("destructResult")) {
+                                        LtRuntime_destructResult = m;
+                                        break;
+                                }
+                        }
+                }
+                assert LtRuntime_destructResult != null;
+                return LtRuntime_destructResult;
+        }
+
+        private SMethodDef LtRuntime_destructRejected;
+
+        public SMethodDef getLtRuntime_destructRejected() throws SyntaxException {
+                if (LtRuntime_destructRejected == null) {
+                        SClassDef c = (SClassDef) getTypeWithName("lt.runtime.LtRuntime", LineCol.SYNTHETIC);
+                        assert c != null;
+                        for (SMethodDef m : c.methods()) {
+                                if (m.name().equals("destructRejected")) {
+                                        LtRuntime_destructRejected = m;
+                                        break;
+                                }
+                        }
+                }
+                assert LtRuntime_destructRejected != null;
+                return LtRuntime_destructRejected;
+        }
+
+        /**
+         * find the `unapply` method which can be invoked directly.<br>
+         * the type should define only one static unapply(o) returning List,
+         * and its parent classes should not define any `unapply(o)`
+         *
+         * @param type    the destruct type
+         * @param invoker the caller type
+         * @return the unapply method or null if it should be chosen at runtime
+         * @throws SyntaxException exception
+         */
+        private SMethodDef findStaticUnapply(STypeDef type, STypeDef invoker) throws SyntaxException {
+                if (!(type instanceof SClassDef)) return null;
+                SMethodDef unapply = null;
+                for (SMethodDef m : ((SClassDef) type).methods()) {
+                        if (!m.name().equals("unapply") || m.getParameters().size() != 1) continue;
+                        if (unapply != null) return null; // overloaded
+                        unapply = m;
+                }
+                if (unapply == null
+                        || !unapply.modifiers().contains(SModifier.STATIC)
+                        || !(unapply.modifiers().contains(SModifier.PUBLIC) || type.equals(invoker))
+                        || unapply.getParameters().get(0).type() instanceof PrimitiveTypeDef
+                        || !getTypeWithName("java.util.List", LineCol.SYNTHETIC).isAssignableFrom(unapply.getReturnType())) {
+                        return null;
+                }
+                SClassDef parent = ((SClassDef) type).parent();
+                while (parent != null) {
+                        for (SMethodDef m : parent.methods()) {
+                                if (m.name().equals("unapply") && m.getParameters().size() == 1) return null;
+                        }
+                        parent = parent.parent();
+                }
+                return unapply;
+        }
+
         private SMethodDef List_get;
 
         public SMethodDef getList_get() throws SyntaxException {
@@ -4722,23 +5086,6 @@ public class SemanticProcessor {
                 return List_get;
         }
 
-        private SMethodDef Map_get;
-
-        private SMethodDef getMap_get() throws SyntaxException {
-                if (Map_get == null) {
-                        SInterfaceDef MapDef = (SInterfaceDef) getTypeWithName("java.util.Map", LineCol.SYNTHETIC);
-                        for (SMethodDef m : MapDef.methods()) {
-                                if (m.name().equals("get") && m.getParameters().size() == 1
-                                        && m.getParameters().get(0).type().equals(getObject_Class())) {
-                                        Map_get = m;
-                                        break;
-                                }
-                        }
-                }
-                assert Map_get != null;
-                return Map_get;
-        }
-
         private boolean destructCanChangeInLocalVariable(AST.Destruct d) throws SyntaxException {
                 if (d.modifiers.size() > 1) {
                         err.SyntaxException("modifier for destruct should only be `var` or `val`", d.line_col());
@@ -4798,28 +5145,68 @@ public class SemanticProcessor {
                         }
                 }
 
+                STypeDef destructType = destruct.pattern.type == null
+                        ? null
+                        : getTypeWithAccess(destruct.pattern.type, imports);
+                SMethodDef unapply = findStaticUnapply(destructType, scope.type());
+
                 // unapply result list local variable
-                LocalVariable listLocalVar = new LocalVariable(getTypeWithName("java.util.List", LineCol.SYNTHETIC), false);
+                LocalVariable listLocalVar = new LocalVariable(getTypeWithName("java.util.List", LineCol.SYNTHETIC), unapply != null);
                 scope.putLeftValue(scope.generateTempName(), listLocalVar);
+                if (unapply == null) {
+                        // get result list
+                        Ins.InvokeStatic getResList = new Ins.InvokeStatic(getLtRuntime_destruct(), destruct.line_col());
+                        getResList.arguments().add(new IntValue(destruct.pattern.subPatterns.size())); // count
+                        // destructClass
+                        if (destructType == null) {
+                                getResList.arguments().add(NullValue.get());
+                        } else {
+                                getResList.arguments().add(new Ins.GetClass(destructType,
+                                        (SClassDef) getTypeWithName("java.lang.Class", LineCol.SYNTHETIC)));
+                        }
+                        getResList.arguments().add(parseValueFromExpression(destruct.exp, null, scope)); // o
+                        getResList.arguments().add(new Ins.GetClass(scope.type(),
+                                (SClassDef) getTypeWithName("java.lang.Class", LineCol.SYNTHETIC))); // invoker
 
-                // get result list
-                Ins.InvokeStatic getResList = new Ins.InvokeStatic(getLtRuntime_destruct(), destruct.line_col());
-                getResList.arguments().add(new IntValue(destruct.pattern.subPatterns.size())); // count
-                // destructClass
-                if (destruct.pattern.type == null) {
-                        getResList.arguments().add(NullValue.get());
+                        // store result list
+                        Ins.TStore storeList = new Ins.TStore(listLocalVar,
+                                getResList, scope, LineCol.SYNTHETIC, err);
+                        pack.instructions().add(storeList);
                 } else {
-                        getResList.arguments().add(new Ins.GetClass(getTypeWithAccess(destruct.pattern.type, imports),
-                                (SClassDef) getTypeWithName("java.lang.Class", LineCol.SYNTHETIC)));
+                        // the unapply method is known, invoke it directly
+                        // o = exp
+                        // if o is ParamType
+                        //     list = LtRuntime.destructResult(count, Type.unapply(o as ParamType))
+                        // else
+                        //     list = LtRuntime.destructRejected(o)
+                        STypeDef paramType = unapply.getParameters().get(0).type();
+                        LocalVariable objLocalVar = new LocalVariable(getTypeWithName("java.lang.Object", LineCol.SYNTHETIC), false);
+                        scope.putLeftValue(scope.generateTempName(), objLocalVar);
+                        pack.instructions().add(new Ins.TStore(objLocalVar,
+                                parseValueFromExpression(destruct.exp, null, scope), scope, LineCol.SYNTHETIC, err));
+
+                        Ins.Nop rejected = new Ins.Nop();
+                        Ins.Nop afterUnapply = new Ins.Nop();
+                        pack.instructions().add(new Ins.IfEq(
+                                new Ins.InstanceOf(new Ins.TLoad(objLocalVar, scope, LineCol.SYNTHETIC),
+                                        new Ins.GetClass(paramType, (SClassDef) getTypeWithName("java.lang.Class", LineCol.SYNTHETIC)),
+                                        LineCol.SYNTHETIC),
+                                rejected, LineCol.SYNTHETIC));
+                        Ins.InvokeStatic invokeUnapply = new Ins.InvokeStatic(unapply, destruct.line_col());
+                        invokeUnapply.arguments().add(new Ins.CheckCast(
+                                new Ins.TLoad(objLocalVar, scope, LineCol.SYNTHETIC), paramType, LineCol.SYNTHETIC));
+                        Ins.InvokeStatic checkRes = new Ins.InvokeStatic(getLtRuntime_destructResult(), destruct.line_col());
+                        checkRes.arguments().add(new IntValue(destruct.pattern.subPatterns.size()));
+                        checkRes.arguments().add(invokeUnapply);
+                        pack.instructions().add(new Ins.TStore(listLocalVar, checkRes, scope, LineCol.SYNTHETIC, err));
+                        pack.instructions().add(new Ins.Goto(afterUnapply));
+
+                        pack.instructions().add(rejected);
+                        Ins.InvokeStatic reject = new Ins.InvokeStatic(getLtRuntime_destructRejected(), destruct.line_col());
+                        reject.arguments().add(new Ins.TLoad(objLocalVar, scope, LineCol.SYNTHETIC));
+                        pack.instructions().add(new Ins.TStore(listLocalVar, reject, scope, LineCol.SYNTHETIC, err));
+                        pack.instructions().add(afterUnapply);
                 }
-                getResList.arguments().add(parseValueFromExpression(destruct.exp, null, scope)); // o
-                getResList.arguments().add(new Ins.GetClass(scope.type(),
-                        (SClassDef) getTypeWithName("java.lang.Class", LineCol.SYNTHETIC))); // invoker
-
-                // store result list
-                Ins.TStore storeList = new Ins.TStore(listLocalVar,
-                        getResList, scope, LineCol.SYNTHETIC, err);
-                pack.instructions().add(storeList);
 
                 // init bool result value
                 LocalVariable boolResult = new LocalVariable(BoolTypeDef.get(), true);
@@ -5208,37 +5595,81 @@ public class SemanticProcessor {
 
                 // define some inner methods
                 // def patternMatching${hashCode}${count}
+                // consecutive cases destructing the same type are grouped:
+                // the value is destructed once in patternMatching${hashCode}${count}$destruct
+                // and the results are passed to each case of the group
+                String methodNamePrefix = "patternMatching$" + Integer.toHexString(Math.abs(pm.hashCode())) + "$";
+                List<Map.Entry<AST.PatternCondition, List<Statement>>> entries =
+                        new ArrayList<Map.Entry<AST.PatternCondition, List<Statement>>>(pm.patternsToStatements.entrySet());
                 List<MethodDef> patternMethods = new ArrayList<MethodDef>();
-                int index = -1;
-                for (AST.PatternCondition ignore : pm.patternsToStatements.keySet()) {
-                        ++index;
-                        MethodDef methodDef = new MethodDef(
-                                "patternMatching$" + Integer.toHexString(Math.abs(pm.hashCode())) + "$" + index,
-                                Collections.<Modifier>emptySet(),
-                                null,
-                                Collections.singletonList(
-                                        new VariableDef("**", Collections.<Modifier>emptySet(), Collections.<AST.Anno>emptySet(), LineCol.SYNTHETIC_WITH_FILE(fileName))
-                                ),
-                                Collections.<AST.Anno>emptySet(),
-                                new ArrayList<Statement>(),
-                                LineCol.SYNTHETIC_WITH_FILE(fileName)
-                        );
-                        patternMethods.add(methodDef);
+                // the first method of each case or group
+                List<MethodDef> unitMethods = new ArrayList<MethodDef>();
+                // the group size of the cases (0 means the case is not grouped)
+                int[] groupSizes = new int[entries.size()];
+                for (int index = 0; index < entries.size(); ) {
+                        int groupSize = destructGroupSize(entries, index);
+                        if (groupSize > 1) {
+                                groupSizes[index] = groupSize;
+                                MethodDef entryMethod = patternMatchingMethodDef(methodNamePrefix + index + "$destruct", 0, fileName);
+                                patternMethods.add(entryMethod);
+                                unitMethods.add(entryMethod);
+                                int tmpCount = ((AST.Pattern_Destruct) entries.get(index).getKey().pattern).subPatterns.size();
+                                for (int i = 0; i < groupSize; ++i) {
+                                        patternMethods.add(patternMatchingMethodDef(methodNamePrefix + (index + i), tmpCount, fileName));
+                                }
+                                index += groupSize;
+                        } else {
+                                MethodDef methodDef = patternMatchingMethodDef(methodNamePrefix + index, 0, fileName);
+                                patternMethods.add(methodDef);
+                                unitMethods.add(methodDef);
+                                ++index;
+                        }
                 }
                 for (int i = patternMethods.size() - 1; i >= 0; --i) {
                         procedure.statements.add(patternMethods.get(i));
                 }
 
                 // parse these methods
-                index = -1;
-                for (Map.Entry<AST.PatternCondition, List<Statement>> patternListEntry : pm.patternsToStatements.entrySet()) {
-                        ++index;
-                        MethodDef currentMethod = patternMethods.get(index);
-                        MethodDef nextMethod = null;
-                        if (index + 1 < patternMethods.size()) {
-                                nextMethod = patternMethods.get(index + 1);
+                int methodIndex = 0;
+                int unitIndex = 0;
+                for (int index = 0; index < entries.size(); ++unitIndex) {
+                        MethodDef nextUnit = unitIndex + 1 < unitMethods.size() ? unitMethods.get(unitIndex + 1) : null;
+                        AST.If.IfPair unitElse = patternMatchingElse(nextUnit, 0, fileName);
+                        if (groupSizes[index] == 0) {
+                                parsePatternMatchingMethod(entries.get(index), patternMethods.get(methodIndex), unitElse, fileName);
+                                ++methodIndex;
+                                ++index;
+                                continue;
                         }
-                        parsePatternMatchingMethod(patternListEntry, currentMethod, nextMethod, pm.line_col().fileName);
+
+                        AST.Pattern_Destruct firstPattern = (AST.Pattern_Destruct) entries.get(index).getKey().pattern;
+                        int tmpCount = firstPattern.subPatterns.size();
+                        // destruct into **g0, **g1, ... and invoke the first case
+                        List<AST.Pattern> tmpPatterns = new ArrayList<AST.Pattern>();
+                        List<Expression> invokeArgs = new ArrayList<Expression>();
+                        invokeArgs.add(new AST.Access(null, "**", LineCol.SYNTHETIC_WITH_FILE(fileName)));
+                        for (int i = 0; i < tmpCount; ++i) {
+                                tmpPatterns.add(new AST.Pattern_Define("**g" + i, null));
+                                invokeArgs.add(new AST.Access(null, "**g" + i, LineCol.SYNTHETIC_WITH_FILE(fileName)));
+                        }
+                        List<Statement> invokeFirstCase = Collections.<Statement>singletonList(new AST.Return(
+                                new AST.Invocation(
+                                        new AST.Access(null, patternMethods.get(methodIndex + 1).name, LineCol.SYNTHETIC_WITH_FILE(fileName)),
+                                        invokeArgs, false, LineCol.SYNTHETIC_WITH_FILE(fileName)),
+                                LineCol.SYNTHETIC_WITH_FILE(fileName)));
+                        patternMethods.get(methodIndex).body.addAll(new PatternMatchingDestructParser(-1).parse(
+                                new AST.Pattern_Destruct(firstPattern.type, tmpPatterns), invokeFirstCase, unitElse, "**", fileName));
+                        ++methodIndex;
+
+                        // each case matches the destructed values
+                        for (int i = 0; i < groupSizes[index]; ++i) {
+                                AST.If.IfPair caseElse = i + 1 < groupSizes[index]
+                                        ? patternMatchingElse(patternMethods.get(methodIndex + 1), tmpCount, fileName)
+                                        : unitElse;
+                                parseGroupedPatternMatchingMethod(entries.get(index + i), patternMethods.get(methodIndex), caseElse, fileName);
+                                ++methodIndex;
+                        }
+                        index += groupSizes[index];
                 }
 
                 // invoke first method
@@ -5252,6 +5683,188 @@ public class SemanticProcessor {
                 return parseValueFromProcedure(procedure, requiredType, scope);
         }
 
+        /**
+         * count the consecutive cases starting from the index which destruct with the same type and the same size
+         *
+         * @param entries pattern matching cases
+         * @param index   the first case
+         * @return the size of the group
+         */
+        private int destructGroupSize(List<Map.Entry<AST.PatternCondition, List<Statement>>> entries, int index) {
+                AST.Pattern first = entries.get(index).getKey().pattern;
+                if (first.patternType != AST.PatternType.DESTRUCT) return 1;
+                AST.Pattern_Destruct firstDestruct = (AST.Pattern_Destruct) first;
+                int size = 1;
+                for (int i = index + 1; i < entries.size(); ++i) {
+                        AST.Pattern p = entries.get(i).getKey().pattern;
+                        if (p.patternType != AST.PatternType.DESTRUCT) break;
+                        AST.Pattern_Destruct d = (AST.Pattern_Destruct) p;
+                        if (d.subPatterns.size() != firstDestruct.subPatterns.size()
+                                || (d.type == null ? firstDestruct.type != null : !d.type.equals(firstDestruct.type))) {
+                                break;
+                        }
+                        ++size;
+                }
+                return size;
+        }
+
+        /**
+         * define a method for pattern matching, the parameters are (**, **g0, **g1, ...)
+         *
+         * @param name     method name
+         * @param tmpCount count of destructed values
+         * @param fileName file name
+         * @return the method
+         */
+        private MethodDef patternMatchingMethodDef(String name, int tmpCount, String fileName) {
+                List<VariableDef> params = new ArrayList<VariableDef>();
+                params.add(new VariableDef("**", Collections.<Modifier>emptySet(), Collections.<AST.Anno>emptySet(), LineCol.SYNTHETIC_WITH_FILE(fileName)));
+                for (int i = 0; i < tmpCount; ++i) {
+                        params.add(new VariableDef("**g" + i, Collections.<Modifier>emptySet(), Collections.<AST.Anno>emptySet(), LineCol.SYNTHETIC_WITH_FILE(fileName)));
+                }
+                return new MethodDef(
+                        name,
+                        Collections.<Modifier>emptySet(),
+                        null,
+                        params,
+                        Collections.<AST.Anno>emptySet(),
+                        new ArrayList<Statement>(),
+                        LineCol.SYNTHETIC_WITH_FILE(fileName)
+                );
+        }
+
+        /**
+         * the `else` branch when the pattern doesn't match.
+         * it invokes the next method with (**, **g0, **g1, ...), or throws MatchError if no method left
+         *
+         * @param nextMethod the next method to try, or null
+         * @param tmpCount   count of destructed values to pass
+         * @param fileName   file name
+         * @return the else branch
+         */
+        private AST.If.IfPair patternMatchingElse(MethodDef nextMethod, int tmpCount, String fileName) {
+                if (nextMethod == null) {
+                        // throw when else
+                        return new AST.If.IfPair(
+                                null,
+                                Collections.<Statement>singletonList(
+                                        new AST.Throw(
+                                                new AST.Invocation(
+                                                        new AST.Access(
+                                                                new AST.PackageRef("lt::runtime", LineCol.SYNTHETIC_WITH_FILE(fileName)),
+                                                                "MatchError",
+                                                                LineCol.SYNTHETIC_WITH_FILE(fileName)),
+                                                        Collections.<Expression>emptyList(),
+                                                        false,
+                                                        LineCol.SYNTHETIC_WITH_FILE(fileName)
+                                                ), LineCol.SYNTHETIC_WITH_FILE(fileName)
+                                        )
+                                ),
+                                LineCol.SYNTHETIC_WITH_FILE(fileName));
+                }
+                // invoke nextMethod
+                List<Expression> args = new ArrayList<Expression>();
+                args.add(new AST.Access(null, "**", LineCol.SYNTHETIC_WITH_FILE(fileName)));
+                for (int i = 0; i < tmpCount; ++i) {
+                        args.add(new AST.Access(null, "**g" + i, LineCol.SYNTHETIC_WITH_FILE(fileName)));
+                }
+                return new AST.If.IfPair(
+                        null,
+                        Collections.<Statement>singletonList(
+                                new AST.Return(
+                                        new AST.Invocation(
+                                                new AST.Access(null, nextMethod.name, LineCol.SYNTHETIC_WITH_FILE(fileName)),
+                                                args,
+                                                false,
+                                                LineCol.SYNTHETIC_WITH_FILE(fileName)
+                                        ),
+                                        LineCol.SYNTHETIC_WITH_FILE(fileName)
+                                )
+                        ),
+                        LineCol.SYNTHETIC_WITH_FILE(fileName));
+        }
+
+        /**
+         * pack the statements into `if condition` if the case has a condition
+         *
+         * @param p          pattern and condition
+         * @param statements statements of the case
+         * @param anElse     else branch
+         * @param fileName   file name
+         * @return statements
+         */
+        private List<Statement> patternMatchingStatements(AST.PatternCondition p, List<Statement> statements,
+                                                          AST.If.IfPair anElse, String fileName) {
+                if (p.condition == null) return statements;
+                return Collections.<Statement>singletonList(
+                        new AST.If(
+                                Arrays.asList(
+                                        new AST.If.IfPair(p.condition, statements, p.condition.line_col()),
+                                        anElse
+                                ), LineCol.SYNTHETIC_WITH_FILE(fileName)
+                        )
+                );
+        }
+
+        /**
+         * fill a case of a destruct group. the case matches its sub patterns on the destructed values (**g0, **g1, ...)
+         *
+         * @param patternListEntry pattern and statements
+         * @param currentMethod    the method to fill
+         * @param anElse           else branch
+         * @param fileName         file name
+         */
+        private void parseGroupedPatternMatchingMethod(Map.Entry<AST.PatternCondition, List<Statement>> patternListEntry,
+                                                       MethodDef currentMethod,
+                                                       AST.If.IfPair anElse,
+                                                       String fileName) {
+                AST.Pattern_Destruct pattern = (AST.Pattern_Destruct) patternListEntry.getKey().pattern;
+                List<Statement> statements = patternMatchingStatements(
+                        patternListEntry.getKey(), patternListEntry.getValue(), anElse, fileName);
+
+                // pattern variables without type are simply defined
+                List<Statement> definitions = new ArrayList<Statement>();
+                // the patterns to check
+                List<Integer> toCheck = new ArrayList<Integer>();
+                for (int i = 0; i < pattern.subPatterns.size(); ++i) {
+                        AST.Pattern sub = pattern.subPatterns.get(i);
+                        if (sub.patternType == AST.PatternType.DEFINE && ((AST.Pattern_Define) sub).type == null) {
+                                // val v = **gi
+                                VariableDef v = new VariableDef(((AST.Pattern_Define) sub).name,
+                                        Collections.singleton(new Modifier(Modifier.Available.VAL, LineCol.SYNTHETIC_WITH_FILE(fileName))),
+                                        Collections.<AST.Anno>emptySet(), LineCol.SYNTHETIC_WITH_FILE(fileName));
+                                v.setInit(new AST.Access(null, "**g" + i, LineCol.SYNTHETIC_WITH_FILE(fileName)));
+                                definitions.add(v);
+                        } else if (sub.patternType != AST.PatternType.DEFAULT) {
+                                toCheck.add(i);
+                        }
+                }
+
+                List<Statement> currentStmts = currentMethod.body;
+                currentStmts.addAll(definitions);
+                if (toCheck.isEmpty()) {
+                        currentStmts.addAll(statements);
+                        return;
+                }
+                for (int n = 0; n < toCheck.size(); ++n) {
+                        int i = toCheck.get(n);
+                        AST.Pattern sub = pattern.subPatterns.get(i);
+                        PatternMatchingParser parser;
+                        if (sub.patternType == AST.PatternType.TYPE) {
+                                parser = new PatternMatchingTypeParser();
+                        } else if (sub.patternType == AST.PatternType.DEFINE) {
+                                parser = new PatternMatchingDefineParser();
+                        } else if (sub.patternType == AST.PatternType.VALUE) {
+                                parser = new PatternMatchingValueParser();
+                        } else {
+                                parser = new PatternMatchingDestructParser(pattern.subPatterns.size() - 1);
+                        }
+                        List<Statement> list = n == toCheck.size() - 1 ? statements : new ArrayList<Statement>();
+                        currentStmts.addAll(parser.parse(sub, list, anElse, "**g" + i, fileName));
+                        currentStmts = list;
+                }
+        }
+
         private interface PatternMatchingParser {
                 List<Statement> parse(
                         AST.Pattern pattern,
@@ -5466,60 +6079,11 @@ public class SemanticProcessor {
 
         private void parsePatternMatchingMethod(Map.Entry<AST.PatternCondition, List<Statement>> patternListEntry,
                                                 MethodDef currentMethod,
-                                                MethodDef nextMethod,
+                                                AST.If.IfPair anElse,
                                                 String fileName) throws SyntaxException {
                 AST.PatternCondition p = patternListEntry.getKey();
-                List<Statement> statements = patternListEntry.getValue();
-
-                AST.If.IfPair anElse;
-                if (nextMethod == null) {
-                        // throw when else
-                        anElse = new AST.If.IfPair(
-                                null,
-                                Collections.<Statement>singletonList(
-                                        new AST.Throw(
-                                                new AST.Invocation(
-                                                        new AST.Access(
-                                                                new AST.PackageRef("lt::runtime", LineCol.SYNTHETIC_WITH_FILE(fileName)),
-                                                                "MatchError",
-                                                                LineCol.SYNTHETIC_WITH_FILE(fileName)),
-                                                        Collections.<Expression>emptyList(),
-                                                        false,
-                                                        LineCol.SYNTHETIC_WITH_FILE(fileName)
-                                                ), LineCol.SYNTHETIC_WITH_FILE(fileName)
-                                        )
-                                ),
-                                LineCol.SYNTHETIC_WITH_FILE(fileName));
-                } else {
-                        // invoke nextMethod
-                        anElse = new AST.If.IfPair(
-                                null,
-                                Collections.<Statement>singletonList(
-                                        new AST.Return(
-                                                new AST.Invocation(
-                                                        new AST.Access(null, nextMethod.name, LineCol.SYNTHETIC_WITH_FILE(fileName)),
-                                                        Collections.<Expression>singletonList(
-                                                                new AST.Access(null, "**", LineCol.SYNTHETIC_WITH_FILE(fileName))
-                                                        ),
-                                                        false,
-                                                        LineCol.SYNTHETIC_WITH_FILE(fileName)
-                                                ),
-                                                LineCol.SYNTHETIC_WITH_FILE(fileName)
-                                        )
-                                ),
-                                LineCol.SYNTHETIC_WITH_FILE(fileName));
-                }
                 // statements should be packed into `if condition` if the condition exists
-                if (p.condition != null) {
-                        statements = Collections.<Statement>singletonList(
-                                new AST.If(
-                                        Arrays.asList(
-                                                new AST.If.IfPair(p.condition, statements, p.condition.line_col()),
-                                                anElse
-                                        ), LineCol.SYNTHETIC_WITH_FILE(fileName)
-                                )
-                        );
-                }
+                List<Statement> statements = patternMatchingStatements(p, patternListEntry.getValue(), anElse, fileName);
 
                 PatternMatchingParser patternMatchingParser;
                 switch (p.pattern.patternType) {
@@ -5616,89 +6180,60 @@ public class SemanticProcessor {
                 }
         }
 
+        /**
+         * count of the serialized$N fields of each class
+         */
+        private final Map<SClassDef, Integer> serializedFieldCount = new HashMap<SClassDef, Integer>();
+
+        /**
+         * the serialized object is deserialized only once, and stored into a static field of the current class.
+         * every evaluation returns a copy of it, so the result can be modified safely.<br>
+         * <code>
+         * LtRuntime.copyDeserialized(serialized$0 == null ? serialized$0 = LtRuntime.deserialize(serStr) : serialized$0)
+         * </code><br>
+         * interfaces cannot have non-final fields, so the object is deserialized every time.
+         *
+         * @param serStr  hex string of the serialized object
+         * @param scope   current scope
+         * @param lineCol line col
+         * @return the deserialized object
+         * @throws SyntaxException compiling error
+         */
         public Value decodeSerExp(String serStr, SemanticScope scope, LineCol lineCol) throws SyntaxException {
-                String ObjectInputStream_Name = ObjectInputStream.class.getName();
-                String InputStream_Name = InputStream.class.getName();
-                String ByteArrayInputStream_Name = ByteArrayInputStream.class.getName();
-                SClassDef ObjectInputStream = (SClassDef) getTypeWithName(ObjectInputStream_Name, lineCol);
-                assert ObjectInputStream != null;
-                STypeDef InputStream = getTypeWithName(InputStream_Name, lineCol);
-                assert InputStream != null;
-                SClassDef ByteArrayInputStream = (SClassDef) getTypeWithName(ByteArrayInputStream_Name, lineCol);
-                assert ByteArrayInputStream != null;
-                STypeDef byte1Array = getTypeWithName("[B", lineCol);
-                assert byte1Array != null;
                 SClassDef StringCls = (SClassDef) getTypeWithName("java.lang.String", lineCol);
                 assert StringCls != null;
-                SClassDef SemanticProcessor = (SClassDef) getTypeWithName(lt.compiler.SemanticProcessor.class.getName(), lineCol);
-                assert SemanticProcessor != null;
-
-                SConstructorDef ObjectInputStream_con = null;
-                // find constructor
-                for (SConstructorDef con : ObjectInputStream.constructors()) {
-                        if (con.getParameters().size() == 1 && con.getParameters().get(0).type().equals(InputStream)) {
-                                // found constructor
-                                ObjectInputStream_con = con;
-                                break;
-                        }
-                }
-                if (ObjectInputStream_con == null)
-                        throw new LtBug(ObjectInputStream_Name + "(" + InputStream_Name + ") should exist");
-                SMethodDef readObject = null;
-                // find readObject method
-                for (SMethodDef method : ObjectInputStream.methods()) {
-                        if (method.name().equals("readObject") && method.getParameters().size() == 0) {
-                                readObject = method;
-                                break;
-                        }
-                }
-                if (readObject == null) throw new LtBug(ObjectInputStream_Name + ".readObject() should exist");
-                SConstructorDef ByteArrayInputStream_con = null;
-                // find constructor
-                for (SConstructorDef con : ByteArrayInputStream.constructors()) {
-                        if (con.getParameters().size() == 1 && con.getParameters().get(0).type().equals(byte1Array)) {
-                                ByteArrayInputStream_con = con;
-                                break;
-                        }
-                }
-                if (ByteArrayInputStream_con == null)
-                        throw new LtBug(ByteArrayInputStream_Name + "(byte[]) should exist");
-                // find hex2byte(String)
-                SMethodDef hex2byte = null;
-                for (SMethodDef method : SemanticProcessor.methods()) {
-                        if (method.name().equals("hex2byte") && method.getParameters().size() == 1 && method.getParameters().get(0).type().equals(StringCls)) {
-                                hex2byte = method;
-                                break;
-                        }
-                }
-                if (hex2byte == null)
-                        throw new LtBug(lt.compiler.SemanticProcessor.class.getName() + ".hex2byte should exist");
 
-                // do handling
-                ValuePack vp = new ValuePack(true);
-                // theSerValue
+                // LtRuntime.deserialize(theSerValue)
                 StringConstantValue theSerValue = new StringConstantValue(serStr);
                 theSerValue.setType(StringCls);
-                // hex2byte(theSerValue)
-                Ins.InvokeStatic invokeHex2byte = new Ins.InvokeStatic(hex2byte, lineCol);
-                invokeHex2byte.arguments().add(theSerValue);
-                // new ByteArrayInputStream(...)
-                Ins.New aNew1 = new Ins.New(ByteArrayInputStream_con, lineCol);
-                aNew1.args().add(invokeHex2byte);
-                // new ObjectInputStream(...)
-                Ins.New aNew2 = new Ins.New(ObjectInputStream_con, lineCol);
-                aNew2.args().add(aNew1);
-                // store
-                LocalVariable local = new LocalVariable(aNew2.type(), false);
-                scope.putLeftValue(scope.generateTempName(), local);
-                Ins.TStore store = new Ins.TStore(local, aNew2, scope, lineCol, err);
+                Ins.InvokeStatic invokeDeserialize = new Ins.InvokeStatic(getLtRuntimeMethod("deserialize", StringCls), lineCol);
+                invokeDeserialize.arguments().add(theSerValue);
+
+                if (!(scope.type() instanceof SClassDef)) {
+                        return invokeDeserialize;
+                }
+                SClassDef cls = (SClassDef) scope.type();
+
+                Integer count = serializedFieldCount.get(cls);
+                if (count == null) count = 0;
+                serializedFieldCount.put(cls, count + 1);
+                SFieldDef field = new SFieldDef(LineCol.SYNTHETIC);
+                field.setName("serialized$" + count);
+                field.setType(getObject_Class());
+                field.modifiers().add(SModifier.PRIVATE);
+                field.modifiers().add(SModifier.STATIC);
+                field.modifiers().add(SModifier.VOLATILE);
+                cls.fields().add(field);
+                field.setDeclaringType(cls);
 
-                vp.instructions().add(store);
-
-                // x.readObject()
-                Ins.InvokeVirtual invokeReadObject = new Ins.InvokeVirtual(
-                        new Ins.TLoad(local, scope, lineCol), readObject, lineCol);
-                vp.instructions().add(invokeReadObject);
+                ValuePack vp = new ValuePack(true);
+                Ins.Nop nop = new Ins.Nop();
+                vp.instructions().add(new Ins.IfNonNull(new Ins.GetStatic(field, lineCol), nop, lineCol));
+                vp.instructions().add(new Ins.PutStatic(field, invokeDeserialize, lineCol, err));
+                vp.instructions().add(nop);
+                Ins.InvokeStatic invokeCopy = new Ins.InvokeStatic(getLtRuntimeMethod("copyDeserialized", getObject_Class()), lineCol);
+                invokeCopy.arguments().add(new Ins.GetStatic(field, lineCol));
+                vp.instructions().add(invokeCopy);
                 return vp;
         }
 
@@ -5851,6 +6386,80 @@ public class SemanticProcessor {
                 return (SInterfaceDef) getTypeWithName(className, lineCol);
         }
 
+        /**
+         * get the primitive specialized function (e.g. {@link lt.lang.function.IntFunction1}) for the lambda.<br>
+         * the lambda should have 1 or 2 parameters with the same primitive type (int, long or double),
+         * and the body should be one arithmetic expression of the parameters and number literals,
+         * so that the result type is the same as the parameter type
+         *
+         * @param lambda lambda
+         * @return IntFunction1/2, LongFunction1/2, DoubleFunction1/2 or null if not applicable
+         * @throws SyntaxException exception
+         */
+        public SInterfaceDef getPrimitiveLambdaFunction(AST.Lambda lambda) throws SyntaxException {
+                int paramCount = lambda.params.size();
+                if ((paramCount != 1 && paramCount != 2) || lambda.statements.size() != 1) return null;
+
+                String primitive = null;
+                Set<String> paramNames = new HashSet<String>();
+                for (VariableDef v : lambda.params) {
+                        AST.Access type = v.getType();
+                        if (type == null || type.exp != null) return null;
+                        if (primitive == null) {
+                                primitive = type.name;
+                        } else if (!primitive.equals(type.name)) {
+                                return null;
+                        }
+                        paramNames.add(v.getName());
+                }
+
+                String prefix;
+                if ("int".equals(primitive)) {
+                        prefix = "Int";
+                } else if ("long".equals(primitive)) {
+                        prefix = "Long";
+                } else if ("double".equals(primitive)) {
+                        prefix = "Double";
+                } else return null;
+
+                Statement stmt = lambda.statements.get(0);
+                if (!(stmt instanceof Expression)
+                        || !isPrimitiveArithmetic((Expression) stmt, paramNames, !prefix.equals("Double"))) {
+                        return null;
+                }
+                return (SInterfaceDef) getTypeWithName("lt.lang.function." + prefix + "Function" + paramCount, lambda.line_col());
+        }
+
+        /**
+         * check whether the expression only contains + - * / % on the parameters and number literals
+         *
+         * @param exp        expression
+         * @param paramNames lambda parameter names
+         * @param integral   the parameters are int or long (literals with `.` are not allowed)
+         * @return true if the result type is the same as the parameters' type
+         */
+        private boolean isPrimitiveArithmetic(Expression exp, Set<String> paramNames, boolean integral) {
+                if (exp instanceof AST.Access) {
+                        return ((AST.Access) exp).exp == null && paramNames.contains(((AST.Access) exp).name);
+                } else if (exp instanceof NumberLiteral) {
+                        return !integral || !((NumberLiteral) exp).literal().contains(".");
+                } else if (exp instanceof UnaryOneVariableOperation) {
+                        String op = ((UnaryOneVariableOperation) exp).operator();
+                        return (op.equals("-") || op.equals("+"))
+                                && isPrimitiveArithmetic(((UnaryOneVariableOperation) exp).expressions().get(0), paramNames, integral);
+                } else if (exp instanceof TwoVariableOperation) {
+                        String op = ((TwoVariableOperation) exp).operator();
+                        if (!op.equals("+") && !op.equals("-") && !op.equals("*") && !op.equals("/") && !op.equals("%")) {
+                                return false;
+                        }
+                        for (Expression e : ((TwoVariableOperation) exp).expressions()) {
+                                if (!isPrimitiveArithmetic(e, paramNames, integral)) return false;
+                        }
+                        return true;
+                }
+                return false;
+        }
+
         /**
          * retrieve abstract method and possible constructor for the lambda
          *
@@ -5997,13 +6606,15 @@ public class SemanticProcessor {
          * <pre>
          * class LambdaClassName extends SomeFunctionalAbstractClass { // may be implements SomeFunctionalInterface
          *         Object o;
-         *         List local;
-         *         LambdaClassName(Object o, List local){
+         *         final int local0;       // the variable is never assigned after being captured
+         *         final Pointer local1;   // the variable is assigned after being captured
+         *         LambdaClassName(Object o, int local0, Pointer local1){
          *                 this.o=o;
-         *                 this.local=local;
+         *                 this.local0=local0;
+         *                 this.local1=local1;
          *         }
          *         public Object theAbstractMethodToImpl(Object x,Object y) {
-         *                 return o.someMethod(x, y, local.get(0), local.get(1), ... )
+         *                 return o.someMethod(local0, local1, ..., x, y)
          *         }
          * }
          * </pre>
@@ -6019,7 +6630,10 @@ public class SemanticProcessor {
                 SMethodDef methodToOverride;
                 SConstructorDef constructorWithZeroParamAndCanAccess = null;
                 if (requiredType == null || requiredType.fullName().equals("java.lang.Object")) {
-                        SInterfaceDef interfaceDef = getDefaultLambdaFunction(lambda.params.size(), lambda.line_col());
+                        SInterfaceDef interfaceDef = getPrimitiveLambdaFunction(lambda);
+                        if (interfaceDef == null) {
+                                interfaceDef = getDefaultLambdaFunction(lambda.params.size(), lambda.line_col());
+                        }
                         assert interfaceDef != null;
 
                         requiredType = interfaceDef;
@@ -6091,31 +6705,38 @@ public class SemanticProcessor {
                 List<Value> consArgs = new ArrayList<Value>();
                 // o
                 if (scope.getThis() != null) consArgs.add(scope.getThis());
-                // local
-                Ins.NewMap newMap = new Ins.NewMap(getTypeWithName(HashMap.class.getName(), LineCol.SYNTHETIC));
+                // captured values, each one is stored in a field of the lambda object
                 for (int index = 0; index < args.size(); ++index) {
-                        Value arg = args.get(index);
-                        if (!innerMethod.getParameters().get(index).isUsed()) {
+                        SParameter captured = innerMethod.getParameters().get(index);
+                        if (!captured.isUsed()) {
                                 continue;
                         }
-
-                        // mark the variable as `captured by lambda`
-                        scope.getMeta().pointerLocalVar.add(((Ins.TLoad) arg).value());
-
-                        if (arg.type() instanceof PrimitiveTypeDef) {
-                                arg = boxPrimitive(arg, LineCol.SYNTHETIC);
-                        }
-                        newMap.initValues().put(boxPrimitive(new IntValue(index), LineCol.SYNTHETIC), arg);
+                        consArgs.add(capturedValue(args.get(index), captured, scope));
                 }
-                consArgs.add(newMap);
 
                 boolean isInterface = requiredType instanceof SInterfaceDef;
+                CompilerMetrics.Timer timer = metrics.start("semantic.lambda", null);
+                List<SParameter> innerParams = innerMethod.getParameters();
+                if (target >= 8 && isInterface && scope.type() instanceof SClassDef
+                        && !innerParams.get(innerParams.size() - 1).isUsed()
+                        && getBoxedFunctionOf((SInterfaceDef) requiredType) == null) {
+                        // the lambda doesn't refer to itself (`$`),
+                        // so it's created by LambdaMetafactory and no class is required
+                        SMethodDef implMethod = buildAMethodForLambda((SClassDef) scope.type(), scope.getThis() == null,
+                                methodToOverride, args.size(), innerMethod);
+                        Ins.LambdaFactory lambdaFactory = new Ins.LambdaFactory(
+                                (SInterfaceDef) requiredType, methodToOverride, implMethod, lambda.line_col());
+                        lambdaFactory.capturedArgs().addAll(consArgs);
+                        timer.stop();
+                        return lambdaFactory;
+                }
                 SClassDef builtClass = buildAClassForLambda(
                         scope.type(), scope.getThis() == null, methodToOverride,
                         constructorWithZeroParamAndCanAccess,
                         isInterface ? (SInterfaceDef) requiredType : null,
                         isInterface, args.size(),
                         innerMethod);
+                timer.stop();
 
                 SConstructorDef cons = builtClass.constructors().get(0);
                 Ins.New aNew = new Ins.New(cons, LineCol.SYNTHETIC);
@@ -6158,9 +6779,13 @@ public class SemanticProcessor {
                 typeDefSet.add(sClassDef);
                 SemanticScope scope = new SemanticScope(sClassDef, null);
 
+                SInterfaceDef boxedFunction = null;
                 if (isInterface) {
                         sClassDef.setParent((SClassDef) getTypeWithName("java.lang.Object", LineCol.SYNTHETIC));
                         sClassDef.superInterfaces().add(interfaceType);
+                        // primitive functions can also be passed to methods requiring Function1/Function2
+                        boxedFunction = getBoxedFunctionOf(interfaceType);
+                        if (boxedFunction != null) sClassDef.superInterfaces().add(boxedFunction);
                 } else {
                         sClassDef.setParent((SClassDef) methodToOverride.declaringType());
                 }
@@ -6184,12 +6809,19 @@ public class SemanticProcessor {
                         sClassDef.fields().add(f2);
                         f2.setDeclaringType(sClassDef);
                 }
-                // local
-                SFieldDef f3 = new SFieldDef(LineCol.SYNTHETIC);
-                f3.setName("local");
-                f3.setType(getTypeWithName("java.util.Map", LineCol.SYNTHETIC));
-                sClassDef.fields().add(f3);
-                f3.setDeclaringType(sClassDef);
+                // captured values (the unused ones are not captured)
+                SFieldDef[] localFields = new SFieldDef[localVarCount];
+                for (int index = 0; index < localVarCount; ++index) {
+                        SParameter captured = innerMethod.getParameters().get(index);
+                        if (!captured.isUsed()) continue;
+                        SFieldDef f3 = new SFieldDef(LineCol.SYNTHETIC);
+                        f3.setName("local" + index);
+                        f3.setType(captured.type());
+                        f3.modifiers().add(SModifier.FINAL);
+                        sClassDef.fields().add(f3);
+                        f3.setDeclaringType(sClassDef);
+                        localFields[index] = f3;
+                }
                 // self
                 SFieldDef f4 = new SFieldDef(LineCol.SYNTHETIC);
                 f4.setName("self");
@@ -6235,17 +6867,20 @@ public class SemanticProcessor {
                                 LineCol.SYNTHETIC, err
                         ));
                 }
-                // p3
-                SParameter p3 = new SParameter();
-                p3.setType(getTypeWithName("java.util.Map", LineCol.SYNTHETIC));
-                con.getParameters().add(p3);
-                conScope.putLeftValue("p3", p3);
-                con.statements().add(new Ins.PutField(
-                        f3,
-                        conScope.getThis(),
-                        new Ins.TLoad(p3, conScope, LineCol.SYNTHETIC),
-                        LineCol.SYNTHETIC, err
-                ));
+                // p3, p4, ...
+                for (SFieldDef f3 : localFields) {
+                        if (f3 == null) continue;
+                        SParameter p3 = new SParameter();
+                        p3.setType(f3.type());
+                        con.getParameters().add(p3);
+                        conScope.putLeftValue(conScope.generateTempName(), p3);
+                        con.statements().add(new Ins.PutField(
+                                f3,
+                                conScope.getThis(),
+                                new Ins.TLoad(p3, conScope, LineCol.SYNTHETIC),
+                                LineCol.SYNTHETIC, err
+                        ));
+                }
 
                 // method
                 SMethodDef theMethod = new SMethodDef(LineCol.SYNTHETIC);
@@ -6268,22 +6903,20 @@ public class SemanticProcessor {
                 // the lambda USED to be using MethodHandle to invoke the method
                 // now it directly invokes that method
                 List<Value> capturedValues = new ArrayList<Value>();
-                // add local variables in list
-                for (int index = 0; index < localVarCount; ++index) {
-                        Ins.InvokeInterface ii = new Ins.InvokeInterface(
-                                new Ins.GetField(f3, meScope.getThis(), LineCol.SYNTHETIC),
-                                getMap_get(), LineCol.SYNTHETIC
-                        );
-                        ii.arguments().add(boxPrimitive(new IntValue(index), LineCol.SYNTHETIC));
-                        Ins.CheckCast cc = new Ins.CheckCast(ii, innerMethod.getParameters().get(index).type(), LineCol.SYNTHETIC);
-                        capturedValues.add(cc);
+                // add captured values, values not used are not passed to the inner method
+                for (SFieldDef f3 : localFields) {
+                        capturedValues.add(f3 == null
+                                ? NullValue.get()
+                                : new Ins.GetField(f3, meScope.getThis(), LineCol.SYNTHETIC));
                 }
                 List<Value> methodArgs = new ArrayList<Value>();
-                // add parameters
-                for (SParameter p : theMethod.getParameters()) {
-                        methodArgs.add(new Ins.TLoad(
-                                p, meScope, LineCol.SYNTHETIC
-                        ));
+                // add parameters, cast to the types declared on the lambda parameters
+                for (int index = 0; index < theMethod.getParameters().size(); ++index) {
+                        SParameter p = theMethod.getParameters().get(index);
+                        methodArgs.add(cast(
+                                innerMethod.getParameters().get(localVarCount + index).type(),
+                                new Ins.TLoad(p, meScope, LineCol.SYNTHETIC),
+                                sClassDef, LineCol.SYNTHETIC));
                 }
                 // add the functional object it self
                 methodArgs.add(new Ins.GetField(f4, meScope.getThis(), LineCol.SYNTHETIC));
@@ -6305,11 +6938,161 @@ public class SemanticProcessor {
                 }
                 // return if it's not `void`
                 if (!theMethod.getReturnType().equals(VoidType.get())) {
-                        theStmt = new Ins.TReturn((Value) theStmt, LineCol.SYNTHETIC);
+                        theStmt = new Ins.TReturn((Value) theStmt, LineCol.SYNTHETIC);
+                }
+                theMethod.statements().add(theStmt);
+
+                if (boxedFunction != null) {
+                        buildBoxedBridgeForLambda(sClassDef, theMethod, boxedFunction.methods().get(0));
+                }
+
+                return sClassDef;
+        }
+
+        /**
+         * get the boxed function for the primitive specialized function
+         *
+         * @param interfaceType the interface to implement
+         * @return Function1 for IntFunction1/LongFunction1/DoubleFunction1,
+         * Function2 for IntFunction2/LongFunction2/DoubleFunction2, or null if it's not primitive specialized
+         * @throws SyntaxException exception
+         */
+        private SInterfaceDef getBoxedFunctionOf(SInterfaceDef interfaceType) throws SyntaxException {
+                String name = interfaceType.fullName();
+                if (!name.startsWith("lt.lang.function.")) return null;
+                String simpleName = name.substring("lt.lang.function.".length());
+                if (simpleName.equals("IntFunction1") || simpleName.equals("LongFunction1") || simpleName.equals("DoubleFunction1")) {
+                        return getDefaultLambdaFunction(1, LineCol.SYNTHETIC);
+                } else if (simpleName.equals("IntFunction2") || simpleName.equals("LongFunction2") || simpleName.equals("DoubleFunction2")) {
+                        return getDefaultLambdaFunction(2, LineCol.SYNTHETIC);
+                }
+                return null;
+        }
+
+        /**
+         * build the boxed bridge method for primitive specialized lambda<br>
+         * <pre>
+         * public Object apply(Object a) {
+         *         return apply((int) a)
+         * }
+         * </pre>
+         *
+         * @param sClassDef       the lambda class
+         * @param primitiveMethod the primitive method implemented by the lambda class
+         * @param boxedMethod     the method of Function1/Function2 to implement
+         * @throws SyntaxException exception
+         */
+        private void buildBoxedBridgeForLambda(SClassDef sClassDef, SMethodDef primitiveMethod, SMethodDef boxedMethod) throws SyntaxException {
+                SMethodDef bridge = new SMethodDef(LineCol.SYNTHETIC);
+                SemanticScope bridgeScope = new SemanticScope(new SemanticScope(sClassDef, null), bridge.meta());
+                bridgeScope.setThis(new Ins.This(sClassDef));
+                sClassDef.methods().add(bridge);
+                bridge.setDeclaringType(sClassDef);
+                bridge.setName(boxedMethod.name());
+                bridge.setReturnType(boxedMethod.getReturnType());
+                bridge.modifiers().add(SModifier.PUBLIC);
+
+                Ins.InvokeVirtual invoke = new Ins.InvokeVirtual(bridgeScope.getThis(), primitiveMethod, LineCol.SYNTHETIC);
+                for (int index = 0; index < boxedMethod.getParameters().size(); ++index) {
+                        SParameter p = new SParameter();
+                        p.setType(boxedMethod.getParameters().get(index).type());
+                        bridge.getParameters().add(p);
+                        String name = bridgeScope.generateTempName();
+                        bridgeScope.putLeftValue(name, p);
+                        p.setName(name);
+
+                        invoke.arguments().add(cast(
+                                primitiveMethod.getParameters().get(index).type(),
+                                new Ins.TLoad(p, bridgeScope, LineCol.SYNTHETIC),
+                                sClassDef, LineCol.SYNTHETIC));
+                }
+                bridge.statements().add(new Ins.TReturn(boxPrimitive(invoke, LineCol.SYNTHETIC), LineCol.SYNTHETIC));
+        }
+
+        /**
+         * build a private static method for the lambda, which is used as the implementation method of LambdaMetafactory<br>
+         * <pre>
+         * private static Object innerMethodName$Latte$Lambda(LambdaClassType o, Pointer local0, ..., Object x, Object y) {
+         *         return o.innerMethodName(local0, ..., x, y, null)
+         * }
+         * </pre>
+         *
+         * @param lambdaClassType  the caller method's declaring type
+         * @param isStatic         the caller method is static (then omit the 1st param)
+         * @param methodToOverride the chosen method to override
+         * @param localVarCount    local variable count
+         * @param innerMethod      the inner method for the lambda to invoke
+         * @return the method (already added into the caller method's declaring type)
+         */
+        public SMethodDef buildAMethodForLambda(SClassDef lambdaClassType, boolean isStatic, SMethodDef methodToOverride,
+                                                int localVarCount, SMethodDef innerMethod) throws SyntaxException {
+                SMethodDef theMethod = new SMethodDef(LineCol.SYNTHETIC);
+                theMethod.setDeclaringType(lambdaClassType);
+                theMethod.setName(innerMethod.name() + "$Latte$Lambda");
+                theMethod.setReturnType(methodToOverride.getReturnType());
+                theMethod.modifiers().add(SModifier.PRIVATE);
+                theMethod.modifiers().add(SModifier.STATIC);
+                SemanticScope meScope = new SemanticScope(new SemanticScope(lambdaClassType, null), theMethod.meta());
+
+                // o
+                Value target = null;
+                if (!isStatic) {
+                        SParameter o = new SParameter();
+                        o.setType(lambdaClassType);
+                        theMethod.getParameters().add(o);
+                        String name = meScope.generateTempName();
+                        meScope.putLeftValue(name, o);
+                        o.setName(name);
+                        target = new Ins.TLoad(o, meScope, LineCol.SYNTHETIC);
+                }
+                // captured values (pointers or values), they are passed as they are
+                List<Value> capturedValues = new ArrayList<Value>();
+                for (int index = 0; index < localVarCount; ++index) {
+                        SParameter captured = innerMethod.getParameters().get(index);
+                        if (!captured.isUsed()) {
+                                capturedValues.add(NullValue.get());
+                                continue;
+                        }
+                        SParameter p = new SParameter();
+                        p.setType(captured.type());
+                        theMethod.getParameters().add(p);
+                        String name = meScope.generateTempName();
+                        meScope.putLeftValue(name, p);
+                        p.setName(name);
+                        if (isPointerType(p.type())) {
+                                theMethod.meta().pointerLocalVar.add(p);
+                        }
+                        capturedValues.add(new Ins.TLoad(p, meScope, LineCol.SYNTHETIC));
+                }
+                // parameters, cast to the types declared on the lambda parameters
+                List<Value> methodArgs = new ArrayList<Value>();
+                for (int index = 0; index < methodToOverride.getParameters().size(); ++index) {
+                        SParameter mp = new SParameter();
+                        mp.setType(methodToOverride.getParameters().get(index).type());
+                        theMethod.getParameters().add(mp);
+                        String name = meScope.generateTempName();
+                        meScope.putLeftValue(name, mp);
+                        mp.setName(name);
+                        methodArgs.add(cast(
+                                innerMethod.getParameters().get(localVarCount + index).type(),
+                                new Ins.TLoad(mp, meScope, LineCol.SYNTHETIC),
+                                lambdaClassType, LineCol.SYNTHETIC));
+                }
+                // the functional object is not used
+                methodArgs.add(NullValue.get());
+
+                Ins.InvokeWithCapture iwc = new Ins.InvokeWithCapture(target, innerMethod, isStatic, LineCol.SYNTHETIC);
+                iwc.capturedArguments().addAll(capturedValues);
+                iwc.arguments().addAll(methodArgs);
+                Instruction theStmt = iwc;
+                // return if it's not `void`
+                if (!theMethod.getReturnType().equals(VoidType.get())) {
+                        theStmt = new Ins.TReturn(iwc, LineCol.SYNTHETIC);
                 }
                 theMethod.statements().add(theStmt);
 
-                return sClassDef;
+                lambdaClassType.methods().add(theMethod);
+                return theMethod;
         }
 
         /**
@@ -6932,6 +7715,9 @@ public class SemanticProcessor {
                 } else if (op.equals("%")) {
                         return parseValueFromTwoVarOpILFD(left, Ins.TwoVarOp.Irem, "remainder", right, scope, lineCol);
                 } else if (op.equals("+")) {
+                        if (left.type().equals(getTypeWithName("java.lang.String", lineCol))) {
+                                return concatString(left, right, lineCol);
+                        }
                         return parseValueFromTwoVarOpILFD(left, Ins.TwoVarOp.Iadd, "add", right, scope, lineCol);
                 } else if (op.equals("-")) {
                         return parseValueFromTwoVarOpILFD(left, Ins.TwoVarOp.Isub, "subtract", right, scope, lineCol);
@@ -8240,6 +9026,16 @@ public class SemanticProcessor {
          */
         public static final int FIND_MODE_NON_STATIC = 2;
 
+        /**
+         * @param mode find_method_mode
+         * @return the static flag used to retrieve methods from the method index
+         */
+        private static Boolean staticFlagOfFindMode(int mode) {
+                if (mode == FIND_MODE_STATIC) return true;
+                if (mode == FIND_MODE_NON_STATIC) return false;
+                return null;
+        }
+
         /**
          * find method from interface and it's super interfaces
          *
@@ -8252,17 +9048,17 @@ public class SemanticProcessor {
          * @throws SyntaxException compiling error
          */
         public void findMethodFromInterfaceWithArguments(String name, List<Value> argList, SInterfaceDef sInterfaceDef, int mode, List<SMethodDef> matchedMethods, boolean checkSuper) throws SyntaxException {
-                out:
-                for (SMethodDef m : sInterfaceDef.methods()) {
-                        // check name
-                        if (!m.name().equals(name)) continue;
-
-                        if (mode == FIND_MODE_STATIC) {
-                                if (!m.modifiers().contains(SModifier.STATIC)) continue;
-                        } else if (mode == FIND_MODE_NON_STATIC) {
-                                if (m.modifiers().contains(SModifier.STATIC)) continue;
-                        }
+                // no type in the hierarchy declares the method
+                if (checkSuper && !sInterfaceDef.hierarchyHasMethod(name)) return;
+                findMethodFromInterfaceHierarchy(name, argList, sInterfaceDef, mode, matchedMethods, checkSuper);
+        }
 
+        /**
+         * the recursive part of {@link #findMethodFromInterfaceWithArguments(String, List, SInterfaceDef, int, List, boolean)}
+         */
+        private void findMethodFromInterfaceHierarchy(String name, List<Value> argList, SInterfaceDef sInterfaceDef, int mode, List<SMethodDef> matchedMethods, boolean checkSuper) throws SyntaxException {
+                out:
+                for (SMethodDef m : sInterfaceDef.methods(name, staticFlagOfFindMode(mode))) {
                         List<SParameter> parameters = m.getParameters();
                         if (parameters.size() == argList.size()) {
                                 // parameter size match
@@ -8288,7 +9084,7 @@ public class SemanticProcessor {
                 if (checkSuper) {
                         // recursively get super interfaces' method
                         for (SInterfaceDef i : sInterfaceDef.superInterfaces()) {
-                                findMethodFromInterfaceWithArguments(name, argList, i, mode, matchedMethods, true);
+                                findMethodFromInterfaceHierarchy(name, argList, i, mode, matchedMethods, true);
                         }
                 }
         }
@@ -8306,6 +9102,15 @@ public class SemanticProcessor {
          * @throws SyntaxException compiling error
          */
         public void findMethodFromClassWithArguments(String name, List<Value> argList, STypeDef invokeOn, SClassDef sClassDef, int mode, List<SMethodDef> matchedMethods, boolean checkSuper) throws SyntaxException {
+                // no type in the hierarchy declares the method
+                if (checkSuper && !sClassDef.hierarchyHasMethod(name)) return;
+                findMethodFromClassHierarchy(name, argList, invokeOn, sClassDef, mode, matchedMethods, checkSuper);
+        }
+
+        /**
+         * the recursive part of {@link #findMethodFromClassWithArguments(String, List, STypeDef, SClassDef, int, List, boolean)}
+         */
+        private void findMethodFromClassHierarchy(String name, List<Value> argList, STypeDef invokeOn, SClassDef sClassDef, int mode, List<SMethodDef> matchedMethods, boolean checkSuper) throws SyntaxException {
                 // prevent invalid class access
                 if (!sClassDef.modifiers().contains(SModifier.PUBLIC)) {
                         if (sClassDef.modifiers().contains(SModifier.PROTECTED)) {
@@ -8318,16 +9123,7 @@ public class SemanticProcessor {
                         }
                 }
                 out:
-                for (SMethodDef m : sClassDef.methods()) {
-                        // check name
-                        if (!m.name().equals(name)) continue;
-
-                        if (mode == FIND_MODE_STATIC) {
-                                if (!m.modifiers().contains(SModifier.STATIC)) continue;
-                        } else if (mode == FIND_MODE_NON_STATIC) {
-                                if (m.modifiers().contains(SModifier.STATIC)) continue;
-                        }
-
+                for (SMethodDef m : sClassDef.methods(name, staticFlagOfFindMode(mode))) {
                         List<SParameter> parameters = m.getParameters();
                         if (parameters.size() == argList.size()) {
                                 // parameter size match
@@ -8391,10 +9187,10 @@ public class SemanticProcessor {
 
                 if (checkSuper) {
                         if (sClassDef.parent() != null) {
-                                findMethodFromClassWithArguments(name, argList, invokeOn, sClassDef.parent(), mode, matchedMethods, true);
+                                findMethodFromClassHierarchy(name, argList, invokeOn, sClassDef.parent(), mode, matchedMethods, true);
                         }
                         for (SInterfaceDef i : sClassDef.superInterfaces()) {
-                                findMethodFromInterfaceWithArguments(name, argList, i, mode, matchedMethods, true);
+                                findMethodFromInterfaceHierarchy(name, argList, i, mode, matchedMethods, true);
                         }
                 }
         }
@@ -9090,7 +9886,7 @@ public class SemanticProcessor {
 
                         if (invokeInnerMethod) {
                                 List<Value> values = new ArrayList<Value>();
-                                List<Ins.TLoad> capturedValues = new ArrayList<Ins.TLoad>();
+                                List<Value> capturedValues = new ArrayList<Value>();
                                 int inc = innerMethod.method.getParameters().size() - innerMethod.paramCount;
                                 for (int i = 0; i < argList.size(); ++i) {
                                         STypeDef requiredType = innerMethod.method.getParameters().get(i + inc).type();
@@ -9113,19 +9909,15 @@ public class SemanticProcessor {
                                 if (leftValues.size() != requiredLocalVariableCount)
                                         throw new LtBug("require " + requiredLocalVariableCount + " local variable(s), got " + leftValues.size());
 
-                                for (LeftValue v : leftValues) {
-                                        capturedValues.add(new Ins.TLoad(v, scope, LineCol.SYNTHETIC));
-                                }
-                                invoke.arguments().addAll(values);
-                                invoke.capturedArguments().addAll(capturedValues);
-                                for (int i = 0; i < innerMethod.method.getParameters().size() - innerMethod.paramCount; ++i) {
+                                for (int i = 0; i < requiredLocalVariableCount; ++i) {
                                         SParameter p = innerMethod.method.getParameters().get(i);
                                         assert p.isCapture();
-                                        if (p.isUsed()) {
-                                                Ins.TLoad v = capturedValues.get(i);
-                                                scope.getMeta().pointerLocalVar.add(v.value());
-                                        }
+                                        Ins.TLoad v = new Ins.TLoad(leftValues.get(i), scope, LineCol.SYNTHETIC);
+                                        // the values not used are ignored when generating byte code
+                                        capturedValues.add(p.isUsed() ? capturedValue(v, p, scope) : v);
                                 }
+                                invoke.arguments().addAll(values);
+                                invoke.capturedArguments().addAll(capturedValues);
 
                                 if (invoke.type().equals(VoidType.get()))
                                         return new ValueAnotherType(
@@ -9620,7 +10412,8 @@ public class SemanticProcessor {
                         // plain string
                         return values.get(0);
                 } else {
-                        if (!(values.get(0) instanceof StringConstantValue) && !(values.get(1) instanceof StringConstantValue)) {
+                        if (!values.get(0).type().equals(getTypeWithName("java.lang.String", LineCol.SYNTHETIC))) {
+                                // start with a String, so that the values are concatenated as strings
                                 StringConstantValue emptyString = new StringConstantValue("");
                                 emptyString.setType((SClassDef) getTypeWithName("java.lang.String", LineCol.SYNTHETIC));
                                 values.add(0, emptyString);
@@ -9749,6 +10542,57 @@ public class SemanticProcessor {
                         return arr;
                 } else if (o instanceof DummyValue) {
                         return (Value) o;
+                } else if (o instanceof ClassFileInfo.EnumConstant) {
+                        // enum from class file
+                        EnumValue e = new EnumValue();
+                        e.setType(getTypeWithName(((ClassFileInfo.EnumConstant) o).type, LineCol.SYNTHETIC));
+                        e.setEnumStr(((ClassFileInfo.EnumConstant) o).name);
+                        return e;
+                } else if (o instanceof ClassFileInfo.ClassConstant) {
+                        // class from class file
+                        return new Ins.GetClass(
+                                getTypeWithName(((ClassFileInfo.ClassConstant) o).type, LineCol.SYNTHETIC),
+                                (SClassDef) getTypeWithName("java.lang.Class", LineCol.SYNTHETIC));
+                } else if (o instanceof ClassFileInfo.AnnotationConstant) {
+                        // annotation from class file
+                        ClassFileInfo.AnnotationConstant annoConst = (ClassFileInfo.AnnotationConstant) o;
+                        SAnno a = new SAnno();
+                        a.setAnnoDef((SAnnoDef) getTypeWithName(annoConst.type, LineCol.SYNTHETIC));
+                        Map<SAnnoField, Value> map = new HashMap<SAnnoField, Value>();
+                        for (SAnnoField f : a.type().annoFields()) {
+                                // values not written in class file are default values
+                                if (!annoConst.values.containsKey(f.name())) continue;
+                                Value v = parseValueFromObject(annoConst.values.get(f.name()));
+                                v = checkAndCastAnnotationValues(v, LineCol.SYNTHETIC);
+                                map.put(f, v);
+                        }
+                        a.values().putAll(map);
+
+                        return a;
+                } else if (o instanceof ClassFileInfo.ArrayConstant) {
+                        // array from class file
+                        // the array type is the type of the annotation field
+                        ClassFileInfo.ArrayConstant arrConst = (ClassFileInfo.ArrayConstant) o;
+                        SAnnoDef annoDef = (SAnnoDef) getTypeWithName(arrConst.annotationType, LineCol.SYNTHETIC);
+                        SArrayTypeDef arrType = null;
+                        for (SAnnoField f : annoDef.annoFields()) {
+                                if (f.name().equals(arrConst.element)) {
+                                        arrType = (SArrayTypeDef) f.type();
+                                        break;
+                                }
+                        }
+                        if (arrType == null) throw new LtBug("cannot find annotation field " + arrConst.element + " in " + annoDef);
+
+                        SArrayValue arr = new SArrayValue();
+                        Value[] values = new Value[arrConst.values.size()];
+                        for (int i = 0; i < values.length; ++i) {
+                                values[i] = parseValueFromObject(arrConst.values.get(i));
+                        }
+                        arr.setType(arrType);
+                        arr.setDimension(1);
+                        arr.setValues(values);
+
+                        return arr;
                 } else throw new LtBug("cannot parse " + o + " into Value");
         }
 
@@ -10524,6 +11368,15 @@ public class SemanticProcessor {
                 if (types.containsKey(clsName)) {
                         return types.get(clsName);
                 } else {
+                        if (clsName.startsWith("[")) {
+                                return getArrayTypeWithName(clsName, allowException, lineCol);
+                        }
+                        // read the class file if available
+                        // the class won't be loaded or initialized
+                        ClassFileInfo classFile = classFileInfo(clsName);
+                        if (classFile != null) {
+                                return getTypeFromClassFile(classFile, lineCol);
+                        }
                         // check already compiled class
                         try {
                                 Class<?> cls = loadClass(clsName);
@@ -10585,7 +11438,7 @@ public class SemanticProcessor {
                                                 // super interfaces
                                                 getSuperInterfaceFromClass(cls, i.superInterfaces());
                                                 // fields methods
-                                                getFieldsAndMethodsFromClass(cls, i, i.fields(), i.methods());
+                                                i.setMemberLoader(new ImportedMembers(this, i, cls, null));
                                         } else if (typeDef instanceof SClassDef) {
                                                 SClassDef c = (SClassDef) typeDef;
                                                 // super interfaces
@@ -10594,19 +11447,8 @@ public class SemanticProcessor {
                                                         // super class
                                                         ((SClassDef) typeDef).setParent((SClassDef) getTypeWithName(cls.getSuperclass().getName(), lineCol));
                                                 }
-                                                // fields methods
-                                                getFieldsAndMethodsFromClass(cls, c, c.fields(), c.methods());
-                                                // constructors
-                                                for (Constructor<?> con : cls.getDeclaredConstructors()) {
-                                                        SConstructorDef constructorDef = new SConstructorDef(LineCol.SYNTHETIC);
-                                                        constructorDef.setDeclaringType(c);
-
-                                                        getAnnotationFromAnnotatedElement(con, constructorDef);
-                                                        getParameterFromClassArray(con.getParameterTypes(), constructorDef);
-                                                        getModifierFromMember(con, constructorDef);
-
-                                                        c.constructors().add(constructorDef);
-                                                }
+                                                // fields methods constructors
+                                                c.setMemberLoader(new ImportedMembers(this, c, cls, null));
                                         } else {
                                                 // typeDef instanceof SAnnoDef;
 
@@ -10632,6 +11474,431 @@ public class SemanticProcessor {
                 }
         }
 
+        /**
+         * get array type by class name
+         *
+         * @param clsName        class name, e.g. <code>[Ljava.lang.String;</code>
+         * @param allowException if true, then no syntax exception would be thrown
+         * @param lineCol        file_line_col
+         * @return SArrayTypeDef or null if the component type is not found
+         * @throws SyntaxException exception
+         */
+        private SArrayTypeDef getArrayTypeWithName(String clsName, boolean allowException, LineCol lineCol) throws SyntaxException {
+                lt.dependencies.asm.Type arrayType;
+                try {
+                        arrayType = lt.dependencies.asm.Type.getType(clsName.replace('.', '/'));
+                } catch (RuntimeException e) {
+                        arrayType = null;
+                }
+                if (arrayType == null || arrayType.getSort() != lt.dependencies.asm.Type.ARRAY) {
+                        if (!allowException) {
+                                err.SyntaxException("undefined class " + clsName, lineCol);
+                        }
+                        return null;
+                }
+                STypeDef component = getTypeWithName(ClassFileInfo.className(arrayType.getElementType()), allowException, lineCol);
+                if (component == null) return null;
+                // the array type might be retrieved when building the component type
+                if (types.containsKey(clsName)) return (SArrayTypeDef) types.get(clsName);
+
+                SArrayTypeDef arrType = new SArrayTypeDef();
+                arrType.setFullName(clsName);
+                putNameAndTypeDef(arrType, lineCol);
+                arrType.setDimension(arrayType.getDimensions());
+                arrType.setType(component);
+                return arrType;
+        }
+
+        /**
+         * get class file info of the class<br>
+         * the class file is retrieved from the class loader of the compiler, then from {@link #classLoader}
+         *
+         * @param clsName class name
+         * @return class file info or null if the class file is not found
+         */
+        public ClassFileInfo classFileInfo(String clsName) {
+                ClassFileInfo checked = classFileInfoOfCheckedTypes.remove(clsName);
+                if (checked != null) return checked;
+                String path = clsName.replace('.', '/') + ".class";
+                ClassLoader compilerLoader = SemanticProcessor.class.getClassLoader();
+                URL url = compilerLoader == null
+                        ? ClassLoader.getSystemResource(path)
+                        : compilerLoader.getResource(path);
+                if (url == null && classLoader != null) {
+                        url = classLoader.getResource(path);
+                }
+                if (url == null) return null;
+                return TypeMetadataCache.read(url, clsName);
+        }
+
+        /**
+         * build type from class file. the process is the same as building type from class object
+         *
+         * @param info    class file info
+         * @param lineCol file_line_col
+         * @return STypeDef
+         * @throws SyntaxException exception
+         */
+        private STypeDef getTypeFromClassFile(ClassFileInfo info, LineCol lineCol) throws SyntaxException {
+                String clsName = info.name;
+                List<SModifier> modifiers; // modifiers
+                STypeDef typeDef;
+                if ((info.access & lt.dependencies.asm.Opcodes.ACC_ANNOTATION) != 0) {
+                        SAnnoDef a = new SAnnoDef();
+                        a.setFullName(clsName);
+
+                        typeDef = a;
+                        modifiers = a.modifiers();
+                } else if ((info.access & lt.dependencies.asm.Opcodes.ACC_INTERFACE) != 0) {
+                        SInterfaceDef i = new SInterfaceDef(LineCol.SYNTHETIC);
+                        i.setFullName(clsName);
+
+                        typeDef = i;
+                        modifiers = i.modifiers();
+                } else { // class
+                        // check class type (normal/fun/object)
+                        int classType = SClassDef.NORMAL;
+                        for (ClassFileInfo.AnnotationConstant a : info.annotations) {
+                                if (a.type.equals(LatteFun.class.getName())) classType = SClassDef.FUN;
+                                else if (a.type.equals(LatteObject.class.getName())) classType = SClassDef.OBJECT;
+                        }
+                        SClassDef c = new SClassDef(classType, LineCol.SYNTHETIC);
+                        c.setFullName(clsName);
+
+                        typeDef = c;
+                        modifiers = c.modifiers();
+                }
+                typeDef.setPkg(clsName.contains(".") ? clsName.substring(0, clsName.lastIndexOf('.')) : "");
+                // put into map
+                putNameAndTypeDef(typeDef, lineCol);
+                // annos
+                getAnnotationFromClassFile(info.annotations, typeDef);
+                // modifiers
+                getModifierFromAccess(info.access, modifiers);
+
+                if (typeDef instanceof SInterfaceDef) {
+                        SInterfaceDef i = (SInterfaceDef) typeDef;
+                        // super interfaces
+                        getSuperInterfaceFromClassFile(info, i.superInterfaces());
+                        // fields methods
+                        i.setMemberLoader(new ImportedMembers(this, i, null, info));
+                } else if (typeDef instanceof SClassDef) {
+                        SClassDef c = (SClassDef) typeDef;
+                        // super interfaces
+                        getSuperInterfaceFromClassFile(info, c.superInterfaces());
+                        if (info.superName != null) {
+                                // super class
+                                c.setParent((SClassDef) getTypeWithName(info.superName, lineCol));
+                                // inherited annotations
+                                for (SAnno parentAnno : c.parent().annos()) {
+                                        if (!isInheritedAnnotation(parentAnno.type())) continue;
+                                        boolean present = false;
+                                        for (SAnno anno : c.annos()) {
+                                                if (anno.type().equals(parentAnno.type())) {
+                                                        present = true;
+                                                        break;
+                                                }
+                                        }
+                                        if (!present) {
+                                                SAnno sAnno = new SAnno();
+                                                sAnno.setPresent(c);
+                                                sAnno.setAnnoDef(parentAnno.type());
+                                                sAnno.alreadyCompiledAnnotationValueMap().putAll(parentAnno.alreadyCompiledAnnotationValueMap());
+                                                c.annos().add(sAnno);
+                                        }
+                                }
+                        }
+                        // fields methods constructors
+                        c.setMemberLoader(new ImportedMembers(this, c, null, info));
+                } else {
+                        // typeDef instanceof SAnnoDef;
+
+                        SAnnoDef annoDef = (SAnnoDef) typeDef;
+                        Map<String, Object> defaults = new HashMap<String, Object>();
+                        // parse anno fields
+                        for (ClassFileInfo.MemberInfo annoM : info.methods) {
+                                SAnnoField annoField = new SAnnoField();
+                                annoField.setName(annoM.name);
+                                annoField.setType(getTypeWithName(
+                                        ClassFileInfo.className(lt.dependencies.asm.Type.getReturnType(annoM.desc)), lineCol));
+
+                                annoDef.annoFields().add(annoField);
+                                if (annoM.defaultValue != null) {
+                                        defaults.put(annoM.name, annoM.defaultValue);
+                                }
+                        }
+                        annotationDefaultsFromClassFile.put(annoDef, defaults);
+                }
+                return typeDef;
+        }
+
+        private boolean isInheritedAnnotation(SAnnoDef annoDef) {
+                for (SAnno a : annoDef.annos()) {
+                        if (a.type().fullName().equals(java.lang.annotation.Inherited.class.getName())) return true;
+                }
+                return false;
+        }
+
+        /**
+         * parse the annotations retrieved from class file
+         *
+         * @param annotations annotations in class file
+         * @param presentable compiler presentable object
+         * @throws SyntaxException exception
+         */
+        private void getAnnotationFromClassFile(List<ClassFileInfo.AnnotationConstant> annotations, SAnnotationPresentable presentable) throws SyntaxException {
+                for (ClassFileInfo.AnnotationConstant a : annotations) {
+                        // annotations not in class-path are ignored, the same as reflection
+                        STypeDef annoType = getTypeWithName(a.type, true, LineCol.SYNTHETIC);
+                        if (!(annoType instanceof SAnnoDef)) continue;
+
+                        SAnno sAnno = new SAnno();
+                        sAnno.setPresent(presentable);
+                        sAnno.setAnnoDef((SAnnoDef) annoType);
+                        sAnno.alreadyCompiledAnnotationValueMap().putAll(a.values);
+
+                        presentable.annos().add(sAnno);
+                }
+        }
+
+        /**
+         * get modifiers from access flags<br>
+         * and add them into the list
+         *
+         * @param access    access flags
+         * @param modifiers modifiers
+         */
+        private void getModifierFromAccess(int access, List<SModifier> modifiers) {
+                if (java.lang.reflect.Modifier.isAbstract(access)) {
+                        modifiers.add(SModifier.ABSTRACT);
+                }
+                if (java.lang.reflect.Modifier.isFinal(access)) {
+                        modifiers.add(SModifier.FINAL);
+                }
+                if (java.lang.reflect.Modifier.isNative(access)) {
+                        modifiers.add(SModifier.NATIVE);
+                }
+                if (java.lang.reflect.Modifier.isPrivate(access)) {
+                        modifiers.add(SModifier.PRIVATE);
+                }
+                if (java.lang.reflect.Modifier.isProtected(access)) {
+                        modifiers.add(SModifier.PROTECTED);
+                }
+                if (java.lang.reflect.Modifier.isPublic(access)) {
+                        modifiers.add(SModifier.PUBLIC);
+                }
+                if (java.lang.reflect.Modifier.isStatic(access)) {
+                        modifiers.add(SModifier.STATIC);
+                }
+                if (java.lang.reflect.Modifier.isStrict(access)) {
+                        modifiers.add(SModifier.STRICT);
+                }
+                if (java.lang.reflect.Modifier.isSynchronized(access)) {
+                        modifiers.add(SModifier.SYNCHRONIZED);
+                }
+                if (java.lang.reflect.Modifier.isTransient(access)) {
+                        modifiers.add(SModifier.TRANSIENT);
+                }
+                if (java.lang.reflect.Modifier.isVolatile(access)) {
+                        modifiers.add(SModifier.VOLATILE);
+                }
+        }
+
+        /**
+         * get super interfaces from class file
+         *
+         * @param info       class file info
+         * @param interfaces interfaces
+         * @throws SyntaxException exception
+         */
+        private void getSuperInterfaceFromClassFile(ClassFileInfo info, List<SInterfaceDef> interfaces) throws SyntaxException {
+                for (String i : info.interfaces) {
+                        STypeDef type = getTypeWithName(i, LineCol.SYNTHETIC);
+                        if (type instanceof SInterfaceDef) {
+                                interfaces.add((SInterfaceDef) type);
+                        }
+                }
+        }
+
+        /**
+         * get fields and methods from class file
+         *
+         * @param info          class file info
+         * @param declaringType field/method is defined in this type
+         * @param fields        field list
+         * @param methods       method list
+         * @throws SyntaxException exceptions
+         */
+        private void getFieldsAndMethodsFromClassFile(ClassFileInfo info, STypeDef declaringType, List<SFieldDef> fields, List<SMethodDef> methods) {
+                for (ClassFileInfo.MemberInfo f : info.fields) {
+                        SFieldDef fieldDef = new SFieldDef(LineCol.SYNTHETIC);
+                        try {
+                                fieldDef.setName(f.name);
+                                fieldDef.setType(getTypeWithName(ClassFileInfo.className(lt.dependencies.asm.Type.getType(f.desc)), LineCol.SYNTHETIC));
+                                getModifierFromAccess(f.access, fieldDef.modifiers());
+
+                                getAnnotationFromClassFile(f.annotations, fieldDef);
+                        } catch (SyntaxException e) {
+                                // the field refers to a type not in class-path
+                                continue;
+                        }
+
+                        fieldDef.setDeclaringType(declaringType);
+                        fields.add(fieldDef);
+                }
+
+                for (ClassFileInfo.MemberInfo m : info.methods) {
+                        if (m.name.equals("<init>")) continue;
+                        SMethodDef methodDef = new SMethodDef(LineCol.SYNTHETIC);
+                        methodDef.setName(m.name);
+                        methodDef.setDeclaringType(declaringType);
+                        try {
+                                lt.dependencies.asm.Type returnType = lt.dependencies.asm.Type.getReturnType(m.desc);
+                                if (returnType.getSort() == lt.dependencies.asm.Type.VOID) {
+                                        methodDef.setReturnType(VoidType.get());
+                                } else {
+                                        methodDef.setReturnType(
+                                                getRealReturnType(getTypeWithName(ClassFileInfo.className(returnType), LineCol.SYNTHETIC), true));
+                                }
+
+                                getAnnotationFromClassFile(m.annotations, methodDef);
+
+                                getModifierFromAccess(m.access, methodDef.modifiers());
+
+                                // parameters
+                                getParameterFromDescriptor(m.desc, methodDef);
+                        } catch (SyntaxException e) {
+                                // the method refers to a type not in class-path
+                                continue;
+                        }
+
+                        methods.add(methodDef);
+                }
+        }
+
+        /**
+         * get constructors from class file
+         *
+         * @param info class file info
+         * @param c    the class
+         */
+        private void getConstructorsFromClassFile(ClassFileInfo info, SClassDef c) {
+                for (ClassFileInfo.MemberInfo con : info.methods) {
+                        if (!con.name.equals("<init>")) continue;
+                        SConstructorDef constructorDef = new SConstructorDef(LineCol.SYNTHETIC);
+                        constructorDef.setDeclaringType(c);
+
+                        try {
+                                getAnnotationFromClassFile(con.annotations, constructorDef);
+                                getParameterFromDescriptor(con.desc, constructorDef);
+                                getModifierFromAccess(con.access, constructorDef.modifiers());
+                        } catch (SyntaxException e) {
+                                // the constructor refers to a type not in class-path
+                                continue;
+                        }
+
+                        c.constructors().add(constructorDef);
+                }
+        }
+
+        /**
+         * fields, methods and constructors of an imported type. they are built on first access
+         */
+        private static class ImportedMembers implements SRefTypeDef.MemberLoader {
+                private SemanticProcessor processor;
+                private final SRefTypeDef type;
+                private final Class<?> cls;
+                private final ClassFileInfo info;
+
+                ImportedMembers(SemanticProcessor processor, SRefTypeDef type, Class<?> cls, ClassFileInfo info) {
+                        this.processor = processor;
+                        this.type = type;
+                        this.cls = cls;
+                        this.info = info;
+                }
+
+                @Override
+                public void load() {
+                        processor.loadImportedMembers(type, cls, info);
+                }
+
+                @Override
+                public Object lock() {
+                        return processor.memberLoadLock;
+                }
+        }
+
+        private void loadImportedMembers(SRefTypeDef type, Class<?> cls, ClassFileInfo info) {
+                if (info != null) {
+                        getFieldsAndMethodsFromClassFile(info, type, type.fields(), type.methods());
+                        if (type instanceof SClassDef) {
+                                getConstructorsFromClassFile(info, (SClassDef) type);
+                        }
+                        return;
+                }
+                try {
+                        getFieldsAndMethodsFromClass(cls, type, type.fields(), type.methods());
+                        if (type instanceof SClassDef) {
+                                SClassDef c = (SClassDef) type;
+                                for (Constructor<?> con : cls.getDeclaredConstructors()) {
+                                        SConstructorDef constructorDef = new SConstructorDef(LineCol.SYNTHETIC);
+                                        constructorDef.setDeclaringType(c);
+
+                                        getAnnotationFromAnnotatedElement(con, constructorDef);
+                                        getParameterFromClassArray(con.getParameterTypes(), constructorDef);
+                                        getModifierFromMember(con, constructorDef);
+
+                                        c.constructors().add(constructorDef);
+                                }
+                        }
+                } catch (SyntaxException e) {
+                        // members referring to types not in class-path are not imported
+                }
+        }
+
+        /**
+         * let the processor build members of a type imported by another processor
+         *
+         * @param type the imported type
+         */
+        public void adoptImportedType(STypeDef type) {
+                if (type instanceof SRefTypeDef) {
+                        SRefTypeDef.MemberLoader loader = ((SRefTypeDef) type).memberLoader();
+                        if (loader instanceof ImportedMembers) {
+                                ((ImportedMembers) loader).processor = this;
+                        }
+                }
+        }
+
+        /**
+         * get parameters from method descriptor
+         *
+         * @param desc      method descriptor
+         * @param invokable the parameters belong to this invokable
+         * @throws SyntaxException exception
+         */
+        private void getParameterFromDescriptor(String desc, SInvokable invokable) throws SyntaxException {
+                for (lt.dependencies.asm.Type paramType : lt.dependencies.asm.Type.getArgumentTypes(desc)) {
+                        SParameter param = new SParameter();
+                        param.setName("?");
+                        param.setTarget(invokable);
+                        param.setType(getTypeWithName(ClassFileInfo.className(paramType), LineCol.SYNTHETIC));
+
+                        // the same as getParameterFromClassArray, annotations of the parameter type are recorded
+                        if (param.type() instanceof SAnnotationPresentable) {
+                                for (SAnno a : ((SAnnotationPresentable) param.type()).annos()) {
+                                        SAnno sAnno = new SAnno();
+                                        sAnno.setPresent(param);
+                                        sAnno.setAnnoDef(a.type());
+                                        sAnno.alreadyCompiledAnnotationValueMap().putAll(a.alreadyCompiledAnnotationValueMap());
+                                        param.annos().add(sAnno);
+                                }
+                        }
+
+                        invokable.getParameters().add(param);
+                }
+        }
+
         /**
          * parse the annotations
          *
@@ -10857,6 +12124,13 @@ public class SemanticProcessor {
          */
         public boolean typeExists(String type) {
                 if (!types.containsKey(type)) {
+                        if (classFileInfoOfCheckedTypes.containsKey(type)) return true;
+                        ClassFileInfo info = classFileInfo(type);
+                        if (info != null) {
+                                // the type is usually retrieved after checking existence
+                                classFileInfoOfCheckedTypes.put(type, info);
+                                return true;
+                        }
                         try {
                                 loadClass(type);
                         } catch (ClassNotFoundException e) {
@@ -0,0 +1,230 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 KuiGang Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package lt.compiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * split an indentation based source file at top-level statements, so that the chunks can be scanned and parsed separately.<br>
+ * a line can start a chunk when it starts at column 0, and it's not inside a comment or a pair ( (), [], {} ),
+ * and the previous statement does not expect more tokens. The chunks should be scanned with
+ * {@link Properties#_LINE_BASE_} increased by {@link Chunk#lineOffset}, and the parsing result should be dropped if
+ * any parser leaves states for the following statements ({@link Parser#leavesNoState()}).
+ */
+public class SourceSplitter {
+        /**
+         * a part of the source
+         */
+        public static class Chunk {
+                /**
+                 * the text of the chunk, including line terminators
+                 */
+                public final String text;
+                /**
+                 * count of lines before the chunk
+                 */
+                public final int lineOffset;
+
+                public Chunk(String text, int lineOffset) {
+                        this.text = text;
+                        this.lineOffset = lineOffset;
+                }
+        }
+
+        /**
+         * statements starting with these words continue the previous statement
+         */
+        private static final Set<String> CONTINUING_WORDS = new HashSet<String>(Arrays.asList(
+                "else", "elseif", "catch", "finally", "while"
+        ));
+
+        private SourceSplitter() {
+        }
+
+        /**
+         * split the source
+         *
+         * @param text     the source
+         * @param count    expected count of chunks
+         * @param minLines minimum lines of a chunk
+         * @return chunks in order. the list contains only one chunk if the source cannot be split
+         */
+        public static List<Chunk> split(String text, int count, int minLines) {
+                List<Integer> lineStarts = new ArrayList<Integer>();
+                List<Integer> candidates = new ArrayList<Integer>();
+                if (count > 1) {
+                        findCandidates(text, lineStarts, candidates);
+                }
+                int lines = lineStarts.size();
+                if (candidates.isEmpty() || lines < minLines * 2) {
+                        return Collections.singletonList(new Chunk(text, 0));
+                }
+
+                int target = Math.max(minLines, lines / count);
+                List<Chunk> chunks = new ArrayList<Chunk>();
+                int lastCut = 0;
+                for (int line : candidates) {
+                        if (line - lastCut >= target && lines - line >= minLines) {
+                                chunks.add(new Chunk(text.substring(lineStarts.get(lastCut), lineStarts.get(line)), lastCut));
+                                lastCut = line;
+                        }
+                }
+                chunks.add(new Chunk(text.substring(lineStarts.get(lastCut)), lastCut));
+                return chunks;
+        }
+
+        /**
+         * record start index of each line and the lines that can start a chunk
+         *
+         * @param text       the source
+         * @param lineStarts start index of each line
+         * @param candidates lines that can start a chunk
+         */
+        private static void findCandidates(String text, List<Integer> lineStarts, List<Integer> candidates) {
+                boolean inComment = false;
+                int depth = 0;
+                // the last character of code, 0 if no code found yet
+                char lastChar = 0;
+                boolean lastCodeLineIsAnnotation = false;
+                boolean rootIndentChecked = false;
+
+                int start = 0;
+                while (start < text.length()) {
+                        int end = start;
+                        while (end < text.length() && text.charAt(end) != '\n' && text.charAt(end) != '\r') ++end;
+                        int next = end;
+                        if (next < text.length()) {
+                                if (text.charAt(next) == '\r' && next + 1 < text.length() && text.charAt(next + 1) == '\n') ++next;
+                                ++next;
+                        }
+                        int lineIndex = lineStarts.size();
+                        lineStarts.add(start);
+                        String line = text.substring(start, end);
+                        start = next;
+
+                        if (lineIndex == 0) {
+                                String firstLine = line.trim();
+                                if (firstLine.startsWith("///") && !firstLine.substring(3).trim().equals(":scanner-indent")) {
+                                        // not scanned by the IndentScanner
+                                        candidates.clear();
+                                        return;
+                                }
+                        }
+
+                        if (!inComment && !line.trim().startsWith("//")) {
+                                if (!rootIndentChecked) {
+                                        // the scanner considers indentation of this line as the root indentation
+                                        rootIndentChecked = true;
+                                        if (line.startsWith(" ") && !line.trim().isEmpty()) {
+                                                candidates.clear();
+                                                return;
+                                        }
+                                }
+                                if (lineIndex != 0 && depth == 0 && canStartChunk(line)
+                                        && !lastCodeLineIsAnnotation && canEndStatement(lastChar)) {
+                                        candidates.add(lineIndex);
+                                }
+                        }
+
+                        boolean isCode = false;
+                        boolean startsWithAt = false;
+                        int i = 0;
+                        while (i < line.length()) {
+                                if (inComment) {
+                                        int commentEnd = line.indexOf("*/", i);
+                                        if (commentEnd == -1) break;
+                                        inComment = false;
+                                        i = commentEnd + 2;
+                                        continue;
+                                }
+                                char c = line.charAt(i);
+                                if (c == '/' && i + 1 < line.length()) {
+                                        char n = line.charAt(i + 1);
+                                        if (n == '/') break;
+                                        if (n == '*') {
+                                                inComment = true;
+                                                i += 2;
+                                                continue;
+                                        }
+                                }
+                                if (!isCode && !Character.isWhitespace(c)) {
+                                        isCode = true;
+                                        startsWithAt = c == '@';
+                                }
+                                if (c == '"' || c == '\'' || c == '`') {
+                                        // skip the string literal
+                                        int j = i + 1;
+                                        while (j < line.length() && line.charAt(j) != c) {
+                                                if (line.charAt(j) == '\\') ++j;
+                                                ++j;
+                                        }
+                                        lastChar = c;
+                                        i = j + 1;
+                                        continue;
+                                }
+                                if (c == '(' || c == '[' || c == '{') {
+                                        ++depth;
+                                } else if (c == ')' || c == ']' || c == '}') {
+                                        if (depth > 0) --depth;
+                                }
+                                if (!Character.isWhitespace(c)) lastChar = c;
+                                ++i;
+                        }
+                        if (isCode) {
+                                lastCodeLineIsAnnotation = startsWithAt;
+                        }
+                }
+        }
+
+        /**
+         * @param line the line
+         * @return true if the line starts at column 0 with a word which does not continue the previous statement
+         */
+        private static boolean canStartChunk(String line) {
+                if (line.isEmpty()) return false;
+                char c = line.charAt(0);
+                if (c == '@') return true;
+                if (!Character.isJavaIdentifierStart(c)) return false;
+                int i = 1;
+                while (i < line.length() && Character.isJavaIdentifierPart(line.charAt(i))) ++i;
+                return !CONTINUING_WORDS.contains(line.substring(0, i));
+        }
+
+        /**
+         * @param lastChar last character of the previous code
+         * @return true if the previous statement can end with the character
+         */
+        private static boolean canEndStatement(char lastChar) {
+                return lastChar == 0 || Character.isJavaIdentifierPart(lastChar)
+                        || lastChar == '"' || lastChar == '\'' || lastChar == '`'
+                        || lastChar == ')' || lastChar == ']' || lastChar == '}';
+        }
+}
@@ -37,9 +37,9 @@ public class SyntaxException extends CompileException {
                         (lineCol == LineCol.SYNTHETIC
                                 ? ""
                                 : (" at " + lineCol.fileName + "(" + lineCol.line + "," + lineCol.column + ")")) +
-                        (lineCol.useDefine.isEmpty()
+                        (lineCol.useDefine().isEmpty()
                                 ? ""
-                                : "\nThis line uses defined replacement (" + lineCol.useDefine + "), the column might not be precise"));
+                                : "\nThis line uses defined replacement (" + lineCol.useDefine() + "), the column might not be precise"));
                 this.lineMsg = lineMsg;
                 this.msg = msg;
                 this.lineCol = lineCol;
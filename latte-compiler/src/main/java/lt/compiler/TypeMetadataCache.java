@@ -0,0 +1,518 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 KuiGang Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package lt.compiler;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * on-disk cache of {@link ClassFileInfo}, one cache file for each jar (or the java runtime image).<br>
+ * the cache file is keyed by path, size and last modified time of the jar. it is memory-mapped when opened,
+ * and a class is decoded only when it's retrieved. classes read from the jar are appended when the cache is saved.
+ * classes in directories are not cached.<br>
+ * the cache is disabled until {@link #setDirectory(File)} is called.
+ */
+public class TypeMetadataCache {
+        private static final int MAGIC = 0x4C544D43; // LTMC
+        private static final int VERSION = 1;
+
+        private static File directory;
+        private static final Map<String, TypeMetadataCache> caches = new HashMap<String, TypeMetadataCache>();
+        private static boolean hookAdded = false;
+
+        private final File file;
+        private final String key;
+        /**
+         * class name =&gt; {offset, length} in the mapped buffer
+         */
+        private final Map<String, int[]> index = new HashMap<String, int[]>();
+        private ByteBuffer buffer;
+        private final Map<String, byte[]> added = new LinkedHashMap<String, byte[]>();
+
+        private TypeMetadataCache(File file, String key) {
+                this.file = file;
+                this.key = key;
+        }
+
+        /**
+         * enable the cache and set the directory to store cache files
+         *
+         * @param dir the directory, or null to disable the cache
+         */
+        public static synchronized void setDirectory(File dir) {
+                directory = dir;
+                if (dir != null && !hookAdded) {
+                        hookAdded = true;
+                        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                                @Override
+                                public void run() {
+                                        saveAll();
+                                }
+                        }));
+                }
+        }
+
+        /**
+         * read class file info from the url. the info is retrieved from cache if possible
+         *
+         * @param url     url of the class file
+         * @param clsName class name
+         * @return the class file info, or null if the class file is not valid or doesn't define the class
+         */
+        public static ClassFileInfo read(URL url, String clsName) {
+                TypeMetadataCache cache = cacheOf(url);
+                if (cache != null) {
+                        ClassFileInfo info = cache.get(clsName);
+                        if (info != null) return info;
+                }
+                byte[] bytes;
+                try {
+                        InputStream is = url.openStream();
+                        try {
+                                bytes = readAll(is);
+                        } finally {
+                                is.close();
+                        }
+                } catch (IOException e) {
+                        return null;
+                }
+                ClassFileInfo info;
+                try {
+                        // the file name may not match the class name on case insensitive file systems
+                        if (!ClassFileInfo.className(bytes).equals(clsName)) return null;
+                        info = ClassFileInfo.read(bytes);
+                } catch (RuntimeException e) {
+                        // not a valid class file
+                        return null;
+                }
+                if (cache != null) {
+                        cache.put(clsName, info);
+                }
+                return info;
+        }
+
+        /**
+         * write all caches with newly added classes into disk
+         */
+        public static void saveAll() {
+                List<TypeMetadataCache> list;
+                synchronized (TypeMetadataCache.class) {
+                        list = new ArrayList<TypeMetadataCache>(caches.values());
+                }
+                for (TypeMetadataCache cache : list) {
+                        try {
+                                cache.save();
+                        } catch (IOException ignore) {
+                                // the classes will be read from jar again next time
+                        }
+                }
+        }
+
+        private static synchronized TypeMetadataCache cacheOf(URL url) {
+                if (directory == null) return null;
+                File container;
+                String s = url.toString();
+                if (s.startsWith("jar:file:") && s.indexOf("!/") == s.lastIndexOf("!/")) {
+                        try {
+                                container = new File(new URL(s.substring("jar:".length(), s.indexOf("!/"))).toURI());
+                        } catch (Exception e) {
+                                return null;
+                        }
+                } else if (s.startsWith("jrt:/")) {
+                        container = new File(System.getProperty("java.home"), "lib" + File.separator + "modules");
+                } else {
+                        return null;
+                }
+                String key = container.getAbsolutePath() + "|" + container.length() + "|" + container.lastModified();
+                TypeMetadataCache cache = caches.get(key);
+                if (cache == null) {
+                        String name = container.getName() + "-" + Integer.toHexString(key.hashCode()) + ".types";
+                        cache = new TypeMetadataCache(new File(directory, name), key);
+                        try {
+                                cache.open();
+                        } catch (IOException e) {
+                                // the cache file is broken, it will be rewritten
+                                cache.index.clear();
+                                cache.buffer = null;
+                        }
+                        caches.put(key, cache);
+                }
+                return cache;
+        }
+
+        private void open() throws IOException {
+                if (!file.isFile()) return;
+                RandomAccessFile raf = new RandomAccessFile(file, "r");
+                MappedByteBuffer mapped;
+                try {
+                        mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                } finally {
+                        raf.close();
+                }
+                if (mapped.getInt() != MAGIC || mapped.getInt() != VERSION) return;
+                if (!key.equals(getString(mapped))) return;
+                int count = mapped.getInt();
+                for (int i = 0; i < count; ++i) {
+                        String name = getString(mapped);
+                        int offset = mapped.getInt();
+                        int length = mapped.getInt();
+                        index.put(name, new int[]{offset, length});
+                }
+                buffer = mapped;
+        }
+
+        private synchronized ClassFileInfo get(String clsName) {
+                byte[] bytes = added.get(clsName);
+                if (bytes == null) {
+                        int[] pos = index.get(clsName);
+                        if (pos == null) return null;
+                        bytes = entryBytes(pos);
+                }
+                try {
+                        return decode(new DataInputStream(new ByteArrayInputStream(bytes)));
+                } catch (IOException e) {
+                        return null;
+                }
+        }
+
+        private byte[] entryBytes(int[] pos) {
+                ByteBuffer b = buffer.duplicate();
+                b.position(pos[0]);
+                byte[] bytes = new byte[pos[1]];
+                b.get(bytes);
+                return bytes;
+        }
+
+        private synchronized void put(String clsName, ClassFileInfo info) {
+                if (index.containsKey(clsName) || added.containsKey(clsName)) return;
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                try {
+                        encode(info, new DataOutputStream(baos));
+                } catch (IOException e) {
+                        throw new LtBug(e);
+                }
+                added.put(clsName, baos.toByteArray());
+        }
+
+        private synchronized void save() throws IOException {
+                if (added.isEmpty()) return;
+                Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+                for (Map.Entry<String, int[]> entry : index.entrySet()) {
+                        entries.put(entry.getKey(), entryBytes(entry.getValue()));
+                }
+                entries.putAll(added);
+
+                // header: magic, version, key, count, (name, offset, length)*
+                ByteArrayOutputStream header = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(header);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeString(out, key);
+                out.writeInt(entries.size());
+                int headerSize = out.size();
+                for (String name : entries.keySet()) {
+                        headerSize += 4 + name.getBytes("UTF-8").length + 8;
+                }
+                int offset = headerSize;
+                Map<String, int[]> newIndex = new HashMap<String, int[]>();
+                for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                        int length = entry.getValue().length;
+                        writeString(out, entry.getKey());
+                        out.writeInt(offset);
+                        out.writeInt(length);
+                        newIndex.put(entry.getKey(), new int[]{offset, length});
+                        offset += length;
+                }
+                for (byte[] bytes : entries.values()) {
+                        out.write(bytes);
+                }
+                out.flush();
+
+                File dir = file.getParentFile();
+                if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("cannot create directory " + dir);
+                File tmp = new File(dir, file.getName() + ".tmp");
+                FileOutputStream fos = new FileOutputStream(tmp);
+                try {
+                        header.writeTo(fos);
+                } finally {
+                        fos.close();
+                }
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+                if (!tmp.renameTo(file)) throw new IOException("cannot write " + file);
+
+                // the entries are in memory now
+                buffer = ByteBuffer.wrap(header.toByteArray());
+                index.clear();
+                index.putAll(newIndex);
+                added.clear();
+        }
+
+        private static byte[] readAll(InputStream is) throws IOException {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                byte[] buf = new byte[4096];
+                int n;
+                while ((n = is.read(buf)) != -1) {
+                        baos.write(buf, 0, n);
+                }
+                return baos.toByteArray();
+        }
+
+        private static String getString(ByteBuffer b) throws IOException {
+                int len = b.getInt();
+                if (len < 0 || len > b.remaining()) throw new IOException("broken cache");
+                byte[] bytes = new byte[len];
+                b.get(bytes);
+                return new String(bytes, "UTF-8");
+        }
+
+        private static void writeString(DataOutput out, String s) throws IOException {
+                if (s == null) {
+                        out.writeInt(-1);
+                        return;
+                }
+                byte[] bytes = s.getBytes("UTF-8");
+                out.writeInt(bytes.length);
+                out.write(bytes);
+        }
+
+        private static String readString(DataInput in) throws IOException {
+                int len = in.readInt();
+                if (len == -1) return null;
+                byte[] bytes = new byte[len];
+                in.readFully(bytes);
+                return new String(bytes, "UTF-8");
+        }
+
+        private static void encode(ClassFileInfo info, DataOutput out) throws IOException {
+                out.writeInt(info.access);
+                writeString(out, info.name);
+                writeString(out, info.superName);
+                out.writeInt(info.interfaces.size());
+                for (String i : info.interfaces) {
+                        writeString(out, i);
+                }
+                encodeAnnotations(info.annotations, out);
+                encodeMembers(info.fields, out);
+                encodeMembers(info.methods, out);
+        }
+
+        private static ClassFileInfo decode(DataInput in) throws IOException {
+                ClassFileInfo info = new ClassFileInfo();
+                info.access = in.readInt();
+                info.name = readString(in);
+                info.superName = readString(in);
+                int interfaces = in.readInt();
+                for (int i = 0; i < interfaces; ++i) {
+                        info.interfaces.add(readString(in));
+                }
+                decodeAnnotations(info.annotations, in);
+                decodeMembers(info.fields, in);
+                decodeMembers(info.methods, in);
+                return info;
+        }
+
+        private static void encodeMembers(List<ClassFileInfo.MemberInfo> members, DataOutput out) throws IOException {
+                out.writeInt(members.size());
+                for (ClassFileInfo.MemberInfo m : members) {
+                        out.writeInt(m.access);
+                        writeString(out, m.name);
+                        writeString(out, m.desc);
+                        encodeAnnotations(m.annotations, out);
+                        encodeConstant(m.defaultValue, out);
+                }
+        }
+
+        private static void decodeMembers(List<ClassFileInfo.MemberInfo> members, DataInput in) throws IOException {
+                int count = in.readInt();
+                for (int i = 0; i < count; ++i) {
+                        ClassFileInfo.MemberInfo m = new ClassFileInfo.MemberInfo(in.readInt(), readString(in), readString(in));
+                        decodeAnnotations(m.annotations, in);
+                        m.defaultValue = decodeConstant(in);
+                        members.add(m);
+                }
+        }
+
+        private static void encodeAnnotations(List<ClassFileInfo.AnnotationConstant> annotations, DataOutput out) throws IOException {
+                out.writeInt(annotations.size());
+                for (ClassFileInfo.AnnotationConstant a : annotations) {
+                        encodeAnnotation(a, out);
+                }
+        }
+
+        private static void decodeAnnotations(List<ClassFileInfo.AnnotationConstant> annotations, DataInput in) throws IOException {
+                int count = in.readInt();
+                for (int i = 0; i < count; ++i) {
+                        annotations.add(decodeAnnotation(in));
+                }
+        }
+
+        private static void encodeAnnotation(ClassFileInfo.AnnotationConstant a, DataOutput out) throws IOException {
+                writeString(out, a.type);
+                out.writeInt(a.values.size());
+                for (Map.Entry<String, Object> entry : a.values.entrySet()) {
+                        writeString(out, entry.getKey());
+                        encodeConstant(entry.getValue(), out);
+                }
+        }
+
+        private static ClassFileInfo.AnnotationConstant decodeAnnotation(DataInput in) throws IOException {
+                ClassFileInfo.AnnotationConstant a = new ClassFileInfo.AnnotationConstant(readString(in));
+                int count = in.readInt();
+                for (int i = 0; i < count; ++i) {
+                        String name = readString(in);
+                        a.values.put(name, decodeConstant(in));
+                }
+                return a;
+        }
+
+        private static void encodeConstant(Object o, DataOutput out) throws IOException {
+                if (o == null) {
+                        out.writeByte('N');
+                } else if (o instanceof Integer) {
+                        out.writeByte('I');
+                        out.writeInt((Integer) o);
+                } else if (o instanceof Long) {
+                        out.writeByte('J');
+                        out.writeLong((Long) o);
+                } else if (o instanceof Character) {
+                        out.writeByte('C');
+                        out.writeChar((Character) o);
+                } else if (o instanceof Short) {
+                        out.writeByte('S');
+                        out.writeShort((Short) o);
+                } else if (o instanceof Byte) {
+                        out.writeByte('B');
+                        out.writeByte((Byte) o);
+                } else if (o instanceof Boolean) {
+                        out.writeByte('Z');
+                        out.writeBoolean((Boolean) o);
+                } else if (o instanceof Float) {
+                        out.writeByte('F');
+                        out.writeFloat((Float) o);
+                } else if (o instanceof Double) {
+                        out.writeByte('D');
+                        out.writeDouble((Double) o);
+                } else if (o instanceof String) {
+                        out.writeByte('s');
+                        writeString(out, (String) o);
+                } else if (o instanceof ClassFileInfo.EnumConstant) {
+                        out.writeByte('e');
+                        writeString(out, ((ClassFileInfo.EnumConstant) o).type);
+                        writeString(out, ((ClassFileInfo.EnumConstant) o).name);
+                } else if (o instanceof ClassFileInfo.ClassConstant) {
+                        out.writeByte('c');
+                        writeString(out, ((ClassFileInfo.ClassConstant) o).type);
+                } else if (o instanceof ClassFileInfo.AnnotationConstant) {
+                        out.writeByte('@');
+                        encodeAnnotation((ClassFileInfo.AnnotationConstant) o, out);
+                } else if (o instanceof ClassFileInfo.ArrayConstant) {
+                        ClassFileInfo.ArrayConstant arr = (ClassFileInfo.ArrayConstant) o;
+                        out.writeByte('a');
+                        writeString(out, arr.annotationType);
+                        writeString(out, arr.element);
+                        out.writeInt(arr.values.size());
+                        for (Object v : arr.values) {
+                                encodeConstant(v, out);
+                        }
+                } else if (o.getClass().isArray()) {
+                        // primitive arrays
+                        int length = java.lang.reflect.Array.getLength(o);
+                        out.writeByte('[');
+                        out.writeUTF(o.getClass().getComponentType().getName());
+                        out.writeInt(length);
+                        for (int i = 0; i < length; ++i) {
+                                encodeConstant(java.lang.reflect.Array.get(o, i), out);
+                        }
+                } else throw new LtBug("unknown constant " + o);
+        }
+
+        private static Object decodeConstant(DataInput in) throws IOException {
+                int tag = in.readByte();
+                switch (tag) {
+                        case 'N':
+                                return null;
+                        case 'I':
+                                return in.readInt();
+                        case 'J':
+                                return in.readLong();
+                        case 'C':
+                                return in.readChar();
+                        case 'S':
+                                return in.readShort();
+                        case 'B':
+                                return in.readByte();
+                        case 'Z':
+                                return in.readBoolean();
+                        case 'F':
+                                return in.readFloat();
+                        case 'D':
+                                return in.readDouble();
+                        case 's':
+                                return readString(in);
+                        case 'e':
+                                return new ClassFileInfo.EnumConstant(readString(in), readString(in));
+                        case 'c':
+                                return new ClassFileInfo.ClassConstant(readString(in));
+                        case '@':
+                                return decodeAnnotation(in);
+                        case 'a':
+                                ClassFileInfo.ArrayConstant arr = new ClassFileInfo.ArrayConstant(readString(in), readString(in));
+                                int count = in.readInt();
+                                for (int i = 0; i < count; ++i) {
+                                        arr.values.add(decodeConstant(in));
+                                }
+                                return arr;
+                        case '[':
+                                String component = in.readUTF();
+                                int length = in.readInt();
+                                Class<?> componentType = primitive(component);
+                                Object array = java.lang.reflect.Array.newInstance(componentType, length);
+                                for (int i = 0; i < length; ++i) {
+                                        java.lang.reflect.Array.set(array, i, decodeConstant(in));
+                                }
+                                return array;
+                        default:
+                                throw new IOException("broken cache");
+                }
+        }
+
+        private static Class<?> primitive(String name) throws IOException {
+                if (name.equals("int")) return int.class;
+                if (name.equals("long")) return long.class;
+                if (name.equals("char")) return char.class;
+                if (name.equals("short")) return short.class;
+                if (name.equals("byte")) return byte.class;
+                if (name.equals("boolean")) return boolean.class;
+                if (name.equals("float")) return float.class;
+                if (name.equals("double")) return double.class;
+                throw new IOException("broken cache");
+        }
+}
@@ -59,7 +59,7 @@ public class Args {
          */
         public LineCol generateLineCol() {
                 LineCol res = new LineCol(fileName, currentLine, currentCol);
-                res.useDefine.putAll(useDefine);
+                res.addUseDefine(useDefine);
                 return res;
         }
 
@@ -392,7 +392,7 @@ public class Ins {
          * ifEq (i == 0)
          */
         public static class IfEq implements Instruction {
-                private final Value condition;
+                private Value condition;
                 private final Instruction gotoIns;
                 private final LineCol lineCol;
 
@@ -411,6 +411,10 @@ public class Ins {
                         return condition;
                 }
 
+                public void setCondition(Value condition) {
+                        this.condition = condition;
+                }
+
                 public Instruction gotoIns() {
                         return gotoIns;
                 }
@@ -420,7 +424,7 @@ public class Ins {
          * ifNe (if i != 0)
          */
         public static class IfNe implements Instruction {
-                private final Value condition;
+                private Value condition;
                 private Instruction gotoIns;
                 private final LineCol lineCol;
 
@@ -439,6 +443,10 @@ public class Ins {
                         return condition;
                 }
 
+                public void setCondition(Value condition) {
+                        this.condition = condition;
+                }
+
                 public Instruction gotoIns() {
                         return gotoIns;
                 }
@@ -849,6 +857,50 @@ public class Ins {
                 }
         }
 
+        /**
+         * create a functional object with <tt>java.lang.invoke.LambdaMetafactory</tt><br>
+         * the captured values are passed to the implementation method before the parameters of the abstract method
+         */
+        public static class LambdaFactory implements Value, Instruction {
+                private static final long serialVersionUID = 1L;
+
+                private final SInterfaceDef interfaceType;
+                private final SMethodDef abstractMethod;
+                private final SMethodDef implMethod;
+                private final List<Value> capturedArgs = new ArrayList<Value>();
+
+                private final LineCol lineCol;
+
+                public LambdaFactory(SInterfaceDef interfaceType, SMethodDef abstractMethod, SMethodDef implMethod, LineCol lineCol) {
+                        this.interfaceType = interfaceType;
+                        this.abstractMethod = abstractMethod;
+                        this.implMethod = implMethod;
+                        this.lineCol = lineCol;
+                }
+
+                public SMethodDef abstractMethod() {
+                        return abstractMethod;
+                }
+
+                public SMethodDef implMethod() {
+                        return implMethod;
+                }
+
+                public List<Value> capturedArgs() {
+                        return capturedArgs;
+                }
+
+                @Override
+                public LineCol line_col() {
+                        return lineCol;
+                }
+
+                @Override
+                public STypeDef type() {
+                        return interfaceType;
+                }
+        }
+
         /**
          * create a new array
          */
@@ -1003,7 +1055,7 @@ public class Ins {
          * put non-static field
          */
         public static class PutField implements Instruction {
-                private final Value value;
+                private Value value;
                 private final SFieldDef field;
                 private final Value obj;
                 private final LineCol lineCol;
@@ -1024,6 +1076,10 @@ public class Ins {
                         return value;
                 }
 
+                public void setValue(Value value) {
+                        this.value = value;
+                }
+
                 public SFieldDef field() {
                         return field;
                 }
@@ -1042,7 +1098,7 @@ public class Ins {
          * put static field
          */
         public static class PutStatic implements Instruction {
-                private final Value value;
+                private Value value;
                 private final SFieldDef field;
                 private final LineCol lineCol;
 
@@ -1061,6 +1117,10 @@ public class Ins {
                         return value;
                 }
 
+                public void setValue(Value value) {
+                        this.value = value;
+                }
+
                 public SFieldDef field() {
                         return field;
                 }
@@ -1334,7 +1394,7 @@ public class Ins {
                 public static final int Istore = 0x36;
 
                 private final LeftValue leftValue;
-                private final Value newValue;
+                private Value newValue;
                 private final int mode;
                 private final LineCol lineCol;
                 private final SemanticScope scope;
@@ -1375,6 +1435,10 @@ public class Ins {
                         return newValue;
                 }
 
+                public void setNewValue(Value newValue) {
+                        this.newValue = newValue;
+                }
+
                 @SuppressWarnings("unused")
                 public LeftValue leftValue() {
                         return leftValue;
@@ -40,7 +40,8 @@ public class SClassDef extends SRefTypeDef {
         private final int type;
         private final List<SConstructorDef> constructors = new ArrayList<SConstructorDef>();
         private SClassDef parent;
-        private final List<SInterfaceDef> superInterfaces = new ArrayList<SInterfaceDef>();
+        private final TrackedList<SInterfaceDef> superInterfaces = new TrackedList<SInterfaceDef>();
+        private int parentModifications;
         private final List<Instruction> staticStatements = new ArrayList<Instruction>();
         private final List<ExceptionTable> staticExceptionTable = new ArrayList<ExceptionTable>();
         private final InvokableMeta staticInvokableMeta = new InvokableMeta();
@@ -54,9 +55,11 @@ public class SClassDef extends SRefTypeDef {
 
         public void setParent(SClassDef parent) {
                 this.parent = parent;
+                ++parentModifications;
         }
 
         public List<SConstructorDef> constructors() {
+                loadMembers();
                 return constructors;
         }
 
@@ -68,6 +71,11 @@ public class SClassDef extends SRefTypeDef {
                 return superInterfaces;
         }
 
+        @Override
+        protected int superTypeModifications() {
+                return parentModifications + superInterfaces.modifications();
+        }
+
         public List<Instruction> staticStatements() {
                 return staticStatements;
         }
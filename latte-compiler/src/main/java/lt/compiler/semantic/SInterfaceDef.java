@@ -32,7 +32,7 @@ import java.util.*;
  * interface definition
  */
 public class SInterfaceDef extends SRefTypeDef {
-        private final List<SInterfaceDef> superInterfaces = new ArrayList<SInterfaceDef>();
+        private final TrackedList<SInterfaceDef> superInterfaces = new TrackedList<SInterfaceDef>();
 
         private final List<Instruction> staticStatements = new ArrayList<Instruction>();
         private final List<ExceptionTable> staticExceptionTable = new ArrayList<ExceptionTable>();
@@ -46,6 +46,11 @@ public class SInterfaceDef extends SRefTypeDef {
                 return superInterfaces;
         }
 
+        @Override
+        protected int superTypeModifications() {
+                return superInterfaces.modifications();
+        }
+
         public List<Instruction> staticStatements() {
                 return staticStatements;
         }
@@ -3,28 +3,227 @@ package lt.compiler.semantic;
 import lt.compiler.LineCol;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * reference types
  */
 public abstract class SRefTypeDef extends STypeDef {
+        /**
+         * fills members of the type when they are first accessed
+         */
+        public interface MemberLoader {
+                void load();
+
+                /**
+                 * loading may retrieve and create other types, so loaders sharing the same state
+                 * should return the same lock
+                 *
+                 * @return the lock held while loading
+                 */
+                Object lock();
+        }
+
+        /**
+         * the list exposes its modification count, so that the indexes know when they are out of date
+         */
+        protected static final class TrackedList<E> extends ArrayList<E> {
+                private static final long serialVersionUID = 1L;
+
+                int modifications() {
+                        return modCount;
+                }
+        }
+
+        /**
+         * declared methods grouped by name
+         */
+        private static final class MethodIndex {
+                final int modifications;
+                final Map<String, List<SMethodDef>> all = new HashMap<String, List<SMethodDef>>();
+                final Map<String, List<SMethodDef>> statics = new HashMap<String, List<SMethodDef>>();
+                final Map<String, List<SMethodDef>> nonStatics = new HashMap<String, List<SMethodDef>>();
+
+                MethodIndex(TrackedList<SMethodDef> methods) {
+                        this.modifications = methods.modifications();
+                        for (SMethodDef m : methods) {
+                                put(all, m);
+                                put(m.modifiers().contains(SModifier.STATIC) ? statics : nonStatics, m);
+                        }
+                }
+
+                private static void put(Map<String, List<SMethodDef>> map, SMethodDef m) {
+                        List<SMethodDef> list = map.get(m.name());
+                        if (list == null) {
+                                list = new ArrayList<SMethodDef>();
+                                map.put(m.name(), list);
+                        }
+                        list.add(m);
+                }
+        }
+
+        /**
+         * names of methods declared in the type and all its super types
+         */
+        private static final class HierarchyView {
+                final List<SRefTypeDef> types;
+                final int[] methodModifications;
+                final int[] superTypeModifications;
+                final Set<String> methodNames = new HashSet<String>();
+
+                HierarchyView(List<SRefTypeDef> types) {
+                        this.types = types;
+                        this.methodModifications = new int[types.size()];
+                        this.superTypeModifications = new int[types.size()];
+                        for (int i = 0; i < types.size(); ++i) {
+                                SRefTypeDef t = types.get(i);
+                                t.loadMembers();
+                                methodModifications[i] = t.methods.modifications();
+                                superTypeModifications[i] = t.superTypeModifications();
+                                for (SMethodDef m : t.methods) {
+                                        methodNames.add(m.name());
+                                }
+                        }
+                }
+
+                /**
+                 * the hierarchy only changes when super types of a type in it change,
+                 * so the recorded types are checked without walking the hierarchy again
+                 */
+                boolean upToDate() {
+                        for (int i = 0; i < types.size(); ++i) {
+                                SRefTypeDef t = types.get(i);
+                                if (t.superTypeModifications() != superTypeModifications[i]) return false;
+                                if (t.methods.modifications() != methodModifications[i]) return false;
+                        }
+                        return true;
+                }
+        }
+
         private final List<SFieldDef> fields = new ArrayList<SFieldDef>();
-        private final List<SMethodDef> methods = new ArrayList<SMethodDef>();
+        private final TrackedList<SMethodDef> methods = new TrackedList<SMethodDef>();
         private final List<SModifier> modifiers = new ArrayList<SModifier>();
+        private volatile MemberLoader memberLoader;
+        private boolean loading = false;
+        private volatile MethodIndex methodIndex;
+        private volatile HierarchyView hierarchyView;
 
         public SRefTypeDef(LineCol lineCol) {
                 super(lineCol);
         }
 
         public List<SFieldDef> fields() {
+                loadMembers();
                 return fields;
         }
 
         public List<SMethodDef> methods() {
+                loadMembers();
                 return methods;
         }
 
+        /**
+         * get declared methods with the given name
+         *
+         * @param name     method name
+         * @param isStatic true for static methods, false for non-static methods, null for both
+         * @return methods in declaring order, the list should not be modified
+         */
+        public List<SMethodDef> methods(String name, Boolean isStatic) {
+                loadMembers();
+                MethodIndex index = methodIndex;
+                if (index == null || index.modifications != methods.modifications()) {
+                        index = new MethodIndex(methods);
+                        methodIndex = index;
+                }
+                List<SMethodDef> list = (isStatic == null ? index.all : (isStatic ? index.statics : index.nonStatics)).get(name);
+                if (list == null) return Collections.emptyList();
+                return list;
+        }
+
+        /**
+         * check whether the type or any of its super types declares a method with the given name
+         *
+         * @param name method name
+         * @return true if the method may be found in the type hierarchy
+         */
+        public boolean hierarchyHasMethod(String name) {
+                HierarchyView view = hierarchyView;
+                if (view == null || !view.upToDate()) {
+                        view = new HierarchyView(hierarchy());
+                        hierarchyView = view;
+                }
+                return view.methodNames.contains(name);
+        }
+
+        /**
+         * @return the type itself and all its super classes and super interfaces
+         */
+        private List<SRefTypeDef> hierarchy() {
+                List<SRefTypeDef> result = new ArrayList<SRefTypeDef>();
+                Set<SRefTypeDef> visited = Collections.newSetFromMap(new IdentityHashMap<SRefTypeDef, Boolean>());
+                LinkedList<SRefTypeDef> queue = new LinkedList<SRefTypeDef>();
+                queue.add(this);
+                while (!queue.isEmpty()) {
+                        SRefTypeDef t = queue.removeFirst();
+                        if (!visited.add(t)) continue;
+                        result.add(t);
+                        if (t instanceof SClassDef) {
+                                SClassDef c = (SClassDef) t;
+                                if (c.parent() != null) queue.add(c.parent());
+                                queue.addAll(c.superInterfaces());
+                        } else if (t instanceof SInterfaceDef) {
+                                queue.addAll(((SInterfaceDef) t).superInterfaces());
+                        }
+                }
+                return result;
+        }
+
+        /**
+         * @return a count that changes whenever the super class or super interfaces of the type change
+         */
+        protected abstract int superTypeModifications();
+
+        /**
+         * the members (fields, methods and constructors) will be filled by the loader on first access
+         *
+         * @param memberLoader member loader
+         */
+        public void setMemberLoader(MemberLoader memberLoader) {
+                this.memberLoader = memberLoader;
+        }
+
+        /**
+         * @return the loader if members are not loaded yet, otherwise null
+         */
+        public MemberLoader memberLoader() {
+                return memberLoader;
+        }
+
+        protected void loadMembers() {
+                MemberLoader pending = memberLoader;
+                if (pending == null) return;
+                synchronized (pending.lock()) {
+                        MemberLoader loader = memberLoader;
+                        // the loader itself accesses the member lists when filling them
+                        if (loader == null || loading) return;
+                        loading = true;
+                        try {
+                                loader.load();
+                        } finally {
+                                loading = false;
+                                memberLoader = null;
+                        }
+                }
+        }
+
         public List<SModifier> modifiers() {
                 return modifiers;
         }
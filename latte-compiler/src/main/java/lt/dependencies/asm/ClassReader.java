@@ -165,10 +165,8 @@ public class ClassReader {
      */
     public ClassReader(final byte[] b, final int off, final int len) {
         this.b = b;
-        // checks the class version
-        if (readShort(off + 6) > Opcodes.V1_8) {
-            throw new IllegalArgumentException();
-        }
+        // class files newer than V1_8 are accepted. the constant pool entries
+        // added by later versions are skipped, see below
         // parses the constant pool
         items = new int[readUnsignedShort(off + 8)];
         int n = items.length;
@@ -186,6 +184,7 @@ public class ClassReader {
             case ClassWriter.FLOAT:
             case ClassWriter.NAME_TYPE:
             case ClassWriter.INDY:
+            case 17: // CONSTANT_Dynamic (Java 11)
                 size = 5;
                 break;
             case ClassWriter.LONG:
@@ -794,6 +794,36 @@ public class ClassWriter extends ClassVisitor {
                 exceptions, computeMaxs, computeFrames);
     }
 
+    /**
+     * Visits a method, choosing whether its stack map frames are computed.
+     * Methods without jumps and exception handlers do not need frames, so
+     * only their maximum stack size and number of local variables are
+     * computed when <tt>computeFrames</tt> is <tt>false</tt>.
+     * 
+     * @param access
+     *            the method's access flags.
+     * @param name
+     *            the method's name.
+     * @param desc
+     *            the method's descriptor.
+     * @param signature
+     *            the method's signature. May be <tt>null</tt>.
+     * @param exceptions
+     *            the internal names of the method's exceptions. May be
+     *            <tt>null</tt>.
+     * @param computeFrames
+     *            <tt>false</tt> to skip computing the frames of this method
+     *            even if {@link #COMPUTE_FRAMES} is set.
+     * @return a visitor to visit the byte code of the method.
+     */
+    public final MethodVisitor visitMethod(final int access, final String name,
+            final String desc, final String signature, final String[] exceptions,
+            final boolean computeFrames) {
+        return new MethodWriter(this, access, name, desc, signature,
+                exceptions, computeMaxs || this.computeFrames,
+                computeFrames && this.computeFrames);
+    }
+
     @Override
     public final void visitEnd() {
     }
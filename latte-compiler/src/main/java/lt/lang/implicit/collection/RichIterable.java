@@ -1,7 +1,10 @@
 package lt.lang.implicit.collection;
 
-import lt.lang.function.Function1;
+import lt.lang.function.*;
+import lt.runtime.LtRuntime;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -38,4 +41,107 @@ public class RichIterable<T> {
                 }
                 return list;
         }
+
+        private int initialCapacity() {
+                return iterable instanceof Collection ? ((Collection) iterable).size() : 16;
+        }
+
+        /**
+         * map the elements into an int array, the function takes and returns primitive int values
+         *
+         * @param f the function
+         * @return a new int array
+         * @throws Exception exception thrown by the function
+         */
+        public int[] mapInt(IntFunction1 f) throws Exception {
+                int[] arr = new int[initialCapacity()];
+                int size = 0;
+                for (T t : iterable) {
+                        if (size == arr.length) arr = Arrays.copyOf(arr, size * 2 + 1);
+                        arr[size++] = f.apply(LtRuntime.castToInt(t));
+                }
+                return size == arr.length ? arr : Arrays.copyOf(arr, size);
+        }
+
+        /**
+         * map the elements into a long array, the function takes and returns primitive long values
+         *
+         * @param f the function
+         * @return a new long array
+         * @throws Exception exception thrown by the function
+         */
+        public long[] mapLong(LongFunction1 f) throws Exception {
+                long[] arr = new long[initialCapacity()];
+                int size = 0;
+                for (T t : iterable) {
+                        if (size == arr.length) arr = Arrays.copyOf(arr, size * 2 + 1);
+                        arr[size++] = f.apply(LtRuntime.castToLong(t));
+                }
+                return size == arr.length ? arr : Arrays.copyOf(arr, size);
+        }
+
+        /**
+         * map the elements into a double array, the function takes and returns primitive double values
+         *
+         * @param f the function
+         * @return a new double array
+         * @throws Exception exception thrown by the function
+         */
+        public double[] mapDouble(DoubleFunction1 f) throws Exception {
+                double[] arr = new double[initialCapacity()];
+                int size = 0;
+                for (T t : iterable) {
+                        if (size == arr.length) arr = Arrays.copyOf(arr, size * 2 + 1);
+                        arr[size++] = f.apply(LtRuntime.castToDouble(t));
+                }
+                return size == arr.length ? arr : Arrays.copyOf(arr, size);
+        }
+
+        /**
+         * combine the elements from left to right with primitive int values
+         *
+         * @param initial the initial value
+         * @param f       (accumulated value, element) =&gt; the next accumulated value
+         * @return the result
+         * @throws Exception exception thrown by the function
+         */
+        public int foldInt(int initial, IntFunction2 f) throws Exception {
+                int res = initial;
+                for (T t : iterable) {
+                        res = f.apply(res, LtRuntime.castToInt(t));
+                }
+                return res;
+        }
+
+        /**
+         * combine the elements from left to right with primitive long values
+         *
+         * @param initial the initial value
+         * @param f       (accumulated value, element) =&gt; the next accumulated value
+         * @return the result
+         * @throws Exception exception thrown by the function
+         */
+        public long foldLong(long initial, LongFunction2 f) throws Exception {
+                long res = initial;
+                for (T t : iterable) {
+                        res = f.apply(res, LtRuntime.castToLong(t));
+                }
+                return res;
+        }
+
+        /**
+         * combine the elements from left to right with primitive double values
+         *
+         * @param initial the initial value
+         * @param f       (accumulated value, element) =&gt; the next accumulated value
+         * @return the result
+         * @throws Exception exception thrown by the function
+         */
+        public double foldDouble(double initial, DoubleFunction2 f) throws Exception {
+                double res = initial;
+                for (T t : iterable) {
+                        res = f.apply(res, LtRuntime.castToDouble(t));
+                }
+                return res;
+        }
 }
@@ -0,0 +1,224 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 KuiGang Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package lt.repl;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * writes the compiling result into the output directory.<br>
+ * class files are written by the code generating threads, a class file is left untouched
+ * if it already holds the same bytes. the jar file is written while classes are being generated.
+ */
+class ClassOutput {
+        /**
+         * runtime library entries (name, bytes) added by <tt>with_lib</tt>, loaded once
+         */
+        private static List<Map.Entry<String, byte[]>> libEntries;
+
+        private ClassOutput() {
+        }
+
+        /**
+         * write the class file if the file doesn't contain the same bytes
+         *
+         * @param outputDir output directory
+         * @param className class name
+         * @param bytes     byte code
+         * @return false if the file is not changed
+         * @throws IOException exception
+         */
+        static boolean writeClassFile(File outputDir, String className, byte[] bytes) throws IOException {
+                File file = IncrementalCache.classFile(outputDir, className);
+                if (file.length() == bytes.length && sameContent(file, bytes)) return false;
+
+                File dir = file.getParentFile();
+                // the directory might be created by another thread
+                if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                        throw new IOException("cannot create directory " + dir);
+                }
+                FileChannel channel = new FileOutputStream(file).getChannel();
+                try {
+                        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                        while (buffer.hasRemaining()) {
+                                channel.write(buffer);
+                        }
+                } finally {
+                        channel.close();
+                }
+                return true;
+        }
+
+        private static boolean sameContent(File file, byte[] bytes) throws IOException {
+                FileChannel channel = new FileInputStream(file).getChannel();
+                try {
+                        ByteBuffer buffer = ByteBuffer.allocate(bytes.length);
+                        while (buffer.hasRemaining()) {
+                                if (channel.read(buffer) == -1) return false;
+                        }
+                        return Arrays.equals(buffer.array(), bytes);
+                } finally {
+                        channel.close();
+                }
+        }
+
+        private static byte[] readResource(String name) throws IOException {
+                InputStream is = ClassOutput.class.getClassLoader().getResourceAsStream(name);
+                if (is == null) return null;
+                try {
+                        ByteArrayOutputStream baos = new ByteArrayOutputStream(8192);
+                        byte[] bs = new byte[8192];
+                        int n;
+                        while ((n = is.read(bs)) != -1) {
+                                baos.write(bs, 0, n);
+                        }
+                        return baos.toByteArray();
+                } finally {
+                        is.close();
+                }
+        }
+
+        /**
+         * @return entries of the runtime library listed in <tt>classes.txt</tt>, sorted by name
+         * @throws IOException exception
+         */
+        private static synchronized List<Map.Entry<String, byte[]>> libEntries() throws IOException {
+                if (libEntries != null) return libEntries;
+
+                List<Map.Entry<String, byte[]>> entries = new ArrayList<Map.Entry<String, byte[]>>();
+                byte[] classesTxt = readResource("classes.txt");
+                if (classesTxt != null) {
+                        BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(classesTxt)));
+                        List<String> classes = new ArrayList<String>();
+                        String line;
+                        while ((line = br.readLine()) != null) {
+                                if (line.trim().isEmpty()) continue;
+                                classes.add(line);
+                        }
+                        Collections.sort(classes);
+                        for (String c : classes) {
+                                byte[] bytes = readResource(c);
+                                if (bytes == null) throw new IOException("cannot find runtime library file " + c);
+                                entries.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(c, bytes));
+                        }
+                }
+                libEntries = Collections.unmodifiableList(entries);
+                return libEntries;
+        }
+
+        /**
+         * a jar file being written. entries are written into a temporary file
+         * which replaces the jar when {@link #finish(String, boolean)} is called
+         */
+        static class Jar {
+                private final File jarPath;
+                private final File tmpPath;
+                private final ZipOutputStream zos;
+
+                Jar(File outputDir, String pkg) throws IOException {
+                        String name = pkg.endsWith(".jar") ? pkg : pkg + ".jar";
+                        this.jarPath = new File(outputDir, name);
+                        this.tmpPath = new File(outputDir, name + ".tmp");
+                        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+                                throw new IOException("cannot create directory " + outputDir);
+                        }
+                        this.zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tmpPath), 65536));
+                }
+
+                /**
+                 * put a class into the jar
+                 *
+                 * @param className class name
+                 * @param bytes     byte code
+                 * @throws IOException exception
+                 */
+                void putClass(String className, byte[] bytes) throws IOException {
+                        put(className.replace(".", "/") + ".class", bytes);
+                }
+
+                private void put(String file, byte[] bytes) throws IOException {
+                        zos.putNextEntry(new ZipEntry(file));
+                        zos.write(bytes);
+                        zos.closeEntry();
+                }
+
+                /**
+                 * write the manifest, the libraries and the required files, then replace the jar file
+                 *
+                 * @param main    main class (nullable)
+                 * @param withLib add the runtime library
+                 * @throws IOException exception
+                 */
+                void finish(String main, boolean withLib) throws IOException {
+                        try {
+                                String manifest = "" +
+                                        "Manifest-Version: 1.0\n" +
+                                        "Created-By: Latte lang Compiler\n";
+                                if (main != null) {
+                                        manifest += "Main-Class: " + main.replace("::", ".") + "\n";
+                                }
+                                put("META-INF/MANIFEST.MF", manifest.getBytes());
+
+                                if (withLib) {
+                                        for (Map.Entry<String, byte[]> entry : libEntries()) {
+                                                put(entry.getKey(), entry.getValue());
+                                        }
+                                }
+
+                                // add required files
+                                for (String f : Arrays.asList("classes.txt", "build.lts.template", "run.lts.template", "lib-classes.txt")) {
+                                        byte[] bytes = readResource(f);
+                                        if (bytes != null) {
+                                                put(f, bytes);
+                                        }
+                                }
+                                zos.close();
+                        } catch (IOException e) {
+                                abort();
+                                throw e;
+                        }
+                        if (jarPath.exists() && !jarPath.delete()) throw new IOException("cannot delete file " + jarPath);
+                        if (!tmpPath.renameTo(jarPath)) throw new IOException("cannot create file " + jarPath);
+                }
+
+                /**
+                 * discard the jar being written
+                 */
+                void abort() {
+                        try {
+                                zos.close();
+                        } catch (IOException ignore) {
+                                // the file is deleted anyway
+                        }
+                        //noinspection ResultOfMethodCallIgnored
+                        tmpPath.delete();
+                }
+        }
+}
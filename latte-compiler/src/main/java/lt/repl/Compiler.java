@@ -30,26 +30,29 @@ import lt.compiler.Scanner;
 import lt.compiler.lexical.ElementStartNode;
 import lt.compiler.semantic.STypeDef;
 import lt.compiler.syntactic.Statement;
+import lt.compiler.syntactic.pre.Import;
 import lt.runtime.Wrapper;
 
 import java.io.*;
 import java.net.URL;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 /**
  * a compiler with full functions provided. lt.repl.Compiler is a small set of this compiler<br>
  * first record all necessary info<br>
  * then creates a ThreadPool to run Scanner and Parser<br>
  * then summaries these AST to do semantic analysis in a single thread<br>
- * finally creates a ThreadPool to run Code Generation and write files to disk (or store these byte code for loading)<br>
+ * finally creates a ThreadPool to run Code Generation (one task per type) and write files to disk (or store these byte code for loading)<br>
  * if requires loading, then load all these generated classes
  */
 @SuppressWarnings("unused")
 public class Compiler {
         private static final int availableProcessors = Runtime.getRuntime().availableProcessors();
+        /**
+         * files with more lines are split at top-level statements and scanned/parsed by several threads
+         */
+        private static final int SPLIT_MIN_LINES = 2000;
 
         public static class Config {
                 /**
@@ -100,6 +103,22 @@ public class Compiler {
                          * column base
                          */
                         public int columnBase = 0;
+                        /**
+                         * java version of the generated byte code (6 or 8).<br>
+                         * when it's 8, lambdas which implement interfaces are created with LambdaMetafactory
+                         */
+                        public int target = 6;
+                        /**
+                         * runtime checks of nonnull/nonempty parameters and local variables.<br>
+                         * {@link SemanticProcessor#NONNULL_CHECK_ALL} (default), {@link SemanticProcessor#NONNULL_CHECK_PUBLIC}
+                         * (only parameters of public methods and constructors in public types) or
+                         * {@link SemanticProcessor#NONNULL_CHECK_NONE}
+                         */
+                        public int nonnullCheck = SemanticProcessor.NONNULL_CHECK_ALL;
+                        /**
+                         * run the {@link Optimizer} on the instructions before generating byte code
+                         */
+                        public boolean optimize = true;
                 }
 
                 /**
@@ -117,6 +136,22 @@ public class Compiler {
                  */
                 public boolean fastFail = true;
 
+                /**
+                 * release syntax trees as soon as they are analysed, and write each class file as soon as it's generated.<br>
+                 * class files are written directly only when {@link Result#outputDir} is set and the compiling is not incremental
+                 */
+                public boolean lowMemory = false;
+
+                /**
+                 * (nullable) collects time, allocation and counts of each compiling phase and each file
+                 */
+                public CompilerMetrics metrics = null;
+
+                /**
+                 * (nullable) the json report of {@link #metrics} is written into the file after compiling
+                 */
+                public File metricsReport = null;
+
                 /**
                  * configuration about the result
                  */
@@ -137,6 +172,11 @@ public class Compiler {
                          * include Latte runtime libraries
                          */
                         public boolean with_lib = false;
+                        /**
+                         * only recompile changed files and files depending on changed signatures.
+                         * the build state is stored in a cache directory next to the output directory
+                         */
+                        public boolean incremental = false;
                 }
 
                 /**
@@ -147,6 +187,10 @@ public class Compiler {
 
         public final Config config = new Config();
         private final ClassLoader baseLoader;
+        /**
+         * types imported from the class-path by previous compilations (nullable)
+         */
+        TypeCache typeCache;
 
         /**
          * construct the compiler
@@ -212,6 +256,8 @@ public class Compiler {
                         Config.Code code = new Config.Code();
                         ErrorManager.Out out = new ErrorManager.Out();
                         boolean fastFail = true;
+                        boolean lowMemory = false;
+                        File metricsReport = null;
                         Config.Result result = new Config.Result();
 
                         if (config.containsKey("classpath")) {
@@ -296,8 +342,35 @@ public class Compiler {
                                                 } else
                                                         throw new IllegalArgumentException("config.code.columnBase should be Integer");
                                         }
+                                        if (c.containsKey("target")) {
+                                                Object t = c.get("target");
+                                                if (t instanceof Integer) {
+                                                        if ((Integer) t != 6 && (Integer) t != 8)
+                                                                throw new IllegalArgumentException("config.code.target should be 6 or 8");
+                                                        code.target = (Integer) t;
+                                                } else
+                                                        throw new IllegalArgumentException("config.code.target should be Integer");
+                                        }
+                                        if (c.containsKey("nonnullCheck")) {
+                                                Object n = c.get("nonnullCheck");
+                                                if ("all".equals(n)) {
+                                                        code.nonnullCheck = SemanticProcessor.NONNULL_CHECK_ALL;
+                                                } else if ("public".equals(n)) {
+                                                        code.nonnullCheck = SemanticProcessor.NONNULL_CHECK_PUBLIC;
+                                                } else if ("none".equals(n)) {
+                                                        code.nonnullCheck = SemanticProcessor.NONNULL_CHECK_NONE;
+                                                } else
+                                                        throw new IllegalArgumentException("config.code.nonnullCheck should be 'all', 'public' or 'none'");
+                                        }
+                                        if (c.containsKey("optimize")) {
+                                                Object op = c.get("optimize");
+                                                if (op instanceof Boolean) {
+                                                        code.optimize = (Boolean) op;
+                                                } else
+                                                        throw new IllegalArgumentException("config.code.optimize should be Boolean");
+                                        }
                                 } else
-                                        throw new IllegalArgumentException("config.code should be {autoImport:?, indentation:?, lineBase:?, columnBase:?}");
+                                        throw new IllegalArgumentException("config.code should be {autoImport:?, indentation:?, lineBase:?, columnBase:?, target:?, nonnullCheck:?, optimize:?}");
                         }
                         if (config.containsKey("out")) {
                                 Object o = config.get("out");
@@ -340,6 +413,20 @@ public class Compiler {
                                         fastFail = (Boolean) f;
                                 } else throw new IllegalArgumentException("config.fastFail should be Boolean");
                         }
+                        if (config.containsKey("lowMemory")) {
+                                Object l = config.get("lowMemory");
+                                if (l instanceof Boolean) {
+                                        lowMemory = (Boolean) l;
+                                } else throw new IllegalArgumentException("config.lowMemory should be Boolean");
+                        }
+                        if (config.containsKey("metrics")) {
+                                Object m = config.get("metrics");
+                                if (m instanceof String) {
+                                        metricsReport = new File((String) m);
+                                } else if (m instanceof File) {
+                                        metricsReport = (File) m;
+                                } else throw new IllegalArgumentException("config.metrics should be File/String");
+                        }
                         if (config.containsKey("result")) {
                                 Object r = config.get("result");
                                 if (r instanceof Map) {
@@ -387,8 +474,15 @@ public class Compiler {
                                                 } else
                                                         throw new IllegalArgumentException("config.result.with-lib should be bool");
                                         }
+                                        if (re.containsKey("incremental")) {
+                                                Object o = re.get("incremental");
+                                                if (o instanceof Boolean) {
+                                                        result.incremental = (Boolean) o;
+                                                } else
+                                                        throw new IllegalArgumentException("config.result.incremental should be bool");
+                                        }
                                 } else
-                                        throw new IllegalArgumentException("config.result should be {outputDir:?, statistic:?}");
+                                        throw new IllegalArgumentException("config.result should be {outputDir:?, package:?, main:?, with-lib:?, incremental:?}");
                         }
 
                         this.config.classpath = classpathToSet;
@@ -396,6 +490,9 @@ public class Compiler {
                         this.config.code = code;
                         this.config.out = out;
                         this.config.fastFail = fastFail;
+                        this.config.lowMemory = lowMemory;
+                        this.config.metrics = metricsReport == null ? null : new CompilerMetrics();
+                        this.config.metricsReport = metricsReport;
                         this.config.result = result;
                 }
 
@@ -478,270 +575,544 @@ public class Compiler {
 
                 if (config.code.indentation < 1)
                         throw new IllegalArgumentException("config.code.indentation should >=1");
+                if (config.code.target != 6 && config.code.target != 8)
+                        throw new IllegalArgumentException("config.code.target should be 6 or 8");
+                if (config.code.nonnullCheck != SemanticProcessor.NONNULL_CHECK_ALL
+                        && config.code.nonnullCheck != SemanticProcessor.NONNULL_CHECK_PUBLIC
+                        && config.code.nonnullCheck != SemanticProcessor.NONNULL_CHECK_NONE)
+                        throw new IllegalArgumentException("config.code.nonnullCheck should be one of SemanticProcessor.NONNULL_CHECK_*");
 
                 if (config.result.outputDir != null && config.result.outputDir.exists() && !config.result.outputDir.isDirectory())
                         throw new IllegalArgumentException("config.result.outputDir should be a directory");
 
+                CompilerMetrics.Timer timer = metrics().start("compile", null);
+                metrics().count("files", input.size());
+                try {
+                        return compileInput(input);
+                } finally {
+                        timer.stop();
+                        if (config.metrics != null && config.metricsReport != null) {
+                                config.metrics.writeJson(config.metricsReport);
+                        }
+                }
+        }
+
+        private CompilerMetrics metrics() {
+                return config.metrics == null ? CompilerMetrics.DISABLED : config.metrics;
+        }
+
+        /**
+         * compile the validated input
+         *
+         * @param input fileName =&gt; reader
+         * @return the retrieved class loader
+         * @throws Exception the exception occurred when compiling
+         */
+        private ClassLoader compileInput(Map<String, Reader> input) throws Exception {
                 // load jars
-                ClassPathLoader classPathLoader = new ClassPathLoader(baseLoader);
-                for (URL url : config.classpath) {
-                        classPathLoader.load(url);
+                ClassLoader classPathLoader;
+                if (typeCache == null) {
+                        ClassPathLoader loader = new ClassPathLoader(baseLoader);
+                        for (URL url : config.classpath) {
+                                loader.load(url);
+                        }
+                        classPathLoader = loader;
+                } else {
+                        // the cache is built on the same class-path
+                        classPathLoader = typeCache.classLoader();
                 }
 
-                // construct thread pool for scanners and parsers
-                ExecutorService scannerPool = Executors.newFixedThreadPool(config.threads.scanner);
-                final ExecutorService parserPool = Executors.newFixedThreadPool(config.threads.parser);
+                if (config.result.incremental && config.result.outputDir != null) {
+                        return compileIncrementally(input, classPathLoader);
+                }
 
-                final ErrorManager errorManager = new ErrorManager(config.fastFail);
-                errorManager.out = config.out;
+                // class files and jar entries are written when generated
+                ClassOutput.Jar jar = null;
+                if (config.result.outputDir != null && config.result.pkg != null) {
+                        jar = new ClassOutput.Jar(config.result.outputDir, config.result.pkg);
+                }
+                boolean release = config.lowMemory && config.result.outputDir != null;
+                final Map<String, byte[]> byteCodes;
+                try {
+                        byteCodes = generate(input, classPathLoader, null, null, config.result.outputDir != null, release, jar);
+                        if (jar != null) {
+                                CompilerMetrics.Timer jarTimer = metrics().start("jar", null);
+                                jar.finish(config.result.main, config.result.with_lib);
+                                jarTimer.stop();
+                        }
+                } catch (Exception e) {
+                        if (jar != null) jar.abort();
+                        throw e;
+                }
 
-                List<Scan> scans = new ArrayList<Scan>();
-                Properties properties = new Properties();
-                properties._COLUMN_BASE_ = config.code.columnBase;
-                properties._LINE_BASE_ = config.code.lineBase;
+                if (release) {
+                        return new IncrementalCache.Loader(classPathLoader, config.result.outputDir, byteCodes.keySet(), Collections.<String, byte[]>emptyMap());
+                }
+
+                // codes are generated
+                ClassLoader loader = new ClassLoader(classPathLoader) {
+                        @Override
+                        protected Class<?> findClass(String name) throws ClassNotFoundException {
+                                if (byteCodes.containsKey(name)) {
+                                        byte[] bytes = byteCodes.get(name);
+                                        if (bytes == null) throw new ClassNotFoundException(name);
+                                        return defineClass(name, bytes, 0, bytes.length);
+                                } else throw new ClassNotFoundException(name);
+                        }
+                };
+
+                return loader;
+        }
+
+        /**
+         * compile only files that changed since the previous build, and files depending on
+         * the changed signatures. classes of other files are loaded from the output directory.
+         *
+         * @param input           fileName =&gt; reader
+         * @param classPathLoader class path
+         * @return the retrieved class loader
+         * @throws Exception the exception occurred when compiling
+         */
+        private ClassLoader compileIncrementally(Map<String, Reader> input, ClassLoader classPathLoader) throws Exception {
+                File outputDir = config.result.outputDir;
+                File cacheDir = IncrementalCache.cacheDirOf(outputDir);
+                IncrementalCache cache = IncrementalCache.load(cacheDir, incrementalSettings());
+
+                Map<String, String> sources = new HashMap<String, String>();
                 for (Map.Entry<String, Reader> entry : input.entrySet()) {
-                        Scan scan = new Scan(entry.getKey(), entry.getValue(), properties, errorManager);
-                        scans.add(scan);
-                }
-
-                List<Future<FileRoot>> scanRes = scannerPool.invokeAll(scans);
-                Map<String, List<Statement>> parseRes = new ConcurrentHashMap<String, List<Statement>>();
-                final List<Future<Map<String, List<Statement>>>> parseState = new Vector<Future<Map<String, List<Statement>>>>();
-
-                final Exception[] caughtException = new Exception[]{null};
-
-                for (final Future<FileRoot> f : scanRes) {
-                        new Thread(new Runnable() {
-                                @Override
-                                public void run() {
-                                        try {
-                                                FileRoot root;
-                                                try {
-                                                        root = f.get();
-                                                } catch (ExecutionException e) {
-                                                        caughtException[0] = (Exception) e.getCause();
-                                                        return;
-                                                }
-                                                Future<Map<String, List<Statement>>> future = parserPool.submit(new Parse(root.fileName, root.root, errorManager));
-                                                parseState.add(future);
-                                        } catch (InterruptedException ignore) {
-                                        }
-                                }
-                        }).start();
+                        sources.put(entry.getKey(), readAll(entry.getValue()));
                 }
 
-                // wait until all all Parse objects are added into the list
-                while (parseState.size() != input.size()) {
-                        // check whether occurred any exceptions
-                        if (caughtException[0] != null) {
-                                scannerPool.shutdown();
-                                parserPool.shutdown();
+                // files whose signatures changed
+                Set<String> changed = new HashSet<String>();
+                Set<String> changedPkgs = new HashSet<String>();
+                Set<String> changedTypes = new HashSet<String>();
+
+                // removed files
+                for (String file : new ArrayList<String>(cache.files.keySet())) {
+                        if (!sources.containsKey(file)) {
+                                IncrementalCache.FileRecord record = cache.files.remove(file);
+                                deleteClassFiles(record.classes);
+                                changed.add(file);
+                                changedPkgs.add(record.pkg);
+                                changedTypes.addAll(record.classes);
+                        }
+                }
 
-                                throw caughtException[0];
+                // modified or new files
+                Set<String> toCompile = new HashSet<String>();
+                for (Map.Entry<String, String> entry : sources.entrySet()) {
+                        IncrementalCache.FileRecord record = cache.files.get(entry.getKey());
+                        if (record == null
+                                || !record.hash.equals(IncrementalCache.hash(entry.getValue()))
+                                || !classFilesExist(record.classes)) {
+                                toCompile.add(entry.getKey());
                         }
-                        Thread.sleep(1);
                 }
+                toCompile.addAll(cache.dependentsOf(changed, changedPkgs, changedTypes));
+
+                Set<String> compiled = new HashSet<String>();
+                Map<String, byte[]> generated = new HashMap<String, byte[]>();
+                while (!toCompile.isEmpty()) {
+                        if (!Collections.disjoint(toCompile, compiled)) {
+                                // a file is affected by signatures changed after it's compiled
+                                // (the dependency is circular), so compile all files together
+                                toCompile = new HashSet<String>(sources.keySet());
+                                generated.clear();
+                        }
 
-                // wait until all parse process finishes
-                for (Future<Map<String, List<Statement>>> f : parseState) {
-                        while (!f.isDone()) Thread.sleep(1);
-                        try {
-                                parseRes.putAll(f.get());
-                        } catch (ExecutionException e) {
-                                scannerPool.shutdown();
-                                parserPool.shutdown();
+                        if (config.out.debug != null) {
+                                config.out.debug.println("[DEBUG] incremental compiling " + toCompile);
+                        }
 
-                                throw (Exception) e.getCause();
+                        Map<String, Reader> roundInput = new HashMap<String, Reader>();
+                        for (String file : toCompile) {
+                                roundInput.put(file, new StringReader(sources.get(file)));
+                        }
+                        Set<String> reused = new HashSet<String>();
+                        for (Map.Entry<String, IncrementalCache.FileRecord> entry : cache.files.entrySet()) {
+                                if (!toCompile.contains(entry.getKey())) {
+                                        reused.addAll(entry.getValue().classes);
+                                }
                         }
-                }
 
-                // all parsing finished
+                        Map<String, String> classToFile = new HashMap<String, String>();
+                        Map<String, List<Import>> imports = new HashMap<String, List<Import>>();
+                        Map<String, byte[]> byteCodes = generate(roundInput,
+                                new IncrementalCache.Loader(classPathLoader, outputDir, reused, Collections.<String, byte[]>emptyMap()),
+                                classToFile, imports, true, false, null);
+                        generated.putAll(byteCodes);
+
+                        // update records
+                        Map<String, List<byte[]>> fileToByteCodes = new HashMap<String, List<byte[]>>();
+                        Map<String, IncrementalCache.FileRecord> records = new HashMap<String, IncrementalCache.FileRecord>();
+                        for (String file : toCompile) {
+                                IncrementalCache.FileRecord record = new IncrementalCache.FileRecord();
+                                record.hash = IncrementalCache.hash(sources.get(file));
+                                record.pkg = "";
+                                if (imports.containsKey(file)) {
+                                        IncrementalCache.recordImports(record, imports.get(file));
+                                }
+                                records.put(file, record);
+                                fileToByteCodes.put(file, new ArrayList<byte[]>());
+                        }
+                        for (Map.Entry<String, byte[]> entry : byteCodes.entrySet()) {
+                                String file = classToFile.get(entry.getKey());
+                                IncrementalCache.FileRecord record = records.get(file);
+                                if (record == null) throw new LtBug("cannot find source file of class " + entry.getKey());
+                                record.classes.add(entry.getKey());
+                                IncrementalCache.recordReferredTypes(record, entry.getValue());
+                                fileToByteCodes.get(file).add(entry.getValue());
+                        }
 
-                scannerPool.shutdown();
-                parserPool.shutdown();
+                        Set<String> roundChanged = new HashSet<String>();
+                        Set<String> roundChangedPkgs = new HashSet<String>();
+                        Set<String> roundChangedTypes = new HashSet<String>();
+                        for (Map.Entry<String, IncrementalCache.FileRecord> entry : records.entrySet()) {
+                                String file = entry.getKey();
+                                IncrementalCache.FileRecord record = entry.getValue();
+                                record.referredTypes.removeAll(record.classes);
+                                record.signature = IncrementalCache.signature(fileToByteCodes.get(file));
+
+                                IncrementalCache.FileRecord old = cache.files.put(file, record);
+                                if (old != null) {
+                                        Set<String> stale = new HashSet<String>(old.classes);
+                                        stale.removeAll(record.classes);
+                                        deleteClassFiles(stale);
+                                }
+                                if (old == null || !old.signature.equals(record.signature)) {
+                                        roundChanged.add(file);
+                                        roundChangedPkgs.add(record.pkg);
+                                        roundChangedTypes.addAll(record.classes);
+                                        if (old != null) {
+                                                roundChangedPkgs.add(old.pkg);
+                                                roundChangedTypes.addAll(old.classes);
+                                        }
+                                }
+                        }
 
-                if (!errorManager.errorList.isEmpty()) {
-                        throw new Wrapper(errorManager.errorList);
+                        compiled.addAll(toCompile);
+                        Set<String> next = cache.dependentsOf(roundChanged, roundChangedPkgs, roundChangedTypes);
+                        next.removeAll(toCompile);
+                        toCompile = next;
                 }
 
-                final SemanticProcessor processor = new SemanticProcessor(parseRes, classPathLoader, errorManager);
-                Set<STypeDef> types = processor.parse();
+                cache.save(cacheDir);
 
-                // code gen
-                int size = types.size() / config.threads.codeGen + types.size() % config.threads.codeGen;
-                List<Set<STypeDef>> toGenerate = new ArrayList<Set<STypeDef>>();
-                for (int i = 0; i < size; ++i) toGenerate.add(new HashSet<STypeDef>());
-                int currentCount = 0;
-                for (STypeDef type : types) {
-                        toGenerate.get(currentCount % size).add(type);
+                Set<String> reused = new HashSet<String>();
+                for (IncrementalCache.FileRecord record : cache.files.values()) {
+                        reused.addAll(record.classes);
                 }
+                reused.removeAll(generated.keySet());
 
-                final Map<String, byte[]> byteCodes = new ConcurrentHashMap<String, byte[]>();
+                if (config.result.pkg != null) {
+                        List<String> all = new ArrayList<String>(generated.keySet());
+                        all.addAll(reused);
+                        Collections.sort(all);
+                        ClassOutput.Jar jar = new ClassOutput.Jar(outputDir, config.result.pkg);
+                        try {
+                                for (String className : all) {
+                                        byte[] bytes = generated.get(className);
+                                        jar.putClass(className, bytes == null ? IncrementalCache.readClassFile(outputDir, className) : bytes);
+                                }
+                                jar.finish(config.result.main, config.result.with_lib);
+                        } catch (IOException e) {
+                                jar.abort();
+                                throw e;
+                        }
+                }
 
-                List<Thread> threads = new ArrayList<Thread>();
+                return new IncrementalCache.Loader(classPathLoader, outputDir, reused, generated);
+        }
 
-                // the following process should not throw any exception
+        /**
+         * settings that affect the generated byte code. the incremental cache is dropped when they change
+         *
+         * @return a string representing the settings
+         */
+        private String incrementalSettings() {
+                return config.classpath + "|" + config.code.autoImport
+                        + "|" + config.code.lineBase + "|" + config.code.columnBase + "|" + config.code.indentation + "|" + config.code.target
+                        + "|" + config.code.nonnullCheck + "|" + config.code.optimize;
+        }
 
-                for (final Set<STypeDef> toGen : toGenerate) {
-                        Thread t = new Thread(new Runnable() {
-                                @Override
-                                public void run() {
-                                        CodeGenerator codeGenerator = new CodeGenerator(toGen, processor.getTypes());
-                                        byteCodes.putAll(codeGenerator.generate());
-                                }
-                        });
-                        threads.add(t);
-                        t.start();
+        private boolean classFilesExist(Set<String> classes) {
+                for (String className : classes) {
+                        if (!IncrementalCache.classFile(config.result.outputDir, className).isFile()) return false;
                 }
+                return true;
+        }
 
-                for (Thread t : threads) {
-                        t.join();
+        private void deleteClassFiles(Set<String> classes) throws IOException {
+                for (String className : classes) {
+                        File f = IncrementalCache.classFile(config.result.outputDir, className);
+                        if (f.exists() && !f.delete()) throw new IOException("cannot delete file " + f);
                 }
+        }
 
-                // codes are generated
-                ClassLoader loader = new ClassLoader(classPathLoader) {
-                        @Override
-                        protected Class<?> findClass(String name) throws ClassNotFoundException {
-                                if (byteCodes.containsKey(name)) {
-                                        byte[] bytes = byteCodes.get(name);
-                                        if (bytes == null) throw new ClassNotFoundException(name);
-                                        return defineClass(name, bytes, 0, bytes.length);
-                                } else throw new ClassNotFoundException(name);
+        private static String readAll(Reader reader) throws IOException {
+                StringBuilder sb = new StringBuilder();
+                char[] buf = new char[4096];
+                int n;
+                try {
+                        while ((n = reader.read(buf)) != -1) {
+                                sb.append(buf, 0, n);
                         }
-                };
+                } finally {
+                        reader.close();
+                }
+                return sb.toString();
+        }
+
+        /**
+         * scan, parse, do semantic analysis and generate byte codes for the given input
+         *
+         * @param input       fileName =&gt; reader
+         * @param classLoader the class loader to retrieve existing classes
+         * @param classToFile (nullable) filled with class name =&gt; the file defining the class
+         * @param imports     (nullable) filled with fileName =&gt; imports of the file
+         * @param write       write class files into the output directory as soon as they are generated
+         * @param release     release the byte code after it's written
+         * @param jar         (nullable) the jar which the classes are put into
+         * @return class name =&gt; byte code. the byte code is null if it's released
+         * @throws Exception the exception occurred when compiling
+         */
+        private Map<String, byte[]> generate(Map<String, Reader> input, ClassLoader classLoader,
+                                             Map<String, String> classToFile,
+                                             Map<String, List<Import>> imports,
+                                             boolean write, boolean release,
+                                             ClassOutput.Jar jar) throws Exception {
+                // construct thread pool for scanners and parsers
+                ExecutorService scannerPool = Executors.newFixedThreadPool(config.threads.scanner);
+                ExecutorService parserPool = Executors.newFixedThreadPool(config.threads.parser);
+
+                final ErrorManager errorManager = new ErrorManager(config.fastFail);
+                errorManager.out = config.out;
+
+                Properties properties = new Properties();
+                properties._COLUMN_BASE_ = config.code.columnBase;
+                properties._LINE_BASE_ = config.code.lineBase;
 
-                if (config.result.outputDir != null) {
-                        // the jar file
-                        ZipOutputStream zipOutputStream = null;
-                        if (config.result.pkg != null) {
-                                String name = config.result.pkg;
-                                if (!name.endsWith(".jar")) {
-                                        name += ".jar";
+                // scan -> parse pipeline
+                // a file is handed to the parser pool as soon as its scanning finishes
+                // and its statements are collected as soon as its parsing finishes
+                // a large file is split into chunks, each chunk is scanned and parsed in the parser pool
+                CompletionService<FileRoot> scanCompletion = new ExecutorCompletionService<FileRoot>(scannerPool);
+                CompletionService<Parsed> parseCompletion = new ExecutorCompletionService<Parsed>(parserPool);
+                Map<String, List<Statement>> parseRes = new HashMap<String, List<Statement>>();
+                Map<String, FileRoot> splitFiles = new HashMap<String, FileRoot>();
+                Map<String, Parsed[]> parsedChunks = new HashMap<String, Parsed[]>();
+
+                try {
+                        for (Map.Entry<String, Reader> entry : input.entrySet()) {
+                                scanCompletion.submit(new Scan(entry.getKey(), entry.getValue(), properties, errorManager, config.threads.parser > 1));
+                        }
+                        int parsing = 0;
+                        for (int i = 0; i < input.size(); ++i) {
+                                FileRoot root;
+                                try {
+                                        root = scanCompletion.take().get();
+                                } catch (ExecutionException e) {
+                                        throw unwrap(e);
                                 }
-                                File jarPath = new File(config.result.outputDir.getAbsolutePath() + File.separator + name);
-                                if (!jarPath.exists()) //noinspection ResultOfMethodCallIgnored
-                                        jarPath.createNewFile();
-                                zipOutputStream = new ZipOutputStream(new FileOutputStream(jarPath));
-                        }
-
-                        for (Map.Entry<String, byte[]> result : byteCodes.entrySet()) {
-                                String className = result.getKey();
-                                byte[] bytes = result.getValue();
-
-                                File outputDir = config.result.outputDir;
-
-                                // the root dir
-                                String dir = outputDir.getAbsolutePath();
-                                // the sub directory relevant to root
-                                String theDir = (className.contains(".") ? className.substring(0, className.lastIndexOf('.')).replace(".", "/") : "");
-                                // the file
-                                File path = new File(dir + File.separator + (File.separator.equals("/") ? theDir : theDir.replace("/", File.separator)));
-                                if (!path.exists())
-                                        if (!path.mkdirs()) throw new IOException("cannot create directory " + path);
-
-                                // simple name
-                                String simpleName = (className.contains(".") ? className.substring(className.lastIndexOf('.') + 1) : className) + ".class";
-                                File newFile = new File(path.getAbsolutePath() + File.separator + simpleName);
-                                if (!newFile.exists()) if (!newFile.createNewFile())
-                                        throw new IOException("cannot create file " + newFile);
-
-                                FileOutputStream fos = new FileOutputStream(newFile);
-                                fos.write(bytes);
-
-                                // classes in jar file
-                                if (zipOutputStream != null) {
-                                        putZipEntry(zipOutputStream, theDir.isEmpty() ? simpleName : (theDir + "/" + simpleName), bytes);
+                                if (root.chunks == null) {
+                                        parseCompletion.submit(new Parse(root.fileName, root.root, errorManager));
+                                        ++parsing;
+                                } else {
+                                        splitFiles.put(root.fileName, root);
+                                        parsedChunks.put(root.fileName, new Parsed[root.chunks.size()]);
+                                        for (int c = 0; c < root.chunks.size(); ++c) {
+                                                parseCompletion.submit(new ParseChunk(root.fileName, c, root.chunks.get(c), properties));
+                                                ++parsing;
+                                        }
+                                }
+                        }
+                        for (int i = 0; i < parsing; ++i) {
+                                Parsed parsed;
+                                try {
+                                        parsed = parseCompletion.take().get();
+                                } catch (ExecutionException e) {
+                                        throw unwrap(e);
+                                }
+                                if (parsed.chunk == -1) {
+                                        parseRes.put(parsed.fileName, parsed.statements);
+                                } else {
+                                        parsedChunks.get(parsed.fileName)[parsed.chunk] = parsed;
                                 }
-
-                                fos.close();
                         }
+                } finally {
+                        scannerPool.shutdownNow();
+                        parserPool.shutdownNow();
+                }
 
-                        // manifest.mf
-                        if (zipOutputStream != null) {
-                                zipOutputStream.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+                for (Map.Entry<String, Parsed[]> entry : parsedChunks.entrySet()) {
+                        String fileName = entry.getKey();
+                        List<Statement> statements = joinChunks(entry.getValue());
+                        if (statements == null) {
+                                // the chunks cannot be joined, scan and parse the whole file again
+                                FileRoot root = new Scan(fileName, new StringReader(splitFiles.get(fileName).text), properties, errorManager, false).call();
+                                statements = new Parse(fileName, root.root, errorManager).call().statements;
+                        }
+                        parseRes.put(fileName, statements);
+                }
+                splitFiles.clear();
+                parsedChunks.clear();
 
-                                String MANIFEST = "" +
-                                        "Manifest-Version: 1.0\n" +
-                                        "Created-By: Latte lang Compiler\n";
-                                if (config.result.main != null) {
-                                        MANIFEST += "Main-Class: " + config.result.main.replace("::", ".") + "\n";
-                                }
-                                zipOutputStream.write((MANIFEST).getBytes());
-                                zipOutputStream.closeEntry();
+                // all parsing finished
 
-                                // add the libraries
-                                if (config.result.with_lib) {
-                                        InputStream classesInputStream = Compiler.class.getClassLoader().getResourceAsStream("classes.txt");
+                if (!errorManager.errorList.isEmpty()) {
+                        throw new Wrapper(errorManager.errorList);
+                }
 
-                                        if (classesInputStream != null) {
-                                                BufferedReader br = new BufferedReader(
-                                                        new InputStreamReader(classesInputStream));
+                final SemanticProcessor processor = new SemanticProcessor(parseRes, classLoader, errorManager);
+                processor.releaseStatements = config.lowMemory;
+                processor.metrics = metrics();
+                processor.target = config.code.target;
+                processor.nonnullCheck = config.code.nonnullCheck;
+                Set<STypeDef> types;
+                if (typeCache == null) {
+                        types = processor.parse();
+                } else {
+                        typeCache.fill(processor);
+                        boolean succeeded = false;
+                        try {
+                                types = processor.parse();
+                                succeeded = true;
+                        } finally {
+                                typeCache.release(processor, succeeded);
+                        }
+                }
+                if (imports != null) {
+                        imports.putAll(processor.fileNameToImport);
+                }
 
-                                                List<String> CLASSES = new ArrayList<String>();
+                if (config.code.optimize) {
+                        CompilerMetrics.Timer timer = metrics().start("optimize", null);
+                        new Optimizer(types).optimize();
+                        timer.stop();
+                }
 
-                                                String CLASS;
-                                                while ((CLASS = br.readLine()) != null) {
-                                                        if (CLASS.trim().isEmpty()) continue;
-                                                        CLASSES.add(CLASS);
-                                                }
+                // code gen
+                // each type is generated independently, the pool balances the work between threads
+                ExecutorService codeGenPool = Executors.newFixedThreadPool(config.threads.codeGen);
+                List<Future<Map<String, byte[]>>> futures = new ArrayList<Future<Map<String, byte[]>>>(types.size());
+                // common super classes resolved when computing frames are shared by all types
+                Map<String, String> commonSuperClasses = new ConcurrentHashMap<String, String>();
 
-                                                Collections.sort(CLASSES);
+                Map<String, byte[]> byteCodes = new HashMap<String, byte[]>();
 
-                                                for (String C : CLASSES) {
-                                                        InputStream is = Compiler.class.getClassLoader().getResourceAsStream(C);
-                                                        ByteArrayOutputStream baos = new ByteArrayOutputStream(1024);
-                                                        byte[] bs = new byte[1024];
-                                                        int n;
-                                                        while ((n = is.read(bs)) != -1) {
-                                                                baos.write(bs, 0, n);
-                                                        }
-                                                        putZipEntry(zipOutputStream, C, baos.toByteArray());
-                                                }
+                try {
+                        for (STypeDef type : types) {
+                                futures.add(codeGenPool.submit(new CodeGen(type, processor.getTypes(), commonSuperClasses, write)));
+                        }
+                        // results are taken in submission order, so jar entries are written
+                        // while the remaining types are being generated, and the jar doesn't depend on timing
+                        for (Future<Map<String, byte[]>> f : futures) {
+                                Map<String, byte[]> result;
+                                try {
+                                        result = f.get();
+                                } catch (ExecutionException e) {
+                                        throw unwrap(e);
+                                }
+                                for (Map.Entry<String, byte[]> entry : result.entrySet()) {
+                                        if (jar != null) {
+                                                jar.putClass(entry.getKey(), entry.getValue());
+                                        }
+                                        if (release) {
+                                                entry.setValue(null);
                                         }
                                 }
+                                byteCodes.putAll(result);
+                        }
+                } finally {
+                        codeGenPool.shutdown();
+                }
 
-                                List<String> requireFiles = new ArrayList<String>(Arrays.asList("classes.txt", "build.lts.template", "run.lts.template"));
-                                if (Compiler.class.getClassLoader().getResourceAsStream("lib-classes.txt") != null) {
-                                        requireFiles.add("lib-classes.txt");
+                if (classToFile != null) {
+                        List<String> synthetic = new ArrayList<String>();
+                        for (STypeDef type : types) {
+                                if (type.line_col().fileName == null) {
+                                        synthetic.add(type.fullName());
+                                } else {
+                                        classToFile.put(type.fullName(), type.line_col().fileName);
                                 }
-                                // add required files
-                                for (String f : requireFiles) {
-                                        InputStream is = Compiler.class.getClassLoader().getResourceAsStream(f);
-                                        if (is != null) {
-                                                ByteArrayOutputStream baos = new ByteArrayOutputStream(1024);
-                                                byte[] bs = new byte[1024];
-                                                int n;
-                                                while ((n = is.read(bs)) != -1) {
-                                                        baos.write(bs, 0, n);
-                                                }
-                                                putZipEntry(zipOutputStream, f, baos.toByteArray());
-                                        }
+                        }
+                        // synthetic classes (e.g. lambda classes) belong to the file of their enclosing class
+                        for (String className : synthetic) {
+                                String enclosing = className;
+                                while (!classToFile.containsKey(enclosing) && enclosing.contains("$")) {
+                                        enclosing = enclosing.substring(0, enclosing.lastIndexOf('$'));
                                 }
-
-                                zipOutputStream.close();
+                                classToFile.put(className, classToFile.get(enclosing));
                         }
                 }
 
-                return loader;
+                return byteCodes;
         }
 
         /**
-         * put the zip entry into the zip output stream
+         * retrieve the exception thrown by a compiling task
          *
-         * @param zos   ZipOutputStream
-         * @param file  the entry name
-         * @param bytes bytes
-         * @throws IOException exception
+         * @param e the exception thrown by {@link Future#get()}
+         * @return the cause
          */
-        private void putZipEntry(ZipOutputStream zos, String file, byte[] bytes) throws IOException {
-                zos.putNextEntry(new ZipEntry(file));
-                zos.write(bytes);
-                zos.closeEntry();
+        private static Exception unwrap(ExecutionException e) {
+                Throwable t = e.getCause();
+                if (t instanceof Error) throw (Error) t;
+                return (Exception) t;
+        }
+
+        /**
+         * join statements of the chunks
+         *
+         * @param chunks parsed chunks
+         * @return statements of the file, or null if the chunks are not scanned or parsed the same way as the whole file
+         */
+        private static List<Statement> joinChunks(Parsed[] chunks) {
+                for (int i = 0; i < chunks.length; ++i) {
+                        Parsed parsed = chunks[i];
+                        // the errors are reported when scanning and parsing the whole file
+                        if (parsed.statements == null || !parsed.err.errorList.isEmpty()) return null;
+                        if (i != chunks.length - 1 && !parsed.leavesNoState) return null;
+                }
+                List<Statement> statements = new ArrayList<Statement>();
+                for (Parsed parsed : chunks) {
+                        statements.addAll(parsed.statements);
+                }
+                return statements;
         }
 
         private class FileRoot {
                 public String fileName;
                 public ElementStartNode root;
+                /**
+                 * the source text, only set when the file is split
+                 */
+                public String text;
+                /**
+                 * chunks of the file, or null if the file is not split
+                 */
+                public List<SourceSplitter.Chunk> chunks;
+        }
+
+        private class Parsed {
+                public String fileName;
+                /**
+                 * index of the chunk, or -1 if it's the whole file
+                 */
+                public int chunk = -1;
+                /**
+                 * parsed statements, null if failed to scan or parse the chunk
+                 */
+                public List<Statement> statements;
+                /**
+                 * the error manager used by the chunk
+                 */
+                public ErrorManager err;
+                /**
+                 * the parser leaves no state for the following chunks
+                 */
+                public boolean leavesNoState;
         }
 
         private class Scan implements Callable<FileRoot> {
@@ -749,25 +1120,47 @@ public class Compiler {
                 private final Reader reader;
                 private final Properties properties;
                 private final ErrorManager err;
+                private final boolean split;
 
-                private Scan(String fileName, Reader reader, Properties properties, ErrorManager err) {
+                private Scan(String fileName, Reader reader, Properties properties, ErrorManager err, boolean split) {
                         this.fileName = fileName;
                         this.reader = reader;
                         this.properties = properties;
                         this.err = err;
+                        this.split = split;
                 }
 
                 @Override
                 public FileRoot call() throws Exception {
-                        Scanner scanner = new ScannerSwitcher(fileName, reader, properties, err);
+                        CompilerMetrics.Timer timer = metrics().start("scan", fileName);
+                        try {
+                                return scan();
+                        } finally {
+                                timer.stop();
+                        }
+                }
+
+                private FileRoot scan() throws Exception {
                         FileRoot fileRoot = new FileRoot();
                         fileRoot.fileName = fileName;
+                        String text = readAll(reader);
+                        // lines for diagnostics are retrieved from the text when required
+                        err.putLineSource(fileName, ErrorManager.textLineSource(text, properties._LINE_BASE_));
+                        if (split) {
+                                List<SourceSplitter.Chunk> chunks = SourceSplitter.split(text, config.threads.parser, SPLIT_MIN_LINES);
+                                if (chunks.size() > 1) {
+                                        fileRoot.text = text;
+                                        fileRoot.chunks = chunks;
+                                        return fileRoot;
+                                }
+                        }
+                        Scanner scanner = new ScannerSwitcher(fileName, new StringReader(text), properties, err);
                         fileRoot.root = scanner.scan();
                         return fileRoot;
                 }
         }
 
-        private class Parse implements Callable<Map<String, List<Statement>>> {
+        private class Parse implements Callable<Parsed> {
                 private final String fileName;
                 private final ElementStartNode root;
                 private final ErrorManager err;
@@ -781,14 +1174,102 @@ public class Compiler {
                 }
 
                 @Override
-                public Map<String, List<Statement>> call() throws Exception {
-                        Parser parser = new Parser(root, err);
-                        Map<String, List<Statement>> resultMap = new HashMap<String, List<Statement>>();
-                        resultMap.put(
-                                fileName,
-                                parser.parse()
-                        );
-                        return resultMap;
+                public Parsed call() throws Exception {
+                        CompilerMetrics.Timer timer = metrics().start("parse", fileName);
+                        try {
+                                Parser parser = new Parser(root, err);
+                                Parsed parsed = new Parsed();
+                                parsed.fileName = fileName;
+                                parsed.statements = parser.parse();
+                                return parsed;
+                        } finally {
+                                timer.stop();
+                        }
+                }
+        }
+
+        /**
+         * scan and parse a chunk of a file. the chunk uses its own error manager, and the errors are
+         * reported when scanning and parsing the whole file again
+         */
+        private class ParseChunk implements Callable<Parsed> {
+                private final String fileName;
+                private final int index;
+                private final SourceSplitter.Chunk chunk;
+                private final Properties properties;
+
+                private ParseChunk(String fileName, int index, SourceSplitter.Chunk chunk, Properties properties) {
+                        this.fileName = fileName;
+                        this.index = index;
+                        this.chunk = chunk;
+                        this.properties = properties;
+                }
+
+                @Override
+                public Parsed call() throws Exception {
+                        Parsed parsed = new Parsed();
+                        parsed.fileName = fileName;
+                        parsed.chunk = index;
+                        parsed.err = new ErrorManager(false);
+                        parsed.err.out = ErrorManager.Out.allNull();
+
+                        Properties chunkProperties = new Properties();
+                        chunkProperties._LINE_BASE_ = properties._LINE_BASE_ + chunk.lineOffset;
+                        chunkProperties._COLUMN_BASE_ = properties._COLUMN_BASE_;
+                        parsed.err.putLineSource(fileName, ErrorManager.textLineSource(chunk.text, chunkProperties._LINE_BASE_));
+                        CompilerMetrics.Timer timer = metrics().start("scan", fileName);
+                        try {
+                                Scanner scanner = new ScannerSwitcher(fileName, new StringReader(chunk.text), chunkProperties, parsed.err);
+                                ElementStartNode root = scanner.scan();
+                                timer.stop();
+                                timer = metrics().start("parse", fileName);
+                                Parser parser = new Parser(root, parsed.err);
+                                parsed.statements = parser.parse();
+                                parsed.leavesNoState = parser.leavesNoState();
+                        } catch (Exception ignore) {
+                                // the chunk cannot be parsed alone
+                                parsed.statements = null;
+                        } finally {
+                                timer.stop();
+                        }
+                        return parsed;
+                }
+        }
+
+        private class CodeGen implements Callable<Map<String, byte[]>> {
+                private final STypeDef type;
+                private final Map<String, STypeDef> typeDefMap;
+                private final Map<String, String> commonSuperClasses;
+                private final boolean write;
+
+                private CodeGen(STypeDef type, Map<String, STypeDef> typeDefMap, Map<String, String> commonSuperClasses, boolean write) {
+                        this.type = type;
+                        this.typeDefMap = typeDefMap;
+                        this.commonSuperClasses = commonSuperClasses;
+                        this.write = write;
+                }
+
+                @Override
+                public Map<String, byte[]> call() throws Exception {
+                        CompilerMetrics metrics = metrics();
+                        String fileName = type.line_col().fileName;
+                        CompilerMetrics.Timer timer = metrics.start("codeGen", fileName);
+                        CodeGenerator codeGenerator = new CodeGenerator(Collections.singleton(type), typeDefMap, commonSuperClasses);
+                        codeGenerator.metrics = metrics;
+                        codeGenerator.target = config.code.target;
+                        Map<String, byte[]> result = codeGenerator.generate();
+                        timer.stop();
+                        metrics.count("classes", result.size());
+                        if (write) {
+                                timer = metrics.start("write", fileName);
+                                for (Map.Entry<String, byte[]> entry : result.entrySet()) {
+                                        if (!ClassOutput.writeClassFile(config.result.outputDir, entry.getKey(), entry.getValue())) {
+                                                metrics.count("unchangedClassFiles", 1);
+                                        }
+                                }
+                                timer.stop();
+                        }
+                        return result;
                 }
         }
 }
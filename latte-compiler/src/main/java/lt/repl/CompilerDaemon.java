@@ -0,0 +1,515 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 KuiGang Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package lt.repl;
+
+import lt.compiler.LineCol;
+import lt.compiler.PackageIndex;
+import lt.compiler.SyntaxException;
+import lt.compiler.TypeMetadataCache;
+
+import java.io.*;
+import java.net.*;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * a long-lived compiler process.<br>
+ * the daemon listens on a loopback port and compiles sources with {@link Compiler}.
+ * it keeps one {@link TypeCache} for each class-path, so types imported from the
+ * class-path are built only once across requests, and the compiler code stays JIT-warm.<br>
+ * the port and a secret are written into <code>~/.latte/compiler-daemon</code>, clients
+ * read the file to find the daemon, see {@link #compile(Map, List, File, boolean)}.<br>
+ * a request starts with the build id and the secret, and nothing else is read before they are checked.
+ * clients built from a different compiler fall back to compiling locally.
+ * requests and responses only contain strings, string lists and string maps.
+ */
+public class CompilerDaemon {
+        /**
+         * the file recording port and secret of the running daemon
+         */
+        public static final File DAEMON_FILE = new File(System.getProperty("user.home") + File.separator + ".latte" + File.separator + "compiler-daemon");
+        /**
+         * identifies the request format and the compiler build. the daemon only serves clients with the same id
+         */
+        static final String BUILD_ID = "1:" + codeStamp();
+        /**
+         * max count of class-paths whose types are cached
+         */
+        private static final int MAX_CACHES = 8;
+        /**
+         * max length of the secret sent by clients
+         */
+        private static final int MAX_SECRET_LENGTH = 256;
+        /**
+         * max length of other strings in requests and responses
+         */
+        private static final int MAX_STRING_LENGTH = 64 * 1024 * 1024;
+
+        private final ServerSocket serverSocket;
+        final String secret;
+        private final ClassLoader baseLoader;
+        private final ExecutorService pool = Executors.newCachedThreadPool();
+        private final Map<String, TypeCache> caches = new LinkedHashMap<String, TypeCache>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, TypeCache> eldest) {
+                        return size() > MAX_CACHES;
+                }
+        };
+        private volatile boolean stopped = false;
+
+        /**
+         * create the daemon
+         *
+         * @param port the port to listen, 0 means any free port
+         * @throws IOException exception
+         */
+        public CompilerDaemon(int port) throws IOException {
+                this.serverSocket = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));
+                this.secret = new BigInteger(130, new SecureRandom()).toString(32);
+                this.baseLoader = Thread.currentThread().getContextClassLoader();
+        }
+
+        /**
+         * @return length and last modified time of the jar or class file containing the compiler
+         */
+        private static String codeStamp() {
+                try {
+                        URL location = CompilerDaemon.class.getProtectionDomain().getCodeSource().getLocation();
+                        File f = new File(location.toURI());
+                        if (f.isDirectory()) {
+                                f = new File(f, CompilerDaemon.class.getName().replace('.', File.separatorChar) + ".class");
+                        }
+                        return f.length() + "," + f.lastModified();
+                } catch (Exception e) {
+                        return "unknown";
+                }
+        }
+
+        public int getPort() {
+                return serverSocket.getLocalPort();
+        }
+
+        /**
+         * record the port and secret, then handle requests until stopped
+         *
+         * @throws IOException exception
+         */
+        public void serve() throws IOException {
+                File dir = DAEMON_FILE.getParentFile();
+                if (!dir.exists() && !dir.mkdirs()) throw new IOException("cannot create directory " + dir);
+                // create the file and make it owner-only before the secret is written
+                if (DAEMON_FILE.exists() && !DAEMON_FILE.delete()) throw new IOException("cannot delete " + DAEMON_FILE);
+                if (!DAEMON_FILE.createNewFile()) throw new IOException("cannot create " + DAEMON_FILE);
+                if (!DAEMON_FILE.setReadable(false, false) || !DAEMON_FILE.setWritable(false, false)
+                        || !DAEMON_FILE.setReadable(true, true) || !DAEMON_FILE.setWritable(true, true)) {
+                        //noinspection ResultOfMethodCallIgnored
+                        DAEMON_FILE.delete();
+                        throw new IOException("cannot restrict the permissions of " + DAEMON_FILE);
+                }
+                Writer w = new OutputStreamWriter(new FileOutputStream(DAEMON_FILE), "UTF-8");
+                try {
+                        w.write(getPort() + "\n" + secret + "\n");
+                } finally {
+                        w.close();
+                }
+                Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                                removeDaemonFile();
+                        }
+                }));
+
+                try {
+                        while (!stopped) {
+                                final Socket socket;
+                                try {
+                                        socket = serverSocket.accept();
+                                } catch (SocketException e) {
+                                        if (stopped) break;
+                                        throw e;
+                                }
+                                pool.execute(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                                try {
+                                                        try {
+                                                                handle(socket.getInputStream(), socket.getOutputStream());
+                                                        } finally {
+                                                                socket.close();
+                                                        }
+                                                } catch (Exception e) {
+                                                        e.printStackTrace();
+                                                }
+                                        }
+                                });
+                        }
+                } finally {
+                        pool.shutdown();
+                        removeDaemonFile();
+                }
+        }
+
+        /**
+         * stop the daemon
+         */
+        public void stop() {
+                stopped = true;
+                try {
+                        serverSocket.close();
+                } catch (IOException ignore) {
+                }
+        }
+
+        private void removeDaemonFile() {
+                // only remove the file written by this daemon
+                try {
+                        String[] portAndSecret = readDaemonFile();
+                        if (portAndSecret != null && secret.equals(portAndSecret[1])) {
+                                //noinspection ResultOfMethodCallIgnored
+                                DAEMON_FILE.delete();
+                        }
+                } catch (IOException ignore) {
+                }
+        }
+
+        /**
+         * handle one request. the build id and the secret are checked before the rest of the request is read
+         *
+         * @param input  request
+         * @param output response
+         * @throws IOException exception
+         */
+        void handle(InputStream input, OutputStream output) throws IOException {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+                String clientBuildId = readString(in, MAX_SECRET_LENGTH);
+                if (!BUILD_ID.equals(clientBuildId)) {
+                        writeResponse(out, "", new BuildMismatchException(BUILD_ID));
+                        return;
+                }
+                String clientSecret = readString(in, MAX_SECRET_LENGTH);
+                if (clientSecret == null || !MessageDigest.isEqual(secret.getBytes("UTF-8"), clientSecret.getBytes("UTF-8"))) {
+                        writeResponse(out, "", new SecurityException("invalid secret"));
+                        return;
+                }
+                String command = readString(in, MAX_STRING_LENGTH);
+                if ("stop".equals(command)) {
+                        stop();
+                        writeResponse(out, "", null);
+                } else if ("compile".equals(command)) {
+                        Map<String, String> sources = readStringMap(in);
+                        List<String> classpath = readStringList(in);
+                        String outputDir = readString(in, MAX_STRING_LENGTH);
+                        boolean fastFail = in.readBoolean();
+                        compile(sources, classpath, outputDir, fastFail, out);
+                } else {
+                        writeResponse(out, "", new IllegalArgumentException("unknown command " + command));
+                }
+        }
+
+        private void compile(Map<String, String> sourcePaths, List<String> urls, String outputDir, boolean fastFail,
+                             DataOutputStream out) throws IOException {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                PrintStream ps = new PrintStream(output, true);
+                Throwable error = null;
+                try {
+                        List<URL> classpath = new ArrayList<URL>();
+                        for (String url : urls) {
+                                classpath.add(new URL(url));
+                        }
+                        Map<String, File> sources = new HashMap<String, File>();
+                        for (Map.Entry<String, String> entry : sourcePaths.entrySet()) {
+                                sources.put(entry.getKey(), new File(entry.getValue()));
+                        }
+
+                        Compiler compiler = new Compiler(baseLoader);
+                        compiler.config.classpath = classpath;
+                        compiler.config.fastFail = fastFail;
+                        compiler.config.result.outputDir = new File(outputDir);
+                        compiler.config.out.info = ps;
+                        compiler.config.out.warn = ps;
+                        compiler.config.out.err = ps;
+
+                        TypeCache cache = typeCache(classpath);
+                        synchronized (cache) {
+                                compiler.typeCache = cache;
+                                compiler.compile(sources);
+                        }
+                } catch (Throwable t) {
+                        error = t;
+                }
+                // the daemon may be killed instead of exiting normally
+                TypeMetadataCache.saveAll();
+                ps.flush();
+                writeResponse(out, output.toString(), error);
+        }
+
+        private TypeCache typeCache(List<URL> classpath) throws Exception {
+                String key = TypeCache.keyOf(classpath);
+                synchronized (caches) {
+                        TypeCache cache = caches.get(key);
+                        if (cache == null) {
+                                cache = new TypeCache(baseLoader, classpath);
+                                caches.put(key, cache);
+                        }
+                        return cache;
+                }
+        }
+
+        /**
+         * write the response: output, then the error (class name and message, or null).
+         * the position of a {@link SyntaxException} is written as well
+         *
+         * @param out    output
+         * @param output messages printed when compiling
+         * @param error  the error, may be null
+         * @throws IOException exception
+         */
+        private static void writeResponse(DataOutputStream out, String output, Throwable error) throws IOException {
+                writeString(out, output);
+                if (error == null) {
+                        writeString(out, null);
+                } else if (error instanceof SyntaxException) {
+                        SyntaxException se = (SyntaxException) error;
+                        writeString(out, SyntaxException.class.getName());
+                        writeString(out, se.lineMsg);
+                        writeString(out, se.msg);
+                        writeString(out, se.lineCol.fileName);
+                        out.writeInt(se.lineCol.line);
+                        out.writeInt(se.lineCol.column);
+                } else {
+                        writeString(out, error.getClass().getName());
+                        writeString(out, error.getMessage());
+                }
+                out.flush();
+        }
+
+        private static Exception readError(DataInputStream in) throws IOException {
+                String type = readString(in, MAX_STRING_LENGTH);
+                if (type == null) return null;
+                if (type.equals(SyntaxException.class.getName())) {
+                        String lineMsg = readString(in, MAX_STRING_LENGTH);
+                        String msg = readString(in, MAX_STRING_LENGTH);
+                        String fileName = readString(in, MAX_STRING_LENGTH);
+                        int line = in.readInt();
+                        int column = in.readInt();
+                        LineCol lineCol = fileName == null && line == 0 && column == 0
+                                ? LineCol.SYNTHETIC
+                                : new LineCol(fileName, line, column);
+                        return new SyntaxException(lineMsg, msg, lineCol);
+                }
+                String message = readString(in, MAX_STRING_LENGTH);
+                if (type.equals(SecurityException.class.getName())) return new SecurityException(message);
+                if (type.equals(BuildMismatchException.class.getName())) return new BuildMismatchException(message);
+                return new Exception(message == null ? type : type + ": " + message);
+        }
+
+        /**
+         * the daemon is built from a different compiler, the message is the build id of the daemon
+         */
+        static class BuildMismatchException extends Exception {
+                BuildMismatchException(String buildId) {
+                        super(buildId);
+                }
+        }
+
+        /**
+         * write a string as its length and UTF-8 bytes, null is written as length -1
+         */
+        private static void writeString(DataOutputStream out, String s) throws IOException {
+                if (s == null) {
+                        out.writeInt(-1);
+                } else {
+                        byte[] bytes = s.getBytes("UTF-8");
+                        out.writeInt(bytes.length);
+                        out.write(bytes);
+                }
+        }
+
+        private static String readString(DataInputStream in, int maxLength) throws IOException {
+                int length = in.readInt();
+                if (length == -1) return null;
+                if (length < 0 || length > maxLength) throw new IOException("invalid string length " + length);
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                return new String(bytes, "UTF-8");
+        }
+
+        private static void writeStringList(DataOutputStream out, List<String> list) throws IOException {
+                out.writeInt(list.size());
+                for (String s : list) {
+                        writeString(out, s);
+                }
+        }
+
+        private static List<String> readStringList(DataInputStream in) throws IOException {
+                int size = in.readInt();
+                if (size < 0) throw new IOException("invalid list size " + size);
+                List<String> list = new ArrayList<String>();
+                for (int i = 0; i < size; ++i) {
+                        list.add(readString(in, MAX_STRING_LENGTH));
+                }
+                return list;
+        }
+
+        private static void writeStringMap(DataOutputStream out, Map<String, String> map) throws IOException {
+                out.writeInt(map.size());
+                for (Map.Entry<String, String> entry : map.entrySet()) {
+                        writeString(out, entry.getKey());
+                        writeString(out, entry.getValue());
+                }
+        }
+
+        private static Map<String, String> readStringMap(DataInputStream in) throws IOException {
+                int size = in.readInt();
+                if (size < 0) throw new IOException("invalid map size " + size);
+                Map<String, String> map = new HashMap<String, String>();
+                for (int i = 0; i < size; ++i) {
+                        String key = readString(in, MAX_STRING_LENGTH);
+                        map.put(key, readString(in, MAX_STRING_LENGTH));
+                }
+                return map;
+        }
+
+        private static String[] readDaemonFile() throws IOException {
+                if (!DAEMON_FILE.isFile()) return null;
+                BufferedReader br = new BufferedReader(new FileReader(DAEMON_FILE));
+                try {
+                        String port = br.readLine();
+                        String secret = br.readLine();
+                        if (port == null || secret == null) return null;
+                        return new String[]{port.trim(), secret.trim()};
+                } finally {
+                        br.close();
+                }
+        }
+
+        /**
+         * send a request to the running daemon
+         *
+         * @param command   command
+         * @param sources   fileName =&gt; source path (compile only)
+         * @param classpath class-path urls (compile only)
+         * @param outputDir output directory (compile only)
+         * @param fastFail  fast fail (compile only)
+         * @return {output, error}, or null if no daemon is running or the daemon is built from a different compiler
+         * @throws IOException exception
+         */
+        private static Object[] request(String command, Map<String, String> sources, List<String> classpath,
+                                        String outputDir, boolean fastFail) throws IOException {
+                String[] portAndSecret = readDaemonFile();
+                if (portAndSecret == null) return null;
+                Socket socket;
+                try {
+                        socket = new Socket(InetAddress.getByName("127.0.0.1"), Integer.parseInt(portAndSecret[0]));
+                } catch (ConnectException e) {
+                        return null;
+                } catch (NumberFormatException e) {
+                        return null;
+                }
+                try {
+                        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                        writeString(out, BUILD_ID);
+                        writeString(out, portAndSecret[1]);
+                        writeString(out, command);
+                        if (command.equals("compile")) {
+                                writeStringMap(out, sources);
+                                writeStringList(out, classpath);
+                                writeString(out, outputDir);
+                                out.writeBoolean(fastFail);
+                        }
+                        out.flush();
+                        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                        String output = readString(in, MAX_STRING_LENGTH);
+                        Exception error = readError(in);
+                        if (error instanceof BuildMismatchException) return null;
+                        return new Object[]{output, error};
+                } finally {
+                        socket.close();
+                }
+        }
+
+        /**
+         * compile with the running daemon
+         *
+         * @param sources   fileName =&gt; source file
+         * @param classpath class-path
+         * @param outputDir output directory
+         * @param fastFail  throw exception immediately when meets a syntax exception
+         * @return false if no compatible daemon is running, true if the daemon compiled the sources
+         * @throws Exception the exception occurred when compiling
+         */
+        public static boolean compile(Map<String, File> sources, List<URL> classpath, File outputDir, boolean fastFail) throws Exception {
+                Map<String, String> sourcePaths = new HashMap<String, String>();
+                for (Map.Entry<String, File> entry : sources.entrySet()) {
+                        sourcePaths.put(entry.getKey(), entry.getValue().getAbsolutePath());
+                }
+                List<String> urls = new ArrayList<String>();
+                for (URL url : classpath) {
+                        urls.add(url.toString());
+                }
+
+                Object[] response = request("compile", sourcePaths, urls, outputDir.getAbsolutePath(), fastFail);
+                if (response == null) return false;
+
+                String output = (String) response[0];
+                if (output != null) System.out.print(output);
+                if (response[1] != null) throw (Exception) response[1];
+                return true;
+        }
+
+        /**
+         * stop the running daemon
+         *
+         * @return false if no compatible daemon is running
+         * @throws Exception exception
+         */
+        public static boolean stopRunning() throws Exception {
+                Object[] response = request("stop", null, null, null, false);
+                if (response == null) return false;
+                if (response[1] != null) throw (Exception) response[1];
+                return true;
+        }
+
+        /**
+         * start the daemon
+         *
+         * @param args [port]
+         * @throws Exception exception
+         */
+        public static void main(String[] args) throws Exception {
+                int port = args.length == 0 ? 0 : Integer.parseInt(args[0]);
+                PackageIndex.setPersistentDirectory(DAEMON_FILE.getParentFile());
+                TypeMetadataCache.setDirectory(new File(DAEMON_FILE.getParentFile(), "types"));
+                CompilerDaemon daemon = new CompilerDaemon(port);
+                System.out.println("Latte compiler daemon listening on 127.0.0.1:" + daemon.getPort());
+                daemon.serve();
+        }
+}
@@ -0,0 +1,475 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 KuiGang Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package lt.repl;
+
+import lt.compiler.SemanticProcessor;
+import lt.compiler.syntactic.AST;
+import lt.compiler.syntactic.pre.Import;
+import lt.dependencies.asm.*;
+
+import java.io.*;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * records the state of the previous build for incremental compiling.<br>
+ * the cache stores for every source file its content hash, the classes generated from it,
+ * the packages it imports, the types its byte code refers to
+ * and a hash of the exported signatures (non-private members) of its classes.
+ */
+class IncrementalCache implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private static final String CACHE_FILE = "files.cache";
+
+        /**
+         * information about one source file
+         */
+        static class FileRecord implements Serializable {
+                private static final long serialVersionUID = 1L;
+                /**
+                 * hash of the source code
+                 */
+                String hash;
+                /**
+                 * package of the file, ends with a dot if it's not empty
+                 */
+                String pkg;
+                /**
+                 * hash of the exported signatures of all classes in this file
+                 */
+                String signature;
+                /**
+                 * names of classes generated from this file
+                 */
+                Set<String> classes = new HashSet<String>();
+                /**
+                 * packages imported by the file (including its own package)
+                 */
+                Set<String> importedPackages = new HashSet<String>();
+                /**
+                 * types referred by the file (imported classes and types referred in byte code)
+                 */
+                Set<String> referredTypes = new HashSet<String>();
+        }
+
+        /**
+         * the settings which the cache was built with. the cache is dropped when settings change
+         */
+        final String settings;
+        /**
+         * file name =&gt; record
+         */
+        final Map<String, FileRecord> files = new HashMap<String, FileRecord>();
+
+        IncrementalCache(String settings) {
+                this.settings = settings;
+        }
+
+        /**
+         * get the cache directory of the output directory
+         *
+         * @param outputDir output directory
+         * @return the directory next to the output directory
+         */
+        static File cacheDirOf(File outputDir) {
+                File abs = outputDir.getAbsoluteFile();
+                return new File(abs.getParentFile(), abs.getName() + ".latte-cache");
+        }
+
+        /**
+         * load the cache
+         *
+         * @param cacheDir cache directory
+         * @param settings current settings
+         * @return the cache, or a new empty cache if not exist/not readable/settings changed
+         */
+        static IncrementalCache load(File cacheDir, String settings) {
+                File f = new File(cacheDir, CACHE_FILE);
+                if (f.isFile()) {
+                        try {
+                                ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(f)));
+                                try {
+                                        IncrementalCache cache = (IncrementalCache) ois.readObject();
+                                        if (settings.equals(cache.settings)) {
+                                                return cache;
+                                        }
+                                } finally {
+                                        ois.close();
+                                }
+                        } catch (Exception ignore) {
+                                // the cache is broken, do a full build
+                        }
+                }
+                return new IncrementalCache(settings);
+        }
+
+        /**
+         * save the cache
+         *
+         * @param cacheDir cache directory
+         * @throws IOException exception
+         */
+        void save(File cacheDir) throws IOException {
+                if (!cacheDir.exists() && !cacheDir.mkdirs())
+                        throw new IOException("cannot create directory " + cacheDir);
+                ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(new File(cacheDir, CACHE_FILE))));
+                try {
+                        oos.writeObject(this);
+                } finally {
+                        oos.close();
+                }
+        }
+
+        /**
+         * get the file which generated the class
+         *
+         * @return class name =&gt; file name
+         */
+        Map<String, String> classToFile() {
+                Map<String, String> map = new HashMap<String, String>();
+                for (Map.Entry<String, FileRecord> entry : files.entrySet()) {
+                        for (String c : entry.getValue().classes) {
+                                map.put(c, entry.getKey());
+                        }
+                }
+                return map;
+        }
+
+        /**
+         * find files that should be recompiled because the signatures of the given files changed
+         *
+         * @param changed       files whose signatures changed
+         * @param changedPkgs   packages of the changed files
+         * @param changedTypes  classes defined (or previously defined) by the changed files
+         * @return files depending on the changed ones
+         */
+        Set<String> dependentsOf(Set<String> changed, Set<String> changedPkgs, Set<String> changedTypes) {
+                Set<String> result = new HashSet<String>();
+                for (Map.Entry<String, FileRecord> entry : files.entrySet()) {
+                        if (changed.contains(entry.getKey())) continue;
+                        FileRecord record = entry.getValue();
+                        if (!Collections.disjoint(record.importedPackages, changedPkgs)
+                                || !Collections.disjoint(record.referredTypes, changedTypes)) {
+                                result.add(entry.getKey());
+                        }
+                }
+                return result;
+        }
+
+        /**
+         * sha-1 of the source code
+         *
+         * @param content the content
+         * @return hex string
+         */
+        static String hash(String content) {
+                try {
+                        return SemanticProcessor.byte2hex(MessageDigest.getInstance("SHA-1").digest(content.getBytes("UTF-8")));
+                } catch (NoSuchAlgorithmException e) {
+                        throw new RuntimeException(e);
+                } catch (UnsupportedEncodingException e) {
+                        throw new RuntimeException(e);
+                }
+        }
+
+        /**
+         * record package and imports of a file
+         *
+         * @param record  the record to fill
+         * @param imports imports retrieved by the semantic processor, the first one is the package of the file
+         */
+        static void recordImports(FileRecord record, List<Import> imports) {
+                for (Import i : imports) {
+                        if (i.pkg != null) {
+                                String pkg = i.pkg.pkg.isEmpty() ? "" : i.pkg.pkg.replace("::", ".") + ".";
+                                if (record.importedPackages.isEmpty()) record.pkg = pkg;
+                                record.importedPackages.add(pkg);
+                        } else if (i.access != null) {
+                                String name = accessToClassName(i.access);
+                                if (name != null) record.referredTypes.add(name);
+                        }
+                }
+        }
+
+        private static String accessToClassName(AST.Access access) {
+                if (access.exp == null) return access.name;
+                if (access.exp instanceof AST.PackageRef) {
+                        return ((AST.PackageRef) access.exp).pkg.replace("::", ".") + "." + access.name;
+                }
+                if (access.exp instanceof AST.Access) {
+                        String outer = accessToClassName((AST.Access) access.exp);
+                        return outer == null ? null : outer + "$" + access.name;
+                }
+                return null;
+        }
+
+        /**
+         * record types referred in the byte code (super types, member descriptors and instructions)
+         *
+         * @param record the record to fill
+         * @param bytes  class file
+         */
+        static void recordReferredTypes(FileRecord record, byte[] bytes) {
+                final Set<String> types = record.referredTypes;
+                final MethodVisitor methodVisitor = new MethodVisitor(Opcodes.ASM5) {
+                        @Override
+                        public void visitTypeInsn(int opcode, String type) {
+                                addType(types, Type.getObjectType(type));
+                        }
+
+                        @Override
+                        public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+                                addType(types, Type.getObjectType(owner));
+                                addType(types, Type.getType(desc));
+                        }
+
+                        @Override
+                        public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+                                addType(types, Type.getObjectType(owner));
+                                addMethodDesc(types, desc);
+                        }
+
+                        @Override
+                        public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) {
+                                addMethodDesc(types, desc);
+                        }
+
+                        @Override
+                        public void visitLdcInsn(Object cst) {
+                                if (cst instanceof Type) addType(types, (Type) cst);
+                        }
+
+                        @Override
+                        public void visitMultiANewArrayInsn(String desc, int dims) {
+                                addType(types, Type.getType(desc));
+                        }
+
+                        @Override
+                        public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+                                if (type != null) addType(types, Type.getObjectType(type));
+                        }
+                };
+                new ClassReader(bytes).accept(new ClassVisitor(Opcodes.ASM5) {
+                        @Override
+                        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+                                if (superName != null) addType(types, Type.getObjectType(superName));
+                                for (String i : interfaces) addType(types, Type.getObjectType(i));
+                        }
+
+                        @Override
+                        public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+                                addType(types, Type.getType(desc));
+                                return null;
+                        }
+
+                        @Override
+                        public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+                                addType(types, Type.getType(desc));
+                                return null;
+                        }
+
+                        @Override
+                        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                                addMethodDesc(types, desc);
+                                return methodVisitor;
+                        }
+                }, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        }
+
+        private static void addMethodDesc(Set<String> types, String desc) {
+                addType(types, Type.getReturnType(desc));
+                for (Type t : Type.getArgumentTypes(desc)) {
+                        addType(types, t);
+                }
+        }
+
+        private static void addType(Set<String> types, Type type) {
+                if (type.getSort() == Type.ARRAY) type = type.getElementType();
+                if (type.getSort() == Type.OBJECT) types.add(type.getClassName());
+        }
+
+        /**
+         * compute the hash of exported signatures. private members and method bodies are ignored
+         *
+         * @param classes class files of one source file
+         * @return hex string
+         */
+        static String signature(Collection<byte[]> classes) {
+                List<String> lines = new ArrayList<String>();
+                for (byte[] bytes : classes) {
+                        final List<String> sig = new ArrayList<String>();
+                        new ClassReader(bytes).accept(new ClassVisitor(Opcodes.ASM5) {
+                                @Override
+                                public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+                                        sig.add("C " + access + " " + name + " " + signature + " " + superName + " " + Arrays.toString(interfaces));
+                                }
+
+                                @Override
+                                public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+                                        sig.add("A " + desc);
+                                        return null;
+                                }
+
+                                @Override
+                                public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+                                        if ((access & Opcodes.ACC_PRIVATE) == 0) {
+                                                sig.add("F " + access + " " + name + " " + desc + " " + signature + " " + value);
+                                        }
+                                        return null;
+                                }
+
+                                @Override
+                                public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                                        if ((access & Opcodes.ACC_PRIVATE) == 0) {
+                                                sig.add("M " + access + " " + name + " " + desc + " " + signature + " " + Arrays.toString(exceptions));
+                                        }
+                                        return null;
+                                }
+                        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+                        // the header is the first line, members are sorted
+                        Collections.sort(sig.subList(1, sig.size()));
+                        StringBuilder sb = new StringBuilder();
+                        for (String s : sig) sb.append(s).append("\n");
+                        lines.add(sb.toString());
+                }
+                Collections.sort(lines);
+                StringBuilder sb = new StringBuilder();
+                for (String s : lines) sb.append(s);
+                return hash(sb.toString());
+        }
+
+        /**
+         * loads classes generated by previous builds from the output directory
+         */
+        static class Loader extends ClassLoader {
+                private final File outputDir;
+                private final Set<String> reused;
+                private final Map<String, byte[]> generated;
+
+                /**
+                 * @param parent    parent loader
+                 * @param outputDir output directory
+                 * @param reused    classes that can be loaded from the output directory
+                 * @param generated classes generated in the current build
+                 */
+                Loader(ClassLoader parent, File outputDir, Set<String> reused, Map<String, byte[]> generated) {
+                        super(parent);
+                        this.outputDir = outputDir;
+                        this.reused = reused;
+                        this.generated = generated;
+                }
+
+                @Override
+                protected Class<?> findClass(String name) throws ClassNotFoundException {
+                        byte[] bytes = generated.get(name);
+                        if (bytes == null && reused.contains(name)) {
+                                try {
+                                        bytes = readClassFile(outputDir, name);
+                                } catch (IOException e) {
+                                        throw new ClassNotFoundException(name, e);
+                                }
+                        }
+                        if (bytes == null) throw new ClassNotFoundException(name);
+                        return defineClass(name, bytes, 0, bytes.length);
+                }
+
+                /**
+                 * class files of the reused classes and the package directories containing them
+                 * are served from the output directory, so that imports and class file readers can find them
+                 */
+                @Override
+                protected URL findResource(String name) {
+                        File f;
+                        if (name.endsWith(".class")) {
+                                String className = name.substring(0, name.length() - ".class".length()).replace('/', '.');
+                                if (!reused.contains(className)) return null;
+                                f = classFile(outputDir, className);
+                        } else {
+                                String pkg = name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+                                pkg = pkg.replace('/', '.') + ".";
+                                boolean found = false;
+                                for (String className : reused) {
+                                        if (className.startsWith(pkg)) {
+                                                found = true;
+                                                break;
+                                        }
+                                }
+                                if (!found) return null;
+                                f = new File(outputDir, name);
+                        }
+                        if (!f.exists()) return null;
+                        try {
+                                return f.toURI().toURL();
+                        } catch (MalformedURLException e) {
+                                return null;
+                        }
+                }
+
+                @Override
+                protected Enumeration<URL> findResources(String name) {
+                        URL url = findResource(name);
+                        if (url == null) return Collections.enumeration(Collections.<URL>emptyList());
+                        return Collections.enumeration(Collections.singletonList(url));
+                }
+        }
+
+        /**
+         * get the class file of the class in the output directory
+         *
+         * @param outputDir output directory
+         * @param className class name
+         * @return the class file
+         */
+        static File classFile(File outputDir, String className) {
+                return new File(outputDir, className.replace(".", File.separator) + ".class");
+        }
+
+        /**
+         * read class file from the output directory
+         *
+         * @param outputDir output directory
+         * @param className class name
+         * @return bytes
+         * @throws IOException exception
+         */
+        static byte[] readClassFile(File outputDir, String className) throws IOException {
+                InputStream is = new FileInputStream(classFile(outputDir, className));
+                try {
+                        ByteArrayOutputStream baos = new ByteArrayOutputStream(4096);
+                        byte[] bs = new byte[4096];
+                        int n;
+                        while ((n = is.read(bs)) != -1) {
+                                baos.write(bs, 0, n);
+                        }
+                        return baos.toByteArray();
+                } finally {
+                        is.close();
+                }
+        }
+}
@@ -27,6 +27,7 @@ package lt.repl;
 import lt.compiler.*;
 import lt.compiler.Properties;
 import lt.compiler.Scanner;
+import lt.compiler.semantic.STypeDef;
 import lt.compiler.syntactic.AST;
 import lt.compiler.syntactic.Statement;
 import lt.compiler.syntactic.def.*;
@@ -326,7 +327,11 @@ public class ScriptCompiler {
                 SemanticProcessor sp = new SemanticProcessor(new HashMap<String, List<Statement>>() {{
                         put(name, defsAndImports);
                 }}, theCompiledClasses, err);
-                CodeGenerator cg = new CodeGenerator(sp.parse(), sp.getTypes());
+                Set<STypeDef> types = sp.parse();
+                if (compiler.config.code.optimize) {
+                        new Optimizer(types).optimize();
+                }
+                CodeGenerator cg = new CodeGenerator(types, sp.getTypes());
                 final Map<String, byte[]> map = cg.generate();
                 ClassLoader loader = new ClassLoader(theCompiledClasses) {
                         @Override
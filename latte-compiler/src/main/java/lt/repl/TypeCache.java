@@ -0,0 +1,179 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 KuiGang Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package lt.repl;
+
+import lt.compiler.SemanticProcessor;
+import lt.compiler.semantic.*;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.*;
+
+/**
+ * types imported from a class-path, shared between compilations on the same class-path.<br>
+ * the cache fills a {@link SemanticProcessor} with the types imported by previous compilations,
+ * and collects newly imported types after the processor finishes. A cache must be used by one compilation at a time.
+ */
+public class TypeCache {
+        private final String key;
+        private final ClassPathLoader classLoader;
+        private final Map<String, STypeDef> types = new HashMap<String, STypeDef>();
+
+        /**
+         * create a type cache
+         *
+         * @param baseLoader the base class loader
+         * @param classpath  class-path
+         * @throws Exception exception when loading the class-path
+         */
+        public TypeCache(ClassLoader baseLoader, List<URL> classpath) throws Exception {
+                this.key = keyOf(classpath);
+                this.classLoader = new ClassPathLoader(baseLoader);
+                for (URL url : classpath) {
+                        classLoader.load(url);
+                }
+        }
+
+        /**
+         * get the file of a class-path entry
+         *
+         * @param url the url
+         * @return the file or null if the url is not a file
+         */
+        private static File fileOf(URL url) {
+                try {
+                        return new File(url.toURI());
+                } catch (URISyntaxException e) {
+                        return null;
+                } catch (IllegalArgumentException e) {
+                        return null;
+                }
+        }
+
+        /**
+         * the key of the class-path. the key changes when any jar in the class-path changes.
+         * directories are not walked, types from directories are not cached instead
+         *
+         * @param classpath class-path
+         * @return the key
+         */
+        public static String keyOf(List<URL> classpath) {
+                StringBuilder sb = new StringBuilder();
+                for (URL url : classpath) {
+                        sb.append(url);
+                        File f = fileOf(url);
+                        if (f != null && f.isFile()) {
+                                sb.append("(").append(f.length()).append(",").append(f.lastModified()).append(")");
+                        }
+                        sb.append(";");
+                }
+                return sb.toString();
+        }
+
+        public String key() {
+                return key;
+        }
+
+        /**
+         * @return the class loader of the class-path
+         */
+        public ClassLoader classLoader() {
+                return classLoader;
+        }
+
+        /**
+         * put cached types into the processor
+         *
+         * @param processor the processor to fill
+         */
+        void fill(SemanticProcessor processor) {
+                for (Map.Entry<String, STypeDef> entry : types.entrySet()) {
+                        if (!processor.types.containsKey(entry.getKey())) {
+                                processor.types.put(entry.getKey(), entry.getValue());
+                                // members not accessed yet will be built by this processor
+                                processor.adoptImportedType(entry.getValue());
+                        }
+                }
+        }
+
+        /**
+         * collect types imported by the processor, and remove references from cached types to the compiled types
+         *
+         * @param processor the processor
+         * @param succeeded whether the compilation succeeded. types imported by failed compilations are not collected
+         */
+        void release(SemanticProcessor processor, boolean succeeded) {
+                if (succeeded) {
+                        for (Map.Entry<String, STypeDef> entry : processor.types.entrySet()) {
+                                if (types.containsKey(entry.getKey())) continue;
+                                STypeDef type = entry.getValue();
+                                if (processor.typeDefSet.contains(type)) continue;
+                                if (type instanceof SArrayTypeDef && processor.typeDefSet.contains(((SArrayTypeDef) type).type()))
+                                        continue;
+                                if (type instanceof PrimitiveTypeDef) continue;
+                                // only types from the class-path are cached
+                                // (e.g. classes loaded from the output directory are not)
+                                try {
+                                        Class.forName(entry.getKey(), false, classLoader);
+                                } catch (ClassNotFoundException e) {
+                                        continue;
+                                } catch (LinkageError e) {
+                                        continue;
+                                }
+                                // classes in directories may change between compilations
+                                URL url = classLoader.findResource(entry.getKey().replace('.', '/') + ".class");
+                                if (url != null && url.getProtocol().equals("file")) continue;
+                                types.put(entry.getKey(), type);
+                        }
+                }
+                // overridden methods are recorded on super methods when checking override
+                Set<STypeDef> cached = new HashSet<STypeDef>(types.values());
+                for (STypeDef type : cached) {
+                        if (!(type instanceof SRefTypeDef)) continue;
+                        // members not loaded are not modified
+                        if (((SRefTypeDef) type).memberLoader() != null) continue;
+                        for (SMethodDef m : ((SRefTypeDef) type).methods()) {
+                                Iterator<SMethodDef> it = m.overridden().iterator();
+                                while (it.hasNext()) {
+                                        if (!cached.contains(it.next().declaringType())) it.remove();
+                                }
+                        }
+                }
+        }
+
+        /**
+         * @return count of cached types
+         */
+        public int size() {
+                return types.size();
+        }
+
+        @Override
+        public String toString() {
+                return "TypeCache(" + key + ", " + types.size() + " types)";
+        }
+}
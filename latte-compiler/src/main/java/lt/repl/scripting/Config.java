@@ -10,6 +10,7 @@ public class Config {
         private int scannerType;
         private String varNamePrefix;
         private boolean eval;
+        private boolean optimize = true;
 
         public int getScannerType() {
                 return scannerType;
@@ -37,4 +38,13 @@ public class Config {
                 this.eval = eval;
                 return this;
         }
+
+        public boolean isOptimize() {
+                return optimize;
+        }
+
+        public Config setOptimize(boolean optimize) {
+                this.optimize = optimize;
+                return this;
+        }
 }
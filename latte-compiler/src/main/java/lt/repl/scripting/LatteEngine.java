@@ -3,6 +3,7 @@ package lt.repl.scripting;
 import lt.compiler.*;
 import lt.compiler.Properties;
 import lt.compiler.Scanner;
+import lt.compiler.semantic.STypeDef;
 import lt.compiler.syntactic.AST;
 import lt.compiler.syntactic.Expression;
 import lt.compiler.syntactic.Statement;
@@ -247,7 +248,11 @@ public class LatteEngine implements ScriptEngine {
                         SemanticProcessor processor = new SemanticProcessor(new HashMap<String, List<Statement>>() {{
                                 put(scriptName, defList);
                         }}, cl, err);
-                        CodeGenerator codeGen = new CodeGenerator(processor.parse(), processor.getTypes());
+                        Set<STypeDef> types = processor.parse();
+                        if (config.isOptimize()) {
+                                new Optimizer(types).optimize();
+                        }
+                        CodeGenerator codeGen = new CodeGenerator(types, processor.getTypes());
                         // the imports are valid now, add into import list
                         imports.addAll(readyToAddIntoImport);
                         Map<String, byte[]> byteCodes = codeGen.generate();
@@ -20,9 +20,20 @@ public class LambdaGen {
         private static final String F_FIELD_NAME = "f";
         private static final String FIELD_DESC = "Ljava/lang/reflect/Field;";
 
+        static boolean hasSelfField(Class<?> cls) {
+                try {
+                        cls.getField("self");
+                        return true;
+                } catch (NoSuchFieldException e) {
+                        return false;
+                }
+        }
+
         public static Map.Entry<String, byte[]> gen(Function f, Class<?> targetType) {
                 Method abstractMethod = Dynamic.findAbstractMethod(targetType);
-                Method funcMethod = f.getClass().getDeclaredMethods()[0];
+                Method funcMethod = Dynamic.findAbstractMethod(f.getClass().getInterfaces()[0]);
+                // lambdas created by LambdaMetafactory don't have the `self` field
+                boolean hasSelf = hasSelfField(f.getClass());
 
                 final String className = getLambdaName(targetType);
                 String functionInternal = typeToInternalName(f.getClass().getInterfaces()[0]);
@@ -46,8 +57,10 @@ public class LambdaGen {
                 funcVisitor.visitEnd();
 
                 // f (field Field)
-                FieldVisitor fVisitor = classVisitor.visitField(Opcodes.ACC_PRIVATE, F_FIELD_NAME, typeToDesc(Field.class), null, null);
-                fVisitor.visitEnd();
+                if (hasSelf) {
+                        FieldVisitor fVisitor = classVisitor.visitField(Opcodes.ACC_PRIVATE, F_FIELD_NAME, typeToDesc(Field.class), null, null);
+                        fVisitor.visitEnd();
+                }
 
                 MethodVisitor constructorVisitor = classVisitor.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "(" + functionDesc + ")V", null, null);
                 constructorVisitor.visitCode();
@@ -61,16 +74,18 @@ public class LambdaGen {
                 constructorVisitor.visitVarInsn(Opcodes.ALOAD, 1);
                 // this.func = func
                 constructorVisitor.visitFieldInsn(Opcodes.PUTFIELD, className, FUNC_FIELD_NAME, functionDesc);
-                // invoke var1.getClass()
-                constructorVisitor.visitVarInsn(Opcodes.ALOAD, 1);
-                constructorVisitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Object", "getClass", "()Ljava/lang/Class;", false);
-                // getField('self')
-                constructorVisitor.visitLdcInsn("self");
-                constructorVisitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Class", "getField", "(Ljava/lang/String;)Ljava/lang/reflect/Field;", false);
-                // this.f = (field)
-                visitThis(constructorVisitor);
-                constructorVisitor.visitInsn(Opcodes.SWAP);
-                constructorVisitor.visitFieldInsn(Opcodes.PUTFIELD, className, F_FIELD_NAME, FIELD_DESC);
+                if (hasSelf) {
+                        // invoke var1.getClass()
+                        constructorVisitor.visitVarInsn(Opcodes.ALOAD, 1);
+                        constructorVisitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Object", "getClass", "()Ljava/lang/Class;", false);
+                        // getField('self')
+                        constructorVisitor.visitLdcInsn("self");
+                        constructorVisitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Class", "getField", "(Ljava/lang/String;)Ljava/lang/reflect/Field;", false);
+                        // this.f = (field)
+                        visitThis(constructorVisitor);
+                        constructorVisitor.visitInsn(Opcodes.SWAP);
+                        constructorVisitor.visitFieldInsn(Opcodes.PUTFIELD, className, F_FIELD_NAME, FIELD_DESC);
+                }
                 // return
                 constructorVisitor.visitInsn(Opcodes.RETURN);
                 constructorVisitor.visitMaxs(0, 0);
@@ -79,36 +94,41 @@ public class LambdaGen {
                 // method
                 MethodVisitor implMethod = classVisitor.visitMethod(Opcodes.ACC_PUBLIC, abstractMethod.getName(), getDescFromMethod(abstractMethod), null, null);
                 implMethod.visitCode();
-                // this.f
-                visitThis(implMethod);
-                implMethod.visitFieldInsn(Opcodes.GETFIELD, className, F_FIELD_NAME, FIELD_DESC);
-                // setAccessible(true)
-                implMethod.visitLdcInsn(true);
-                try {
-                        implMethod.visitMethodInsn(Opcodes.INVOKEVIRTUAL, typeToInternalName(Field.class), "setAccessible", getDescFromMethod(Field.class.getMethod("setAccessible", boolean.class)), false);
-                } catch (NoSuchMethodException e) {
-                        throw new LtBug(e);
-                }
-                // this.f
-                visitThis(implMethod);
-                implMethod.visitFieldInsn(Opcodes.GETFIELD, className, F_FIELD_NAME, FIELD_DESC);
-                // set(this.func, this)
-                visitThis(implMethod);
-                implMethod.visitFieldInsn(Opcodes.GETFIELD, className, FUNC_FIELD_NAME, functionDesc);
-                visitThis(implMethod);
-                try {
-                        implMethod.visitMethodInsn(Opcodes.INVOKEVIRTUAL, typeToInternalName(Field.class), "set", getDescFromMethod(Field.class.getMethod("set", Object.class, Object.class)), false);
-                } catch (NoSuchMethodException e) {
-                        throw new LtBug(e);
+                if (hasSelf) {
+                        // this.f
+                        visitThis(implMethod);
+                        implMethod.visitFieldInsn(Opcodes.GETFIELD, className, F_FIELD_NAME, FIELD_DESC);
+                        // setAccessible(true)
+                        implMethod.visitLdcInsn(true);
+                        try {
+                                implMethod.visitMethodInsn(Opcodes.INVOKEVIRTUAL, typeToInternalName(Field.class), "setAccessible", getDescFromMethod(Field.class.getMethod("setAccessible", boolean.class)), false);
+                        } catch (NoSuchMethodException e) {
+                                throw new LtBug(e);
+                        }
+                        // this.f
+                        visitThis(implMethod);
+                        implMethod.visitFieldInsn(Opcodes.GETFIELD, className, F_FIELD_NAME, FIELD_DESC);
+                        // set(this.func, this)
+                        visitThis(implMethod);
+                        implMethod.visitFieldInsn(Opcodes.GETFIELD, className, FUNC_FIELD_NAME, functionDesc);
+                        visitThis(implMethod);
+                        try {
+                                implMethod.visitMethodInsn(Opcodes.INVOKEVIRTUAL, typeToInternalName(Field.class), "set", getDescFromMethod(Field.class.getMethod("set", Object.class, Object.class)), false);
+                        } catch (NoSuchMethodException e) {
+                                throw new LtBug(e);
+                        }
                 }
 
                 // this.func
                 visitThis(implMethod);
                 implMethod.visitFieldInsn(Opcodes.GETFIELD, className, FUNC_FIELD_NAME, functionDesc);
                 // each param
+                int slot = 1;
                 for (int i = 1; i <= abstractMethod.getParameterTypes().length; ++i) {
-                        visitLocal(implMethod, abstractMethod, i);
                         Class<?> param = abstractMethod.getParameterTypes()[i - 1];
+                        Class<?> funcParam = funcMethod.getParameterTypes()[i - 1];
+                        visitLocal(implMethod, param, slot);
+                        slot += (param == long.class || param == double.class) ? 2 : 1;
                         if (param.isPrimitive()) {
                                 try {
                                         boxPrimitive(param, implMethod);
@@ -116,9 +136,20 @@ public class LambdaGen {
                                         throw new LtBug(e);
                                 }
                         }
+                        // the function may be specialized for primitives (e.g. IntFunction1)
+                        if (funcParam.isPrimitive()) {
+                                castToPrimitive(funcParam, implMethod);
+                        }
                 }
                 // invoke
                 implMethod.visitMethodInsn(Opcodes.INVOKEINTERFACE, functionInternal, funcMethod.getName(), getDescFromMethod(funcMethod), true);
+                if (funcMethod.getReturnType().isPrimitive() && funcMethod.getReturnType() != void.class) {
+                        try {
+                                boxPrimitive(funcMethod.getReturnType(), implMethod);
+                        } catch (NoSuchMethodException e) {
+                                throw new LtBug(e);
+                        }
+                }
                 // return?void?
                 if (abstractMethod.getReturnType() == void.class) {
                         // void
@@ -276,8 +307,7 @@ public class LambdaGen {
                 return sb.toString();
         }
 
-        private static void visitLocal(MethodVisitor visitor, Method method, int local) {
-                Class<?> c = method.getParameterTypes()[local - 1];
+        private static void visitLocal(MethodVisitor visitor, Class<?> c, int local) {
                 if (c.isPrimitive()) {
                         int code;
                         if (c == float.class) {
@@ -32,9 +32,12 @@ import lt.lang.function.Function;
 import lt.lang.function.Function1;
 import lt.repl.ScriptCompiler;
 
+import java.io.ByteArrayInputStream;
 import java.io.FileReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
 import java.io.Reader;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.*;
@@ -53,6 +56,10 @@ public class LtRuntime {
          * the lambda function map. maps "required class" to "create the required object"
          */
         private static final Map<Class<?>, Function1<Object, Object>> lambdaFunctionMap = new WeakHashMap<Class<?>, Function1<Object, Object>>();
+        /**
+         * the same as {@link #lambdaFunctionMap}, but for functions without the `self` field (created by LambdaMetafactory)
+         */
+        private static final Map<Class<?>, Function1<Object, Object>> selfLessLambdaFunctionMap = new WeakHashMap<Class<?>, Function1<Object, Object>>();
 
         /**
          * Check whether the given type is {@link Integer} {@link Short}
@@ -224,13 +231,15 @@ public class LtRuntime {
                         }
                 } else if (Dynamic.isFunctionalAbstractClass(targetType)
                         || Dynamic.isFunctionalInterface(targetType)) {
-                        if (lambdaFunctionMap.containsKey(targetType)) {
-                                return lambdaFunctionMap.get(targetType).apply(o);
+                        Map<Class<?>, Function1<Object, Object>> functionMap =
+                                LambdaGen.hasSelfField(o.getClass()) ? lambdaFunctionMap : selfLessLambdaFunctionMap;
+                        if (functionMap.containsKey(targetType)) {
+                                return functionMap.get(targetType).apply(o);
                         }
 
                         if (o instanceof Function) {
                                 Method method = Dynamic.findAbstractMethod(targetType);
-                                Method funcMethod = o.getClass().getDeclaredMethods()[0];
+                                Method funcMethod = Dynamic.findAbstractMethod(o.getClass().getInterfaces()[0]);
                                 if (method.getParameterTypes().length == funcMethod.getParameterTypes().length) {
                                         Map.Entry<String, byte[]> pair = LambdaGen.gen((Function) o, targetType);
 
@@ -250,14 +259,14 @@ public class LtRuntime {
                                         cl.addByteCodes(pair.getKey(), pair.getValue());
 
                                         Class<?> cls = cl.loadClass(pair.getKey());
-                                        final Constructor<?> con = cls.getConstructor(funcMethod.getDeclaringClass().getInterfaces()[0]);
+                                        final Constructor<?> con = cls.getConstructor(o.getClass().getInterfaces()[0]);
                                         Function1<Object, Object> func = new Function1<Object, Object>() {
                                                 @Override
                                                 public Object apply(Object o) throws Exception {
                                                         return con.newInstance(o);
                                                 }
                                         };
-                                        lambdaFunctionMap.put(targetType, func); // put into map
+                                        functionMap.put(targetType, func); // put into map
                                         return func.apply(o);
                                 }
                         }
@@ -691,6 +700,122 @@ public class LtRuntime {
                 return o.hashCode();
         }
 
+        /**
+         * get hash code of a long value, the same as {@link Long#hashCode()}
+         *
+         * @param l the value
+         * @return hash code
+         */
+        @SuppressWarnings("unused")
+        public static int getHashCode(long l) {
+                return (int) (l ^ (l >>> 32));
+        }
+
+        /**
+         * get hash code of a float value, the same as {@link Float#hashCode()}
+         *
+         * @param f the value
+         * @return hash code
+         */
+        @SuppressWarnings("unused")
+        public static int getHashCode(float f) {
+                return Float.floatToIntBits(f);
+        }
+
+        /**
+         * get hash code of a double value, the same as {@link Double#hashCode()}
+         *
+         * @param d the value
+         * @return hash code
+         */
+        @SuppressWarnings("unused")
+        public static int getHashCode(double d) {
+                return getHashCode(Double.doubleToLongBits(d));
+        }
+
+        /**
+         * get hash code of a bool value, the same as {@link Boolean#hashCode()}
+         *
+         * @param b the value
+         * @return hash code
+         */
+        @SuppressWarnings("unused")
+        public static int getHashCode(boolean b) {
+                return b ? 1231 : 1237;
+        }
+
+        /**
+         * compare fields of data classes
+         *
+         * @param a a
+         * @param b b
+         * @return true if a == b
+         */
+        @SuppressWarnings("unused")
+        public static boolean fieldEquals(int a, int b) {
+                return a == b;
+        }
+
+        /**
+         * compare fields of data classes
+         *
+         * @param a a
+         * @param b b
+         * @return true if a == b
+         */
+        @SuppressWarnings("unused")
+        public static boolean fieldEquals(long a, long b) {
+                return a == b;
+        }
+
+        /**
+         * compare fields of data classes
+         *
+         * @param a a
+         * @param b b
+         * @return true if a == b
+         */
+        @SuppressWarnings("unused")
+        public static boolean fieldEquals(boolean a, boolean b) {
+                return a == b;
+        }
+
+        /**
+         * compare fields of data classes, the same as {@link Float#equals(Object)}
+         *
+         * @param a a
+         * @param b b
+         * @return true if <tt>Float.compare(a, b) == 0</tt>
+         */
+        @SuppressWarnings("unused")
+        public static boolean fieldEquals(float a, float b) {
+                return Float.compare(a, b) == 0;
+        }
+
+        /**
+         * compare fields of data classes, the same as {@link Double#equals(Object)}
+         *
+         * @param a a
+         * @param b b
+         * @return true if <tt>Double.compare(a, b) == 0</tt>
+         */
+        @SuppressWarnings("unused")
+        public static boolean fieldEquals(double a, double b) {
+                return Double.compare(a, b) == 0;
+        }
+
+        /**
+         * compare fields of data classes, the same as the <code>is</code> operator on objects
+         *
+         * @param a a
+         * @param b b
+         * @return true if both are null or a.equals(b)
+         */
+        @SuppressWarnings("unused")
+        public static boolean fieldEquals(Object a, Object b) {
+                return a == b || (a != null && a.equals(b));
+        }
+
         /**
          * destruct the object into a list of values
          *
@@ -722,6 +847,92 @@ public class LtRuntime {
                 return res;
         }
 
+        /**
+         * check the result of an `unapply` method which is chosen at compile time
+         *
+         * @param count     destruct result size count
+         * @param unapplied the result of `unapply(o)`
+         * @return a list of values, or null if the sizes are not the same
+         */
+        @SuppressWarnings("unused")
+        public static List<?> destructResult(int count, List<?> unapplied) {
+                if (unapplied == null) throw new LtRuntimeException("unapply result is not List");
+                if (unapplied.size() != count) return null;
+                return unapplied;
+        }
+
+        /**
+         * the object is not accepted by the `unapply` method which is chosen at compile time
+         *
+         * @param o the object to destruct
+         * @return null
+         */
+        @SuppressWarnings("unused")
+        public static List<?> destructRejected(Object o) {
+                if (o == null) throw new LtRuntimeException("null cannot be destructed");
+                return null;
+        }
+
+        /**
+         * deserialize the object from a hex string. The hex string is generated by a
+         * {@link lt.generator.SourceGenerator} whose result type is {@link lt.generator.SourceGenerator#SERIALIZE}
+         *
+         * @param hex hex string of the serialized object
+         * @return the deserialized object
+         * @throws IOException            io exception
+         * @throws ClassNotFoundException class of the serialized object not found
+         */
+        @SuppressWarnings("unused")
+        public static Object deserialize(String hex) throws IOException, ClassNotFoundException {
+                return deserialize(hexToBytes(hex));
+        }
+
+        /**
+         * copy an object deserialized by {@link #deserialize(String)}, so that the deserialized object
+         * can be kept and modifying the copy doesn't affect later evaluations
+         *
+         * @param o the deserialized object
+         * @return a deep copy of the object
+         * @throws IOException            io exception
+         * @throws ClassNotFoundException class of the serialized object not found
+         */
+        @SuppressWarnings("unused")
+        public static Object copyDeserialized(Object o) throws IOException, ClassNotFoundException {
+                return ObjectGraphCopier.copy(o);
+        }
+
+        /**
+         * decode the hex string of a serialized object
+         *
+         * @param hex hex string of the serialized object
+         * @return the bytes
+         */
+        public static byte[] hexToBytes(String hex) {
+                int len = hex.length();
+                byte[] bytes = new byte[len / 2];
+                for (int i = 0; i < len; i += 2) {
+                        bytes[i / 2] = (byte) ((Character.digit(hex.charAt(i), 16) << 4) | Character.digit(hex.charAt(i + 1), 16));
+                }
+                return bytes;
+        }
+
+        /**
+         * deserialize the object from bytes. every invocation creates a new object.
+         *
+         * @param bytes the serialized object, see {@link #hexToBytes(String)}
+         * @return the deserialized object
+         * @throws IOException            io exception
+         * @throws ClassNotFoundException class of the serialized object not found
+         */
+        public static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+                ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+                try {
+                        return ois.readObject();
+                } finally {
+                        ois.close();
+                }
+        }
+
         private static final Map<String, Object> requiredObjects = new HashMap<String, Object>();
 
         /**
@@ -0,0 +1,246 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 KuiGang Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lt.runtime;
+
+import java.io.*;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+/**
+ * deep copies object graphs deserialized from generator results, see {@link LtRuntime#copyDeserialized(Object)}.<br>
+ * objects are created the way deserialization creates them: only the no-arg constructor of the first
+ * non-serializable super class is invoked, then the serializable fields are copied.
+ * graphs containing classes with custom serialization are copied by serializing them again.
+ */
+final class ObjectGraphCopier {
+        /**
+         * the class cannot be copied field by field
+         */
+        private static final Object UNSUPPORTED = new Object();
+        /**
+         * class =&gt; {@link Plan} or {@link #UNSUPPORTED}
+         */
+        private static final Map<Class<?>, Object> plans = new WeakHashMap<Class<?>, Object>();
+        /**
+         * the factory creating constructors for serialization, null if not available
+         */
+        private static final Class<?> SINGLETON_LIST = Collections.singletonList(null).getClass();
+        private static final Class<?> SINGLETON_SET = Collections.singleton(null).getClass();
+        private static final Class<?> ARRAYS_LIST = Arrays.asList().getClass();
+        private static final Object reflectionFactory;
+        private static final Method newConstructorForSerialization;
+
+        static {
+                Object factory = null;
+                Method method = null;
+                try {
+                        Class<?> factoryClass = Class.forName("sun.reflect.ReflectionFactory");
+                        factory = factoryClass.getMethod("getReflectionFactory").invoke(null);
+                        method = factoryClass.getMethod("newConstructorForSerialization", Class.class, Constructor.class);
+                } catch (Throwable ignore) {
+                        factory = null;
+                        method = null;
+                }
+                reflectionFactory = factory;
+                newConstructorForSerialization = method;
+        }
+
+        /**
+         * how to create and fill a copy of the class
+         */
+        private static class Plan {
+                final Constructor<?> constructor;
+                final Field[] fields;
+
+                Plan(Constructor<?> constructor, Field[] fields) {
+                        this.constructor = constructor;
+                        this.fields = fields;
+                }
+        }
+
+        /**
+         * the graph contains an object that cannot be copied field by field
+         */
+        private static class UnsupportedException extends Exception {
+        }
+
+        private ObjectGraphCopier() {
+        }
+
+        /**
+         * deep copy the object
+         *
+         * @param o the object, which should be serializable
+         * @return the copy
+         * @throws IOException            io exception when copying by serialization
+         * @throws ClassNotFoundException class not found when copying by serialization
+         */
+        static Object copy(Object o) throws IOException, ClassNotFoundException {
+                try {
+                        return copy(o, new IdentityHashMap<Object, Object>());
+                } catch (UnsupportedException e) {
+                        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                        ObjectOutputStream oos = new ObjectOutputStream(baos);
+                        try {
+                                oos.writeObject(o);
+                        } finally {
+                                oos.close();
+                        }
+                        return LtRuntime.deserialize(baos.toByteArray());
+                }
+        }
+
+        private static boolean isImmutable(Object o) {
+                Class<?> c = o.getClass();
+                return c == String.class || c == Integer.class || c == Long.class || c == Short.class
+                        || c == Byte.class || c == Character.class || c == Boolean.class
+                        || c == Float.class || c == Double.class
+                        || o instanceof Enum || o instanceof Class
+                        || o == Collections.EMPTY_LIST || o == Collections.EMPTY_SET || o == Collections.EMPTY_MAP;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Object copy(Object o, IdentityHashMap<Object, Object> copies) throws UnsupportedException {
+                if (o == null || isImmutable(o)) return o;
+                Object copied = copies.get(o);
+                if (copied != null) return copied;
+
+                Class<?> c = o.getClass();
+                try {
+                        if (c.isArray()) {
+                                int length = Array.getLength(o);
+                                Object array = Array.newInstance(c.getComponentType(), length);
+                                copies.put(o, array);
+                                if (c.getComponentType().isPrimitive()) {
+                                        System.arraycopy(o, 0, array, 0, length);
+                                } else {
+                                        Object[] from = (Object[]) o;
+                                        Object[] to = (Object[]) array;
+                                        for (int i = 0; i < length; ++i) {
+                                                to[i] = copy(from[i], copies);
+                                        }
+                                }
+                                return array;
+                        }
+                        if (c == ArrayList.class || c == LinkedList.class || c == HashSet.class || c == LinkedHashSet.class) {
+                                Collection<Object> collection = (Collection<Object>) c.newInstance();
+                                copies.put(o, collection);
+                                for (Object e : (Collection<?>) o) {
+                                        collection.add(copy(e, copies));
+                                }
+                                return collection;
+                        }
+                        if (c == SINGLETON_LIST) {
+                                Object list = Collections.singletonList(copy(((List<?>) o).get(0), copies));
+                                copies.put(o, list);
+                                return list;
+                        }
+                        if (c == SINGLETON_SET) {
+                                Object set = Collections.singleton(copy(((Set<?>) o).iterator().next(), copies));
+                                copies.put(o, set);
+                                return set;
+                        }
+                        if (c == ARRAYS_LIST) {
+                                Object[] elements = ((List<?>) o).toArray();
+                                List<Object> list = Arrays.asList(elements);
+                                copies.put(o, list);
+                                for (int i = 0; i < elements.length; ++i) {
+                                        elements[i] = copy(elements[i], copies);
+                                }
+                                return list;
+                        }
+                        if (c == HashMap.class || c == LinkedHashMap.class) {
+                                Map<Object, Object> map = (Map<Object, Object>) c.newInstance();
+                                copies.put(o, map);
+                                for (Map.Entry<?, ?> entry : ((Map<?, ?>) o).entrySet()) {
+                                        map.put(copy(entry.getKey(), copies), copy(entry.getValue(), copies));
+                                }
+                                return map;
+                        }
+
+                        Plan plan = planOf(c);
+                        Object object = plan.constructor.newInstance();
+                        copies.put(o, object);
+                        for (Field f : plan.fields) {
+                                f.set(object, copy(f.get(o), copies));
+                        }
+                        return object;
+                } catch (UnsupportedException e) {
+                        throw e;
+                } catch (Exception e) {
+                        throw new UnsupportedException();
+                }
+        }
+
+        private static Plan planOf(Class<?> c) throws UnsupportedException {
+                Object plan;
+                synchronized (plans) {
+                        plan = plans.get(c);
+                        if (plan == null) {
+                                plan = buildPlan(c);
+                                plans.put(c, plan == null ? UNSUPPORTED : plan);
+                        }
+                }
+                if (plan == null || plan == UNSUPPORTED) throw new UnsupportedException();
+                return (Plan) plan;
+        }
+
+        /**
+         * @return the plan, or null if the class has custom serialization or its fields cannot be accessed
+         */
+        private static Plan buildPlan(Class<?> c) {
+                if (newConstructorForSerialization == null) return null;
+                if (!Serializable.class.isAssignableFrom(c) || Externalizable.class.isAssignableFrom(c)) return null;
+                // classes of the JDK are not opened for reflection
+                if (c.getName().startsWith("java.") || c.getName().startsWith("javax.")) return null;
+                try {
+                        List<Field> fields = new ArrayList<Field>();
+                        Class<?> cls = c;
+                        for (; Serializable.class.isAssignableFrom(cls); cls = cls.getSuperclass()) {
+                                for (Method m : cls.getDeclaredMethods()) {
+                                        String name = m.getName();
+                                        if (name.equals("writeObject") || name.equals("readObject") || name.equals("readObjectNoData")
+                                                || name.equals("writeReplace") || name.equals("readResolve")) return null;
+                                }
+                                for (Field f : cls.getDeclaredFields()) {
+                                        if (f.getName().equals("serialPersistentFields")) return null;
+                                        if (Modifier.isStatic(f.getModifiers()) || Modifier.isTransient(f.getModifiers())) continue;
+                                        f.setAccessible(true);
+                                        fields.add(f);
+                                }
+                        }
+                        Constructor<?> constructor = (Constructor<?>) newConstructorForSerialization.invoke(
+                                reflectionFactory, c, cls.getDeclaredConstructor());
+                        constructor.setAccessible(true);
+                        return new Plan(constructor, fields.toArray(new Field[fields.size()]));
+                } catch (Throwable t) {
+                        return null;
+                }
+        }
+}
@@ -27,18 +27,29 @@ package lt.compiler.cases;
 import lt.compiler.*;
 import lt.compiler.Properties;
 import lt.compiler.Scanner;
+import lt.compiler.semantic.SClassDef;
+import lt.compiler.semantic.SMethodDef;
 import lt.compiler.semantic.SModifier;
 import lt.compiler.semantic.STypeDef;
+import lt.compiler.syntactic.AST;
 import lt.compiler.syntactic.Expression;
 import lt.compiler.syntactic.Statement;
 import lt.compiler.syntactic.literal.NumberLiteral;
 import lt.compiler.syntactic.operation.TwoVariableOperation;
+import lt.dependencies.asm.ClassReader;
+import lt.dependencies.asm.ClassVisitor;
+import lt.dependencies.asm.Label;
+import lt.dependencies.asm.MethodVisitor;
+import lt.dependencies.asm.Opcodes;
 import lt.generator.SourceGenerator;
 import lt.lang.Pointer;
 import lt.lang.Unit;
 import lt.lang.function.Function0;
 import lt.lang.function.Function1;
+import lt.lang.function.Function2;
 import lt.lang.function.Function3;
+import lt.lang.function.IntFunction1;
+import lt.lang.function.LongFunction2;
 import lt.repl.ScriptCompiler;
 import lt.runtime.*;
 import lt.util.RangeList;
@@ -59,6 +70,11 @@ import static org.junit.Assert.*;
  */
 public class TestCodeGen {
         public static Map<String, byte[]> retrieveByteCode(String code) throws IOException, SyntaxException, ClassNotFoundException {
+                // the optimizer is enabled by default
+                return retrieveByteCode(code, true);
+        }
+
+        public static Map<String, byte[]> retrieveByteCode(String code, boolean optimize) throws IOException, SyntaxException, ClassNotFoundException {
                 ErrorManager err = new ErrorManager(true);
                 Scanner lexicalProcessor = new ScannerSwitcher("test.lt", new StringReader(code), new Properties(), err);
                 Parser syntacticProcessor = new Parser(lexicalProcessor.scan(), err);
@@ -66,6 +82,9 @@ public class TestCodeGen {
                 map.put("test.lt", syntacticProcessor.parse());
                 SemanticProcessor semanticProcessor = new SemanticProcessor(map, Thread.currentThread().getContextClassLoader(), err);
                 Set<STypeDef> types = semanticProcessor.parse();
+                if (optimize) {
+                        new Optimizer(types).optimize();
+                }
 
                 CodeGenerator codeGenerator = new CodeGenerator(types, semanticProcessor.getTypes());
                 return codeGenerator.generate();
@@ -1416,7 +1435,8 @@ public class TestCodeGen {
                 Function3 func = (Function3) TestLambdaLT.getDeclaredMethod("method").invoke(TestLambdaLT.newInstance());
                 assertEquals(6, func.apply(1, 2, 3));
 
-                assertEquals(3, lambda.getDeclaredFields().length);
+                // o, self
+                assertEquals(2, lambda.getDeclaredFields().length);
         }
 
         @Test
@@ -1905,6 +1925,28 @@ public class TestCodeGen {
                 assertEquals(8, getC.invoke(instance));
         }
 
+        @Test
+        public void testDataClassPrimitiveFields() throws Exception {
+                Class<?> cls = retrieveClass(
+                        "" +
+                                "data class TestDataClassPrimitiveFields(a:int, b:long, c:double, d:bool, e:char, f)",
+                        "TestDataClassPrimitiveFields");
+                Constructor<?> con = cls.getConstructor(int.class, long.class, double.class, boolean.class, char.class, Object.class);
+
+                Object x = con.newInstance(1, 2L, 1.5, true, 'x', "s");
+                assertEquals("TestDataClassPrimitiveFields(a=1, b=2, c=1.5, d=true, e=x, f=s)", x.toString());
+                assertEquals(1 + Long.valueOf(2L).hashCode() + Double.valueOf(1.5).hashCode()
+                        + Boolean.TRUE.hashCode() + 'x' + "s".hashCode(), x.hashCode());
+                assertEquals(con.newInstance(1, 2L, 1.5, true, 'x', "s"), x);
+                assertNotEquals(con.newInstance(1, 3L, 1.5, true, 'x', "s"), x);
+                assertNotEquals(con.newInstance(1, 2L, 1.5, true, 'x', null), x);
+                assertNotEquals(x, "s");
+
+                // Double.compare semantics
+                assertEquals(con.newInstance(1, 2L, Double.NaN, true, 'x', null), con.newInstance(1, 2L, Double.NaN, true, 'x', null));
+                assertNotEquals(con.newInstance(1, 2L, 0.0, true, 'x', null), con.newInstance(1, 2L, -0.0, true, 'x', null));
+        }
+
         @Test
         public void testConstructingDataClass() throws Exception {
                 Class<?> cls = retrieveClass(
@@ -2470,6 +2512,32 @@ public class TestCodeGen {
                         new NumberLiteral("1", LineCol.SYNTHETIC),
                         new NumberLiteral("2", LineCol.SYNTHETIC),
                         LineCol.SYNTHETIC)), method.invoke(null));
+                // every evaluation gets its own object, so modifying the result doesn't leak
+                @SuppressWarnings("unchecked")
+                List<Object> result = (List<Object>) method.invoke(null);
+                assertNotSame(result, method.invoke(null));
+                result.clear();
+                assertEquals(1, ((List<?>) method.invoke(null)).size());
+        }
+
+        @Test
+        public void testGenerator_SerializeDeepCopy() throws Throwable {
+                Class<?> cls = retrieveClass("" +
+                                "class TestGenerator_SerializeDeepCopy\n" +
+                                "    static\n" +
+                                "        method()=#ast\n" +
+                                "            [1,2]"
+                        , "TestGenerator_SerializeDeepCopy");
+                Method method = cls.getMethod("method");
+                // the object is deserialized once, and nested lists of the result are copied as well
+                AST.ArrayExp arr = (AST.ArrayExp) ((List<?>) method.invoke(null)).get(0);
+                assertEquals(2, arr.list.size());
+                assertNotNull(arr.line_col());
+                arr.list.clear();
+                AST.ArrayExp another = (AST.ArrayExp) ((List<?>) method.invoke(null)).get(0);
+                assertNotSame(arr, another);
+                assertEquals(2, another.list.size());
+                assertEquals(new NumberLiteral("1", LineCol.SYNTHETIC), another.list.get(0));
         }
 
         @Test
@@ -3062,6 +3130,173 @@ public class TestCodeGen {
                 }
         }
 
+        @Test
+        public void testNonnullCheckConfig() throws Exception {
+                final String code = "" +
+                        "class TestNonnullCheckConfig\n" +
+                        "    static\n" +
+                        "        def method(nonnull a)\n" +
+                        "            nonnull b = a\n" +
+                        "            b = null\n" +
+                        "        private def privateMethod(nonnull a)\n" +
+                        "            nonnull b = a\n" +
+                        "            b = null\n" +
+                        "        def callPrivate(a)=privateMethod(a)";
+                int[] modes = {SemanticProcessor.NONNULL_CHECK_ALL, SemanticProcessor.NONNULL_CHECK_PUBLIC, SemanticProcessor.NONNULL_CHECK_NONE};
+                // [method(null), method(1), privateMethod(null)]
+                boolean[][] throwsNPE = {{true, true, true}, {true, false, false}, {false, false, false}};
+                for (int i = 0; i < modes.length; ++i) {
+                        lt.repl.Compiler compiler = new lt.repl.Compiler(Thread.currentThread().getContextClassLoader());
+                        compiler.config.code.nonnullCheck = modes[i];
+                        ClassLoader cl = compiler.compile(Collections.singletonMap("test", code));
+                        Class<?> cls = cl.loadClass("TestNonnullCheckConfig");
+                        Method method = cls.getMethod("method", Object.class);
+                        Method callPrivate = cls.getMethod("callPrivate", Object.class);
+                        Object[][] invocations = {{method, null}, {method, 1}, {callPrivate, null}};
+                        for (int j = 0; j < invocations.length; ++j) {
+                                try {
+                                        ((Method) invocations[j][0]).invoke(null, invocations[j][1]);
+                                        assertFalse(throwsNPE[i][j]);
+                                } catch (InvocationTargetException e) {
+                                        assertTrue(throwsNPE[i][j]);
+                                        assertTrue(e.getTargetException() instanceof NullPointerException);
+                                }
+                        }
+                }
+        }
+
+        @Test
+        public void testOptimizeConfig() throws Exception {
+                final String code = "" +
+                        "class TestOptimizeConfig\n" +
+                        "    static\n" +
+                        "        def fold()=1 + 2 * 3\n" +
+                        "        def foldDouble(a:double)=a * (4 / 2.0)\n" +
+                        "        def branch()\n" +
+                        "            if true\n" +
+                        "                return 1\n" +
+                        "            return 2\n" +
+                        "        def tryCatch(a)\n" +
+                        "            try\n" +
+                        "                return a.length\n" +
+                        "            catch e\n" +
+                        "                return -1";
+                boolean[] modes = {true, false};
+                for (boolean optimize : modes) {
+                        lt.repl.Compiler compiler = new lt.repl.Compiler(Thread.currentThread().getContextClassLoader());
+                        compiler.config.code.optimize = optimize;
+                        ClassLoader cl = compiler.compile(Collections.singletonMap("test", code));
+                        Class<?> cls = cl.loadClass("TestOptimizeConfig");
+                        assertEquals(7, cls.getMethod("fold").invoke(null));
+                        assertEquals(6.0, cls.getMethod("foldDouble", double.class).invoke(null, 3.0));
+                        assertEquals(1, cls.getMethod("branch").invoke(null));
+                        assertEquals(3, cls.getMethod("tryCatch", Object.class).invoke(null, "abc"));
+                        assertEquals(-1, cls.getMethod("tryCatch", Object.class).invoke(null, 1));
+                }
+
+                // the popped Unit.get() and the constant branch are removed
+                String unitAndBranch = "" +
+                        "class TestOptimizeByteCode\n" +
+                        "    static\n" +
+                        "        def method()\n" +
+                        "            lt::lang::Unit.get()\n" +
+                        "            if true\n" +
+                        "                return 1\n" +
+                        "            return 2";
+                int[] notOptimized = countJumpsAndUnitInvocations(
+                        retrieveByteCode(unitAndBranch, false).get("TestOptimizeByteCode"), "method");
+                assertTrue(notOptimized[0] > 0 && notOptimized[1] > 0);
+                assertArrayEquals(new int[]{0, 0}, countJumpsAndUnitInvocations(
+                        retrieveByteCode(unitAndBranch, true).get("TestOptimizeByteCode"), "method"));
+        }
+
+        private static int[] countJumpsAndUnitInvocations(byte[] byteCode, final String methodName) {
+                final int[] count = {0, 0};
+                new ClassReader(byteCode).accept(new ClassVisitor(Opcodes.ASM5) {
+                        @Override
+                        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                                if (!name.equals(methodName)) return null;
+                                return new MethodVisitor(Opcodes.ASM5) {
+                                        @Override
+                                        public void visitJumpInsn(int opcode, Label label) {
+                                                ++count[0];
+                                        }
+
+                                        @Override
+                                        public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+                                                if (owner.equals("lt/lang/Unit")) ++count[1];
+                                        }
+                                };
+                        }
+                }, 0);
+                return count;
+        }
+
+        @Test
+        public void testFramesForTarget() throws Exception {
+                final String code = "" +
+                        "class TestFramesForTarget\n" +
+                        "    static\n" +
+                        "        def choose(a:bool)\n" +
+                        "            x = null\n" +
+                        "            if a\n" +
+                        "                x = TestFramesForTargetB()\n" +
+                        "            else\n" +
+                        "                x = TestFramesForTargetC()\n" +
+                        "            return x.name()\n" +
+                        "        def straight(a:int)=a + 1\n" +
+                        "abstract class TestFramesForTargetA\n" +
+                        "    abstract name()\n" +
+                        "class TestFramesForTargetB : TestFramesForTargetA\n" +
+                        "    name()='bb'\n" +
+                        "class TestFramesForTargetC : TestFramesForTargetA\n" +
+                        "    name()='cc'";
+                int[] targets = {6, 8};
+                for (int target : targets) {
+                        lt.repl.Compiler compiler = new lt.repl.Compiler(Thread.currentThread().getContextClassLoader());
+                        compiler.config.code.target = target;
+                        ClassLoader cl = compiler.compile(Collections.singletonMap("test", code));
+                        Method choose = cl.loadClass("TestFramesForTarget").getMethod("choose", boolean.class);
+                        assertEquals("bb", choose.invoke(null, true));
+                        assertEquals("cc", choose.invoke(null, false));
+                        assertEquals(3, cl.loadClass("TestFramesForTarget").getMethod("straight", int.class).invoke(null, 2));
+                }
+
+                // frames are only computed for methods with jumps
+                ErrorManager err = new ErrorManager(true);
+                Map<String, List<Statement>> map = new HashMap<String, List<Statement>>();
+                map.put("test.lt", new Parser(new ScannerSwitcher("test.lt", new StringReader(code), new Properties(), err).scan(), err).parse());
+                SemanticProcessor processor = new SemanticProcessor(map, Thread.currentThread().getContextClassLoader(), err);
+                processor.parse();
+                SClassDef cls = (SClassDef) processor.getTypes().get("TestFramesForTarget");
+                for (SMethodDef m : cls.methods()) {
+                        assertEquals(m.name().equals("choose"), Optimizer.needsFrames(m.statements(), m.exceptionTables()));
+                }
+        }
+
+        @Test
+        public void testStringConcat() throws Exception {
+                Class<?> cls = retrieveClass("" +
+                                "class TestStringConcat\n" +
+                                "    static\n" +
+                                "        def method(x, i:int, s:short, b:bool, d:double, str:String)\n" +
+                                "            return str + x + i + s + b + d + 'ab' + \"${x}|${s}\" + null\n" +
+                                "        def constant()=\"a\" + \"b\" + 'cd'",
+                        "TestStringConcat");
+                Method method = cls.getMethod("method", Object.class, int.class, short.class, boolean.class, double.class, String.class);
+                assertEquals("strx12true1.5abx|2null", method.invoke(null, "x", 1, (short) 2, true, 1.5, "str"));
+                assertEquals("null[1]null12false0.0abnull|2null", method.invoke(null, null, 1, (short) 2, false, 0.0, "null" + Arrays.asList(1)));
+                assertEquals("abcd", cls.getMethod("constant").invoke(null));
+
+                Map<String, byte[]> byteCode = retrieveByteCode("" +
+                        "class TestStringConcatByteCode\n" +
+                        "    static\n" +
+                        "        def method(a:String, b, c)=a + b + c");
+                String bc = new String(byteCode.get("TestStringConcatByteCode"), "ISO-8859-1");
+                assertTrue(bc.contains("java/lang/StringBuilder"));
+                assertFalse(bc.contains("lt/runtime/Dynamic"));
+        }
+
         @Test
         public void testVarNonempty() throws Exception {
                 Class<?> cls = retrieveClass("" +
@@ -3111,7 +3346,8 @@ public class TestCodeGen {
                 Method method1 = cls.getMethod("method1");
                 Function0 lambda1 = (Function0) method1.invoke(null);
                 Class<?> lambdaClass1 = lambda1.getClass();
-                assertEquals(2, lambdaClass1.getDeclaredFields().length);
+                // self
+                assertEquals(1, lambdaClass1.getDeclaredFields().length);
 
                 Field field_self = lambdaClass1.getField("self");
                 assertTrue(lambda1 == field_self.get(lambda1));
@@ -3122,7 +3358,8 @@ public class TestCodeGen {
                 Function0 lambda2 = (Function0) method2.invoke(o);
                 Class<?> lambdaClass2 = lambda2.getClass();
 
-                assertEquals(3, lambdaClass2.getDeclaredFields().length);
+                // o, self
+                assertEquals(2, lambdaClass2.getDeclaredFields().length);
 
                 field_self = lambdaClass2.getField("self");
 
@@ -3130,6 +3367,105 @@ public class TestCodeGen {
                 assertTrue(lambda2 == lambda2.apply());
         }
 
+        @Test
+        public void testLambdaCaptureFields() throws Exception {
+                Class<?> cls = retrieveClass("" +
+                                "class TestLambdaCaptureFields\n" +
+                                "    static\n" +
+                                "        def method\n" +
+                                "            a = 1\n" +
+                                "            var b = 2\n" +
+                                "            unused = 5\n" +
+                                "            f = ()->a + b\n" +
+                                "            b = 3\n" +
+                                "            return f"
+                        , "TestLambdaCaptureFields");
+                Function0 lambda = (Function0) cls.getMethod("method").invoke(null);
+                assertEquals(4, lambda.apply());
+
+                // self, a, b
+                Field[] fields = lambda.getClass().getDeclaredFields();
+                assertEquals(3, fields.length);
+                for (Field f : fields) {
+                        if (f.getName().equals("self")) continue;
+                        assertTrue(f.getName().startsWith("local"));
+                        assertTrue(Modifier.isFinal(f.getModifiers()));
+                }
+                // a is never assigned again, so only the value is captured
+                assertEquals(Object.class, lambda.getClass().getDeclaredField("local0").getType());
+                // b is assigned after being captured, so the pointer is shared
+                assertEquals(Pointer.class, lambda.getClass().getDeclaredField("local1").getType());
+        }
+
+        @Test
+        public void testLambdaCaptureNested() throws Exception {
+                Class<?> cls = retrieveClass("" +
+                                "class TestLambdaCaptureNested\n" +
+                                "    static\n" +
+                                "        def method\n" +
+                                "            count = 0\n" +
+                                "            step = 1\n" +
+                                "            f = ()->\n" +
+                                "                g = ()-> count = count + step\n" +
+                                "                g()\n" +
+                                "            f()\n" +
+                                "            f()\n" +
+                                "            h = ()->\n" +
+                                "                k = ()->step + 10\n" +
+                                "                k()\n" +
+                                "            return [count, h()]"
+                        , "TestLambdaCaptureNested");
+                assertEquals(Arrays.asList(2, 11), cls.getMethod("method").invoke(null));
+        }
+
+        @Test
+        public void testPrimitiveLambda() throws Exception {
+                Class<?> cls = retrieveClass("" +
+                                "class TestPrimitiveLambda\n" +
+                                "    static\n" +
+                                "        def intFunc = (x:int)->x * 2 + 1\n" +
+                                "        def longFunc = (a:long, b:long)->a - -b\n" +
+                                "        def boolFunc = (x:int)->x > 1\n" +
+                                "        def mapAndFold\n" +
+                                "            list = [1, 2, 3]\n" +
+                                "            arr = list.mapInt((x:int)->x * x)\n" +
+                                "            return list.foldInt(arr[2], (a:int, b:int)->a + b)"
+                        , "TestPrimitiveLambda");
+                IntFunction1 intFunc = (IntFunction1) cls.getMethod("intFunc").invoke(null);
+                assertEquals(7, intFunc.apply(3));
+                LongFunction2 longFunc = (LongFunction2) cls.getMethod("longFunc").invoke(null);
+                assertEquals(3L, longFunc.apply(1L, 2L));
+                // the result type is unknown, so it's the default function
+                Function1 boolFunc = (Function1) cls.getMethod("boolFunc").invoke(null);
+                assertEquals(true, boolFunc.apply(2));
+
+                assertEquals(15, cls.getMethod("mapAndFold").invoke(null));
+        }
+
+        @Test
+        public void testPrimitiveLambdaAsFunction() throws Exception {
+                Class<?> cls = retrieveClass("" +
+                                "import lt::lang::function::_\n" +
+                                "class TestPrimitiveLambdaAsFunction\n" +
+                                "    static\n" +
+                                "        def intFunc = (x:int)->x * 2 + 1\n" +
+                                "        def longFunc = (a:long, b:long)->a - -b\n" +
+                                "        def applyFunc(f:Function1) = f.apply(3)\n" +
+                                "        def invokeApplyFunc = applyFunc((x:int)->x * 10)\n" +
+                                "        def map = [1, 2, 3].map((x:int)->x + 1)"
+                        , "TestPrimitiveLambdaAsFunction");
+                // the primitive functions are also Function1/Function2, no adapter is generated
+                Object intFunc = cls.getMethod("intFunc").invoke(null);
+                assertTrue(intFunc instanceof IntFunction1);
+                assertEquals(7, ((Function1) intFunc).apply(3));
+                Object longFunc = cls.getMethod("longFunc").invoke(null);
+                assertTrue(longFunc instanceof LongFunction2);
+                assertEquals(3L, ((Function2) longFunc).apply(1L, 2L));
+
+                assertEquals(30, cls.getMethod("invokeApplyFunc").invoke(null));
+                assertEquals(Arrays.asList(2, 3, 4), cls.getMethod("map").invoke(null));
+        }
+
         @Test
         public void testLambdaSelfName() throws Exception {
                 Class<?> cls = retrieveClass("" +
@@ -3659,6 +3995,67 @@ public class TestCodeGen {
                 assertEquals(Arrays.asList(1, 2), method.invoke(null, clsB.getConstructor(Object.class, Object.class).newInstance(1, 2)));
         }
 
+        @Test
+        public void testGroupedDestructPatternMatching() throws Exception {
+                Class<?> cls = retrieveClass("" +
+                                "class TestGroupedDestructPatternMatching\n" +
+                                "    static\n" +
+                                "        def method(o) = o match\n" +
+                                "            case A(0, b) => 'zero ' + b\n" +
+                                "            case A(a:Integer, 1) if a > 5 => 'big ' + a\n" +
+                                "            case A(B(x, y), c) => 'nested ' + x + y + c\n" +
+                                "            case A(a, b) => 'other ' + a + b\n" +
+                                "            case B(a, b) => 'b ' + a + b\n" +
+                                "            case _ => 'default'\n" +
+                                "        def test = [method(A(0, 1)), method(A(7, 1)), method(A(3, 1)), method(A(B(1, 2), 3)), method(B(4, 5)), method(null)]\n" +
+                                "data class A(a,b)\n" +
+                                "data class B(a,b)"
+                        , "TestGroupedDestructPatternMatching");
+                assertEquals(Arrays.asList("zero 1", "big 7", "other 31", "nested 123", "b 45", "default"),
+                        cls.getMethod("test").invoke(null));
+
+                // the first 4 cases share one destruct
+                int destructMethods = 0;
+                for (Method m : cls.getDeclaredMethods()) {
+                        if (m.getName().contains("$destruct")) ++destructMethods;
+                }
+                assertEquals(1, destructMethods);
+        }
+
+        @Test
+        public void testUnapplyReturnsNull() throws Exception {
+                Class<?> cls = retrieveClass("" +
+                                "import java::util::_\n" +
+                                "class TestUnapplyReturnsNull\n" +
+                                "    static\n" +
+                                "        def direct(o) = o match\n" +
+                                "            case N(a) => a\n" +
+                                "            case _ => 'default'\n" +
+                                "        def reflective(o) = o match\n" +
+                                "            case M(a) => a\n" +
+                                "            case _ => 'default'\n" +
+                                "class N\n" +
+                                "    static unapply(o:N):List = null\n" +
+                                "class M\n" +
+                                "    static unapply(o:M):List = null\n" +
+                                "    static unapply(o:String):List = null"
+                        , "TestUnapplyReturnsNull");
+                Class<?> n = cls.getClassLoader().loadClass("N");
+                Class<?> m = cls.getClassLoader().loadClass("M");
+                // the unapply method is invoked directly or found at runtime, the result is checked in the same way
+                for (Object[] methodAndArg : new Object[][]{{"direct", n}, {"reflective", m}}) {
+                        Method method = cls.getMethod((String) methodAndArg[0], Object.class);
+                        assertEquals("default", method.invoke(null, 1));
+                        try {
+                                method.invoke(null, ((Class<?>) methodAndArg[1]).newInstance());
+                                fail();
+                        } catch (InvocationTargetException e) {
+                                assertTrue(e.getTargetException() instanceof LtRuntimeException);
+                                assertEquals("unapply result is not List", e.getTargetException().getMessage());
+                        }
+                }
+        }
+
         @Test
         public void testComplexPatternMatching() throws Exception {
                 Class<?> cls = retrieveClass("" +
@@ -4006,8 +4403,8 @@ public class TestCodeGen {
                         , "TestTakeOnlyUsedVariablesInInnerMethods");
                 Method method = cls.getMethod("method", int.class);
                 assertEquals("abcde5", method.invoke(null, 3));
-                // only capture two variables
-                cls.getDeclaredMethod("inner$Latte$InnerMethod$0", Pointer.class, Pointer.class, long.class);
+                // only capture two variables, b is never assigned again so it's captured as a value
+                cls.getDeclaredMethod("inner$Latte$InnerMethod$0", Pointer.class, String.class, long.class);
         }
 
         @Test
@@ -4025,8 +4422,8 @@ public class TestCodeGen {
                 Object inst = cls.newInstance();
                 Method method = cls.getMethod("method", int.class);
                 assertEquals("abcde5", method.invoke(inst, 3));
-                // only capture two variables
-                cls.getDeclaredMethod("inner$Latte$InnerMethod$0", Pointer.class, Pointer.class, long.class);
+                // only capture two variables, b is never assigned again so it's captured as a value
+                cls.getDeclaredMethod("inner$Latte$InnerMethod$0", Pointer.class, String.class, long.class);
         }
 
         @Test
@@ -4042,4 +4439,50 @@ public class TestCodeGen {
                 Method method = cls.getMethod("方法");
                 assertEquals("hello world", method.invoke(null));
         }
+
+        @Test
+        public void testImportedClassNotInitialized() throws Exception {
+                Class<?> cls = retrieveClass("" +
+                                "import lt::compiler::_\n" +
+                                "class TestImportedClassNotInitialized\n" +
+                                "    def method()=NotInitialized.value()"
+                        , "TestImportedClassNotInitialized");
+                assertNull(System.getProperty("lt.compiler.NotInitialized"));
+                Method method = cls.getMethod("method");
+                assertEquals(1, method.invoke(cls.newInstance()));
+                assertEquals("initialized", System.getProperty("lt.compiler.NotInitialized"));
+        }
+
+        @Test
+        public void testTypeMetadataCache() throws Exception {
+                java.io.File dir = java.io.File.createTempFile("latte-types", "");
+                assertTrue(dir.delete());
+                TypeMetadataCache.setDirectory(dir);
+                try {
+                        String code = "" +
+                                "class TestTypeMetadataCache\n" +
+                                "    @Deprecated\n" +
+                                "    def method()=java::util::HashMap().size()";
+                        retrieveClass(code, "TestTypeMetadataCache");
+                        TypeMetadataCache.saveAll();
+                        java.io.File[] files = dir.listFiles();
+                        assertNotNull(files);
+                        assertTrue(files.length > 0);
+
+                        // types are decoded from the cache
+                        Class<?> cls = retrieveClass(code, "TestTypeMetadataCache");
+                        Method method = cls.getMethod("method");
+                        assertEquals(0, method.invoke(cls.newInstance()));
+                        assertNotNull(method.getAnnotation(Deprecated.class));
+                } finally {
+                        TypeMetadataCache.setDirectory(null);
+                        java.io.File[] files = dir.listFiles();
+                        if (files != null) {
+                                for (java.io.File f : files) //noinspection ResultOfMethodCallIgnored
+                                        f.delete();
+                        }
+                        //noinspection ResultOfMethodCallIgnored
+                        dir.delete();
+                }
+        }
 }
@@ -4,6 +4,7 @@ import lt.compiler.functionalInterfaces.*;
 import lt.lang.Pointer;
 import lt.lang.function.Function0;
 import lt.lang.function.Function1;
+import lt.lang.function.IntFunction1;
 import lt.repl.Compiler;
 import lt.repl.scripting.CL;
 import lt.runtime.LambdaGen;
@@ -11,6 +12,8 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
 
 import static org.junit.Assert.*;
@@ -127,6 +130,23 @@ public class TestLambdaGen {
                 assertTrue(selfPointer.get() instanceof IntParamReturnInt);
         }
 
+        @Test
+        public void testPrimitiveFunction() throws Exception {
+                IntFunction1 f = new IntFunction1() {
+                        @Override
+                        public int apply(int a) throws Exception {
+                                return a * 2;
+                        }
+                };
+                Map.Entry<String, byte[]> res = LambdaGen.gen(f, IntParamReturnInt.class);
+                CL cl = new CL(Thread.currentThread().getContextClassLoader());
+                cl.addByteCodes(res.getKey(), res.getValue());
+                Class<?> resCls = cl.loadClass(res.getKey());
+                IntParamReturnInt o = (IntParamReturnInt) resCls.getConstructor(IntFunction1.class).newInstance(f);
+
+                assertEquals(44, o.x(22));
+        }
+
         @Test
         public void testNoParamReturnPrimitive() throws Exception {
                 Class<?>[] cases = new Class[]{
@@ -172,6 +192,84 @@ public class TestLambdaGen {
                 }
         }
 
+        @Test
+        public void testNoSelfField() throws Exception {
+                final Pointer<String> p = new Pointer<String>(false, false);
+                // functions created by LambdaMetafactory don't have the `self` field
+                Function0<Object> f = new Function0<Object>() {
+                        @Override
+                        public Object apply() throws Exception {
+                                try {
+                                        p.set("hello");
+                                } catch (Throwable throwable) {
+                                        throw new AssertionError(throwable);
+                                }
+                                return null;
+                        }
+                };
+                Map.Entry<String, byte[]> res = LambdaGen.gen(f, NoParamReturnUnit.class);
+                CL cl = new CL(Thread.currentThread().getContextClassLoader());
+                cl.addByteCodes(res.getKey(), res.getValue());
+                Class<?> resCls = cl.loadClass(res.getKey());
+                NoParamReturnUnit o = (NoParamReturnUnit) resCls.getConstructor(Function0.class).newInstance(f);
+                o.x();
+
+                assertEquals("hello", p.get());
+        }
+
+        @Test
+        public void testTargetIsValidatedWhenConfigured() throws Exception {
+                Map<String, Object> code = new HashMap<String, Object>();
+                code.put("target", 7);
+                Map<String, Object> config = new HashMap<String, Object>();
+                config.put("code", code);
+                try {
+                        new Compiler(Thread.currentThread().getContextClassLoader()).configure(config);
+                        fail();
+                } catch (IllegalArgumentException e) {
+                        assertEquals("config.code.target should be 6 or 8", e.getMessage());
+                }
+                code.put("target", 8);
+                assertEquals(8, new Compiler(Thread.currentThread().getContextClassLoader()).configure(config).config.code.target);
+        }
+
+        @Test
+        public void testLambdaMetafactory() throws Exception {
+                Compiler compiler = new Compiler(Thread.currentThread().getContextClassLoader());
+                compiler.config.code.target = 8;
+                ClassLoader cl = compiler.compile(new HashMap<String, String>() {{
+                        put("test", "" +
+                                "class TestLambdaMetafactory\n" +
+                                "    def method\n" +
+                                "        var v = 2\n" +
+                                "        g = (x)->x + v\n" +
+                                "        v = 3\n" +
+                                "        s:java::util::concurrent::Callable = ()->v\n" +
+                                "        selfRef = ()->$\n" +
+                                "        return [g(1), s.call(), selfRef() == selfRef]\n" +
+                                "    static\n" +
+                                "        def constant = ()->42");
+                }});
+                Class<?> cls = cl.loadClass("TestLambdaMetafactory");
+                assertEquals(Arrays.asList(4, 3, true), cls.getMethod("method").invoke(cls.newInstance()));
+
+                // non-capturing lambdas in static methods are created only once
+                Object constant = cls.getMethod("constant").invoke(null);
+                assertTrue(constant == cls.getMethod("constant").invoke(null));
+                assertEquals(42, ((Function0) constant).apply());
+
+                // only the lambda using `$` requires a class
+                int lambdaClasses = 0;
+                for (int i = 0; i < 4; ++i) {
+                        try {
+                                cl.loadClass("TestLambdaMetafactory$Latte$Lambda$" + i);
+                                ++lambdaClasses;
+                        } catch (ClassNotFoundException ignore) {
+                        }
+                }
+                assertEquals(1, lambdaClasses);
+        }
+
         private Object generatePrimitive(Class<?> param) {
                 Object inputArg;
                 if (param == int.class) {
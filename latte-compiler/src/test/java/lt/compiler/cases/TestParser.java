@@ -2778,4 +2778,49 @@ public class TestParser {
                         new AST.Procedure(Collections.<Statement>emptyList(), LineCol.SYNTHETIC)
                 ), stmts);
         }
+
+        @Test
+        public void testSplitSource() throws Exception {
+                String code = "" +
+                        "package test\n" +
+                        "@Anno\n" +
+                        "class A(a)\n" +
+                        "    method(x) = x + a\n" +
+                        "/* comment\n" +
+                        "class X */\n" +
+                        "def f(o) = [\n" +
+                        "    1, 2\n" +
+                        "]\n" +
+                        "if true\n" +
+                        "    1\n" +
+                        "else\n" +
+                        "    2\n" +
+                        "class C\n";
+                List<SourceSplitter.Chunk> chunks = SourceSplitter.split(code, 10, 1);
+                List<Integer> offsets = new ArrayList<Integer>();
+                List<Statement> joined = new ArrayList<Statement>();
+                for (SourceSplitter.Chunk chunk : chunks) {
+                        offsets.add(chunk.lineOffset);
+                        Properties properties = new Properties();
+                        properties._LINE_BASE_ = chunk.lineOffset;
+                        Parser parser = new Parser(new IndentScanner("test", new StringReader(chunk.text), properties, new ErrorManager(true)).scan(), new ErrorManager(true));
+                        joined.addAll(parser.parse());
+                        assertTrue(parser.leavesNoState());
+                }
+                assertEquals(Arrays.asList(0, 1, 6, 9, 13), offsets);
+
+                List<Statement> whole = parse(code);
+                assertEquals(whole, joined);
+                for (int i = 0; i < whole.size(); ++i) {
+                        assertEquals(whole.get(i).line_col().line, joined.get(i).line_col().line);
+                }
+
+                // variable names are carried to the following statements
+                Parser parser = new Parser(new IndentScanner("test", new StringReader("a = 1\n"), new Properties(), new ErrorManager(true)).scan(), new ErrorManager(true));
+                parser.parse();
+                assertFalse(parser.leavesNoState());
+
+                // files selecting the brace scanner are not split
+                assertEquals(1, SourceSplitter.split("/// :scanner-brace\na\nb\n", 10, 1).size());
+        }
 }
@@ -728,4 +728,23 @@ public class TestScanner {
 
                 assertEquals(root2, root);
         }
+
+        @Test
+        public void testLineSource() throws Exception {
+                String code = "class A\r\n    a = 1\n\n    b = 2";
+                ErrorManager err = new ErrorManager(true);
+                err.putLineSource("test", ErrorManager.textLineSource(code, 10));
+                Properties properties = new Properties();
+                properties._LINE_BASE_ = 10;
+                ElementStartNode root = new IndentScanner("test", new StringReader(code), properties, err).scan();
+
+                // lines are not recorded
+                assertFalse(err.lineRecord.containsKey("test"));
+                assertEquals("\n    b = 2\n    ^ ", err.buildErrInfo("test", 14, 5));
+                assertEquals("\nclass A\n ^ ", err.buildErrInfo("test", 11, 2));
+                assertEquals("", err.buildErrInfo("test", 15, 1));
+
+                // no define replacement
+                assertTrue(root.getLinkedNode().getLineCol().useDefine().isEmpty());
+        }
 }
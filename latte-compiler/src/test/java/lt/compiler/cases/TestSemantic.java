@@ -2273,7 +2273,8 @@ public class TestSemantic {
                 assertEquals("inner$Latte$InnerMethod$0", innerMethod.name());
 
                 assertEquals(1, innerMethod.getParameters().size());
-                assertTrue(innerMethod.getParameters().get(0).type().fullName().equals("lt.lang.Pointer"));
+                // i is never assigned again, so the value is captured
+                assertEquals(IntTypeDef.get(), innerMethod.getParameters().get(0).type());
                 assertEquals("i", innerMethod.getParameters().get(0).name());
         }
 
@@ -2354,7 +2355,8 @@ public class TestSemantic {
                 assertTrue(v instanceof Ins.New);
                 Ins.New aNew = (Ins.New) v;
                 assertEquals("test.A$Latte$Lambda$0", aNew.constructor().declaringType().fullName());
-                assertEquals(2, aNew.args().size());
+                // this (nothing is captured)
+                assertEquals(1, aNew.args().size());
         }
 
         @Test
@@ -2380,7 +2382,8 @@ public class TestSemantic {
                 assertTrue(v instanceof Ins.New);
                 Ins.New aNew = (Ins.New) v;
                 assertEquals("test.A$Latte$Lambda$0", aNew.constructor().declaringType().fullName());
-                assertEquals(2, aNew.args().size());
+                // this (nothing is captured)
+                assertEquals(1, aNew.args().size());
         }
 
         @Test
@@ -2420,19 +2423,20 @@ public class TestSemantic {
                 Value v = ((Ins.PutField) i1).value();
                 assertTrue(v instanceof Ins.New);
                 Ins.New aNew = (Ins.New) v;
-                assertEquals(2, aNew.args().size());
+                // this (nothing is captured)
+                assertEquals(1, aNew.args().size());
 
                 // lambda
                 assert lambda != null;
                 assertEquals("o", lambda.fields().get(0).name());
-                assertEquals("local", lambda.fields().get(1).name());
+                assertEquals("self", lambda.fields().get(1).name());
+                assertEquals(2, lambda.fields().size());
 
+                assertEquals(3, lambda.constructors().get(0).statements().size());
                 i1 = lambda.constructors().get(0).statements().get(1); // put field
                 Instruction i2 = lambda.constructors().get(0).statements().get(2); // put field
-                Instruction i3 = lambda.constructors().get(0).statements().get(3); // put field
                 assertTrue(i1 instanceof Ins.PutField);
                 assertTrue(i2 instanceof Ins.PutField);
-                assertTrue(i3 instanceof Ins.PutField);
 
                 assertEquals("apply", lambda.methods().get(0).name());
                 assertEquals(1, lambda.methods().get(0).getParameters().size());
@@ -2891,10 +2895,69 @@ public class TestSemantic {
                 ValuePack vp = (ValuePack) ret.value();
                 Ins.InvokeVirtual iv = (Ins.InvokeVirtual) vp.instructions().get(1);
                 Ins.New iNew = (Ins.New) iv.arguments().get(0);
-                assertEquals(2, iNew.args().size());
-                Ins.NewMap newMap = (Ins.NewMap) iNew.args().get(1);
-
+                // this, x
                 // only capture one argument
-                assertEquals(1, newMap.initValues().size());
-        }
-}
\ No newline at end of file
+                assertEquals(2, iNew.args().size());
+                // x is never assigned again, so the value is captured instead of the pointer
+                assertEquals("java.lang.Object", iNew.args().get(1).type().fullName());
+                assertEquals(2, iNew.constructor().getParameters().size());
+        }
+
+        @Test
+        public void testPackageIndex() throws Exception {
+                PackageIndex index = PackageIndex.jre();
+                assertNotNull(index);
+                assertTrue(index.contains("java.util"));
+                assertTrue(index.contains("java.util.concurrent"));
+                // parent packages
+                assertTrue(index.contains("java"));
+                assertFalse(index.contains("java.ut"));
+                assertFalse(index.contains("java.util.ArrayList"));
+        }
+
+        @Test
+        public void testImportedMembersAreLazy() throws Exception {
+                SemanticProcessor processor = new SemanticProcessor(
+                        new HashMap<String, List<Statement>>(), Thread.currentThread().getContextClassLoader(), new ErrorManager(true));
+                SClassDef hashMap = (SClassDef) processor.getTypeWithName("java.util.HashMap", LineCol.SYNTHETIC);
+                assertNotNull(hashMap.memberLoader());
+                // parent chain is built
+                assertEquals("java.util.AbstractMap", hashMap.parent().fullName());
+                assertNotNull(hashMap.parent().memberLoader());
+
+                assertFalse(hashMap.methods().isEmpty());
+                assertNull(hashMap.memberLoader());
+                assertFalse(hashMap.constructors().isEmpty());
+                assertNotNull(hashMap.parent().memberLoader());
+        }
+
+        @Test
+        public void testMethodIndex() throws Exception {
+                SemanticProcessor processor = new SemanticProcessor(
+                        new HashMap<String, List<Statement>>(), Thread.currentThread().getContextClassLoader(), new ErrorManager(true));
+                SClassDef integer = (SClassDef) processor.getTypeWithName("java.lang.Integer", LineCol.SYNTHETIC);
+                assertFalse(integer.methods("valueOf", true).isEmpty());
+                assertTrue(integer.methods("valueOf", false).isEmpty());
+                assertFalse(integer.methods("intValue", false).isEmpty());
+                assertTrue(integer.hierarchyHasMethod("hashCode"));
+                assertFalse(integer.hierarchyHasMethod("noSuchMethod"));
+
+                // the index follows modifications
+                SMethodDef m = new SMethodDef(LineCol.SYNTHETIC);
+                m.setName("noSuchMethod");
+                m.setDeclaringType(integer.parent());
+                integer.parent().methods().add(m);
+                assertEquals(1, integer.parent().methods("noSuchMethod", null).size());
+                assertTrue(integer.hierarchyHasMethod("noSuchMethod"));
+
+                // the view follows changes of super types
+                assertFalse(integer.hierarchyHasMethod("anotherMethod"));
+                SInterfaceDef i = new SInterfaceDef(LineCol.SYNTHETIC);
+                SMethodDef another = new SMethodDef(LineCol.SYNTHETIC);
+                another.setName("anotherMethod");
+                another.setDeclaringType(i);
+                i.methods().add(another);
+                integer.superInterfaces().add(i);
+                assertTrue(integer.hierarchyHasMethod("anotherMethod"));
+        }
+}
@@ -0,0 +1,171 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 KuiGang Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+
+package lt.repl;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * type cache used by the compiler daemon
+ */
+public class TestCompilerDaemon {
+        private static Object compileAndInvoke(TypeCache cache, String className, String code) throws Exception {
+                Compiler compiler = new Compiler(Thread.currentThread().getContextClassLoader());
+                compiler.typeCache = cache;
+                Map<String, String> sources = new HashMap<String, String>();
+                sources.put("test.lt", code);
+                ClassLoader cl = compiler.compile(sources);
+                Class<?> cls = cl.loadClass(className);
+                return cls.getMethod("f").invoke(cls.newInstance());
+        }
+
+        @Test
+        public void testTypesAreReused() throws Exception {
+                TypeCache cache = new TypeCache(Thread.currentThread().getContextClassLoader(), Collections.<URL>emptyList());
+                assertEquals(Collections.singletonList("a"), compileAndInvoke(cache, "A", "" +
+                        "class A\n" +
+                        "    def f()=java::util::Collections.singletonList(\"a\")"));
+                int size = cache.size();
+                assertTrue(size > 0);
+
+                assertEquals(3, compileAndInvoke(cache, "B", "" +
+                        "class B:java::util::ArrayList\n" +
+                        "    def f()\n" +
+                        "        add(1)\n" +
+                        "        return 3"));
+                assertTrue(cache.size() >= size);
+                // types compiled from source are not cached
+                assertEquals(4, compileAndInvoke(cache, "B", "" +
+                        "class B\n" +
+                        "    def f()=4"));
+        }
+
+        @Test
+        public void testKeyChangesWithClassPath() throws Exception {
+                File dir = File.createTempFile("latte-daemon", "");
+                assertTrue(dir.delete());
+                assertTrue(dir.mkdirs());
+                try {
+                        File jar = new File(dir, "x.jar");
+                        FileWriter fw = new FileWriter(jar);
+                        fw.write("x");
+                        fw.close();
+                        List<URL> classpath = Arrays.asList(dir.toURI().toURL(), jar.toURI().toURL());
+                        String key = TypeCache.keyOf(classpath);
+                        assertEquals(key, TypeCache.keyOf(classpath));
+
+                        // directories are not walked
+                        fw = new FileWriter(new File(dir, "X.class"));
+                        fw.write("x");
+                        fw.close();
+                        assertEquals(key, TypeCache.keyOf(classpath));
+
+                        fw = new FileWriter(jar);
+                        fw.write("xy");
+                        fw.close();
+                        assertNotEquals(key, TypeCache.keyOf(classpath));
+                } finally {
+                        File[] files = dir.listFiles();
+                        if (files != null) {
+                                for (File f : files) //noinspection ResultOfMethodCallIgnored
+                                        f.delete();
+                        }
+                        //noinspection ResultOfMethodCallIgnored
+                        dir.delete();
+                }
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+                int length = in.readInt();
+                if (length == -1) return null;
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                return new String(bytes, "UTF-8");
+        }
+
+        private static byte[] request(String buildId, String secret, byte[] rest) throws IOException {
+                ByteArrayOutputStream request = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(request);
+                byte[] buildIdBytes = buildId.getBytes("UTF-8");
+                out.writeInt(buildIdBytes.length);
+                out.write(buildIdBytes);
+                byte[] secretBytes = secret.getBytes("UTF-8");
+                out.writeInt(secretBytes.length);
+                out.write(secretBytes);
+                out.write(rest);
+                out.flush();
+                return request.toByteArray();
+        }
+
+        @Test
+        public void testSecretIsCheckedFirst() throws Exception {
+                CompilerDaemon daemon = new CompilerDaemon(0);
+                try {
+                        // a request with a wrong secret is rejected before anything else is read
+                        byte[] serialized = {(byte) 0xac, (byte) 0xed, 0, 5};
+                        ByteArrayInputStream in = new ByteArrayInputStream(request(CompilerDaemon.BUILD_ID, "wrong", serialized));
+                        ByteArrayOutputStream out = new ByteArrayOutputStream();
+                        daemon.handle(in, out);
+
+                        DataInputStream response = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+                        assertEquals("", readString(response));
+                        assertEquals(SecurityException.class.getName(), readString(response));
+                        assertEquals("invalid secret", readString(response));
+
+                        // a valid secret with an unknown command
+                        ByteArrayOutputStream command = new ByteArrayOutputStream();
+                        DataOutputStream commandOut = new DataOutputStream(command);
+                        commandOut.writeInt(3);
+                        commandOut.write("xyz".getBytes("UTF-8"));
+                        out = new ByteArrayOutputStream();
+                        daemon.handle(new ByteArrayInputStream(request(CompilerDaemon.BUILD_ID, daemon.secret, command.toByteArray())), out);
+                        response = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+                        assertEquals("", readString(response));
+                        assertEquals(IllegalArgumentException.class.getName(), readString(response));
+                        assertEquals("unknown command xyz", readString(response));
+
+                        // a client built from another compiler is rejected before the secret is read
+                        out = new ByteArrayOutputStream();
+                        daemon.handle(new ByteArrayInputStream(request("0:other", daemon.secret, command.toByteArray())), out);
+                        response = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+                        assertEquals("", readString(response));
+                        assertEquals(CompilerDaemon.BuildMismatchException.class.getName(), readString(response));
+                        assertEquals(CompilerDaemon.BUILD_ID, readString(response));
+                } finally {
+                        daemon.stop();
+                }
+        }
+}
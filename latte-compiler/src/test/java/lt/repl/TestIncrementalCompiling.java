@@ -0,0 +1,233 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 KuiGang Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package lt.repl;
+
+import lt.compiler.CompilerMetrics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * incremental compiling
+ */
+public class TestIncrementalCompiling {
+        private File outputDir;
+        private Map<String, String> sources;
+
+        @Before
+        public void setUp() throws Exception {
+                outputDir = File.createTempFile("latte-incremental", "");
+                assertTrue(outputDir.delete());
+                assertTrue(outputDir.mkdirs());
+                sources = new HashMap<String, String>();
+                sources.put("A.lt", "" +
+                        "package lib\n" +
+                        "class A\n" +
+                        "    def f(x:int)=x+1");
+                sources.put("B.lt", "" +
+                        "package lib\n" +
+                        "class B\n" +
+                        "    def g()=A().f(1)");
+                sources.put("C.lt", "" +
+                        "package other\n" +
+                        "class C\n" +
+                        "    static\n" +
+                        "        def c()=3");
+        }
+
+        @After
+        public void tearDown() throws Exception {
+                delete(outputDir);
+                delete(IncrementalCache.cacheDirOf(outputDir));
+        }
+
+        private static void delete(File f) {
+                File[] files = f.listFiles();
+                if (files != null) {
+                        for (File sub : files) delete(sub);
+                }
+                //noinspection ResultOfMethodCallIgnored
+                f.delete();
+        }
+
+        private ClassLoader compile() throws Exception {
+                Compiler compiler = new Compiler(Thread.currentThread().getContextClassLoader());
+                compiler.config.result.outputDir = outputDir;
+                compiler.config.result.incremental = true;
+                return compiler.compile(sources);
+        }
+
+        private File classFile(String className) {
+                return IncrementalCache.classFile(outputDir, className);
+        }
+
+        private static Object invoke(ClassLoader cl, String className, String method) throws Exception {
+                Class<?> cls = cl.loadClass(className);
+                return cls.getMethod(method).invoke(cls.newInstance());
+        }
+
+        @Test
+        public void testUnchangedFilesAreReused() throws Exception {
+                compile();
+                assertTrue(classFile("other.C").setLastModified(1000000));
+                assertTrue(classFile("lib.B").setLastModified(1000000));
+
+                sources.put("A.lt", "" +
+                        "package lib\n" +
+                        "class A\n" +
+                        "    def f(x:int)=x+2");
+                ClassLoader cl = compile();
+
+                assertEquals(1000000, classFile("other.C").lastModified());
+                assertEquals(1000000, classFile("lib.B").lastModified());
+                assertEquals(3, invoke(cl, "lib.B", "g"));
+                assertEquals(3, invoke(cl, "other.C", "c"));
+        }
+
+        @Test
+        public void testSignatureChangeRecompilesDependents() throws Exception {
+                compile();
+                assertTrue(classFile("other.C").setLastModified(1000000));
+                assertTrue(classFile("lib.B").setLastModified(1000000));
+
+                sources.put("A.lt", "" +
+                        "package lib\n" +
+                        "class A\n" +
+                        "    def f(x:long)=x+10");
+                ClassLoader cl = compile();
+
+                assertEquals(1000000, classFile("other.C").lastModified());
+                assertNotEquals(1000000, classFile("lib.B").lastModified());
+                assertEquals(11L, invoke(cl, "lib.B", "g"));
+        }
+
+        @Test
+        public void testRemovedFileDeletesClasses() throws Exception {
+                compile();
+                assertTrue(classFile("other.C").exists());
+
+                sources.remove("C.lt");
+                ClassLoader cl = compile();
+
+                assertFalse(classFile("other.C").exists());
+                assertEquals(2, invoke(cl, "lib.B", "g"));
+        }
+
+        @Test
+        public void testReusedPackageIsImported() throws Exception {
+                sources.put("C.lt", "" +
+                        "package other\n" +
+                        "import lib._\n" +
+                        "class C\n" +
+                        "    def c()=A().f(2)");
+                compile();
+                assertTrue(classFile("lib.A").setLastModified(1000000));
+
+                sources.put("C.lt", "" +
+                        "package other\n" +
+                        "import lib._\n" +
+                        "class C\n" +
+                        "    def c()=A().f(3)");
+                ClassLoader cl = compile();
+
+                assertEquals(1000000, classFile("lib.A").lastModified());
+                assertEquals(4, invoke(cl, "other.C", "c"));
+                assertNotNull(cl.getResource("lib/A.class"));
+        }
+
+        @Test
+        public void testLowMemory() throws Exception {
+                Compiler compiler = new Compiler(Thread.currentThread().getContextClassLoader());
+                compiler.config.result.outputDir = outputDir;
+                compiler.config.result.pkg = "low";
+                compiler.config.lowMemory = true;
+                ClassLoader cl = compiler.compile(sources);
+
+                assertTrue(classFile("lib.A").isFile());
+                assertTrue(classFile("other.C").isFile());
+                assertEquals(2, invoke(cl, "lib.B", "g"));
+
+                java.util.zip.ZipFile jar = new java.util.zip.ZipFile(new File(outputDir, "low.jar"));
+                try {
+                        assertNotNull(jar.getEntry("lib/A.class"));
+                        assertNotNull(jar.getEntry("lib/B.class"));
+                        assertNotNull(jar.getEntry("other/C.class"));
+                } finally {
+                        jar.close();
+                }
+        }
+
+        @Test
+        public void testSameClassFilesAreNotRewritten() throws Exception {
+                Compiler compiler = new Compiler(Thread.currentThread().getContextClassLoader());
+                compiler.config.result.outputDir = outputDir;
+                compiler.compile(sources);
+                assertTrue(classFile("lib.A").setLastModified(1000000));
+                assertTrue(classFile("lib.B").setLastModified(1000000));
+
+                sources.put("A.lt", "" +
+                        "package lib\n" +
+                        "class A\n" +
+                        "    def f(x:int)=x+2");
+                compiler = new Compiler(Thread.currentThread().getContextClassLoader());
+                compiler.config.result.outputDir = outputDir;
+                compiler.compile(sources);
+
+                assertNotEquals(1000000, classFile("lib.A").lastModified());
+                assertEquals(1000000, classFile("lib.B").lastModified());
+        }
+
+        @Test
+        public void testMetrics() throws Exception {
+                sources.put("D.lt", "" +
+                        "package other\n" +
+                        "class D\n" +
+                        "    def h(o)=o.f(1)");
+                Compiler compiler = new Compiler(Thread.currentThread().getContextClassLoader());
+                compiler.config.result.outputDir = outputDir;
+                compiler.config.metrics = new CompilerMetrics();
+                compiler.config.metricsReport = new File(outputDir, "metrics.json");
+                compiler.compile(sources);
+
+                CompilerMetrics metrics = compiler.config.metrics;
+                assertEquals(4, metrics.phase("scan").times);
+                assertEquals(4, metrics.phase("parse").times);
+                assertEquals(1, metrics.phase("semantic.step4").times);
+                assertEquals(4, metrics.count("files"));
+                assertTrue(metrics.count("classes") >= 4);
+                assertTrue(metrics.count("dynamicCallSites") >= 1);
+                assertTrue(metrics.count("staticCallSites") >= 1);
+                assertTrue(metrics.file("A.lt").containsKey("codeGen"));
+                assertTrue(metrics.file("A.lt").containsKey("write"));
+                assertTrue(compiler.config.metricsReport.isFile());
+        }
+}
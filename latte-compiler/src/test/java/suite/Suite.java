@@ -62,7 +62,9 @@ import org.junit.runner.RunWith;
         TestDefineAnnotations.class,
         TestJsr223.class,
         TestDotPackage.class,
-        TestLambdaGen.class
+        TestLambdaGen.class,
+        TestIncrementalCompiling.class,
+        TestCompilerDaemon.class
 })
 public class Suite extends TestSuite {
 }
@@ -27,6 +27,7 @@ package org.lattelang
 import lt.compiler.SyntaxException
 import lt.util.Utils
 import lt.repl.Compiler
+import lt.repl.CompilerDaemon
 import org.gradle.api.Action
 import org.gradle.api.Plugin
 import org.gradle.api.Project
@@ -78,18 +79,21 @@ class LatteGradlePlugin implements Plugin<Project> {
         }
     }
 
-    private static void doCompile(Logger logger, ClassLoader cl, File[] sourceDirs, File outputDir, boolean fastFail) {
+    private static void doCompile(Logger logger, Collection<URL> compileURLs, File[] sourceDirs, File outputDir, boolean fastFail) {
         Map<String, File> fileMap = new HashMap<>()
         for (File dir : sourceDirs) {
             fileMap.putAll(Utils.filesInDirectory(dir, '.*\\.(lt|latte)', true))
         }
-        Compiler compiler = new Compiler(cl)
-        compiler.config.fastFail = fastFail
-        compiler.config.result.outputDir = outputDir
 
         logger.println("Compiling latte source files from " + Arrays.toString(sourceDirs) + " to [" + outputDir.absolutePath + "]")
         try {
-            compiler.compile(fileMap)
+            // use the compiler daemon if it's running
+            if (!CompilerDaemon.compile(fileMap, new ArrayList<URL>(compileURLs), outputDir, fastFail)) {
+                Compiler compiler = new Compiler(LoaderUtil.loadClassesIn(compileURLs))
+                compiler.config.fastFail = fastFail
+                compiler.config.result.outputDir = outputDir
+                compiler.compile(fileMap)
+            }
         } catch (SyntaxException e) {
             logger.error("Compilation failed!")
             throw e
@@ -118,8 +122,7 @@ class LatteGradlePlugin implements Plugin<Project> {
                 compileURLs.add(testOutputDir.toURI().toURL())
             }
             compileURLs.add(mainOutputDir.toURI().toURL())
-            ClassLoader classpath = LoaderUtil.loadClassesIn(compileURLs)
-            doCompile(project.logger, classpath, sourceDirs, theOutputDir, fastFail)
+            doCompile(project.logger, compileURLs, sourceDirs, theOutputDir, fastFail)
         }
     }
 